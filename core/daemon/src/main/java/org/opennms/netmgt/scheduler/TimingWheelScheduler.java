@@ -0,0 +1,646 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * <p>A {@link Scheduler} implementation built on a hierarchical timing wheel.</p>
+ *
+ * <p>Unlike the {@link LegacyScheduler}, which repeatedly polls the head of
+ * every interval queue, this scheduler files each runnable into the bucket of
+ * the tick on which it becomes due. The worker thread sleeps until the next
+ * tick, expires the entries of a single bucket and cascades entries from the
+ * coarser wheels as time advances. Inserting and cancelling are O(1) and the
+ * worker blocks completely while nothing is scheduled.</p>
+ *
+ * <p>Callers hand entries to the worker through lock-free queues, so only the
+ * worker thread ever touches the wheel itself.</p>
+ *
+ * <p>When a runnable becomes due but {@link ReadyRunnable#isReady()} returns
+ * false it is re-filed for the next tick, which mirrors the way the legacy
+ * scheduler keeps checking the head of its queues.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default duration of a single tick of the finest wheel.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    private static final int WHEEL_BITS = 9;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * Four wheels of 512 buckets cover 512^4 ticks, which is more than 200
+     * years with the default tick duration.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * A scheduled runnable. The links are only ever touched by the worker thread.
+     */
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private final long m_deadline;
+        private volatile boolean m_cancelled = false;
+        private Bucket m_bucket;
+        private Entry m_prev;
+        private Entry m_next;
+
+        private Entry(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+    }
+
+    /**
+     * A doubly linked list of entries that allows O(1) removal.
+     */
+    private static final class Bucket {
+        private Entry m_head;
+        private Entry m_tail;
+
+        private void add(final Entry entry) {
+            entry.m_bucket = this;
+            entry.m_prev = m_tail;
+            entry.m_next = null;
+            if (m_tail == null) {
+                m_head = entry;
+            } else {
+                m_tail.m_next = entry;
+            }
+            m_tail = entry;
+        }
+
+        private void remove(final Entry entry) {
+            if (entry.m_prev == null) {
+                m_head = entry.m_next;
+            } else {
+                entry.m_prev.m_next = entry.m_next;
+            }
+            if (entry.m_next == null) {
+                m_tail = entry.m_prev;
+            } else {
+                entry.m_next.m_prev = entry.m_prev;
+            }
+            entry.m_bucket = null;
+            entry.m_prev = null;
+            entry.m_next = null;
+        }
+
+        private Entry clear() {
+            final Entry head = m_head;
+            m_head = null;
+            m_tail = null;
+            return head;
+        }
+    }
+
+    private final Bucket[][] m_wheels = new Bucket[LEVELS][WHEEL_SIZE];
+
+    private final long m_tickMillis;
+
+    private final long m_startTime;
+
+    /**
+     * The next tick to be expired. Only accessed by the worker thread.
+     */
+    private long m_tick;
+
+    /**
+     * Entries that have been scheduled but not yet filed into the wheel.
+     */
+    private final Queue<Entry> m_pendingInserts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Entries that have been cancelled but may still be linked into the wheel.
+     */
+    private final Queue<Entry> m_pendingCancels = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The most recent entry for every runnable, used to support {@link #cancel(ReadyRunnable)}.
+     */
+    private final Map<ReadyRunnable, Entry> m_entries = new ConcurrentHashMap<>();
+
+    /**
+     * Jitter factors that apply to specific intervals, see {@link #setIntervalJitter(long, double)}.
+     */
+    private final Map<Long, Double> m_intervalJitter = new ConcurrentHashMap<>();
+
+    private volatile double m_defaultJitter = 0.0;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final ExecutorService m_runner;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final AtomicLong m_numLateTasks = new AtomicLong(0);
+
+    private final AtomicLong m_totalLatenessMillis = new AtomicLong(0);
+
+    private final AtomicLong m_maxLatenessMillis = new AtomicLong(0);
+
+    private volatile long m_ticksBehind = 0;
+
+    /**
+     * Constructs a new instance of the scheduler using the default tick duration.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The resolution of the finest wheel, in milliseconds.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis) {
+        Assert.isTrue(tickMillis > 0, "The tick duration must be positive");
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickMillis = tickMillis;
+        m_startTime = getCurrentTime();
+        m_tick = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                m_wheels[level][slot] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * Sets the jitter factor applied to every interval that has no specific
+     * factor configured. A factor of 0.1 moves each deadline by up to 5% of
+     * the interval in either direction, which spreads out runnables that
+     * were all scheduled at the same time without changing their mean period.
+     *
+     * @param jitter a factor between 0 and 1
+     */
+    public void setDefaultJitter(final double jitter) {
+        Assert.isTrue(jitter >= 0.0 && jitter <= 1.0, "The jitter factor must be between 0 and 1");
+        m_defaultJitter = jitter;
+    }
+
+    /**
+     * Sets the jitter factor for runnables scheduled with the given interval.
+     *
+     * @param interval the interval in milliseconds
+     * @param jitter a factor between 0 and 1
+     */
+    public void setIntervalJitter(final long interval, final double jitter) {
+        Assert.isTrue(jitter >= 0.0 && jitter <= 1.0, "The jitter factor must be between 0 and 1");
+        m_intervalJitter.put(interval, jitter);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        final Entry entry = new Entry(runnable, getCurrentTime() + applyJitter(interval));
+        m_entries.put(runnable, entry);
+        m_pendingInserts.add(entry);
+        if (m_scheduled.getAndIncrement() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Cancels the most recently scheduled execution of the given runnable.
+     *
+     * @param runnable the runnable to cancel
+     * @return true if a pending execution was cancelled
+     */
+    public boolean cancel(final ReadyRunnable runnable) {
+        final Entry entry = m_entries.remove(runnable);
+        if (entry == null || entry.m_cancelled) {
+            return false;
+        }
+        entry.m_cancelled = true;
+        m_pendingCancels.add(entry);
+        return true;
+    }
+
+    private long applyJitter(final long interval) {
+        final Double specific = m_intervalJitter.get(interval);
+        final double jitter = specific != null ? specific : m_defaultJitter;
+        final long spread = (long)(interval * jitter);
+        if (spread <= 0) {
+            return interval;
+        }
+        return Math.max(0, interval - spread / 2 + ThreadLocalRandom.current().nextLong(spread + 1));
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of runnables waiting in the wheel
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the number of runnables that are due but are still waiting for
+     * a thread in the pool.
+     *
+     * @return the size of the runner's queue
+     */
+    public long getBacklog() {
+        if (m_runner instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) m_runner).getQueue().size();
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the number of ticks the worker thread lagged behind the wall
+     * clock when it last expired a bucket.
+     *
+     * @return the number of ticks
+     */
+    public long getTicksBehind() {
+        return m_ticksBehind;
+    }
+
+    /**
+     * Returns the number of runnables that started at least one tick after their deadline.
+     *
+     * @return the number of late runnables
+     */
+    public long getNumLateTasks() {
+        return m_numLateTasks.get();
+    }
+
+    /**
+     * Returns the largest delay between a deadline and the start of its runnable.
+     *
+     * @return the lateness in milliseconds
+     */
+    public long getMaxLatenessMillis() {
+        return m_maxLatenessMillis.get();
+    }
+
+    /**
+     * Returns the average delay between a deadline and the start of its runnable.
+     *
+     * @return the lateness in milliseconds
+     */
+    public double getAverageLatenessMillis() {
+        final long executed = m_numTasksExecuted.get();
+        return executed > 0 ? m_totalLatenessMillis.get() / (double) executed : 0.0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * The main method of the scheduler. The worker sleeps until the next tick
+     * is due, files newly scheduled runnables into the wheel and hands every
+     * runnable in the expired bucket to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+
+                    if (m_scheduled.get() == 0) {
+                        LOG.debug("run: no ready runnables scheduled, waiting...");
+                        wait();
+                        // Nothing was in the wheel while we were waiting, so skip the elapsed ticks
+                        m_tick = Math.max(m_tick, currentTick());
+                        continue;
+                    }
+
+                    final long sleep = m_startTime + m_tick * m_tickMillis - getCurrentTime();
+                    if (sleep > 0) {
+                        wait(sleep);
+                        continue;
+                    }
+                }
+
+                processCancels();
+                processInserts();
+                expireTick();
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private long currentTick() {
+        return (getCurrentTime() - m_startTime) / m_tickMillis;
+    }
+
+    private void processCancels() {
+        Entry entry;
+        while ((entry = m_pendingCancels.poll()) != null) {
+            if (entry.m_bucket != null) {
+                entry.m_bucket.remove(entry);
+                m_scheduled.decrementAndGet();
+            }
+        }
+    }
+
+    private void processInserts() {
+        Entry entry;
+        while ((entry = m_pendingInserts.poll()) != null) {
+            if (entry.m_cancelled) {
+                m_scheduled.decrementAndGet();
+                continue;
+            }
+            file(entry, deadlineTick(entry.m_deadline));
+        }
+    }
+
+    private long deadlineTick(final long deadline) {
+        // Round up so that a runnable never runs before its deadline
+        final long tick = (deadline - m_startTime + m_tickMillis - 1) / m_tickMillis;
+        return Math.max(tick, m_tick);
+    }
+
+    /**
+     * Files the entry into the finest wheel whose current revolution still
+     * contains the given tick.
+     */
+    private void file(final Entry entry, final long tick) {
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = level * WHEEL_BITS;
+            if ((tick >>> shift) - (m_tick >>> shift) < WHEEL_SIZE) {
+                m_wheels[level][(int)((tick >>> shift) & WHEEL_MASK)].add(entry);
+                return;
+            }
+        }
+        // Beyond the range of the coarsest wheel, park it in the last bucket of the current revolution
+        final int shift = (LEVELS - 1) * WHEEL_BITS;
+        m_wheels[LEVELS - 1][(int)(((m_tick >>> shift) + WHEEL_SIZE - 1) & WHEEL_MASK)].add(entry);
+    }
+
+    private void expireTick() {
+        m_ticksBehind = Math.max(0, currentTick() - m_tick);
+
+        // Move entries from the coarser wheels down when we reach the start of their revolution
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = level * WHEEL_BITS;
+            if ((m_tick & ((1L << shift) - 1)) == 0) {
+                Entry entry = m_wheels[level][(int)((m_tick >>> shift) & WHEEL_MASK)].clear();
+                while (entry != null) {
+                    final Entry next = entry.m_next;
+                    entry.m_prev = null;
+                    entry.m_next = null;
+                    if (entry.m_cancelled) {
+                        dropCancelled(entry);
+                    } else {
+                        file(entry, deadlineTick(entry.m_deadline));
+                    }
+                    entry = next;
+                }
+            }
+        }
+
+        Entry entry = m_wheels[0][(int)(m_tick & WHEEL_MASK)].clear();
+        m_tick++;
+
+        while (entry != null) {
+            final Entry next = entry.m_next;
+            entry.m_bucket = null;
+            entry.m_prev = null;
+            entry.m_next = null;
+            if (entry.m_cancelled) {
+                // Cancelled after the last pass of processCancels()
+                dropCancelled(entry);
+            } else if (entry.m_runnable.isReady()) {
+                m_scheduled.decrementAndGet();
+                m_entries.remove(entry.m_runnable, entry);
+                LOG.debug("run: found ready runnable {}", entry.m_runnable);
+                execute(entry);
+            } else {
+                // Check again on the next tick
+                file(entry, m_tick);
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * Drops a cancelled entry that was taken out of its bucket before {@link #processCancels()}
+     * got to it. Clearing the bucket keeps processCancels() from counting it twice.
+     */
+    private void dropCancelled(final Entry entry) {
+        entry.m_bucket = null;
+        m_scheduled.decrementAndGet();
+    }
+
+    private void execute(final Entry entry) {
+        m_runner.execute(() -> {
+            final long lateness = Math.max(0, getCurrentTime() - entry.m_deadline);
+            if (lateness >= m_tickMillis) {
+                m_numLateTasks.incrementAndGet();
+            }
+            m_totalLatenessMillis.addAndGet(lateness);
+            m_maxLatenessMillis.accumulateAndGet(lateness, Math::max);
+            m_numTasksExecuted.incrementAndGet();
+            entry.m_runnable.run();
+        });
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 2, 10);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void canRunInOrder() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final StringBuffer order = new StringBuffer();
+
+        m_scheduler.schedule(300, new Task(() -> { order.append('c'); latch.countDown(); }));
+        m_scheduler.schedule(100, new Task(() -> { order.append('a'); latch.countDown(); }));
+        m_scheduler.schedule(200, new Task(() -> { order.append('b'); latch.countDown(); }));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("abc", order.toString());
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test(timeout = 10000)
+    public void canCascadeFromCoarserWheels() throws InterruptedException {
+        // 512 ticks of 10ms fit in the finest wheel, so this one needs to be cascaded
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+
+        m_scheduler.schedule(6000, new Task(latch::countDown));
+
+        assertTrue(latch.await(9, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 6000);
+    }
+
+    @Test(timeout = 10000)
+    public void canCancel() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Task cancelled = new Task(runs::incrementAndGet);
+
+        m_scheduler.schedule(100, cancelled);
+        m_scheduler.schedule(200, new Task(latch::countDown));
+        assertTrue(m_scheduler.cancel(cancelled));
+        assertFalse(m_scheduler.cancel(cancelled));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test(timeout = 10000)
+    public void skipsEntriesCancelledWhileTheirTickExpires() throws InterruptedException {
+        // Long ticks, so that both runnables end up in the same bucket
+        final TimingWheelScheduler scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest-cancel", 2, 500);
+        scheduler.start();
+        try {
+            final AtomicInteger runs = new AtomicInteger(0);
+            final CountDownLatch latch = new CountDownLatch(1);
+            final ReadyRunnable[] runnables = new ReadyRunnable[2];
+            for (int i = 0; i < runnables.length; i++) {
+                final int other = 1 - i;
+                runnables[i] = new ReadyRunnable() {
+                    @Override
+                    public boolean isReady() {
+                        // Whichever is checked first cancels the other one, after processCancels() ran
+                        scheduler.cancel(runnables[other]);
+                        return true;
+                    }
+
+                    @Override
+                    public void run() {
+                        runs.incrementAndGet();
+                        latch.countDown();
+                    }
+                };
+            }
+            scheduler.schedule(600, runnables[0]);
+            scheduler.schedule(600, runnables[1]);
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(1000);
+            assertEquals(1, runs.get());
+            assertEquals(0, scheduler.getScheduled());
+        } finally {
+            scheduler.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void waitsUntilReady() throws InterruptedException {
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return ready.get();
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        ready.set(true);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void canSpreadWithJitter() throws InterruptedException {
+        // A factor of 1 moves the deadlines anywhere between 250ms and 750ms
+        m_scheduler.setIntervalJitter(500, 1.0);
+        final CountDownLatch latch = new CountDownLatch(20);
+        final Queue<Long> delays = new ConcurrentLinkedQueue<>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            m_scheduler.schedule(500, new Task(() -> {
+                delays.add(System.currentTimeMillis() - start);
+                latch.countDown();
+            }));
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // The runnables never run before their deadline, and allow for some slack on busy hosts after it
+        for (final long delay : delays) {
+            assertTrue("Ran after " + delay + "ms", delay >= 250);
+            assertTrue("Ran after " + delay + "ms", delay <= 750 + 10 + 250);
+        }
+        // The deadlines are spread across several ticks instead of all expiring together
+        final long ticks = delays.stream().map(delay -> delay / 10).distinct().count();
+        assertTrue("Ran in " + ticks + " distinct ticks", ticks >= 5);
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final Runnable m_runnable;
+
+        private Task(final Runnable runnable) {
+            m_runnable = runnable;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_runnable.run();
+        }
+    }
+}
@@ -29,6 +29,8 @@
 package org.opennms.core.ipc.sink.api;
 
 import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
 
 public interface OffHeapQueue {
 
@@ -52,6 +54,19 @@ public interface OffHeapQueue {
      */
     AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException;
 
+    /**
+     *
+     * Retrieves and removes up to maxMessages messages from the head of this queue, waiting if necessary
+     * until at least one element becomes available.
+     *
+     * @return list of key, value pairs in the order they were written, empty if none became available.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    default List<AbstractMap.SimpleImmutableEntry<String, byte[]>> readNextMessages(String moduleName, int maxMessages) throws InterruptedException {
+        final AbstractMap.SimpleImmutableEntry<String, byte[]> message = readNextMessage(moduleName);
+        return message != null ? Collections.singletonList(message) : Collections.emptyList();
+    }
+
     /**
      *
      * @return size of OffHeap in bytes.
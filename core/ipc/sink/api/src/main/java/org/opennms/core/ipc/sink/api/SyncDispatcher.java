@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.util.List;
+
 /**
  * Used to synchronously dispatch messages.
  *
@@ -36,4 +38,16 @@ package org.opennms.core.ipc.sink.api;
  * @author jwhite
  */
 public interface SyncDispatcher<S extends Message> extends MessageDispatcher<S> {
+
+    /**
+     * Dispatches the given messages, in order.
+     *
+     * Dispatchers which aggregate messages override this to aggregate the
+     * whole batch at once.
+     */
+    default void sendAll(List<S> messages) {
+        for (S message : messages) {
+            send(message);
+        }
+    }
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.aggregation;
 
+import java.util.List;
+
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.MessageDispatcher;
 import org.opennms.core.ipc.sink.api.SinkModule;
@@ -55,6 +57,15 @@ public abstract class AggregatingMessageProducer<S, T> implements MessageDispatc
         }
     }
 
+    /**
+     * Aggregates all of the given messages before dispatching the buckets which are ready.
+     */
+    public void sendAll(List<S> messages) {
+        for (final T log : aggregator.aggregate(messages)) {
+            dispatch(log);
+        }
+    }
+
     public abstract void dispatch(T message);
 
     @Override
@@ -28,9 +28,13 @@
 
 package org.opennms.core.ipc.sink.aggregation;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Timer;
@@ -152,6 +156,54 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         }
     }
 
+    /**
+     * Aggregates the given messages into their buckets and returns
+     * the buckets which are ready to be dispatched.
+     *
+     * The messages are grouped by their key first, so that the lock of
+     * every bucket is only taken once for the whole batch.
+     *
+     * @param messages the messages to aggregate
+     * @return the buckets which are ready to be dispatched, in the order in which they completed
+     */
+    public List<T> aggregate(List<S> messages) {
+        if (messages.size() == 1) {
+            final T accumulator = aggregate(messages.get(0));
+            return accumulator != null ? Collections.singletonList(accumulator) : Collections.emptyList();
+        }
+
+        final Map<Object, List<S>> messagesByKey = new LinkedHashMap<>();
+        for (final S message : messages) {
+            messagesByKey.computeIfAbsent(aggregationPolicy.key(message), k -> new ArrayList<>()).add(message);
+        }
+
+        final List<T> messagesReadyForDispatch = new ArrayList<>();
+        for (final Map.Entry<Object, List<S>> entry : messagesByKey.entrySet()) {
+            final Object key = entry.getKey();
+            final Lock lock = lockStripes.get(key);
+            try {
+                lock.lock();
+                Bucket bucket = buckets.get(key);
+                for (final S message : entry.getValue()) {
+                    if (bucket == null) {
+                        bucket = new Bucket();
+                        buckets.put(key, bucket);
+                    }
+                    final T accumulator = bucket.accumulate(message);
+                    if (accumulator != null) {
+                        // The bucket is ready to be dispatched, the next message starts a new one
+                        buckets.remove(key);
+                        bucket = null;
+                        messagesReadyForDispatch.add(accumulator);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return messagesReadyForDispatch;
+    }
+
     @Override
     public void run() {
         final List<T> messagesReadyForDispatch = new LinkedList<>();
@@ -38,8 +38,12 @@ import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.ipc.sink.offheap.OffHeapServiceLoader;
+import org.opennms.core.sysprops.SystemProperties;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.MetricRegistry;
@@ -56,6 +60,8 @@ import io.opentracing.Tracer;
  * Different types of dispatchers are created based on whether or not the module is using aggregation.
  *
  * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher.
+ * When {@link BatchingAsyncDispatcherImpl#BATCH_SIZE_SYS_PROP} is set, they use lock-free ring buffers and
+ * dispatch in batches instead.
  *
  * @author jwhite
  *
@@ -63,6 +69,8 @@ import io.opentracing.Tracer;
  */
 public abstract class AbstractMessageDispatcherFactory<W> implements MessageDispatcherFactory {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractMessageDispatcherFactory.class);
+
     private final MetricRegistry metrics = new MetricRegistry();
 
     private JmxReporter metricsJmxRepoter = null;
@@ -114,6 +122,13 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
+        final int batchSize = SystemProperties.getInteger(BatchingAsyncDispatcherImpl.BATCH_SIZE_SYS_PROP, 0);
+        if (batchSize > 0) {
+            if (!OffHeapServiceLoader.isOffHeapEnabled()) {
+                return new BatchingAsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher, batchSize);
+            }
+            LOG.warn("Off-heap storage is enabled, ignoring {} for module {}.", BatchingAsyncDispatcherImpl.BATCH_SIZE_SYS_PROP, module.getId());
+        }
         return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
     }
 
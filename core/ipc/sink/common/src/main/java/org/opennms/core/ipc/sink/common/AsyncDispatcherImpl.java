@@ -66,6 +66,7 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
 public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcherImpl.class);
+    private static final int OFFHEAP_READ_BATCH_SIZE = 100;
     private final SyncDispatcher<S> syncDispatcher;
     private OffHeapAdapter offHeapAdapter;
     private ExecutorService offHeapAdapterExecutor = Executors.newSingleThreadExecutor();
@@ -136,6 +137,12 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE),
                 rejectedExecutionHandler
             );
+
+        // Drain messages persisted by a file backed OffHeapQueue before the last restart
+        if (useOffHeap && offHeapQueue.getNumOfMessages(sinkModule.getId()) > 0) {
+            LOG.info("Found {} offheap messages for {} from previous run", offHeapQueue.getNumOfMessages(sinkModule.getId()), sinkModule.getId());
+            startOffHeapAdapter().recovered();
+        }
     }
 
     /**
@@ -184,13 +191,8 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         if (useOffHeap && (asyncPolicy.getQueueSize() == getQueueSize() ||
                 ((offHeapAdapter != null) && !offHeapAdapter.isOffHeapEmpty()))) {
             // Start drain thread before the first write to OffHeapQueue.
-            if (offHeapAdapter == null) {
-                this.offHeapAdapter = new OffHeapAdapter();
-                offHeapAdapterExecutor.execute(offHeapAdapter);
-                LOG.info("started drain thread for {}", sinkModule.getId());
-            }
             try {
-                return offHeapAdapter.writeMessage(message);
+                return startOffHeapAdapter().writeMessage(message);
             } catch (WriteFailedException e) {
                 rateLimittedLogger.error("OffHeap write failed ", e);
             }
@@ -207,6 +209,15 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
         }
     }
     
+    private synchronized OffHeapAdapter startOffHeapAdapter() {
+        if (offHeapAdapter == null) {
+            this.offHeapAdapter = new OffHeapAdapter();
+            offHeapAdapterExecutor.execute(offHeapAdapter);
+            LOG.info("started drain thread for {}", sinkModule.getId());
+        }
+        return offHeapAdapter;
+    }
+
     @Override
     public int getQueueSize() {
         return queue.size();
@@ -247,18 +258,18 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 try {
                     // Wait till atleast one write call to OffHeapQueue.
                     firstWrite.await();
-                    //retrieve key,value entry from top of queue.
-                    AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = offHeapQueue
-                            .readNextMessage(sinkModule.getId());
-                    if (keyValue != null) {
+                    //retrieve key,value entries from top of queue.
+                    for (AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue : offHeapQueue
+                            .readNextMessages(sinkModule.getId(), OFFHEAP_READ_BATCH_SIZE)) {
                         queue.put(() -> {
                             S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
                             syncDispatcher.send(message);
-                            CompletableFuture<S> future = offHeapFutureMap.get(keyValue.getKey());
-                            future.complete(message);
-                            offHeapFutureMap.remove(keyValue.getKey());
+                            // Messages recovered from a previous run have no future
+                            CompletableFuture<S> future = offHeapFutureMap.remove(keyValue.getKey());
+                            if (future != null) {
+                                future.complete(message);
+                            }
                         });
-
                     }
                 } catch (InterruptedException e) {
                    LOG.warn("Interrupted while retrieving OffHeap Message for {} ", sinkModule.getId(), e);
@@ -278,6 +289,10 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
             
         }
         
+        public void recovered() {
+            firstWrite.countDown();
+        }
+
         public boolean isOffHeapEmpty() {
             return offHeapFutureMap.isEmpty();
         }
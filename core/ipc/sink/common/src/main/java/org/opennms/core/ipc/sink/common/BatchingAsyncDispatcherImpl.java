@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.utils.MpscRingBuffer;
+import org.opennms.core.utils.SystemInfoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * An {@link AsyncDispatcher} which hands messages over to its worker threads
+ * through lock-free ring buffers instead of a {@link java.util.concurrent.ThreadPoolExecutor}.
+ *
+ * Every worker owns a {@link MpscRingBuffer} holding its share of the {@link AsyncPolicy#getQueueSize()}.
+ * Senders pick a random buffer and move on to the next one if it is full.
+ * Workers drain up to <code>batchSize</code> messages at a time and pass the whole batch on to
+ * {@link SyncDispatcher#sendAll(List)}, which applies the aggregation of the module, if any.
+ *
+ * Off-heap storage is not supported by this dispatcher.
+ */
+public class BatchingAsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingAsyncDispatcherImpl.class);
+
+    /**
+     * System property used to enable this dispatcher by setting the maximum
+     * number of messages a worker takes from its buffer at once.
+     */
+    public static final String BATCH_SIZE_SYS_PROP = "org.opennms.ipc.sink.async.batchSize";
+
+    // How long an idle worker sleeps before checking its buffer again, if it isn't woken up by a sender
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // How long a sender waits before trying again, when blocking on full buffers
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final SyncDispatcher<S> syncDispatcher;
+    private final AsyncPolicy asyncPolicy;
+    private final Worker[] workers;
+    private final Counter droppedCounter;
+    private final Histogram batchSizeHistogram;
+    private final Timer queueLatencyTimer;
+
+    private volatile boolean closed = false;
+
+    public BatchingAsyncDispatcherImpl(DispatcherState<W, S, T> state, AsyncPolicy asyncPolicy,
+            SyncDispatcher<S> syncDispatcher, int batchSize) {
+        Objects.requireNonNull(state);
+        this.asyncPolicy = Objects.requireNonNull(asyncPolicy);
+        this.syncDispatcher = Objects.requireNonNull(syncDispatcher);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        final String moduleId = state.getModule().getId();
+        final MetricRegistry metrics = state.getMetrics();
+        droppedCounter = metrics.counter(MetricRegistry.name(moduleId, "dropped"));
+        batchSizeHistogram = metrics.histogram(MetricRegistry.name(moduleId, "batch-size"));
+        queueLatencyTimer = metrics.timer(MetricRegistry.name(moduleId, "queue-latency"));
+        metrics.register(MetricRegistry.name(moduleId, "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueSize();
+            }
+        });
+
+        // Split the queue between the workers, every worker gets at least one slot
+        final int numThreads = Math.max(1, asyncPolicy.getNumThreads());
+        final int queueSize = Math.max(numThreads, asyncPolicy.getQueueSize());
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + moduleId, Integer.MAX_VALUE);
+        workers = new Worker[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int capacity = queueSize / numThreads + (i < queueSize % numThreads ? 1 : 0);
+            workers[i] = new Worker(capacity, batchSize);
+        }
+        for (Worker worker : workers) {
+            worker.thread = threadFactory.newThread(worker);
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<S> send(S message) {
+        final PendingMessage<S> pending = new PendingMessage<>(message);
+        if (closed) {
+            pending.completeExceptionally(new RejectedExecutionException("Dispatcher is closed"));
+            return pending;
+        }
+
+        final int start = workers.length > 1 ? ThreadLocalRandom.current().nextInt(workers.length) : 0;
+        while (true) {
+            for (int i = 0; i < workers.length; i++) {
+                final Worker worker = workers[(start + i) % workers.length];
+                if (worker.buffer.offer(pending)) {
+                    worker.wakeUp();
+                    return pending;
+                }
+            }
+
+            if (!asyncPolicy.isBlockWhenFull()) {
+                droppedCounter.inc();
+                pending.completeExceptionally(new RejectedExecutionException("Queue is full, message rejected"));
+                return pending;
+            }
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+            if (Thread.currentThread().isInterrupted() || closed) {
+                pending.completeExceptionally(new RejectedExecutionException("Interrupted while waiting for room in the queue"));
+                return pending;
+            }
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        int size = 0;
+        for (Worker worker : workers) {
+            size += worker.buffer.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        // Let the workers drain their buffers before closing the dispatcher
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            worker.thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        syncDispatcher.close();
+    }
+
+    private static class PendingMessage<S> extends CompletableFuture<S> {
+        private final S message;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private PendingMessage(S message) {
+            this.message = message;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final MpscRingBuffer<PendingMessage<S>> buffer;
+        private final PendingMessage<S>[] batch;
+        private final List<S> messages;
+        private volatile boolean idle = false;
+        private Thread thread;
+
+        @SuppressWarnings("unchecked")
+        private Worker(int capacity, int batchSize) {
+            buffer = new MpscRingBuffer<>(capacity);
+            batch = (PendingMessage<S>[]) new PendingMessage[Math.min(batchSize, capacity)];
+            messages = new ArrayList<>(batch.length);
+        }
+
+        private void wakeUp() {
+            if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final int n = buffer.drain(batch, batch.length);
+                if (n == 0) {
+                    if (closed && buffer.isEmpty()) {
+                        return;
+                    }
+                    idle = true;
+                    // Check again after announcing that we're idle, so that we don't miss a wake up
+                    if (buffer.isEmpty() && !closed) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                    continue;
+                }
+
+                // Sample the latency of the oldest message in the batch only, to keep the overhead per message low
+                batchSizeHistogram.update(n);
+                queueLatencyTimer.update(System.nanoTime() - batch[0].enqueuedNanos, TimeUnit.NANOSECONDS);
+
+                for (int i = 0; i < n; i++) {
+                    messages.add(batch[i].message);
+                }
+                Throwable failure = null;
+                try {
+                    syncDispatcher.sendAll(messages);
+                } catch (Throwable t) {
+                    LOG.warn("Failed to dispatch a batch of {} messages", n, t);
+                    failure = t;
+                }
+                messages.clear();
+
+                for (int i = 0; i < n; i++) {
+                    final PendingMessage<S> pending = batch[i];
+                    batch[i] = null;
+                    if (failure == null) {
+                        pending.complete(pending.message);
+                    } else {
+                        pending.completeExceptionally(failure);
+                    }
+                }
+            }
+        }
+    }
+}
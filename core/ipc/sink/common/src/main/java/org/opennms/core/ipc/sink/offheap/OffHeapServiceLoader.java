@@ -28,10 +28,12 @@
 
 package org.opennms.core.ipc.sink.offheap;
 
+import java.util.Collection;
 import java.util.Dictionary;
 
 import org.opennms.core.ipc.sink.api.OffHeapQueue;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +46,8 @@ public class OffHeapServiceLoader {
     private static OffHeapQueue offHeapQueue;
     public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
     public static final String ENABLE_OFFHEAP = "enableOffHeap";
+    public static final String OFFHEAP_TYPE = "offHeapType";
+    public static final String DEFAULT_OFFHEAP_TYPE = "memory";
 
     public BundleContext getBundleContext() {
         return context;
@@ -57,19 +61,11 @@ public class OffHeapServiceLoader {
         if(offHeapEnabled != null) {
             return offHeapEnabled;
         }
-        if (context != null) {
-            try {
-                ConfigurationAdmin configAdmin = context
-                        .getService(context.getServiceReference(ConfigurationAdmin.class));
-                Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
-                if (properties != null && properties.get(ENABLE_OFFHEAP) != null) {
-                    if (properties.get(ENABLE_OFFHEAP) instanceof String) {
-                        offHeapEnabled = Boolean.parseBoolean((String) properties.get(ENABLE_OFFHEAP));
-                        return offHeapEnabled;
-                    }
-                }
-            } catch (Exception e) {
-                LOG.error("Exception while retrieving Configuration Admin from registry", e);
+        Dictionary<String, Object> properties = getProperties();
+        if (properties != null && properties.get(ENABLE_OFFHEAP) != null) {
+            if (properties.get(ENABLE_OFFHEAP) instanceof String) {
+                offHeapEnabled = Boolean.parseBoolean((String) properties.get(ENABLE_OFFHEAP));
+                return offHeapEnabled;
             }
         }
 
@@ -82,7 +78,19 @@ public class OffHeapServiceLoader {
         }
         if (context != null) {
             try {
-                offHeapQueue = context.getService(context.getServiceReference(OffHeapQueue.class));
+                // Select the implementation by its type, i.e. memory or file
+                String type = DEFAULT_OFFHEAP_TYPE;
+                Dictionary<String, Object> properties = getProperties();
+                if (properties != null && properties.get(OFFHEAP_TYPE) instanceof String) {
+                    type = (String) properties.get(OFFHEAP_TYPE);
+                }
+                Collection<ServiceReference<OffHeapQueue>> references = context.getServiceReferences(OffHeapQueue.class, "(type=" + type + ")");
+                if (references.isEmpty()) {
+                    LOG.warn("No OffHeapQueue of type {} available, using default", type);
+                    offHeapQueue = context.getService(context.getServiceReference(OffHeapQueue.class));
+                } else {
+                    offHeapQueue = context.getService(references.iterator().next());
+                }
                 return offHeapQueue;
             } catch (Exception e) {
                 LOG.error("Exception while retrieving OffHeapQueue Service from registry", e);
@@ -91,6 +99,19 @@ public class OffHeapServiceLoader {
         return null;
     }
 
+    private static Dictionary<String, Object> getProperties() {
+        if (context != null) {
+            try {
+                ConfigurationAdmin configAdmin = context
+                        .getService(context.getServiceReference(ConfigurationAdmin.class));
+                return configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+            } catch (Exception e) {
+                LOG.error("Exception while retrieving Configuration Admin from registry", e);
+            }
+        }
+        return null;
+    }
+
     protected static void setOffHeapQueue(OffHeapQueue queue) {
         offHeapQueue = queue;
     }
@@ -145,6 +145,36 @@ public class AggregationTest {
         }
     }
 
+    @Test
+    public void aggregateBatchWithoutInterval() throws Exception {
+        final InetAddress otherhost = InetAddress.getByName("127.0.0.2");
+        SinkModuleWithAggregateNoInterval aggregatingSinkModule = new SinkModuleWithAggregateNoInterval();
+        try(SyncDispatcher<UDPPacket> dispatcher = capturingMessageDispatcherFactory.createSyncDispatcher(aggregatingSinkModule)) {
+            // Interleave the packets of two sources in a single batch
+            final List<UDPPacket> packets = new ArrayList<>();
+            for (byte i = 0; i < 10 * COMPLETION_SIZE + 1; i++) {
+                packets.add(new UDPPacket(i % 2 == 0 ? localhost : otherhost, ByteBuffer.wrap(new byte[]{i})));
+            }
+            dispatcher.sendAll(packets);
+
+            // The messages should have been aggregated per source, the last packet is still pending
+            assertEquals(10, dispatchedMessages.size());
+            for (Object message : dispatchedMessages) {
+                final List<UDPPacket> aggregated = ((UDPPacketLog)message).getPackets();
+                assertThat(aggregated, hasSize(COMPLETION_SIZE));
+                assertEquals(1, aggregated.stream().map(UDPPacket::getSource).distinct().count());
+            }
+
+            // The pending packet should complete the next bucket of its source
+            final List<UDPPacket> more = new ArrayList<>();
+            for (byte i = 0; i < COMPLETION_SIZE - 1; i++) {
+                more.add(new UDPPacket(localhost, ByteBuffer.wrap(new byte[]{i})));
+            }
+            dispatcher.sendAll(more);
+            assertEquals(11, dispatchedMessages.size());
+        }
+    }
+
     @Test
     public void aggregateWithInterval() throws Exception {
         SinkModuleWithAggregateAndInterval aggregatingSinkModule = new SinkModuleWithAggregateAndInterval();
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.opennms.core.ipc.sink.offheap.OffHeapServiceLoader;
+
+import com.codahale.metrics.Histogram;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchingAsyncDispatcherTest {
+
+    @Mock
+    private SinkModule<MyMessage, MyMessage> module;
+
+    private static class MyMessage implements Message { }
+
+    private final ThreadLockingDispatcherFactory<MyMessage> dispatcherFactory = new ThreadLockingDispatcherFactory<>();
+
+    private final AtomicInteger numDispatched = new AtomicInteger();
+
+    private final AtomicInteger numBatches = new AtomicInteger();
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private final SyncDispatcher<MyMessage> syncDispatcher = new SyncDispatcher<MyMessage>() {
+        @Override
+        public void send(MyMessage message) {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            numDispatched.incrementAndGet();
+        }
+
+        @Override
+        public void sendAll(List<MyMessage> messages) {
+            numBatches.incrementAndGet();
+            SyncDispatcher.super.sendAll(messages);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        when(module.getId()).thenReturn("batching");
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testDispatchesAllMessages() throws Exception {
+        final AsyncDispatcher<MyMessage> asyncDispatcher = createAsyncDispatcher(1000, 4, true, 10);
+
+        final int numSenders = 4;
+        final int messagesPerSender = 10000;
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        final ExecutorService senders = Executors.newFixedThreadPool(numSenders);
+        final List<CompletableFuture<List<CompletableFuture<MyMessage>>>> sent = new ArrayList<>();
+        for (int i = 0; i < numSenders; i++) {
+            sent.add(CompletableFuture.supplyAsync(() -> {
+                final List<CompletableFuture<MyMessage>> senderFutures = new ArrayList<>();
+                for (int j = 0; j < messagesPerSender; j++) {
+                    senderFutures.add(asyncDispatcher.send(new MyMessage()));
+                }
+                return senderFutures;
+            }, senders));
+        }
+        for (CompletableFuture<List<CompletableFuture<MyMessage>>> senderFutures : sent) {
+            futures.addAll(senderFutures.get());
+        }
+        senders.shutdown();
+
+        // All of our futures should be successfully resolved
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[]{})).get(1, TimeUnit.MINUTES);
+        assertEquals(numSenders * messagesPerSender, numDispatched.get());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        final Histogram batchSizes = dispatcherFactory.getMetrics().getHistograms().get("batching.batch-size");
+        assertTrue(batchSizes.getCount() > 0);
+        assertTrue(batchSizes.getSnapshot().getMax() <= 10);
+        // Every batch should have been handed over to the sync dispatcher at once
+        assertEquals(batchSizes.getCount(), numBatches.get());
+        assertTrue(dispatcherFactory.getMetrics().getTimers().get("batching.queue-latency").getCount() > 0);
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testRejectedWhenFull() throws Exception {
+        release = new CountDownLatch(1);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = createAsyncDispatcher(10, 1, false, 1);
+
+        // Wait until the worker is busy with the first message
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        blocked.await();
+
+        // Now fill up the queue
+        for (int i = 0; i < 10; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+        assertEquals(10, asyncDispatcher.getQueueSize());
+
+        // The next dispatch should return a failed future
+        final CompletableFuture<MyMessage> future = asyncDispatcher.send(new MyMessage());
+        assertTrue("future should have failed!", future.isCompletedExceptionally());
+        assertEquals(1, dispatcherFactory.getMetrics().getCounters().get("batching.dropped").getCount());
+
+        // Release the worker, and wait for the queue to be drained
+        release.countDown();
+        await().atMost(1, MINUTES).until(() -> asyncDispatcher.getQueueSize(), equalTo(0));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[]{})).get(1, TimeUnit.MINUTES);
+        assertEquals(11, numDispatched.get());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testBlocksWhenFull() throws Exception {
+        release = new CountDownLatch(1);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = createAsyncDispatcher(10, 1, true, 1);
+
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        blocked.await();
+        for (int i = 0; i < 10; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+
+        // The queue is full, additional calls should block
+        final AtomicReference<CompletableFuture<MyMessage>> futureRef = new AtomicReference<>();
+        final CountDownLatch didSend = new CountDownLatch(1);
+        final Thread t = new Thread(() -> {
+            futureRef.set(asyncDispatcher.send(new MyMessage()));
+            didSend.countDown();
+        });
+        t.start();
+        assertFalse(didSend.await(500, TimeUnit.MILLISECONDS));
+
+        // Release the worker, the blocked call should go through
+        release.countDown();
+        didSend.await();
+        futures.add(futureRef.get());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[]{})).get(1, TimeUnit.MINUTES);
+        assertEquals(12, numDispatched.get());
+
+        asyncDispatcher.close();
+    }
+
+    @Test
+    public void testFactoryCreatesBatchingDispatcher() throws Exception {
+        when(module.getAsyncPolicy()).thenReturn(asyncPolicy(10, 1, true));
+        System.setProperty(BatchingAsyncDispatcherImpl.BATCH_SIZE_SYS_PROP, "16");
+        try (AsyncDispatcher<MyMessage> asyncDispatcher = dispatcherFactory.createAsyncDispatcher(module)) {
+            // Off-heap storage requires the default dispatcher
+            assertEquals(!OffHeapServiceLoader.isOffHeapEnabled(), asyncDispatcher instanceof BatchingAsyncDispatcherImpl);
+        } finally {
+            System.clearProperty(BatchingAsyncDispatcherImpl.BATCH_SIZE_SYS_PROP);
+        }
+    }
+
+    private AsyncDispatcher<MyMessage> createAsyncDispatcher(int queueSize, int numThreads, boolean blockWhenFull, int batchSize) {
+        final DispatcherState<Void, MyMessage, MyMessage> state = new DispatcherState<>(dispatcherFactory, module);
+        return new BatchingAsyncDispatcherImpl<>(state, asyncPolicy(queueSize, numThreads, blockWhenFull), syncDispatcher, batchSize);
+    }
+
+    private static AsyncPolicy asyncPolicy(int queueSize, int numThreads, boolean blockWhenFull) {
+        return new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return queueSize;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return numThreads;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return blockWhenFull;
+            }
+        };
+    }
+}
@@ -153,6 +153,10 @@ public class H2OffHeapStore implements OffHeapQueue {
     }
 
     private long convertByteSizes(String size) {
+        return convertByteSizes(size, DEFAULT_OFFHEAP_SIZE);
+    }
+
+    static long convertByteSizes(String size, String defaultSize) {
         String suffix = size.substring(size.length()-2, size.length());
         double value = 0;
         long bytes = 0;
@@ -173,8 +177,8 @@ public class H2OffHeapStore implements OffHeapQueue {
                 break;
         }
         if (bytes == 0) {
-            LOG.error("Provided offheap size '{}' is invalid, using default as {}", size, DEFAULT_OFFHEAP_SIZE);
-            return convertByteSizes(DEFAULT_OFFHEAP_SIZE);
+            LOG.error("Provided offheap size '{}' is invalid, using default as {}", size, defaultSize);
+            return convertByteSizes(defaultSize, defaultSize);
         }
         return bytes;
     }
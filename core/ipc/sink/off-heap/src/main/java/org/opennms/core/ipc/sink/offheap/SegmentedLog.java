@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of the messages of a single sink module, stored in a chain of memory-mapped segment files.
+ *
+ * Each segment starts with its sequence number, followed by the records:
+ * <pre>
+ *   int length | int crc32 | short keyLength | key | message
+ * </pre>
+ * where length and crc32 cover everything after the crc. A zero length marks the end of the written data.
+ * The writer always appends to the last segment and the reader consumes from the first one.
+ * Once a segment has been consumed it is kept as spare for the next roll over, or deleted if there already is one.
+ *
+ * The read position is stored in a separate, memory-mapped checkpoint file, so that unread
+ * messages are delivered again after a restart.
+ */
+class SegmentedLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /** Size of the segment header, holding the sequence number of the segment. */
+    static final int SEGMENT_HEADER_SIZE = 8;
+
+    /** Size of the record header, holding the length and checksum of the record. */
+    static final int RECORD_HEADER_SIZE = 8;
+
+    // Room for the end marker which is always written behind the last record
+    private static final int END_MARKER_SIZE = 4;
+
+    /** Accounts the disk space used by the segments of all logs. */
+    interface Allocator {
+        /** Allocates space for a new segment, unless this exceeds the limit. */
+        boolean allocate(long bytes);
+
+        /** Accounts space of an existing segment, regardless of the limit. */
+        void reserve(long bytes);
+
+        void release(long bytes);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Allocator allocator;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final CRC32 writeCrc = new CRC32();
+    private final CRC32 readCrc = new CRC32();
+
+    // First segment is read from, last segment is written to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicInteger numMessages = new AtomicInteger();
+    private final MappedByteBuffer checkpoint;
+    private Segment spare;
+    private int readOffset;
+    private int writeOffset;
+    private long nextSequence = 1;
+    private long nextFileId = 0;
+
+    SegmentedLog(final Path directory, final int segmentSize, final Allocator allocator) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.allocator = allocator;
+
+        Files.createDirectories(directory);
+        checkpoint = map(directory.resolve(CHECKPOINT_FILE), 2 * Long.BYTES);
+        recover();
+    }
+
+    void write(final String key, final byte[] message) throws WriteFailedException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > Short.MAX_VALUE) {
+            throw new WriteFailedException("Key too long: " + key);
+        }
+        final int bodyLength = Short.BYTES + keyBytes.length + message.length;
+        final int recordLength = RECORD_HEADER_SIZE + bodyLength;
+        if (SEGMENT_HEADER_SIZE + recordLength + END_MARKER_SIZE > segmentSize) {
+            throw new WriteFailedException("Message of " + message.length + " bytes exceeds segment size of " + segmentSize + " bytes");
+        }
+
+        lock.lock();
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || writeOffset + recordLength + END_MARKER_SIZE > tail.capacity()) {
+                tail = roll();
+            }
+
+            final MappedByteBuffer buffer = tail.buffer;
+            buffer.position(writeOffset + RECORD_HEADER_SIZE);
+            buffer.putShort((short) keyBytes.length);
+            buffer.put(keyBytes);
+            buffer.put(message);
+            buffer.putInt(0);
+
+            // Length is written last, so the record only becomes visible once it is complete
+            buffer.putInt(writeOffset + Integer.BYTES, checksum(writeCrc, buffer, writeOffset + RECORD_HEADER_SIZE, bodyLength));
+            buffer.putInt(writeOffset, bodyLength);
+            writeOffset += recordLength;
+
+            numMessages.incrementAndGet();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes up to {@code maxMessages} messages, waiting up to the given time for the first one.
+     *
+     * @return the messages in the order they were written, empty if none became available in time
+     */
+    List<AbstractMap.SimpleImmutableEntry<String, byte[]>> read(final int maxMessages, final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                AbstractMap.SimpleImmutableEntry<String, byte[]> entry = readRecord();
+                if (entry != null) {
+                    final List<AbstractMap.SimpleImmutableEntry<String, byte[]>> entries = new ArrayList<>(Math.min(maxMessages, numMessages.get() + 1));
+                    do {
+                        entries.add(entry);
+                    } while (entries.size() < maxMessages && (entry = readRecord()) != null);
+                    storeCheckpoint();
+                    return entries;
+                }
+                if (nanos <= 0) {
+                    return Collections.emptyList();
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getNumOfMessages() {
+        return numMessages.get();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            storeCheckpoint();
+            checkpoint.force();
+            for (final Segment segment : segments) {
+                segment.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AbstractMap.SimpleImmutableEntry<String, byte[]> readRecord() {
+        while (true) {
+            final Segment head = segments.peekFirst();
+            if (head == null) {
+                return null;
+            }
+
+            final MappedByteBuffer buffer = head.buffer;
+            final int length = isValidLength(head, readOffset) ? buffer.getInt(readOffset) : 0;
+            if (length != 0 && checksum(readCrc, buffer, readOffset + RECORD_HEADER_SIZE, length) == buffer.getInt(readOffset + Integer.BYTES)) {
+                buffer.position(readOffset + RECORD_HEADER_SIZE);
+                final byte[] key = new byte[buffer.getShort()];
+                buffer.get(key);
+                final byte[] message = new byte[length - Short.BYTES - key.length];
+                buffer.get(message);
+
+                readOffset += RECORD_HEADER_SIZE + length;
+                numMessages.decrementAndGet();
+                return new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8), message);
+            }
+
+            if (length != 0) {
+                LOG.warn("Dropping remainder of corrupted segment {} at offset {}", head.file, readOffset);
+            }
+            if (segments.size() == 1) {
+                // Reached the end of the segment currently written to
+                return null;
+            }
+            recycle(segments.pollFirst());
+            readOffset = SEGMENT_HEADER_SIZE;
+        }
+    }
+
+    private Segment roll() throws WriteFailedException {
+        Segment segment = spare;
+        spare = null;
+        if (segment == null) {
+            if (!allocator.allocate(segmentSize)) {
+                throw new WriteFailedException("Offheap storage exhausted, unable to allocate new segment for " + directory);
+            }
+            try {
+                final Path file = directory.resolve(SEGMENT_PREFIX + (nextFileId++) + SEGMENT_SUFFIX);
+                segment = new Segment(file, map(file, segmentSize));
+            } catch (IOException e) {
+                allocator.release(segmentSize);
+                throw new WriteFailedException("Failed to create segment in " + directory + ": " + e.getMessage());
+            }
+        }
+
+        segment.reset(nextSequence++);
+        if (segments.isEmpty()) {
+            readOffset = SEGMENT_HEADER_SIZE;
+        }
+        segments.addLast(segment);
+        writeOffset = SEGMENT_HEADER_SIZE;
+        return segment;
+    }
+
+    private void recycle(final Segment segment) {
+        if (spare == null && segment.capacity() == segmentSize) {
+            spare = segment;
+            return;
+        }
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete consumed segment {}", segment.file, e);
+        }
+        allocator.release(segment.capacity());
+    }
+
+    private void storeCheckpoint() {
+        final Segment head = segments.peekFirst();
+        checkpoint.putLong(0, head != null ? head.sequence : 0);
+        checkpoint.putLong(Long.BYTES, readOffset);
+    }
+
+    private void recover() throws IOException {
+        final long checkpointSequence = checkpoint.getLong(0);
+        final long checkpointOffset = checkpoint.getLong(Long.BYTES);
+
+        final List<Segment> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    final long fileId = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    nextFileId = Math.max(nextFileId, fileId + 1);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {}", file);
+                    continue;
+                }
+                final long size = Files.size(file);
+                if (size < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                    Files.delete(file);
+                    continue;
+                }
+                final MappedByteBuffer buffer = map(file, (int) size);
+                final Segment segment = new Segment(file, buffer);
+                segment.sequence = buffer.getLong(0);
+                allocator.reserve(size);
+                existing.add(segment);
+            }
+        }
+        existing.sort(Comparator.comparingLong(s -> s.sequence));
+
+        for (final Segment segment : existing) {
+            nextSequence = Math.max(nextSequence, segment.sequence + 1);
+            if (segment.sequence == 0 || segment.sequence < checkpointSequence) {
+                // Never used or already consumed
+                recycle(segment);
+            } else {
+                segments.addLast(segment);
+            }
+        }
+
+        final Segment head = segments.peekFirst();
+        if (head == null) {
+            readOffset = SEGMENT_HEADER_SIZE;
+            return;
+        }
+        readOffset = head.sequence == checkpointSequence
+                ? (int) Math.max(SEGMENT_HEADER_SIZE, Math.min(checkpointOffset, head.capacity()))
+                : SEGMENT_HEADER_SIZE;
+
+        // Count the unread messages and truncate each segment at the first incomplete record
+        for (final Segment segment : segments) {
+            int offset = segment == head ? readOffset : SEGMENT_HEADER_SIZE;
+            while (isValidLength(segment, offset)) {
+                final int length = segment.buffer.getInt(offset);
+                if (length == 0 || checksum(readCrc, segment.buffer, offset + RECORD_HEADER_SIZE, length) != segment.buffer.getInt(offset + Integer.BYTES)) {
+                    break;
+                }
+                offset += RECORD_HEADER_SIZE + length;
+                numMessages.incrementAndGet();
+            }
+            if (offset + Integer.BYTES <= segment.capacity()) {
+                segment.buffer.putInt(offset, 0);
+            }
+            writeOffset = offset;
+        }
+        LOG.info("Recovered {} messages in {} segments from {}", numMessages.get(), segments.size(), directory);
+    }
+
+    private static boolean isValidLength(final Segment segment, final int offset) {
+        if (offset + RECORD_HEADER_SIZE > segment.capacity()) {
+            return false;
+        }
+        final int length = segment.buffer.getInt(offset);
+        return length >= 0 && length <= segment.capacity() - offset - RECORD_HEADER_SIZE;
+    }
+
+    private static int checksum(final CRC32 crc, final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length).position(offset);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(final Path file, final int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private long sequence;
+
+        private Segment(final Path file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        private void reset(final long sequence) {
+            this.sequence = sequence;
+            buffer.putLong(0, sequence);
+            buffer.putInt(SEGMENT_HEADER_SIZE, 0);
+        }
+    }
+}
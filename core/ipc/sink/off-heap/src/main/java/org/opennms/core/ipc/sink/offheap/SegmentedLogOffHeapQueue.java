@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+/**
+ * {@link OffHeapQueue} backed by memory-mapped segment files on disk, see {@link SegmentedLog}.
+ *
+ * Each sink module gets its own chain of segments in a sub-directory of {@code offHeapFilePath}.
+ * Messages which have not been read yet are recovered on start, so they survive a restart of the Minion.
+ */
+public class SegmentedLogOffHeapQueue implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedLogOffHeapQueue.class);
+    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_FILE_PATH = "offHeapFilePath";
+    private final static String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    private final static String DEFAULT_OFFHEAP_SIZE = "1GB";
+    private final static String DEFAULT_SEGMENT_SIZE = "32MB";
+    private final static long MIN_SEGMENT_SIZE = 64 * 1024;
+    private final static long MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+    // Default wait time for each poll is 1000msec.
+    private final static long DEFAULT_WAIT_FOR_POLL = 1000L;
+
+    private JmxReporter reporter = null;
+    private MetricRegistry offheapMetrics = new MetricRegistry();
+    private final ConfigurationAdmin configAdmin;
+    private Path directory;
+    private long maxSizeInBytes;
+    private int segmentSize;
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    // Map of ModuleName and corresponding log.
+    private final Map<String, SegmentedLog> logs = new ConcurrentHashMap<>();
+
+    private final SegmentedLog.Allocator allocator = new SegmentedLog.Allocator() {
+        @Override
+        public boolean allocate(long bytes) {
+            final long size = sizeInBytes.addAndGet(bytes);
+            if (size > maxSizeInBytes && size != bytes) {
+                sizeInBytes.addAndGet(-bytes);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void reserve(long bytes) {
+            sizeInBytes.addAndGet(bytes);
+        }
+
+        @Override
+        public void release(long bytes) {
+            sizeInBytes.addAndGet(-bytes);
+        }
+    };
+
+    public SegmentedLogOffHeapQueue(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        maxSizeInBytes = H2OffHeapStore.convertByteSizes(getProperty(properties, OFFHEAP_SIZE, DEFAULT_OFFHEAP_SIZE), DEFAULT_OFFHEAP_SIZE);
+        segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE,
+                H2OffHeapStore.convertByteSizes(getProperty(properties, OFFHEAP_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE)));
+        directory = Paths.get(getProperty(properties, OFFHEAP_FILE_PATH,
+                Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "offheap").toString()));
+        Files.createDirectories(directory);
+
+        // Recover the messages of all modules written before the last shutdown
+        try (DirectoryStream<Path> moduleDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path moduleDirectory : moduleDirectories) {
+                final String moduleName = URLDecoder.decode(moduleDirectory.getFileName().toString(), "UTF-8");
+                logs.put(moduleName, new SegmentedLog(moduleDirectory, segmentSize, allocator));
+            }
+        }
+
+        reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
+        offheapMetrics.register(MetricRegistry.name("offHeapSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getSize();
+            }
+        });
+        reporter.start();
+        LOG.info("initializing segmented log OffHeapQueue in {} with max size : {}, segment size : {}", directory, maxSizeInBytes, segmentSize);
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        if (message == null || Strings.isNullOrEmpty(moduleName) || key == null) {
+            throw new WriteFailedException("Invalid message");
+        }
+        getLog(moduleName).write(key, message);
+        return true;
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName) throws InterruptedException {
+        final List<AbstractMap.SimpleImmutableEntry<String, byte[]>> messages = readNextMessages(moduleName, 1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public List<AbstractMap.SimpleImmutableEntry<String, byte[]>> readNextMessages(String moduleName, int maxMessages) throws InterruptedException {
+        final SegmentedLog log = logs.get(moduleName);
+        if (log == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            return Collections.emptyList();
+        }
+        // Poll for items to be available, max wait is 1 second.
+        return log.read(maxMessages, DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        logs.values().forEach(SegmentedLog::close);
+        LOG.info("closing segmented log OffHeapQueue, size = {} ", getSize());
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        final SegmentedLog log = logs.get(moduleName);
+        if (log != null) {
+            return log.getNumOfMessages();
+        }
+        return 0;
+    }
+
+    private SegmentedLog getLog(String moduleName) throws WriteFailedException {
+        try {
+            return logs.computeIfAbsent(moduleName, name -> {
+                try {
+                    LOG.info("initialized segmented log for module : {} ", name);
+                    return new SegmentedLog(directory.resolve(URLEncoder.encode(name, "UTF-8")), segmentSize, allocator);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw new WriteFailedException("Failed to open segmented log for module " + moduleName + ": " + e.getCause().getMessage());
+        }
+    }
+
+    private static String getProperty(Dictionary<String, Object> properties, String key, String defaultValue) {
+        if (properties != null && properties.get(key) instanceof String) {
+            return (String) properties.get(key);
+        }
+        return defaultValue;
+    }
+}
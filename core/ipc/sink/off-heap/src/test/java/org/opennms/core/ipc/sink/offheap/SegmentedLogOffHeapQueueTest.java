@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class SegmentedLogOffHeapQueueTest {
+
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_FILE_PATH = "offHeapFilePath";
+    private final static String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ConfigurationAdmin configAdmin;
+    private SegmentedLogOffHeapQueue queue;
+
+    @Before
+    public void setup() throws IOException {
+        Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put(OFFHEAP_SIZE, "1MB");
+        configProperties.put(OFFHEAP_SEGMENT_SIZE, "64KB");
+        configProperties.put(OFFHEAP_FILE_PATH, tempFolder.getRoot().getAbsolutePath());
+        configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        queue = new SegmentedLogOffHeapQueue(configAdmin);
+        queue.init();
+    }
+
+    @After
+    public void destroy() {
+        queue.destroy();
+    }
+
+    @Test
+    public void testWriteAndReadInOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        executor.execute(() -> write("traps-test", "trap", 1000));
+        executor.execute(() -> write("syslog-test", "syslog", 1000));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+        }
+        int i = 0;
+        while (i < 1000) {
+            List<AbstractMap.SimpleImmutableEntry<String, byte[]>> batch = queue.readNextMessages("syslog-test", 64);
+            assertTrue(batch.size() <= 64);
+            for (AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue : batch) {
+                assertEquals("This is " + i + " syslog message", new String(keyValue.getValue()));
+                i++;
+            }
+        }
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+        assertEquals(0, queue.getNumOfMessages("syslog-test"));
+        assertNull(queue.readNextMessage("traps-test"));
+    }
+
+    @Test
+    public void testSegmentsAreRecycled() throws Exception {
+        byte[] message = new byte[1024];
+        // Writes and reads way more than the configured size
+        for (int i = 0; i < 5000; i++) {
+            queue.writeMessage(message, "flows-test", Integer.toString(i));
+            assertEquals(Integer.toString(i), queue.readNextMessage("flows-test").getKey());
+        }
+        // The segment written to and one spare
+        assertTrue(queue.getSize() <= 2 * 64 * 1024);
+        assertTrue(countSegments("flows-test") <= 2);
+    }
+
+    @Test(expected = WriteFailedException.class)
+    public void testWriteFailsWhenExhausted() throws Exception {
+        byte[] message = new byte[1024];
+        for (int i = 0; i < 2000; i++) {
+            queue.writeMessage(message, "flows-test", Integer.toString(i));
+        }
+    }
+
+    @Test
+    public void testMessagesSurviveRestart() throws Exception {
+        // Spans multiple segments
+        write("traps-test", "trap", 5000);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.toString(i), queue.readNextMessage("traps-test").getKey());
+        }
+        queue.destroy();
+
+        queue = new SegmentedLogOffHeapQueue(configAdmin);
+        queue.init();
+        assertEquals(4000, queue.getNumOfMessages("traps-test"));
+        for (int i = 1000; i < 5000; i++) {
+            assertEquals("This is " + i + " trap message", new String(queue.readNextMessage("traps-test").getValue()));
+        }
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+    }
+
+    @Test
+    public void testCorruptedRecordIsTruncatedOnRestart() throws Exception {
+        write("traps-test", "trap", 10);
+        queue.destroy();
+
+        // Flip a byte in the payload of the last record
+        Path segment = tempFolder.getRoot().toPath().resolve("traps-test").resolve("segment-0.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int offset = 8;
+            for (int i = 0; i < 9; i++) {
+                file.seek(offset);
+                offset += 8 + file.readInt();
+            }
+            file.seek(offset + 12);
+            file.write('X');
+        }
+
+        queue = new SegmentedLogOffHeapQueue(configAdmin);
+        queue.init();
+        assertEquals(9, queue.getNumOfMessages("traps-test"));
+        for (int i = 0; i < 9; i++) {
+            assertEquals(Integer.toString(i), queue.readNextMessage("traps-test").getKey());
+        }
+        assertNull(queue.readNextMessage("traps-test"));
+
+        // Appends after the last valid record
+        queue.writeMessage("next".getBytes(), "traps-test", "next");
+        assertEquals("next", queue.readNextMessage("traps-test").getKey());
+    }
+
+    private void write(String module, String type, int count) {
+        for (int i = 0; i < count; i++) {
+            String message = "This is " + i + " " + type + " message";
+            try {
+                queue.writeMessage(message.getBytes(), module, Integer.toString(i));
+            } catch (WriteFailedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private long countSegments(String module) throws IOException {
+        try (Stream<Path> files = Files.list(tempFolder.getRoot().toPath().resolve(module))) {
+            return files.filter(f -> f.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.utils;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An open-addressing hash table which maps IP addresses to values.
+ *
+ * IPv4 addresses are keyed by their 32 bit value and IPv6 addresses by two longs. Addresses
+ * in numeric notation are parsed straight into these keys, so that looking up an address in
+ * its textual form does not allocate. IPv4-mapped IPv6 addresses are stored and looked up as
+ * their IPv4 address, like {@link java.net.InetAddress} does.
+ *
+ * Mappings can be added and replaced, but not removed. Instances are not thread safe: a table
+ * must not be modified anymore once it was published to other threads.
+ *
+ * @param <V> type of values
+ */
+public class AddressTable<V> {
+
+    private static final int DEFAULT_EXPECTED_SIZE = 4;
+
+    /**
+     * Returned by the IPv6 parser for addresses which are not in numeric notation.
+     */
+    private static final Object NOT_NUMERIC = new Object();
+
+    private int[] keys4;
+    private Object[] values4;
+    private int size4;
+
+    private long[] keys6Hi;
+    private long[] keys6Lo;
+    private Object[] values6;
+    private int size6;
+
+    public AddressTable() {
+        this(DEFAULT_EXPECTED_SIZE, DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Creates a table which holds the given number of IPv4 and IPv6 addresses without growing.
+     */
+    public AddressTable(final int expectedSize4, final int expectedSize6) {
+        final int capacity4 = capacityFor(expectedSize4);
+        this.keys4 = new int[capacity4];
+        this.values4 = new Object[capacity4];
+
+        final int capacity6 = capacityFor(expectedSize6);
+        this.keys6Hi = new long[capacity6];
+        this.keys6Lo = new long[capacity6];
+        this.values6 = new Object[capacity6];
+    }
+
+    /**
+     * Maps the given address, in its binary form, to the value.
+     * An existing mapping for the address is replaced.
+     */
+    public void put(final byte[] address, final V value) {
+        Objects.requireNonNull(value);
+        if (address.length == 4) {
+            put4(toInt(address, 0), value);
+        } else if (address.length == 16) {
+            final long hi = toLong(address, 0);
+            final long lo = toLong(address, 8);
+            if (isIpv4Mapped(hi, lo)) {
+                put4((int) lo, value);
+            } else {
+                put6(hi, lo, value);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid address length: " + address.length);
+        }
+    }
+
+    /**
+     * Returns the value mapped to the given address, in its binary form,
+     * or <code>null</code> if the address is unknown.
+     */
+    public V get(final byte[] address) {
+        if (address.length == 4) {
+            return get4(toInt(address, 0));
+        } else if (address.length == 16) {
+            return get6(toLong(address, 0), toLong(address, 8));
+        }
+        throw new IllegalArgumentException("Invalid address length: " + address.length);
+    }
+
+    /**
+     * Returns the value mapped to the given address, in its textual form,
+     * or <code>null</code> if the address is unknown.
+     *
+     * Addresses which are not in numeric notation are resolved using {@link InetAddressUtils#toIpAddrBytes(String)}.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final String address) {
+        final long ipv4 = parseIpv4(address, 0, address.length());
+        if (ipv4 >= 0) {
+            return get4((int) ipv4);
+        }
+        final Object value = parseAndGet6(address);
+        if (value != NOT_NUMERIC) {
+            return (V) value;
+        }
+        return get(InetAddressUtils.toIpAddrBytes(address));
+    }
+
+    /**
+     * Returns the number of addresses in the table.
+     */
+    public int size() {
+        return size4 + size6;
+    }
+
+    /**
+     * Calls the consumer with the binary form of every address in the table and its value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<byte[], V> consumer) {
+        for (int i = 0; i < keys4.length; i++) {
+            if (values4[i] != null) {
+                final int key = keys4[i];
+                consumer.accept(new byte[] { (byte) (key >>> 24), (byte) (key >>> 16), (byte) (key >>> 8), (byte) key }, (V) values4[i]);
+            }
+        }
+        for (int i = 0; i < keys6Hi.length; i++) {
+            if (values6[i] != null) {
+                final byte[] address = new byte[16];
+                for (int b = 0; b < 8; b++) {
+                    address[b] = (byte) (keys6Hi[i] >>> (56 - 8 * b));
+                    address[b + 8] = (byte) (keys6Lo[i] >>> (56 - 8 * b));
+                }
+                consumer.accept(address, (V) values6[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V get4(final int key) {
+        final int mask = keys4.length - 1;
+        for (int i = mix(key) & mask; values4[i] != null; i = (i + 1) & mask) {
+            if (keys4[i] == key) {
+                return (V) values4[i];
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V get6(final long hi, final long lo) {
+        if (isIpv4Mapped(hi, lo)) {
+            return get4((int) lo);
+        }
+        final int mask = keys6Hi.length - 1;
+        for (int i = mix(hi, lo) & mask; values6[i] != null; i = (i + 1) & mask) {
+            if (keys6Hi[i] == hi && keys6Lo[i] == lo) {
+                return (V) values6[i];
+            }
+        }
+        return null;
+    }
+
+    private void put4(final int key, final Object value) {
+        final int mask = keys4.length - 1;
+        int i = mix(key) & mask;
+        while (values4[i] != null && keys4[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values4[i] == null) {
+            size4++;
+        }
+        keys4[i] = key;
+        values4[i] = value;
+        if (size4 * 2 > keys4.length) {
+            resize4();
+        }
+    }
+
+    private void put6(final long hi, final long lo, final Object value) {
+        final int mask = keys6Hi.length - 1;
+        int i = mix(hi, lo) & mask;
+        while (values6[i] != null && (keys6Hi[i] != hi || keys6Lo[i] != lo)) {
+            i = (i + 1) & mask;
+        }
+        if (values6[i] == null) {
+            size6++;
+        }
+        keys6Hi[i] = hi;
+        keys6Lo[i] = lo;
+        values6[i] = value;
+        if (size6 * 2 > keys6Hi.length) {
+            resize6();
+        }
+    }
+
+    private void resize4() {
+        final int[] keys = keys4;
+        final Object[] values = values4;
+        keys4 = new int[keys.length * 2];
+        values4 = new Object[keys.length * 2];
+        size4 = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                put4(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void resize6() {
+        final long[] hi = keys6Hi;
+        final long[] lo = keys6Lo;
+        final Object[] values = values6;
+        keys6Hi = new long[hi.length * 2];
+        keys6Lo = new long[hi.length * 2];
+        values6 = new Object[hi.length * 2];
+        size6 = 0;
+        for (int i = 0; i < hi.length; i++) {
+            if (values[i] != null) {
+                put6(hi[i], lo[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Keep the load factor at or below 0.5, so that probe sequences stay short.
+     */
+    private static int capacityFor(final int expectedSize) {
+        final int capacity = Integer.highestOneBit(Math.max(1, expectedSize)) << 2;
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Too many addresses: " + expectedSize);
+        }
+        return capacity;
+    }
+
+    private static int mix(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mix(final long hi, final long lo) {
+        final long h = (hi * 0x9E3779B97F4A7C15L) ^ lo;
+        return mix((int) (h ^ (h >>> 32)));
+    }
+
+    private static boolean isIpv4Mapped(final long hi, final long lo) {
+        return hi == 0 && (lo >>> 32) == 0xffffL;
+    }
+
+    private static int toInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24
+                | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static long toLong(final byte[] bytes, final int offset) {
+        return ((long) toInt(bytes, offset)) << 32 | (toInt(bytes, offset + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Parses an IPv6 address in numeric notation, with an optional zone, and looks it up.
+     *
+     * The groups before a <code>::</code> are written from the top of the address downwards,
+     * and the groups after it are shifted in from the bottom, so that no intermediate array is needed.
+     *
+     * @return the value of the address, or {@link #NOT_NUMERIC} if the string is not an IPv6 address in numeric notation
+     */
+    private Object parseAndGet6(final String address) {
+        int end = address.indexOf('%');
+        if (end < 0) {
+            end = address.length();
+        }
+
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int groups = 0;
+        boolean compressed = false;
+
+        int i = 0;
+        if (address.startsWith("::")) {
+            compressed = true;
+            i = 2;
+        }
+        while (i < end) {
+            int j = i;
+            int group = 0;
+            while (j < end && j - i <= 4) {
+                final int digit = hexDigit(address.charAt(j));
+                if (digit < 0) {
+                    break;
+                }
+                group = group << 4 | digit;
+                j++;
+            }
+
+            if (j < end && address.charAt(j) == '.') {
+                // An IPv4 address in dotted-decimal notation forms the last two groups
+                final long ipv4 = parseIpv4(address, i, end);
+                if (ipv4 < 0 || groups > 6) {
+                    return NOT_NUMERIC;
+                }
+                if (compressed) {
+                    tailHi = tailHi << 32 | tailLo >>> 32;
+                    tailLo = tailLo << 32 | ipv4;
+                } else if (groups == 6) {
+                    headLo |= ipv4;
+                } else {
+                    return NOT_NUMERIC;
+                }
+                groups += 2;
+                break;
+            }
+            if (j == i || j - i > 4 || groups == 8) {
+                return NOT_NUMERIC;
+            }
+
+            if (compressed) {
+                tailHi = tailHi << 16 | tailLo >>> 48;
+                tailLo = tailLo << 16 | group;
+            } else if (groups < 4) {
+                headHi |= (long) group << (16 * (3 - groups));
+            } else {
+                headLo |= (long) group << (16 * (7 - groups));
+            }
+            groups++;
+
+            if (j == end) {
+                break;
+            }
+            if (address.charAt(j) != ':') {
+                return NOT_NUMERIC;
+            }
+            j++;
+            if (j < end && address.charAt(j) == ':') {
+                if (compressed) {
+                    return NOT_NUMERIC;
+                }
+                compressed = true;
+                j++;
+            } else if (j == end) {
+                return NOT_NUMERIC;
+            }
+            i = j;
+        }
+
+        if (compressed ? groups > 7 : groups != 8) {
+            return NOT_NUMERIC;
+        }
+        return get6(headHi | tailHi, headLo | tailLo);
+    }
+
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses an IPv4 address in dotted-decimal notation.
+     *
+     * @return the unsigned value of the address, or -1 if the string is not a dotted-decimal IPv4 address
+     */
+    static long parseIpv4(final String address, final int start, final int end) {
+        long value = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            final char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                value = value << 8 | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || dots != 3) {
+            return -1;
+        }
+        return value << 8 | octet;
+    }
+}
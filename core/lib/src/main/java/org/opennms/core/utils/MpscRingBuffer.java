@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer.
+ *
+ * Producers claim a slot by incrementing the tail and then publish the element into it.
+ * The consumer takes published elements in order and frees their slots by advancing the head.
+ * The consumer may also look at the elements first and free their slots once it is done
+ * with them, so that the elements being processed still count against the capacity.
+ *
+ * @param <E> type of elements
+ */
+public class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final int mask;
+
+    private final int capacity;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong head = new AtomicLong();
+
+    public MpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        this.capacity = capacity;
+        // Round up to the next power of two, so that the slot can be computed with a mask
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds the element, if there is room for it.
+     *
+     * May be called by any thread.
+     *
+     * @return <code>true</code> if the element was added, <code>false</code> if the buffer is full
+     */
+    public boolean offer(E element) {
+        while (true) {
+            final long t = tail.get();
+            if (t - head.get() >= capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                elements.lazySet((int) t & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes up to <code>max</code> elements and stores them in the given array.
+     *
+     * Must only be called by the consumer thread.
+     *
+     * @return the number of elements removed
+     */
+    public int drain(E[] batch, int max) {
+        final int n = peek(batch, max);
+        release(n);
+        return n;
+    }
+
+    /**
+     * Copies up to <code>max</code> of the oldest elements to the given array without removing them.
+     *
+     * Must only be called by the consumer thread.
+     *
+     * @return the number of elements copied
+     */
+    public int peek(E[] batch, int max) {
+        long h = head.get();
+        int n = 0;
+        while (n < max) {
+            // The slot may be claimed, but not yet published
+            final E element = elements.get((int) h & mask);
+            if (element == null) {
+                break;
+            }
+            batch[n++] = element;
+            h++;
+        }
+        return n;
+    }
+
+    /**
+     * Removes the <code>n</code> oldest elements, which must have been returned by
+     * {@link #peek(Object[], int)} before.
+     *
+     * Must only be called by the consumer thread.
+     */
+    public void release(int n) {
+        if (n <= 0) {
+            return;
+        }
+        final long h = head.get();
+        for (int i = 0; i < n; i++) {
+            elements.lazySet((int) (h + i) & mask, null);
+        }
+        head.lazySet(h + n);
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AddressTableTest {
+
+    @Test
+    public void testParseIpv4() {
+        assertEquals(0x0a000001L, parseIpv4("10.0.0.1"));
+        assertEquals(0xffffffffL, parseIpv4("255.255.255.255"));
+        assertEquals(0L, parseIpv4("0.0.0.0"));
+        assertEquals(-1L, parseIpv4("256.0.0.1"));
+        assertEquals(-1L, parseIpv4("10.0.0"));
+        assertEquals(-1L, parseIpv4("10.0.0.1."));
+        assertEquals(-1L, parseIpv4("10..0.1"));
+        assertEquals(-1L, parseIpv4("::1"));
+        assertEquals(-1L, parseIpv4(""));
+    }
+
+    @Test
+    public void testParseIpv6() {
+        final List<String> addresses = Arrays.asList("::", "::1", "1::", "2001:db8::1", "2001:db8:1:2:3:4:5:6",
+                "fe80::1:2", "1:2:3:4:5:6:102:304", "64:ff9b::c000:201", "::102:304");
+        final AddressTable<String> table = new AddressTable<>();
+        for (final String address : addresses) {
+            table.put(InetAddressUtils.toIpAddrBytes(address), address);
+        }
+        assertEquals(addresses.size(), table.size());
+        for (final String address : addresses) {
+            assertEquals(address, table.get(address));
+        }
+
+        // Other notations of the same addresses
+        assertEquals("::", table.get("0:0:0:0:0:0:0:0"));
+        assertEquals("::1", table.get("0:0::0:1"));
+        assertEquals("1::", table.get("1:0:0:0:0:0:0:0"));
+        assertEquals("2001:db8::1", table.get("2001:DB8:0000::0001"));
+        assertEquals("fe80::1:2", table.get("fe80::1:2%eth0"));
+        assertEquals("1:2:3:4:5:6:102:304", table.get("1:2:3:4:5:6:1.2.3.4"));
+        assertEquals("64:ff9b::c000:201", table.get("64:ff9b::192.0.2.1"));
+        assertEquals("::102:304", table.get("::1.2.3.4"));
+
+        assertNull(table.get("::2"));
+        assertNull(table.get("2::"));
+        assertNull(table.get("2001:db8::1:0"));
+        assertNull(table.get("1:2:3:4:5:6:7:8"));
+
+        // Invalid addresses are not mistaken for numeric ones
+        for (final String address : Arrays.asList(":1", "1:", ":::", "1::2::3", "12345::", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7::8",
+                "1.2.3.4::", "::1.2.3", "::g")) {
+            try {
+                table.get(address);
+                fail("Expected an exception for " + address);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testIpv4MappedAddresses() {
+        final AddressTable<String> table = new AddressTable<>();
+        table.put(InetAddressUtils.toIpAddrBytes("10.0.0.1"), "v4");
+        assertEquals("v4", table.get("::ffff:10.0.0.1"));
+        assertEquals("v4", table.get("::ffff:a00:1"));
+
+        final byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        mapped[12] = 10;
+        mapped[15] = 2;
+        table.put(mapped, "mapped");
+        assertEquals("mapped", table.get("10.0.0.2"));
+        assertEquals("mapped", table.get(mapped));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testLookup() {
+        final AddressTable<String> table = new AddressTable<>(1000, 1000);
+        for (int i = 0; i < 1000; i++) {
+            table.put(InetAddressUtils.toIpAddrBytes("10.0." + (i / 256) + "." + (i % 256)), "v4-" + i);
+            table.put(InetAddressUtils.toIpAddrBytes("2001:db8::" + Integer.toHexString(i)), "v6-" + i);
+        }
+        assertEquals(2000, table.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v4-" + i, table.get("10.0." + (i / 256) + "." + (i % 256)));
+            assertEquals("v6-" + i, table.get("2001:db8::" + Integer.toHexString(i)));
+        }
+        // Other notations of the same address
+        assertEquals("v6-1", table.get("2001:0db8:0000:0000:0000:0000:0000:0001"));
+
+        assertNull(table.get("10.0.4.0"));
+        assertNull(table.get("192.0.2.1"));
+        assertNull(table.get("2001:db8::1:0"));
+
+        // Existing entries are replaced
+        table.put(InetAddressUtils.toIpAddrBytes("10.0.0.1"), "replaced");
+        assertEquals("replaced", table.get("10.0.0.1"));
+        assertEquals(2000, table.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        final AddressTable<Integer> table = new AddressTable<>();
+        for (int i = 0; i < 10000; i++) {
+            table.put(new byte[] { 10, 0, (byte) (i >>> 8), (byte) i }, i);
+            table.put(new byte[] { 0x20, 0x01, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) (i >>> 8), (byte) i }, -i);
+        }
+        assertEquals(20000, table.size());
+
+        final int[] visited = new int[2];
+        table.forEach((address, value) -> {
+            final int i = (address[address.length - 2] & 0xff) << 8 | (address[address.length - 1] & 0xff);
+            assertEquals(address.length == 4 ? i : -i, (int) value);
+            visited[address.length == 4 ? 0 : 1]++;
+        });
+        assertEquals(10000, visited[0]);
+        assertEquals(10000, visited[1]);
+    }
+
+    private static long parseIpv4(final String address) {
+        return AddressTable.parseIpv4(address, 0, address.length());
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testCapacity() {
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        // The capacity is not rounded up to the size of the ring
+        assertFalse(buffer.offer(4));
+        assertEquals(3, buffer.size());
+
+        final Integer[] batch = new Integer[2];
+        assertEquals(2, buffer.drain(batch, 2));
+        assertEquals(1, (int) batch[0]);
+        assertEquals(2, (int) batch[1]);
+        assertTrue(buffer.offer(4));
+        assertTrue(buffer.offer(5));
+        assertFalse(buffer.offer(6));
+
+        assertEquals(2, buffer.drain(batch, 2));
+        assertEquals(3, (int) batch[0]);
+        assertEquals(4, (int) batch[1]);
+        assertEquals(1, buffer.drain(batch, 2));
+        assertEquals(5, (int) batch[0]);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testPeekedElementsCountAgainstCapacity() {
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(2);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        final Integer[] batch = new Integer[2];
+        assertEquals(2, buffer.peek(batch, 2));
+        // Peeking does not remove the elements
+        assertFalse(buffer.offer(3));
+        assertEquals(2, buffer.peek(batch, 2));
+
+        buffer.release(1);
+        assertTrue(buffer.offer(3));
+        assertEquals(2, buffer.peek(batch, 2));
+        assertEquals(2, (int) batch[0]);
+        assertEquals(3, (int) batch[1]);
+        buffer.release(2);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int numProducers = 4;
+        final int numElements = 100000;
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < numElements; i++) {
+                    while (!buffer.offer(producer * numElements + i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+
+        // Every producer's elements must be received exactly once and in order
+        final int[] next = new int[numProducers];
+        final Integer[] batch = new Integer[16];
+        int received = 0;
+        while (received < numProducers * numElements) {
+            final int n = buffer.drain(batch, batch.length);
+            for (int i = 0; i < n; i++) {
+                final int producer = batch[i] / numElements;
+                assertEquals(next[producer]++, batch[i] % numElements);
+            }
+            received += n;
+            if (n == 0) {
+                Thread.yield();
+            }
+        }
+        for (final Thread thread : producers) {
+            thread.join();
+        }
+        assertTrue(buffer.isEmpty());
+    }
+}
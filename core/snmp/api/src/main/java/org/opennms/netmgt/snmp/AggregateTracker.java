@@ -30,6 +30,7 @@ package org.opennms.netmgt.snmp;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -226,6 +227,60 @@ public class AggregateTracker extends CollectionTracker {
         }
     }
 
+    /**
+     * Walks a part of the children of an aggregate tracker. The results are passed on
+     * while holding the lock of the aggregate tracker, so that the other parts can be
+     * walked concurrently.
+     */
+    private static final class StreamTracker extends AggregateTracker {
+
+        private StreamTracker(Collection<Collectable> children, AggregateTracker parent) {
+            super(children, parent);
+        }
+
+        @Override
+        protected void storeResult(SnmpResult res) {
+            synchronized (getParent()) {
+                super.storeResult(res);
+            }
+        }
+
+        @Override
+        protected void reportTooBigErr(String msg) {
+            synchronized (getParent()) {
+                super.reportTooBigErr(msg);
+            }
+        }
+
+        @Override
+        protected void reportGenErr(String msg) {
+            synchronized (getParent()) {
+                super.reportGenErr(msg);
+            }
+        }
+
+        @Override
+        protected void reportNoSuchNameErr(String msg) {
+            synchronized (getParent()) {
+                super.reportNoSuchNameErr(msg);
+            }
+        }
+
+        @Override
+        protected void reportFatalErr(final ErrorStatusException ex) {
+            synchronized (getParent()) {
+                super.reportFatalErr(ex);
+            }
+        }
+
+        @Override
+        protected void reportNonFatalErr(final ErrorStatus status) {
+            synchronized (getParent()) {
+                super.reportNonFatalErr(status);
+            }
+        }
+    }
+
     private CollectionTracker[] m_children;
     
     public AggregateTracker(Collection<Collectable> children) {
@@ -335,6 +390,50 @@ public class AggregateTracker extends CollectionTracker {
         return new ChildTrackerResponseProcessor(this, parentBuilder, builders, nonRepeaters, repeaters);
     }
 
+    /**
+     * Splits the unfinished children of this tracker into up to <code>count</code> trackers,
+     * which can be walked concurrently. The results of the returned trackers are passed on
+     * to this tracker, one at a time.
+     *
+     * Once the walks are done, the children must be handed back with {@link #rejoin()}.
+     *
+     * @return the trackers to walk, or only this tracker if it can not be split
+     */
+    public List<CollectionTracker> split(int count) {
+        if (count < 2) {
+            return Collections.singletonList(this);
+        }
+        final List<List<Collectable>> groups = new ArrayList<>(count);
+        int unfinished = 0;
+        for (CollectionTracker child : m_children) {
+            if (child.isFinished()) {
+                continue;
+            }
+            if (groups.size() < count) {
+                groups.add(new ArrayList<>());
+            }
+            groups.get(unfinished++ % count).add(child);
+        }
+        if (groups.size() < 2) {
+            return Collections.singletonList(this);
+        }
+        final List<CollectionTracker> trackers = new ArrayList<>(groups.size());
+        for (List<Collectable> group : groups) {
+            trackers.add(new StreamTracker(group, this));
+        }
+        return trackers;
+    }
+
+    /**
+     * Makes this tracker the parent of its children again, after they were walked
+     * with the trackers returned by {@link #split(int)}.
+     */
+    public void rejoin() {
+        for (CollectionTracker child : m_children) {
+            child.setParent(this);
+        }
+    }
+
     @Override
     public List<WalkRequest> getWalkRequests() {
         final List<WalkRequest> walkRequests = new ArrayList<>();
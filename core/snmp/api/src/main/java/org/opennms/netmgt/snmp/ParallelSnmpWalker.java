@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the independent children of an {@link AggregateTracker} with several
+ * concurrent request streams, one walker per stream.
+ *
+ * The number of streams is limited by {@link SnmpWalkTuning#STREAMS} per walk and by
+ * {@link SnmpWalkTuning#MAX_STREAMS_PER_AGENT} over all of the walks of an agent.
+ * The walk fails as soon as one of the streams fails.
+ */
+public class ParallelSnmpWalker extends SnmpWalker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelSnmpWalker.class);
+
+    private final AggregateTracker m_tracker;
+    private final SnmpWalkTuning m_tuning;
+    private final int m_streams;
+    private final List<SnmpWalker> m_walkers;
+    private final AtomicInteger m_remaining;
+    private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+    private ParallelSnmpWalker(SnmpAgentConfig agentConfig, String name, AggregateTracker tracker, SnmpWalkTuning tuning,
+            List<CollectionTracker> trackers, Function<CollectionTracker, SnmpWalker> walkerFactory) {
+        super(agentConfig.getAddress(), name, tracker);
+        m_tracker = tracker;
+        m_tuning = tuning;
+        m_streams = trackers.size();
+        // The walkers are created last, so that they apply their own settings to the trackers of the streams
+        m_walkers = new ArrayList<>(trackers.size());
+        for (CollectionTracker streamTracker : trackers) {
+            m_walkers.add(walkerFactory.apply(streamTracker));
+        }
+        m_remaining = new AtomicInteger(m_walkers.size());
+    }
+
+    /**
+     * Creates a walker for the given tracker, which uses concurrent request streams if they
+     * are enabled and the tracker can be split.
+     *
+     * @param agentConfig the agent to walk
+     * @param name the name of the walk
+     * @param tracker the tracker to walk
+     * @param walkerFactory creates the walker of a single stream
+     */
+    public static SnmpWalker create(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker, Function<CollectionTracker, SnmpWalker> walkerFactory) {
+        final InetAddress address = agentConfig.getAddress();
+        if (SnmpWalkTuning.STREAMS < 2 || address == null) {
+            return walkerFactory.apply(tracker);
+        }
+        return create(agentConfig, name, tracker, SnmpWalkTuning.STREAMS, SnmpWalkTuning.forAgent(address), walkerFactory);
+    }
+
+    static SnmpWalker create(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker, int streams, SnmpWalkTuning tuning,
+            Function<CollectionTracker, SnmpWalker> walkerFactory) {
+        if (!(tracker instanceof AggregateTracker)) {
+            return walkerFactory.apply(tracker);
+        }
+
+        final int granted = tuning.acquireStreams(streams);
+        final List<CollectionTracker> trackers = granted < 2 ? null : ((AggregateTracker)tracker).split(granted);
+        if (trackers == null || trackers.size() < 2) {
+            tuning.releaseStreams(granted);
+            return walkerFactory.apply(tracker);
+        }
+        tuning.releaseStreams(granted - trackers.size());
+
+        LOG.debug("Walking {} for {} with {} concurrent streams", name, agentConfig.getAddress(), trackers.size());
+        return new ParallelSnmpWalker(agentConfig, name, (AggregateTracker)tracker, tuning, trackers, walkerFactory);
+    }
+
+    @Override
+    public void start() {
+        for (SnmpWalker walker : m_walkers) {
+            walker.setCallback(this::streamCompleted);
+        }
+        for (SnmpWalker walker : m_walkers) {
+            if (m_done.get()) {
+                break;
+            }
+            walker.start();
+        }
+    }
+
+    private void streamCompleted(SnmpWalker walker, Throwable t) {
+        if (t == null) {
+            if (m_remaining.decrementAndGet() == 0 && m_done.compareAndSet(false, true)) {
+                m_tracker.rejoin();
+                m_tuning.releaseStreams(m_streams);
+                handleDone();
+            }
+        } else if (m_done.compareAndSet(false, true)) {
+            // Stop the other streams, their results are not needed anymore
+            for (SnmpWalker other : m_walkers) {
+                if (other != walker) {
+                    other.close();
+                }
+            }
+            m_tracker.rejoin();
+            m_tuning.releaseStreams(m_streams);
+            if (walker.timedOut()) {
+                handleTimeout(walker.getErrorMessage());
+            } else {
+                handleError(walker.getErrorMessage(), t);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (SnmpWalker walker : m_walkers) {
+            walker.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks a {@link CollectionTracker} by sending the requests that are built by
+ * the tracker to the agent, one after the other.
+ */
+public abstract class SnmpPduWalker extends SnmpWalker {
+
+    protected abstract static class WalkerPduBuilder extends PduBuilder {
+        protected WalkerPduBuilder(int maxVarsPerPdu) {
+            super(maxVarsPerPdu);
+        }
+        
+        public abstract void reset();
+    }
+
+    /**
+     * Keeps track of the request that is built by the tracker, in order
+     * to compare it with the response of the agent.
+     */
+    private static final class RequestPduBuilder extends PduBuilder {
+        private final PduBuilder m_delegate;
+        private int m_oids = 0;
+        private int m_nonRepeaters = 0;
+        private int m_maxRepetitions = 0;
+
+        private RequestPduBuilder(PduBuilder delegate) {
+            super(delegate.getMaxVarsPerPdu());
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+            m_oids++;
+            m_delegate.addOid(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
+            m_delegate.setNonRepeaters(numNonRepeaters);
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+            m_delegate.setMaxRepetitions(maxRepetitions);
+        }
+
+        @Override
+        public int getMaxVarsPerPdu() {
+            return m_delegate.getMaxVarsPerPdu();
+        }
+
+        @Override
+        public void setMaxVarsPerPdu(int maxVarsPerPdu) {
+            m_delegate.setMaxVarsPerPdu(maxVarsPerPdu);
+        }
+
+        public int getNonRepeaters() {
+            return m_nonRepeaters;
+        }
+
+        public int getRepeaters() {
+            return m_oids - m_nonRepeaters;
+        }
+
+        public int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+    }
+
+    private final CollectionTracker m_tracker;
+
+    private WalkerPduBuilder m_pduBuilder;
+    private ResponseProcessor m_responseProcessor;
+    private final int m_maxVarsPerPdu;
+
+    private final SnmpWalkTuning m_tuning;
+    private RequestPduBuilder m_request;
+    private long m_requestSent;
+    private long m_latency = -1;
+    private int m_responseVarbinds;
+    private boolean m_responseErrored;
+
+    protected SnmpPduWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
+        super(address, name, tracker);
+
+        m_tuning = SnmpWalkTuning.ADAPTIVE && address != null ? SnmpWalkTuning.forAgent(address) : null;
+
+        m_tracker = tracker;
+        m_tracker.setMaxRepetitions(m_tuning == null ? maxRepetitions : m_tuning.getMaxRepetitions(maxRepetitions));
+        m_tracker.setMaxRetries(maxRetries);
+        
+        m_maxVarsPerPdu = m_tuning == null ? maxVarsPerPdu : m_tuning.getMaxVarsPerPdu(maxVarsPerPdu);
+    }
+
+    protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
+    
+    @Override
+    public void start() {
+        m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
+        try {
+            buildAndSendNextPdu();
+        } catch (Throwable e) {
+            handleFatalError(e);
+        }
+    }
+    
+    public final int getMaxVarsPerPdu() {
+        return (m_pduBuilder == null ? m_maxVarsPerPdu : m_pduBuilder.getMaxVarsPerPdu());
+    }
+
+    protected void buildAndSendNextPdu() throws SnmpException {
+        if (m_tuning != null) {
+            tuneMaxRepetitions();
+        }
+        if (m_tracker.isFinished()) {
+            handleDone();
+        } else {
+            m_pduBuilder.reset();
+            if (m_tuning == null) {
+                m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            } else {
+                m_request = new RequestPduBuilder(m_pduBuilder);
+                m_responseProcessor = m_tracker.buildNextPdu(m_request);
+                m_latency = -1;
+                m_responseVarbinds = 0;
+                m_responseErrored = false;
+                m_requestSent = System.nanoTime();
+            }
+            sendNextPdu(m_pduBuilder);
+        }
+    }
+
+    /**
+     * Adjusts the repetitions of the following requests with the outcome of the last one.
+     */
+    private void tuneMaxRepetitions() {
+        if (m_request != null && m_latency >= 0 && !m_responseErrored) {
+            m_tracker.setMaxRepetitions(m_tuning.responseReceived(m_request.getMaxRepetitions(), m_request.getNonRepeaters(),
+                    m_request.getRepeaters(), m_responseVarbinds, m_latency));
+        }
+        m_request = null;
+    }
+
+    protected abstract void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException;
+
+    @Override
+    protected void handleTimeout(String msg) {
+        if (m_tuning != null) {
+            m_tuning.timedOut();
+        }
+        super.handleTimeout(msg);
+    }
+
+    @Override
+    protected void beforeFinish() {
+        if (m_tuning != null && m_pduBuilder != null && m_pduBuilder.getMaxVarsPerPdu() < m_maxVarsPerPdu) {
+            m_tuning.maxVarsPerPduReduced(m_pduBuilder.getMaxVarsPerPdu());
+        }
+    }
+
+    // processErrors returns true if we need to retry the request and false otherwise
+    protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+        if (m_tuning != null && m_request != null) {
+            m_latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_requestSent);
+            m_responseErrored = errorStatus != ErrorStatus.NO_ERROR.ordinal();
+            // Retry with fewer repetitions before reducing the number of variables
+            if (errorStatus == ErrorStatus.TOO_BIG.ordinal() && m_request.getRepeaters() > 0 && m_request.getMaxRepetitions() > 1) {
+                final int maxRepetitions = m_tuning.tooBig(m_request.getMaxRepetitions());
+                m_tracker.setMaxRepetitions(maxRepetitions);
+                m_tracker.reportTooBigErr("Reducing maxRepetitions to " + maxRepetitions + " for " + getAddress() + ".");
+                return true;
+            }
+        }
+        return m_responseProcessor.processErrors(errorStatus, errorIndex);
+    }
+    
+    protected void processResponse(SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
+        m_responseVarbinds++;
+        m_responseProcessor.processResponse(receivedOid, val);
+    }
+
+}
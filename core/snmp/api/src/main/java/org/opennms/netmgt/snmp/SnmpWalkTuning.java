@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Walk settings learned for a single agent, which are shared by all of the walks
+ * of the agent and are kept for the lifetime of the JVM.
+ *
+ * When adaptive walks are enabled, the number of repetitions requested with GETBULK
+ * is grown while the agent answers quickly with complete responses, and reduced
+ * when the agent is slow, responds with tooBig or does not respond at all.
+ * Responses which contain fewer rows than requested are taken as a sign that the agent
+ * hit its own size limit, so that the repetitions are no longer grown.
+ *
+ * The number of concurrent request streams that walks may open against the agent
+ * is limited here as well, see {@link ParallelSnmpWalker}.
+ */
+public class SnmpWalkTuning {
+
+    /**
+     * Enables the adaptive tuning of the repetitions.
+     */
+    public static final boolean ADAPTIVE = Boolean.getBoolean("org.opennms.snmp.walker.adaptive");
+
+    /**
+     * Upper limit for the learned number of repetitions.
+     */
+    public static final int MAX_REPETITIONS = Math.max(1, Integer.getInteger("org.opennms.snmp.walker.adaptive.maxRepetitions", 100));
+
+    /**
+     * Response time in milliseconds, above which the repetitions are reduced.
+     * The repetitions are only grown if the responses take less than half of it.
+     */
+    public static final long TARGET_LATENCY = Math.max(1, Long.getLong("org.opennms.snmp.walker.adaptive.targetLatency", 500L));
+
+    /**
+     * Number of concurrent request streams used to walk the independent parts of a tracker.
+     */
+    public static final int STREAMS = Math.max(1, Integer.getInteger("org.opennms.snmp.walker.streams", 1));
+
+    /**
+     * Maximum number of concurrent request streams per agent, over all of the walks.
+     */
+    public static final int MAX_STREAMS_PER_AGENT = Math.max(1, Integer.getInteger("org.opennms.snmp.walker.streams.maxPerAgent", 4));
+
+    private static final Map<InetAddress, SnmpWalkTuning> s_agents = new ConcurrentHashMap<>();
+
+    private final int m_maxRepetitionsLimit;
+
+    private final long m_targetLatency;
+
+    private final int m_maxStreams;
+
+    private int m_maxRepetitions = 0;
+
+    private int m_maxVarsPerPdu = 0;
+
+    private int m_streams = 0;
+
+    public SnmpWalkTuning() {
+        this(MAX_REPETITIONS, TARGET_LATENCY, MAX_STREAMS_PER_AGENT);
+    }
+
+    public SnmpWalkTuning(int maxRepetitionsLimit, long targetLatency, int maxStreams) {
+        m_maxRepetitionsLimit = maxRepetitionsLimit;
+        m_targetLatency = targetLatency;
+        m_maxStreams = maxStreams;
+    }
+
+    public static SnmpWalkTuning forAgent(InetAddress address) {
+        return s_agents.computeIfAbsent(address, a -> new SnmpWalkTuning());
+    }
+
+    /**
+     * Forgets the settings learned for all agents.
+     */
+    public static void clear() {
+        s_agents.clear();
+    }
+
+    /**
+     * Returns the learned number of repetitions, or the configured one if nothing
+     * was learned for the agent yet.
+     */
+    public synchronized int getMaxRepetitions(int configured) {
+        if (m_maxRepetitions < 1) {
+            m_maxRepetitions = Math.max(1, Math.min(configured, m_maxRepetitionsLimit));
+        }
+        return m_maxRepetitions;
+    }
+
+    /**
+     * Returns the configured number of variables per PDU, unless the agent was
+     * found to only handle fewer of them.
+     */
+    public synchronized int getMaxVarsPerPdu(int configured) {
+        return m_maxVarsPerPdu < 1 ? configured : Math.min(configured, m_maxVarsPerPdu);
+    }
+
+    /**
+     * Remembers the number of variables per PDU that a walk had to fall back to.
+     */
+    public synchronized void maxVarsPerPduReduced(int maxVarsPerPdu) {
+        if (maxVarsPerPdu > 0 && (m_maxVarsPerPdu < 1 || maxVarsPerPdu < m_maxVarsPerPdu)) {
+            m_maxVarsPerPdu = maxVarsPerPdu;
+        }
+    }
+
+    /**
+     * Updates the repetitions with the response to a GETBULK request.
+     *
+     * @param maxRepetitions the repetitions of the request
+     * @param nonRepeaters the number of non-repeaters of the request
+     * @param repeaters the number of repeaters of the request
+     * @param varbinds the number of variables in the response
+     * @param latency the response time in milliseconds
+     * @return the repetitions to use for the next request
+     */
+    public synchronized int responseReceived(int maxRepetitions, int nonRepeaters, int repeaters, int varbinds, long latency) {
+        if (repeaters < 1 || maxRepetitions < 1) {
+            return getMaxRepetitions(maxRepetitions);
+        }
+        if (latency > m_targetLatency) {
+            m_maxRepetitions = Math.max(1, Math.min(m_maxRepetitions, maxRepetitions * 3 / 4));
+        } else if (latency <= m_targetLatency / 2 && varbinds >= nonRepeaters + repeaters * maxRepetitions && maxRepetitions >= m_maxRepetitions) {
+            // Only grow on complete responses to the current setting, other walks may have reduced it in the meantime
+            m_maxRepetitions = Math.min(m_maxRepetitionsLimit, maxRepetitions + Math.max(1, maxRepetitions / 4));
+        }
+        return getMaxRepetitions(maxRepetitions);
+    }
+
+    /**
+     * Halves the repetitions after the agent responded with tooBig.
+     *
+     * @return the repetitions to use for the next request
+     */
+    public synchronized int tooBig(int maxRepetitions) {
+        m_maxRepetitions = Math.max(1, Math.min(getMaxRepetitions(maxRepetitions), maxRepetitions / 2));
+        return m_maxRepetitions;
+    }
+
+    /**
+     * Halves the repetitions after the agent did not respond, since large responses
+     * are more likely to be dropped.
+     */
+    public synchronized void timedOut() {
+        if (m_maxRepetitions > 0) {
+            m_maxRepetitions = Math.max(1, m_maxRepetitions / 2);
+        }
+    }
+
+    /**
+     * Reserves up to <code>wanted</code> request streams for a walk. A walk is always granted
+     * at least one stream, even if the limit of the agent is already reached.
+     *
+     * @return the number of streams that were reserved, which must be released with {@link #releaseStreams(int)}
+     */
+    public synchronized int acquireStreams(int wanted) {
+        final int granted = Math.max(1, Math.min(wanted, m_maxStreams - m_streams));
+        m_streams += granted;
+        return granted;
+    }
+
+    public synchronized void releaseStreams(int streams) {
+        m_streams = Math.max(0, m_streams - streams);
+    }
+
+    public synchronized int getStreams() {
+        return m_streams;
+    }
+}
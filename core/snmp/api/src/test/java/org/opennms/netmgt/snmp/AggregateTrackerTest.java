@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class AggregateTrackerTest {
+
+    private final SingleResultTracker[] m_children = new SingleResultTracker[] {
+            new SingleResultTracker(".1.3.6.1.2.1"),
+            new SingleResultTracker(".1.3.6.1.2.2"),
+            new SingleResultTracker(".1.3.6.1.2.3"),
+            new SingleResultTracker(".1.3.6.1.2.4"),
+            new SingleResultTracker(".1.3.6.1.2.5")
+    };
+
+    @Test
+    public void canSplitUnfinishedChildren() {
+        final AggregateTracker aggregate = new AggregateTracker(m_children);
+        m_children[0].collect();
+
+        final List<CollectionTracker> streams = aggregate.split(2);
+        assertThat(streams, hasSize(2));
+
+        // The unfinished children are spread over the streams, one after the other
+        assertThat(m_children[0].getParent(), sameInstance(aggregate));
+        assertThat(m_children[1].getParent(), sameInstance(streams.get(0)));
+        assertThat(m_children[2].getParent(), sameInstance(streams.get(1)));
+        assertThat(m_children[3].getParent(), sameInstance(streams.get(0)));
+        assertThat(m_children[4].getParent(), sameInstance(streams.get(1)));
+
+        m_children[1].collect();
+        m_children[3].collect();
+        assertThat(streams.get(0).isFinished(), equalTo(true));
+        assertThat(streams.get(1).isFinished(), equalTo(false));
+        assertThat(aggregate.isFinished(), equalTo(false));
+
+        m_children[2].collect();
+        m_children[4].collect();
+        assertThat(streams.get(1).isFinished(), equalTo(true));
+        assertThat(aggregate.isFinished(), equalTo(true));
+    }
+
+    @Test
+    public void cannotSplitIntoLessThanTwoStreams() {
+        final AggregateTracker aggregate = new AggregateTracker(m_children);
+        assertThat(aggregate.split(1), contains((CollectionTracker)aggregate));
+
+        for (int i = 1; i < m_children.length; i++) {
+            m_children[i].collect();
+        }
+        // Only one of the children is left
+        assertThat(aggregate.split(4), contains((CollectionTracker)aggregate));
+        assertThat(m_children[0].getParent(), sameInstance(aggregate));
+    }
+
+    @Test
+    public void canRejoinChildren() {
+        final AggregateTracker aggregate = new AggregateTracker(m_children);
+        final List<CollectionTracker> streams = aggregate.split(3);
+        assertThat(streams, hasSize(3));
+        for (SingleResultTracker child : m_children) {
+            assertThat(child.getParent(), not(sameInstance(aggregate)));
+        }
+
+        aggregate.rejoin();
+        for (SingleResultTracker child : m_children) {
+            assertThat(child.getParent(), sameInstance(aggregate));
+        }
+    }
+
+    @Test
+    public void streamsPassResultsWhileHoldingTheLockOfTheAggregate() {
+        final AggregateTracker[] aggregate = new AggregateTracker[1];
+        final boolean[] locked = new boolean[] { true };
+        final GatheringTracker gatherer = new GatheringTracker() {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                locked[0] &= Thread.holdsLock(aggregate[0]);
+                super.storeResult(res);
+            }
+        };
+        aggregate[0] = new AggregateTracker(m_children, gatherer);
+
+        final List<CollectionTracker> streams = aggregate[0].split(2);
+        assertThat(streams, hasSize(2));
+        for (SingleResultTracker child : m_children) {
+            child.collect();
+        }
+
+        assertThat(gatherer.getResults(), hasSize(m_children.length));
+        assertThat(locked[0], equalTo(true));
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelSnmpWalkerTest {
+
+    /**
+     * Stands in for the walker of a single stream, which is completed by the test.
+     */
+    private static class StreamWalker extends SnmpWalker {
+        private boolean m_started = false;
+        private boolean m_closed = false;
+
+        private StreamWalker(CollectionTracker tracker) {
+            super(InetAddress.getLoopbackAddress(), "stream", tracker);
+        }
+
+        @Override
+        public void start() {
+            m_started = true;
+        }
+
+        @Override
+        public void close() {
+            m_closed = true;
+        }
+
+        private void complete() {
+            handleDone();
+        }
+
+        private void timeout() {
+            handleTimeout("no response");
+        }
+    }
+
+    private final SnmpAgentConfig m_agentConfig = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+    private final SingleResultTracker[] m_children = new SingleResultTracker[] {
+            new SingleResultTracker(".1.3.6.1.2.1"),
+            new SingleResultTracker(".1.3.6.1.2.2"),
+            new SingleResultTracker(".1.3.6.1.2.3"),
+            new SingleResultTracker(".1.3.6.1.2.4")
+    };
+    private final GatheringTracker m_gatherer = new GatheringTracker();
+    private final List<StreamWalker> m_streams = new ArrayList<>();
+
+    private SnmpWalkTuning m_tuning;
+    private AggregateTracker m_aggregate;
+
+    @Before
+    public void setUp() {
+        m_tuning = new SnmpWalkTuning(20, 100, 4);
+        m_aggregate = new AggregateTracker(m_children, m_gatherer);
+    }
+
+    private SnmpWalker createWalker(CollectionTracker tracker, int streams) {
+        return ParallelSnmpWalker.create(m_agentConfig, "test", tracker, streams, m_tuning, t -> {
+            final StreamWalker stream = new StreamWalker(t);
+            m_streams.add(stream);
+            return stream;
+        });
+    }
+
+    @Test
+    public void canWalkStreamsConcurrently() throws Exception {
+        final SnmpWalker walker = createWalker(m_aggregate, 2);
+        assertThat(walker, instanceOf(ParallelSnmpWalker.class));
+        assertThat(m_streams, hasSize(2));
+        assertThat(m_tuning.getStreams(), equalTo(2));
+
+        final List<Throwable> completions = new ArrayList<>();
+        walker.setCallback((w, t) -> completions.add(t));
+        walker.start();
+        assertThat(m_streams.get(0).m_started, equalTo(true));
+        assertThat(m_streams.get(1).m_started, equalTo(true));
+
+        for (SingleResultTracker child : m_children) {
+            child.collect();
+        }
+        m_streams.get(0).complete();
+        assertThat(walker.waitFor(0), equalTo(false));
+        assertThat(completions, hasSize(0));
+
+        m_streams.get(1).complete();
+        assertThat(walker.waitFor(0), equalTo(true));
+        assertThat(walker.failed(), equalTo(false));
+        assertThat(completions, hasSize(1));
+        assertThat(completions.get(0), equalTo(null));
+
+        // The children were handed back and the streams released
+        for (SingleResultTracker child : m_children) {
+            assertThat(child.getParent(), sameInstance(m_aggregate));
+        }
+        assertThat(m_tuning.getStreams(), equalTo(0));
+        assertThat(m_gatherer.getResults(), hasSize(m_children.length));
+    }
+
+    @Test
+    public void canFailWithFirstFailedStream() throws Exception {
+        final SnmpWalker walker = createWalker(m_aggregate, 2);
+        final List<Throwable> completions = new ArrayList<>();
+        walker.setCallback((w, t) -> completions.add(t));
+        walker.start();
+
+        m_streams.get(1).timeout();
+        assertThat(walker.waitFor(0), equalTo(true));
+        assertThat(walker.failed(), equalTo(true));
+        assertThat(walker.timedOut(), equalTo(true));
+        assertThat(completions, hasSize(1));
+        assertThat(completions.get(0), instanceOf(SnmpAgentTimeoutException.class));
+
+        // The other stream was stopped, the children were handed back and the streams released
+        assertThat(m_streams.get(0).m_closed, equalTo(true));
+        for (SingleResultTracker child : m_children) {
+            assertThat(child.getParent(), sameInstance(m_aggregate));
+        }
+        assertThat(m_tuning.getStreams(), equalTo(0));
+
+        // A stream that completes later on is ignored
+        m_streams.get(0).complete();
+        assertThat(completions, hasSize(1));
+        assertThat(walker.failed(), equalTo(true));
+    }
+
+    @Test
+    public void canWalkWithoutStreams() {
+        // Only aggregates can be split
+        final SnmpWalker single = createWalker(m_children[0], 2);
+        assertThat(single, sameInstance(m_streams.get(0)));
+
+        // No stream is left for the agent
+        assertThat(m_tuning.acquireStreams(3), equalTo(3));
+        final SnmpWalker walker = createWalker(m_aggregate, 2);
+        assertThat(walker, instanceOf(StreamWalker.class));
+        assertThat(m_tuning.getStreams(), equalTo(3));
+    }
+}
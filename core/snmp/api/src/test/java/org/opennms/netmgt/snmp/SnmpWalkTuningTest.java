@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.Test;
+
+public class SnmpWalkTuningTest {
+
+    @Test
+    public void canGrowRepetitionsOnFastCompleteResponses() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+        assertThat(tuning.getMaxRepetitions(8), equalTo(8));
+
+        // 2 repeaters with 8 repetitions
+        assertThat(tuning.responseReceived(8, 0, 2, 16, 10), equalTo(10));
+        assertThat(tuning.responseReceived(10, 0, 2, 20, 10), equalTo(12));
+
+        // Never above the limit
+        assertThat(tuning.responseReceived(18, 0, 2, 36, 10), equalTo(20));
+        assertThat(tuning.responseReceived(20, 0, 2, 40, 10), equalTo(20));
+        assertThat(tuning.getMaxRepetitions(8), equalTo(20));
+    }
+
+    @Test
+    public void canHoldRepetitionsOnTruncatedResponses() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+        assertThat(tuning.getMaxRepetitions(8), equalTo(8));
+
+        // The agent only returned 5 of the 8 rows
+        assertThat(tuning.responseReceived(8, 0, 2, 10, 10), equalTo(8));
+        // Neither fast nor slow
+        assertThat(tuning.responseReceived(8, 0, 2, 16, 80), equalTo(8));
+    }
+
+    @Test
+    public void canReduceRepetitionsOnSlowResponses() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+        assertThat(tuning.getMaxRepetitions(8), equalTo(8));
+
+        assertThat(tuning.responseReceived(8, 0, 2, 16, 150), equalTo(6));
+        assertThat(tuning.responseReceived(6, 0, 2, 12, 150), equalTo(4));
+        assertThat(tuning.responseReceived(1, 0, 2, 2, 150), equalTo(1));
+    }
+
+    @Test
+    public void canReduceRepetitionsOnTooBigAndTimeouts() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+        assertThat(tuning.getMaxRepetitions(10), equalTo(10));
+
+        assertThat(tuning.tooBig(10), equalTo(5));
+        tuning.timedOut();
+        assertThat(tuning.getMaxRepetitions(10), equalTo(2));
+        assertThat(tuning.tooBig(2), equalTo(1));
+        assertThat(tuning.tooBig(1), equalTo(1));
+    }
+
+    @Test
+    public void canRememberReducedMaxVarsPerPdu() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+        assertThat(tuning.getMaxVarsPerPdu(10), equalTo(10));
+
+        tuning.maxVarsPerPduReduced(5);
+        assertThat(tuning.getMaxVarsPerPdu(10), equalTo(5));
+        assertThat(tuning.getMaxVarsPerPdu(3), equalTo(3));
+
+        // Only ever reduced
+        tuning.maxVarsPerPduReduced(8);
+        assertThat(tuning.getMaxVarsPerPdu(10), equalTo(5));
+    }
+
+    @Test
+    public void canLimitStreamsPerAgent() {
+        final SnmpWalkTuning tuning = new SnmpWalkTuning(20, 100, 4);
+
+        assertThat(tuning.acquireStreams(3), equalTo(3));
+        assertThat(tuning.acquireStreams(3), equalTo(1));
+        // Always at least one stream
+        assertThat(tuning.acquireStreams(3), equalTo(1));
+        assertThat(tuning.getStreams(), equalTo(5));
+
+        tuning.releaseStreams(3);
+        tuning.releaseStreams(1);
+        assertThat(tuning.getStreams(), equalTo(1));
+        assertThat(tuning.acquireStreams(4), equalTo(3));
+    }
+}
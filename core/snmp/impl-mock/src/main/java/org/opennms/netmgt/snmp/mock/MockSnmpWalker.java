@@ -40,12 +40,12 @@ import org.opennms.netmgt.snmp.SnmpAgentAddress;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpPduWalker;
 import org.opennms.netmgt.snmp.SnmpValue;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MockSnmpWalker extends SnmpWalker {
+public class MockSnmpWalker extends SnmpPduWalker {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MockSnmpWalker.class);
 
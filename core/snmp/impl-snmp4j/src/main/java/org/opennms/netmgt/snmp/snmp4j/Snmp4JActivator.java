@@ -52,7 +52,7 @@ public class Snmp4JActivator implements BundleActivator {
 
     @Override
     public void stop(BundleContext context) throws Exception {
-
+        Snmp4JStrategy.closeSessionPool();
     }
 
 }
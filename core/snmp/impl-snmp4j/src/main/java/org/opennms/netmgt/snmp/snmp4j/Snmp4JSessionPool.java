@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * A small, fixed set of SNMP sessions shared by all of the SNMPv1 and SNMPv2c requests,
+ * instead of opening a new socket and listener thread for every request.
+ *
+ * Each session owns a UDP socket, and the responses received on it are matched to their
+ * requests by request ID. The requests to the same agent always use the same socket.
+ *
+ * Retries are performed here rather than by SNMP4J so that they can be counted, and the
+ * number of requests in flight to a single agent can be limited, in which case the
+ * additional requests are queued until a response is received or the request times out.
+ */
+public class Snmp4JSessionPool implements Snmp4JSessionPoolMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * The queued requests which were released on the current thread. They are run one after the other
+     * by the outermost release, so that requests which fail right away don't release the next ones
+     * recursively.
+     */
+    private static final ThreadLocal<Deque<Runnable>> s_releasedRequests = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final Snmp[] m_sessions;
+
+    private final int m_maxInFlightPerAgent;
+
+    private final Map<Address, AgentQueue> m_agentQueues = new ConcurrentHashMap<>();
+
+    /**
+     * The response listeners are not invoked on the listener threads of the sockets,
+     * so that slow callers don't delay the responses to other requests.
+     */
+    private final ExecutorService m_responseExecutor;
+
+    private final AtomicLong m_inFlight = new AtomicLong();
+
+    private final AtomicLong m_queued = new AtomicLong();
+
+    private final AtomicLong m_requests = new AtomicLong();
+
+    private final AtomicLong m_timeouts = new AtomicLong();
+
+    private final AtomicLong m_retries = new AtomicLong();
+
+    /**
+     * @param numSessions the number of sessions, and thus sockets, to open
+     * @param maxInFlightPerAgent maximum number of requests in flight per agent, or 0 for no limit
+     */
+    public Snmp4JSessionPool(final int numSessions, final int maxInFlightPerAgent) throws IOException {
+        this(numSessions, maxInFlightPerAgent, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param numSessions the number of sessions, and thus sockets, to open
+     * @param maxInFlightPerAgent maximum number of requests in flight per agent, or 0 for no limit
+     * @param responseThreads the number of threads invoking the response listeners
+     */
+    public Snmp4JSessionPool(final int numSessions, final int maxInFlightPerAgent, final int responseThreads) throws IOException {
+        if (numSessions < 1) {
+            throw new IllegalArgumentException("numSessions must be >= 1");
+        }
+        if (responseThreads < 1) {
+            throw new IllegalArgumentException("responseThreads must be >= 1");
+        }
+        m_maxInFlightPerAgent = maxInFlightPerAgent;
+        m_sessions = new Snmp[numSessions];
+        try {
+            for (int i = 0; i < numSessions; i++) {
+                final MessageDispatcher disp = new MessageDispatcherImpl();
+                disp.addMessageProcessingModel(new MPv1());
+                disp.addMessageProcessingModel(new MPv2c());
+                m_sessions[i] = new Snmp(disp, new DefaultUdpTransportMapping());
+                m_sessions[i].listen();
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        m_responseExecutor = Executors.newFixedThreadPool(responseThreads, r -> {
+            final Thread thread = new Thread(r, "SNMP4J-Response-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOG.info("Opened {} shared SNMP sessions, with at most {} requests in flight per agent.", numSessions,
+                maxInFlightPerAgent > 0 ? maxInFlightPerAgent : "unlimited");
+    }
+
+    /**
+     * Sends the given request. The listener is invoked once with the response, or with
+     * an event without response if the request timed out after all of its retries, or
+     * with an event holding the error if the request could not be sent.
+     */
+    public void send(final Snmp4JAgentConfig agentConfig, final PDU pdu, final ResponseListener listener) {
+        if (agentConfig.isSnmpV3()) {
+            throw new IllegalArgumentException("SNMPv3 requests are not supported by the shared sessions.");
+        }
+        final Target target = agentConfig.getTarget();
+        final int retries = target.getRetries();
+        target.setRetries(0);
+
+        final Address address = target.getAddress();
+        final Snmp session = m_sessions[Math.floorMod(address.hashCode(), m_sessions.length)];
+        final AgentQueue agentQueue = m_maxInFlightPerAgent > 0 ? m_agentQueues.computeIfAbsent(address, a -> new AgentQueue()) : null;
+
+        m_requests.incrementAndGet();
+        final Runnable request = () -> sendAttempt(session, pdu, target, retries, agentQueue, listener);
+        if (agentQueue == null) {
+            request.run();
+        } else {
+            agentQueue.submit(request);
+        }
+    }
+
+    private void sendAttempt(final Snmp session, final PDU pdu, final Target target, final int retriesLeft, final AgentQueue agentQueue, final ResponseListener listener) {
+        m_inFlight.incrementAndGet();
+        try {
+            session.send(pdu, target, null, new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    // The request must be cancelled explicitly, since the session remains open
+                    session.cancel(responseEvent.getRequest(), this);
+                    m_inFlight.decrementAndGet();
+
+                    if (responseEvent.getResponse() == null && responseEvent.getError() == null) {
+                        m_timeouts.incrementAndGet();
+                        if (retriesLeft > 0) {
+                            m_retries.incrementAndGet();
+                            sendAttempt(session, pdu, target, retriesLeft - 1, agentQueue, listener);
+                            return;
+                        }
+                    }
+                    complete(agentQueue, listener, responseEvent);
+                }
+            });
+        } catch (final Exception e) {
+            m_inFlight.decrementAndGet();
+            LOG.error("send: error during SNMP operation", e);
+            complete(agentQueue, listener, new ResponseEvent(session, null, pdu, null, null, e));
+        }
+    }
+
+    private void complete(final AgentQueue agentQueue, final ResponseListener listener, final ResponseEvent responseEvent) {
+        if (agentQueue != null) {
+            agentQueue.release();
+        }
+        m_responseExecutor.execute(() -> listener.onResponse(responseEvent));
+    }
+
+    public void close() {
+        for (final Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.error("error closing SNMP connection", e);
+            }
+        }
+        if (m_responseExecutor != null) {
+            m_responseExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public int getSessions() {
+        return m_sessions.length;
+    }
+
+    @Override
+    public long getInFlightRequests() {
+        return m_inFlight.get();
+    }
+
+    @Override
+    public long getQueuedRequests() {
+        return m_queued.get();
+    }
+
+    @Override
+    public long getRequests() {
+        return m_requests.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return m_timeouts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return m_retries.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Snmp4JSessionPool[sessions=%d, inFlight=%d, queued=%d, requests=%d, timeouts=%d, retries=%d]",
+                getSessions(), getInFlightRequests(), getQueuedRequests(), getRequests(), getTimeouts(), getRetries());
+    }
+
+    /**
+     * Limits the number of requests in flight to a single agent.
+     */
+    private class AgentQueue {
+        private final Queue<Runnable> m_waiting = new ArrayDeque<>();
+        private int m_active = 0;
+
+        private void submit(final Runnable request) {
+            synchronized (this) {
+                if (m_active >= m_maxInFlightPerAgent) {
+                    m_waiting.add(request);
+                    m_queued.incrementAndGet();
+                    return;
+                }
+                m_active++;
+            }
+            request.run();
+        }
+
+        private void release() {
+            final Runnable next;
+            synchronized (this) {
+                next = m_waiting.poll();
+                if (next == null) {
+                    m_active--;
+                    return;
+                }
+                m_queued.decrementAndGet();
+            }
+            // The slot is handed over to the next request
+            final Deque<Runnable> released = s_releasedRequests.get();
+            released.addLast(next);
+            if (released.size() > 1) {
+                // An outer release on this thread is running the released requests
+                return;
+            }
+            while (!released.isEmpty()) {
+                try {
+                    released.peekFirst().run();
+                } finally {
+                    released.pollFirst();
+                }
+            }
+        }
+    }
+}
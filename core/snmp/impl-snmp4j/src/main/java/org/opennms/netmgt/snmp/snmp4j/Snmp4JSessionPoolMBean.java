@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+/**
+ * The statistics of the {@link Snmp4JSessionPool}, published over JMX.
+ */
+public interface Snmp4JSessionPoolMBean {
+
+    /**
+     * @return the number of shared sessions, and thus sockets
+     */
+    int getSessions();
+
+    /**
+     * @return the number of requests that were sent and are awaiting a response
+     */
+    long getInFlightRequests();
+
+    /**
+     * @return the number of requests waiting for the number of requests in flight to their agent to drop
+     */
+    long getQueuedRequests();
+
+    /**
+     * @return the number of requests sent through the pool, not counting the retries
+     */
+    long getRequests();
+
+    /**
+     * @return the number of attempts, including retries, that timed out
+     */
+    long getTimeouts();
+
+    /**
+     * @return the number of retries sent after a timeout
+     */
+    long getRetries();
+
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.snmp.snmp4j;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
@@ -48,8 +49,13 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ParallelSnmpWalker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpConfiguration;
 import org.opennms.netmgt.snmp.SnmpException;
@@ -119,6 +125,19 @@ public class Snmp4JStrategy implements SnmpStrategy {
     private static long s_trackSummaryDelay = SystemProperties.getLong("org.opennms.core.snmp.trackSummaryDelay", 60);
     private static long s_trackSummaryLimit = SystemProperties.getLong("org.opennms.core.snmp.trackSummaryLimit", 10);
 
+    /**
+     * When enabled, the SNMPv1 and SNMPv2c requests are sent through a small set of shared sessions
+     * instead of opening a new session for every request.
+     */
+    private static volatile boolean s_pooledTransport = Boolean.getBoolean("org.opennms.snmp.snmp4j.pooledTransport");
+    private static int s_pooledTransportSockets = SystemProperties.getInteger("org.opennms.snmp.snmp4j.pooledTransport.sockets", 4);
+    private static int s_pooledTransportMaxInFlightPerAgent = SystemProperties.getInteger("org.opennms.snmp.snmp4j.pooledTransport.maxInFlightPerAgent", 0);
+    private static int s_pooledTransportResponseThreads = SystemProperties.getInteger("org.opennms.snmp.snmp4j.pooledTransport.responseThreads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static volatile Snmp4JSessionPool s_sessionPool;
+    private static boolean s_sessionPoolShutdownHook = false;
+
+    private static final String SESSION_POOL_MBEAN_NAME = "org.opennms.netmgt.snmp.snmp4j:type=SessionPool";
+
     /**
      * Initialize for v3 communications
      */
@@ -171,7 +190,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        return ParallelSnmpWalker.create(snmpAgentConfig, name, tracker, t -> new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, t));
     }
     
     /**
@@ -306,6 +325,20 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse && !agentConfig.isSnmpV3()) {
+            final Snmp4JSessionPool sessionPool = getSessionPool();
+            if (sessionPool != null) {
+                sessionPool.send(agentConfig, pdu, responseEvent -> {
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(new SnmpException(e));
+                    }
+                });
+                return;
+            }
+        }
+
         Snmp session;
 
         try {
@@ -370,6 +403,73 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    /**
+     * Returns the shared sessions used to send the SNMPv1 and SNMPv2c requests, or <code>null</code>
+     * if every request should use its own session.
+     */
+    public static Snmp4JSessionPool getSessionPool() {
+        if (s_sessionPool == null && s_pooledTransport) {
+            synchronized (Snmp4JStrategy.class) {
+                if (s_sessionPool == null && s_pooledTransport) {
+                    try {
+                        final Snmp4JSessionPool sessionPool = new Snmp4JSessionPool(s_pooledTransportSockets, s_pooledTransportMaxInFlightPerAgent, s_pooledTransportResponseThreads);
+                        registerSessionPoolMBean(sessionPool);
+                        if (!s_sessionPoolShutdownHook) {
+                            Runtime.getRuntime().addShutdownHook(new Thread(Snmp4JStrategy::closeSessionPool, "SNMP4J-Session-Pool-Shutdown"));
+                            s_sessionPoolShutdownHook = true;
+                        }
+                        s_sessionPool = sessionPool;
+                    } catch (final IOException e) {
+                        LOG.error("Could not open the shared SNMP sessions. Using a session per request instead.", e);
+                        s_pooledTransport = false;
+                    }
+                }
+            }
+        }
+        return s_sessionPool;
+    }
+
+    /**
+     * Closes the shared sessions, if they were opened. They are opened again by the next request
+     * that uses them.
+     */
+    public static void closeSessionPool() {
+        final Snmp4JSessionPool sessionPool;
+        synchronized (Snmp4JStrategy.class) {
+            sessionPool = s_sessionPool;
+            s_sessionPool = null;
+        }
+        if (sessionPool != null) {
+            unregisterSessionPoolMBean();
+            sessionPool.close();
+        }
+    }
+
+    private static void registerSessionPoolMBean(final Snmp4JSessionPool sessionPool) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(SESSION_POOL_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(sessionPool, name);
+        } catch (final JMException e) {
+            LOG.warn("Could not publish the statistics of the shared SNMP sessions.", e);
+        }
+    }
+
+    private static void unregisterSessionPoolMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(SESSION_POOL_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            LOG.warn("Could not unpublish the statistics of the shared SNMP sessions.", e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
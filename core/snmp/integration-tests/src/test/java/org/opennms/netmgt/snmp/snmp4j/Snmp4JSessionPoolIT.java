@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.snmp4j.PDU;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Tests for the shared sessions of the SNMP4J strategy.
+ */
+public class Snmp4JSessionPoolIT extends MockSnmpAgentITCase {
+
+    private Snmp4JSessionPool m_pool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closePool() {
+        if (m_pool != null) {
+            m_pool.close();
+        }
+    }
+
+    @Test
+    public void testSendThroughSharedSessions() throws Exception {
+        m_pool = new Snmp4JSessionPool(2, 0, 2);
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+
+        final List<CompletableFuture<ResponseEvent>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(send(agentConfig, createGetPdu(agentConfig)));
+        }
+        for (final CompletableFuture<ResponseEvent> response : responses) {
+            final PDU pdu = response.get(10, TimeUnit.SECONDS).getResponse();
+            assertNotNull("response should not be null", pdu);
+            assertEquals(42, pdu.get(0).getVariable().toInt());
+        }
+
+        assertEquals(10, m_pool.getRequests());
+        assertEquals(0, m_pool.getInFlightRequests());
+        assertEquals(0, m_pool.getTimeouts());
+        assertEquals(0, m_pool.getRetries());
+    }
+
+    @Test
+    public void testRetryTimedOutRequests() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 0, 1);
+        try (final DatagramSocket silentAgent = new DatagramSocket(0, InetAddressUtils.ONE_TWENTY_SEVEN)) {
+            final Snmp4JAgentConfig agentConfig = createSilentAgentConfig(silentAgent, 100, 2);
+
+            final ResponseEvent response = send(agentConfig, createGetPdu(agentConfig)).get(10, TimeUnit.SECONDS);
+            assertNull(response.getResponse());
+            assertNull(response.getError());
+        }
+
+        assertEquals(1, m_pool.getRequests());
+        assertEquals(3, m_pool.getTimeouts());
+        assertEquals(2, m_pool.getRetries());
+        assertEquals(0, m_pool.getInFlightRequests());
+    }
+
+    @Test
+    public void testQueuedRequestsFailingRightAwayDontRecurse() throws Exception {
+        m_pool = new Snmp4JSessionPool(1, 1, 2);
+        try (final DatagramSocket silentAgent = new DatagramSocket(0, InetAddressUtils.ONE_TWENTY_SEVEN)) {
+            final Snmp4JAgentConfig agentConfig = createSilentAgentConfig(silentAgent, 500, 0);
+
+            // The first request holds the only slot of the agent until it times out
+            final CompletableFuture<ResponseEvent> first = send(agentConfig, createGetPdu(agentConfig));
+
+            // The others can not be sent and fail as soon as they get the slot, one after the other
+            final int numQueued = 10000;
+            final CountDownLatch failed = new CountDownLatch(numQueued);
+            for (int i = 0; i < numQueued; i++) {
+                m_pool.send(agentConfig, null, responseEvent -> {
+                    if (responseEvent.getError() != null) {
+                        failed.countDown();
+                    }
+                });
+            }
+            assertEquals(numQueued, m_pool.getQueuedRequests());
+
+            assertNull(first.get(10, TimeUnit.SECONDS).getResponse());
+            assertTrue("queued requests should have failed", failed.await(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, m_pool.getQueuedRequests());
+        assertEquals(0, m_pool.getInFlightRequests());
+    }
+
+    private CompletableFuture<ResponseEvent> send(final Snmp4JAgentConfig agentConfig, final PDU pdu) {
+        final CompletableFuture<ResponseEvent> future = new CompletableFuture<>();
+        m_pool.send(agentConfig, pdu, future::complete);
+        return future;
+    }
+
+    private static PDU createGetPdu(final Snmp4JAgentConfig agentConfig) {
+        final PDU pdu = agentConfig.createPdu(PDU.GET);
+        pdu.add(new VariableBinding(new OID(".1.3.5.1.1.3.0")));
+        return pdu;
+    }
+
+    private Snmp4JAgentConfig createSilentAgentConfig(final DatagramSocket silentAgent, final int timeout, final int retries) {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setAddress(InetAddressUtils.ONE_TWENTY_SEVEN);
+        config.setPort(silentAgent.getLocalPort());
+        config.setTimeout(timeout);
+        config.setRetries(retries);
+        return new Snmp4JAgentConfig(config);
+    }
+}
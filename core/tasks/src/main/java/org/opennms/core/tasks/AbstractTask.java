@@ -28,6 +28,9 @@
 
 package org.opennms.core.tasks;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
@@ -67,6 +70,14 @@ public abstract class AbstractTask implements Task {
     private final AtomicInteger m_pendingPrereqs = new AtomicInteger(0);
     private final Set<AbstractTask> m_dependents = new CopyOnWriteArraySet<>();
     private final Set<AbstractTask> m_prerequisites = new CopyOnWriteArraySet<>();
+
+    /**
+     * The dependents registered by the {@link ConcurrentTaskCoordinator}, guarded by
+     * {@link #m_waitingLock}. These are released once, when this task completes.
+     */
+    private final Object m_waitingLock = new Object();
+    private List<AbstractTask> m_waitingDependents = null;
+    private boolean m_waitingReleased = false;
     
     private final TaskMonitor m_monitor;
     
@@ -174,6 +185,56 @@ public abstract class AbstractTask implements Task {
         m_dependents.clear();
     }
 
+    /**
+     * Registers dependent to be released when this task completes. Unlike {@link #doAddDependent(AbstractTask)},
+     * this may be called from any thread.
+     *
+     * @return <code>false</code> if this task has already released its dependents
+     */
+    final boolean addWaitingDependent(final AbstractTask dependent) {
+        synchronized (m_waitingLock) {
+            if (m_waitingReleased) {
+                return false;
+            }
+            if (m_waitingDependents == null) {
+                m_waitingDependents = new ArrayList<>(1);
+            }
+            m_waitingDependents.add(dependent);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the dependents waiting for this task and refuses any further ones.
+     */
+    final List<AbstractTask> releaseWaitingDependents() {
+        synchronized (m_waitingLock) {
+            m_waitingReleased = true;
+            final List<AbstractTask> dependents = m_waitingDependents;
+            m_waitingDependents = null;
+            return dependents == null ? Collections.emptyList() : dependents;
+        }
+    }
+
+    final List<AbstractTask> getWaitingDependents() {
+        synchronized (m_waitingLock) {
+            return m_waitingDependents == null ? Collections.emptyList() : new ArrayList<>(m_waitingDependents);
+        }
+    }
+
+    /**
+     * Called once this task was registered as a waiting dependent of prereq. The pending
+     * prerequisite counted for it is released by {@link #waitingPrerequisiteCompleted(AbstractTask)}.
+     */
+    final void waitingPrerequisiteAdded(final AbstractTask prereq) {
+        notifyPrerequisiteAdded(prereq);
+    }
+
+    final void waitingPrerequisiteCompleted(final AbstractTask prereq) {
+        notifyPrerequisiteCompleted(prereq);
+        decrPendingPrereqCount();
+    }
+
 
     final void scheduled() {
         setState(State.NEW, State.SCHEDULED);
@@ -201,6 +262,24 @@ public abstract class AbstractTask implements Task {
         }
     }
 
+    /**
+     * Like {@link #submitIfReady()}, but for the {@link ConcurrentTaskCoordinator}, which may make a task
+     * ready from several threads at once. The task is claimed before it is submitted, so that it is only
+     * submitted once, and it is in the SUBMITTED state before it can complete on another thread.
+     */
+    final void claimAndSubmitIfReady() {
+        if (isReady() && m_state.compareAndSet(State.SCHEDULED, State.SUBMITTED)) {
+            notifySubmitted();
+            try {
+                doSubmit();
+            } catch (Throwable e) {
+                LOG.error("Unexpected throwable while trying to submit task: " + this, e);
+            } finally {
+                completeSubmit();
+            }
+        }
+    }
+
     /**
      * This method submits a task to be executed and is called when all dependencies are completed for that task
      * This method should place a runnable on an executor or submit the task in some other way so that it will
@@ -235,10 +314,14 @@ public abstract class AbstractTask implements Task {
         return isInReadyState() && m_prerequisites.isEmpty() && getPendingPrereqCount() == 0;
     }
 
-    private final int getPendingPrereqCount() {
+    final int getPendingPrereqCount() {
         return m_pendingPrereqs.get();
     }
 
+    final State getState() {
+        return m_state.get();
+    }
+
     private final boolean isInReadyState() {
         return m_state.get() == State.SCHEDULED;
     }
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2008-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Base class of the {@link TaskCoordinator} implementations, which creates the tasks
+ * and manages the named executors that the tasks are run on.
+ *
+ * @author brozow
+ */
+public abstract class AbstractTaskCoordinator implements TaskCoordinator, InitializingBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractTaskCoordinator.class);
+
+    private final ConcurrentHashMap<String, Executor> m_taskExecutors = new ConcurrentHashMap<String, Executor>();
+
+    private String m_defaultExecutorName = TaskCoordinator.DEFAULT_EXECUTOR;
+
+    /**
+     * <p>setDefaultExecutor</p>
+     *
+     * @param executorName a {@link java.lang.String} object.
+     */
+    public final void setDefaultExecutor(String executorName) {
+        m_defaultExecutorName = executorName;
+    }
+    
+    /**
+     * <p>afterPropertiesSet</p>
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(m_defaultExecutorName, "defaultExecutor must be set");
+        Assert.notNull(getExecutor(m_defaultExecutorName), "defaultExecutor must be set to the name of an added executor");
+    }
+    
+    /**
+     * <p>createTask</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @param r a {@link java.lang.Runnable} object.
+     * @return a {@link org.opennms.core.tasks.SyncTask} object.
+     */
+    @Override
+    public SyncTask createTask(ContainerTask<?> parent, Runnable r) {
+        return new SyncTask(this, parent, r);
+    }
+    
+    /**
+     * <p>createTask</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @param r a {@link java.lang.Runnable} object.
+     * @param schedulingHint a {@link java.lang.String} object.
+     * @return a {@link org.opennms.core.tasks.SyncTask} object.
+     */
+    @Override
+    public SyncTask createTask(ContainerTask<?> parent, Runnable r, String schedulingHint) {
+        return new SyncTask(this, parent, r, schedulingHint);
+    }
+    
+    /**
+     * <p>createTask</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @param async a {@link org.opennms.core.tasks.Async} object.
+     * @param cb a {@link org.opennms.core.tasks.Callback} object.
+     * @param <T> a T object.
+     * @return a {@link org.opennms.core.tasks.AsyncTask} object.
+     */
+    @Override
+    public <T> AsyncTask<T> createTask(ContainerTask<?> parent, Async<T> async, Callback<T> cb) {
+        return new AsyncTask<T>(this, parent, async, cb);
+    }
+
+    /**
+     * <p>createBatch</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
+     */
+    @Override
+    public TaskBuilder<BatchTask> createBatch(ContainerTask<?> parent) {
+        return new TaskBuilder<BatchTask>(new BatchTask(this, parent));
+    }
+    
+    /**
+     * <p>createBatch</p>
+     *
+     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
+     */
+    @Override
+    public TaskBuilder<BatchTask> createBatch() {
+        return createBatch((ContainerTask<?>)null);
+    }
+    
+    /**
+     * <p>createBatch</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @param tasks a {@link java.lang.Runnable} object.
+     * @return a {@link org.opennms.core.tasks.BatchTask} object.
+     */
+    @Override
+    public BatchTask createBatch(ContainerTask<?> parent, Runnable... tasks) {
+        return createBatch(parent).add(tasks).get(parent);
+    }
+
+    
+    /**
+     * <p>createBatch</p>
+     *
+     * @param tasks a {@link java.lang.Runnable} object.
+     * @return a {@link org.opennms.core.tasks.BatchTask} object.
+     */
+    @Override
+    public BatchTask createBatch(Runnable... tasks) {
+        return createBatch().add(tasks).get();
+    }
+
+    
+    /**
+     * <p>createSequence</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
+     */
+    @Override
+    public TaskBuilder<SequenceTask> createSequence(ContainerTask<?> parent) {
+        return new TaskBuilder<SequenceTask>(new SequenceTask(this, parent));
+    }
+    
+    /**
+     * <p>createSequence</p>
+     *
+     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
+     */
+    @Override
+    public TaskBuilder<SequenceTask> createSequence() {
+        return createSequence((ContainerTask<?>)null);
+    }
+    
+    /**
+     * <p>createSequence</p>
+     *
+     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
+     * @param tasks a {@link java.lang.Runnable} object.
+     * @return a {@link org.opennms.core.tasks.SequenceTask} object.
+     */
+    @Override
+    public SequenceTask createSequence(ContainerTask<?> parent, Runnable... tasks) {
+        return createSequence(parent).add(tasks).get(parent);
+    }
+
+    /**
+     * Returns the executor with the given name, or the default executor if there is none.
+     */
+    protected final Executor getExecutor(String name) {
+        Executor executor = m_taskExecutors.get(name);
+        if (executor == null) {
+            Executor defaultExecutor = m_taskExecutors.get(m_defaultExecutorName);
+            if (defaultExecutor == null) {
+                throw new IllegalStateException("No default executor in " + getClass().getName());
+            } else {
+                return defaultExecutor;
+            }
+        } else {
+            //LOG.debug("Using executor {}: {}", name, executor);
+            return executor;
+        }
+    }
+
+    /**
+     * Returns the name of the executor that {@link #getExecutor(String)} returns for the given name.
+     */
+    protected final String getExecutorName(String name) {
+        return m_taskExecutors.containsKey(name) ? name : m_defaultExecutorName;
+    }
+    
+    /**
+     * <p>addExecutor</p>
+     *
+     * @param executorName a {@link java.lang.String} object.
+     * @param executor a {@link java.util.concurrent.Executor} object.
+     */
+    @Override
+    public final void addOrUpdateExecutor(String executorName, Executor executor) {
+        Executor service = m_taskExecutors.put(executorName, executor);
+        if (service != null) {
+            LOG.info("Replacing executor {} with {}", executorName, executor);
+        }
+    }
+
+    /**
+     * <p>setExecutors</p>
+     *
+     * @param executors a {@link java.util.Map} object.
+     */
+    @Override
+    public final void setExecutors(Map<String,Executor> executors) {
+        m_taskExecutors.clear();
+        for (Map.Entry<String, Executor> e : executors.entrySet()) {
+            addOrUpdateExecutor(e.getKey(), e.getValue());
+        }
+    }
+
+}
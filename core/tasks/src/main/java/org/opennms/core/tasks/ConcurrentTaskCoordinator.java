@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * This {@link TaskCoordinator} resolves the task dependencies on the threads that schedule
+ * and complete the tasks, instead of a single scheduler thread like the {@link DefaultTaskCoordinator}.
+ *
+ * <p>Every task counts its pending prerequisites atomically, and every task keeps the
+ * dependents that are waiting for it. When a task completes, the thread that completed it
+ * releases its dependents and submits each one whose last prerequisite this was to its
+ * executor right away. There is no central queue and no loop delay.</p>
+ *
+ * <p>Containers and triggers complete without running on an executor. A completion
+ * that cascades through them is processed iteratively, so that deep task trees do
+ * not grow the stack of the completing thread.</p>
+ */
+public class ConcurrentTaskCoordinator extends AbstractTaskCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentTaskCoordinator.class);
+
+    /**
+     * Counters for the work that was handed to one of the executors.
+     */
+    public static final class ExecutorMetrics {
+        private final AtomicLong m_submitted = new AtomicLong();
+        private final AtomicLong m_started = new AtomicLong();
+        private final AtomicLong m_completed = new AtomicLong();
+
+        /**
+         * Returns the number of tasks that were submitted to the executor.
+         */
+        public long getSubmitted() {
+            return m_submitted.get();
+        }
+
+        /**
+         * Returns the number of tasks that finished running on the executor.
+         */
+        public long getCompleted() {
+            return m_completed.get();
+        }
+
+        /**
+         * Returns the number of tasks that are waiting in the queue of the executor.
+         */
+        public long getQueued() {
+            return Math.max(0, m_submitted.get() - m_started.get());
+        }
+
+        /**
+         * Returns the number of tasks that are running on the executor.
+         */
+        public long getActive() {
+            return Math.max(0, m_started.get() - m_completed.get());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("submitted=%d, queued=%d, active=%d, completed=%d", getSubmitted(), getQueued(), getActive(), getCompleted());
+        }
+    }
+
+    private final Map<String, ExecutorMetrics> m_executorMetrics = new ConcurrentHashMap<>();
+
+    private final Set<AbstractTask> m_inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The completions pending on the current thread, see {@link #markTaskAsCompleted(AbstractTask)}.
+     */
+    private final ThreadLocal<Deque<AbstractTask>> m_completions = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * <p>Constructor for ConcurrentTaskCoordinator.</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     */
+    public ConcurrentTaskCoordinator(String name) {
+        // By default, add one single-threaded task executor to the coordinator
+        addOrUpdateExecutor(
+            TaskCoordinator.DEFAULT_EXECUTOR,
+            Executors.newSingleThreadExecutor(
+                new LogPreservingThreadFactory(name + "-" + TaskCoordinator.DEFAULT_EXECUTOR, 1)
+            )
+        );
+    }
+
+    /**
+     * The loop delay is ignored, since there is no scheduler loop.
+     *
+     * @param millis a long.
+     */
+    @Override
+    public final void setLoopDelay(long millis) {
+    }
+
+    /**
+     * <p>schedule</p>
+     *
+     * @param task a {@link org.opennms.core.tasks.AbstractTask} object.
+     */
+    @Override
+    public void schedule(final AbstractTask task) {
+        m_inFlight.add(task);
+        task.scheduled();
+        task.claimAndSubmitIfReady();
+    }
+
+    /**
+     * <p>addDependency</p>
+     *
+     * @param prereq a {@link org.opennms.core.tasks.AbstractTask} object.
+     * @param dependent a {@link org.opennms.core.tasks.AbstractTask} object.
+     */
+    @Override
+    public void addDependency(AbstractTask prereq, AbstractTask dependent) {
+        Assert.notNull(prereq, "prereq must not be null");
+        Assert.notNull(dependent, "dependent must not be null");
+        // The count is taken before registering, so that the dependent can not be submitted in between
+        dependent.incrPendingPrereqCount();
+        if (prereq.addWaitingDependent(dependent)) {
+            dependent.waitingPrerequisiteAdded(prereq);
+        } else {
+            // The prereq has already completed
+            dependent.decrPendingPrereqCount();
+            dependent.claimAndSubmitIfReady();
+        }
+    }
+
+    @Override
+    public void markTaskAsCompleted(AbstractTask task) {
+        final Deque<AbstractTask> completions = m_completions.get();
+        completions.addLast(task);
+        if (completions.size() > 1) {
+            // An outer call on this thread is processing the completions
+            return;
+        }
+        while (!completions.isEmpty()) {
+            final AbstractTask completed = completions.peekFirst();
+            try {
+                notifyDependents(completed);
+            } catch (Throwable e) {
+                LOG.warn("Unexpected exception during task completion: " + e.getMessage(), e);
+            } finally {
+                completions.pollFirst();
+            }
+        }
+    }
+
+    private void notifyDependents(AbstractTask task) {
+        m_inFlight.remove(task);
+        task.onComplete();
+
+        for (AbstractTask dependent : task.releaseWaitingDependents()) {
+            dependent.waitingPrerequisiteCompleted(task);
+            dependent.claimAndSubmitIfReady();
+        }
+    }
+
+    @Override
+    public void submitToExecutor(String executorPreference, final Runnable workToBeDone, final AbstractTask owningTask) {
+        final String executorName = getExecutorName(executorPreference);
+        final ExecutorMetrics metrics = m_executorMetrics.computeIfAbsent(executorName, n -> new ExecutorMetrics());
+        metrics.m_submitted.incrementAndGet();
+        try {
+            getExecutor(executorName).execute(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.m_started.incrementAndGet();
+                    try {
+                        workToBeDone.run();
+                    } catch (Throwable e) {
+                        LOG.warn("Unexpected exception during task execution: " + e.getMessage(), e);
+                    } finally {
+                        metrics.m_completed.incrementAndGet();
+                        markTaskAsCompleted(owningTask);
+                    }
+                }
+                @Override
+                public String toString() {
+                    return workToBeDone.toString();
+                }
+            });
+        } catch (RuntimeException e) {
+            metrics.m_submitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the metrics of the executors that tasks were submitted to, by executor name.
+     */
+    public Map<String, ExecutorMetrics> getExecutorMetrics() {
+        return Collections.unmodifiableMap(new TreeMap<>(m_executorMetrics));
+    }
+
+    /**
+     * Returns the number of tasks that were scheduled, but did not complete yet.
+     */
+    public int getInFlightTaskCount() {
+        return m_inFlight.size();
+    }
+
+    /**
+     * Describes the tasks that were scheduled but did not complete yet, with the number of
+     * prerequisites they are waiting for and the dependents that are waiting for them.
+     *
+     * @param maxTasks the maximum number of tasks to describe
+     * @return a {@link java.lang.String} object.
+     */
+    public String dumpTaskGraph(int maxTasks) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(m_inFlight.size()).append(" tasks in flight");
+        for (Map.Entry<String, ExecutorMetrics> entry : getExecutorMetrics().entrySet()) {
+            buf.append("\nexecutor ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        int count = 0;
+        for (AbstractTask task : m_inFlight) {
+            if (count++ >= maxTasks) {
+                buf.append("\n...");
+                break;
+            }
+            buf.append("\n").append(task).append(" [").append(task.getState())
+                .append(", waiting for ").append(task.getPendingPrereqCount()).append(" prerequisites]");
+            final List<AbstractTask> dependents = task.getWaitingDependents();
+            for (AbstractTask dependent : dependents) {
+                buf.append("\n  -> ").append(dependent).append(" [").append(dependent.getState()).append("]");
+            }
+        }
+        return buf.toString();
+    }
+}
@@ -28,17 +28,14 @@
 
 package org.opennms.core.tasks;
 
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
 /**
@@ -47,7 +44,7 @@ import org.springframework.util.Assert;
  * 
  * @author brozow
  */
-public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean {
+public class DefaultTaskCoordinator extends AbstractTaskCoordinator {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultTaskCoordinator.class);
 
@@ -72,10 +69,6 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
      */
     private final Executor m_actorExecutor;
 
-    private final ConcurrentHashMap<String, Executor> m_taskExecutors = new ConcurrentHashMap<String, Executor>();
-
-    private String m_defaultExecutorName = TaskCoordinator.DEFAULT_EXECUTOR;
-
     private long m_loopDelay = 0;
 
     /**
@@ -92,149 +85,13 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
 
         // By default, add one single-threaded task executor to the coordinator
         addOrUpdateExecutor(
-            m_defaultExecutorName,
+            TaskCoordinator.DEFAULT_EXECUTOR,
             Executors.newSingleThreadExecutor(
-                new LogPreservingThreadFactory(m_defaultExecutorName, 1)
+                new LogPreservingThreadFactory(TaskCoordinator.DEFAULT_EXECUTOR, 1)
             )
         );
     }
 
-    /**
-     * <p>setDefaultExecutor</p>
-     *
-     * @param executorName a {@link java.lang.String} object.
-     */
-    public final void setDefaultExecutor(String executorName) {
-        m_defaultExecutorName = executorName;
-    }
-    
-    /**
-     * <p>afterPropertiesSet</p>
-     */
-    @Override
-    public void afterPropertiesSet() {
-        Assert.notNull(m_defaultExecutorName, "defaultExecutor must be set");
-        Assert.notNull(getExecutor(m_defaultExecutorName), "defaultExecutor must be set to the name of an added executor");
-    }
-    
-    /**
-     * <p>createTask</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @param r a {@link java.lang.Runnable} object.
-     * @return a {@link org.opennms.core.tasks.SyncTask} object.
-     */
-    @Override
-    public SyncTask createTask(ContainerTask<?> parent, Runnable r) {
-        return new SyncTask(this, parent, r);
-    }
-    
-    /**
-     * <p>createTask</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @param r a {@link java.lang.Runnable} object.
-     * @param schedulingHint a {@link java.lang.String} object.
-     * @return a {@link org.opennms.core.tasks.SyncTask} object.
-     */
-    @Override
-    public SyncTask createTask(ContainerTask<?> parent, Runnable r, String schedulingHint) {
-        return new SyncTask(this, parent, r, schedulingHint);
-    }
-    
-    /**
-     * <p>createTask</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @param async a {@link org.opennms.core.tasks.Async} object.
-     * @param cb a {@link org.opennms.core.tasks.Callback} object.
-     * @param <T> a T object.
-     * @return a {@link org.opennms.core.tasks.AsyncTask} object.
-     */
-    @Override
-    public <T> AsyncTask<T> createTask(ContainerTask<?> parent, Async<T> async, Callback<T> cb) {
-        return new AsyncTask<T>(this, parent, async, cb);
-    }
-
-    /**
-     * <p>createBatch</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
-     */
-    @Override
-    public TaskBuilder<BatchTask> createBatch(ContainerTask<?> parent) {
-        return new TaskBuilder<BatchTask>(new BatchTask(this, parent));
-    }
-    
-    /**
-     * <p>createBatch</p>
-     *
-     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
-     */
-    @Override
-    public TaskBuilder<BatchTask> createBatch() {
-        return createBatch((ContainerTask<?>)null);
-    }
-    
-    /**
-     * <p>createBatch</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @param tasks a {@link java.lang.Runnable} object.
-     * @return a {@link org.opennms.core.tasks.BatchTask} object.
-     */
-    @Override
-    public BatchTask createBatch(ContainerTask<?> parent, Runnable... tasks) {
-        return createBatch(parent).add(tasks).get(parent);
-    }
-
-    
-    /**
-     * <p>createBatch</p>
-     *
-     * @param tasks a {@link java.lang.Runnable} object.
-     * @return a {@link org.opennms.core.tasks.BatchTask} object.
-     */
-    @Override
-    public BatchTask createBatch(Runnable... tasks) {
-        return createBatch().add(tasks).get();
-    }
-
-    
-    /**
-     * <p>createSequence</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
-     */
-    @Override
-    public TaskBuilder<SequenceTask> createSequence(ContainerTask<?> parent) {
-        return new TaskBuilder<SequenceTask>(new SequenceTask(this, parent));
-    }
-    
-    /**
-     * <p>createSequence</p>
-     *
-     * @return a {@link org.opennms.core.tasks.TaskBuilder} object.
-     */
-    @Override
-    public TaskBuilder<SequenceTask> createSequence() {
-        return createSequence((ContainerTask<?>)null);
-    }
-    
-    /**
-     * <p>createSequence</p>
-     *
-     * @param parent a {@link org.opennms.core.tasks.ContainerTask} object.
-     * @param tasks a {@link java.lang.Runnable} object.
-     * @return a {@link org.opennms.core.tasks.SequenceTask} object.
-     */
-    @Override
-    public SequenceTask createSequence(ContainerTask<?> parent, Runnable... tasks) {
-        return createSequence(parent).add(tasks).get(parent);
-    }
-
     /**
      * <p>setLoopDelay</p>
      *
@@ -371,21 +228,6 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
     }
     
     
-    private final Executor getExecutor(String name) {
-        Executor executor = m_taskExecutors.get(name);
-        if (executor == null) {
-            Executor defaultExecutor = m_taskExecutors.get(m_defaultExecutorName);
-            if (defaultExecutor == null) {
-                throw new IllegalStateException("No default executor in " + getClass().getName());
-            } else {
-                return defaultExecutor;
-            }
-        } else {
-            //LOG.debug("Using executor {}: {}", name, executor);
-            return executor;
-        }
-    }
-    
     @Override
     public void markTaskAsCompleted(AbstractTask task) {
         onProcessorThread(taskCompleter(task));
@@ -410,31 +252,4 @@ public class DefaultTaskCoordinator implements TaskCoordinator, InitializingBean
             });
     }
 
-    /**
-     * <p>addExecutor</p>
-     *
-     * @param executorName a {@link java.lang.String} object.
-     * @param executor a {@link java.util.concurrent.Executor} object.
-     */
-    @Override
-    public final void addOrUpdateExecutor(String executorName, Executor executor) {
-        Executor service = m_taskExecutors.put(executorName, executor);
-        if (service != null) {
-            LOG.info("Replacing executor {} with {}", executorName, executor);
-        }
-    }
-
-    /**
-     * <p>setExecutors</p>
-     *
-     * @param executors a {@link java.util.Map} object.
-     */
-    @Override
-    public final void setExecutors(Map<String,Executor> executors) {
-        m_taskExecutors.clear();
-        for (Map.Entry<String, Executor> e : executors.entrySet()) {
-            addOrUpdateExecutor(e.getKey(), e.getValue());
-        }
-    }
-
 }
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link TaskTest} cases against the {@link ConcurrentTaskCoordinator}.
+ */
+public class ConcurrentTaskCoordinatorTest extends TaskTest {
+
+    private ConcurrentTaskCoordinator m_concurrentCoordinator;
+
+    @Override
+    protected TaskCoordinator createCoordinator() {
+        m_concurrentCoordinator = new ConcurrentTaskCoordinator("TaskTest");
+        return m_concurrentCoordinator;
+    }
+
+    @Test
+    public void testDeepSequenceOfContainers() throws Exception {
+        // Empty containers complete without an executor, one after the other
+        final SequenceTask sequence = m_concurrentCoordinator.createSequence().get();
+        for (int i = 0; i < 20000; i++) {
+            sequence.add(new BatchTask(m_concurrentCoordinator, sequence));
+        }
+        sequence.schedule();
+
+        assertTrue("The sequence never completed", sequence.waitFor(10, TimeUnit.SECONDS));
+        assertEquals(0, m_concurrentCoordinator.getInFlightTaskCount());
+    }
+
+    @Test
+    public void testExecutorMetricsAndTaskGraph() throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final BatchTask batch = m_concurrentCoordinator.createBatch().get();
+        batch.add(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            @Override
+            public String toString() {
+                return "blocker";
+            }
+        });
+        batch.schedule();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        final ConcurrentTaskCoordinator.ExecutorMetrics metrics = m_concurrentCoordinator.getExecutorMetrics().get(TaskCoordinator.DEFAULT_EXECUTOR);
+        assertEquals(1, metrics.getSubmitted());
+        assertEquals(1, metrics.getActive());
+        assertEquals(0, metrics.getQueued());
+
+        // The batch and the blocker are still in flight
+        assertEquals(2, m_concurrentCoordinator.getInFlightTaskCount());
+        final String graph = m_concurrentCoordinator.dumpTaskGraph(10);
+        assertTrue(graph, graph.contains("blocker [SUBMITTED, waiting for 0 prerequisites]"));
+        assertTrue(graph, graph.contains("batch task [SCHEDULED, waiting for 1 prerequisites]"));
+        assertTrue(graph, graph.contains("  -> batch task [SCHEDULED]"));
+
+        blocker.countDown();
+        batch.waitFor();
+
+        assertEquals(0, m_concurrentCoordinator.getInFlightTaskCount());
+        assertEquals(1, metrics.getCompleted());
+        assertEquals(0, metrics.getActive());
+    }
+}
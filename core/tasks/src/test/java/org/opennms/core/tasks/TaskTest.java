@@ -69,9 +69,13 @@ public class TaskTest {
         m_executor = Executors.newFixedThreadPool(50,
             new LogPreservingThreadFactory(getClass().getSimpleName(), 50)
         );
-        m_coordinator = new DefaultTaskCoordinator("TaskTest");
+        m_coordinator = createCoordinator();
         m_coordinator.addOrUpdateExecutor(TaskCoordinator.DEFAULT_EXECUTOR, m_executor);
     }
+
+    protected TaskCoordinator createCoordinator() {
+        return new DefaultTaskCoordinator("TaskTest");
+    }
     
     @Test
     public void testSimpleTask() throws Exception {
@@ -384,6 +384,35 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
         alarmDocumentsById.keySet().removeIf(alarmId -> !alarmIdsToKeep.contains(alarmId));
     }
 
+    @Override
+    public synchronized boolean handleAlarmDelta(List<OnmsAlarm> changedAlarms, Map<Integer, String> deletedAlarms) {
+        LOG.debug("Got delta with {} changed and {} deleted alarms.", changedAlarms.size(), deletedAlarms.size());
+        flushDocumentsToIndexToTaskQueue();
+        // Index/update documents as necessary
+        final List<AlarmDocumentDTO> alarmDocuments = changedAlarms.stream()
+                // Only consider updating, if we haven't already updated the alarm since the delta was taken
+                .filter(a -> !stateTracker.wasAlarmWithIdUpdated(a.getId()))
+                .map(this::getDocumentIfNeedsIndexing)
+                .flatMap(o -> o.map(Stream::of).orElseGet(Stream::empty))
+                .collect(Collectors.toList());
+
+        // Mark the alarms as deleted, unless we've already done so
+        for (Map.Entry<Integer, String> deletedAlarm : deletedAlarms.entrySet()) {
+            final Integer alarmId = deletedAlarm.getKey();
+            if (!stateTracker.wasAlarmWithIdUpdated(alarmId) && alarmDocumentsById.remove(alarmId) != null) {
+                alarmDocuments.add(documentFactory.createAlarmDocumentForDelete(alarmId, deletedAlarm.getValue()));
+            }
+        }
+
+        if (!alarmDocuments.isEmpty()) {
+            // Break the list up into small batches limited by the configured batch size
+            for (List<AlarmDocumentDTO> partition : Lists.partition(alarmDocuments, batchSize)) {
+                taskQueue.add(new IndexAlarmsTask(partition));
+            }
+        }
+        return true;
+    }
+
     @Override
     public synchronized void postHandleAlarmSnapshot() {
         stateTracker.resetStateAndStopTrackingAlarms();
@@ -408,6 +437,7 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
                 alarmId, reductionKey);
         final AlarmDocumentDTO alarmDocument = documentFactory.createAlarmDocumentForDelete(alarmId, reductionKey);
         alarmDocumentsToIndex.add(alarmDocument);
+        alarmDocumentsById.remove(alarmId);
         if (alarmDocumentsToIndex.size() >= batchSize) {
             flushDocumentsToIndexToTaskQueue();
         }
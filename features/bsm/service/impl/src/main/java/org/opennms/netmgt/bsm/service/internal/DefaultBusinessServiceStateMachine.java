@@ -37,14 +37,18 @@ import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -78,36 +82,79 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.visualization.VisualizationImageServer;
 
+/**
+ * Maintains the operational status of the business services.
+ *
+ * Status changes are propagated through the graph in level order: the
+ * vertices which need to be reduced again are collected by level and
+ * processed from the leaves up to the root business services, so that
+ * every affected vertex is reduced at most once per update, no matter
+ * how many of its children changed.
+ *
+ * Alarm updates can be coalesced by reduction key over a short window
+ * (see {@link #ALARM_BATCH_WINDOW_KEY}) and applied as a single batch.
+ * After every update, an immutable snapshot of the statuses is published:
+ * the {@code getOperationalStatus} methods read it without locking. Only the
+ * vertices that changed are copied into the new snapshot.
+ */
 public class DefaultBusinessServiceStateMachine implements BusinessServiceStateMachine {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
+    /**
+     * System property holding the window in milliseconds over which alarm updates
+     * are coalesced before being applied. Updates are applied immediately when 0.
+     */
+    public static final String ALARM_BATCH_WINDOW_KEY = "org.opennms.features.bsm.alarmBatchWindow";
+
     @Autowired
     private AlarmProvider m_alarmProvider;
 
     private final List<BusinessServiceStateChangeHandler> m_handlers = Lists.newArrayList();
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
     private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    private volatile StatusSnapshot m_snapshot = new StatusSnapshot(m_g);
+
+    private long m_alarmBatchWindow = Long.getLong(ALARM_BATCH_WINDOW_KEY, 0L);
+    private final Map<String, Status> m_pendingAlarms = new LinkedHashMap<>();
+    private ScheduledExecutorService m_batchExecutor;
+
+    /**
+     * Sets the window in milliseconds over which alarm updates are coalesced
+     * by reduction key before being applied. Updates are applied immediately when 0.
+     */
+    public void setAlarmBatchWindow(long alarmBatchWindow) {
+        m_alarmBatchWindow = alarmBatchWindow;
+    }
+
+    public long getAlarmBatchWindow() {
+        return m_alarmBatchWindow;
+    }
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
         m_rwLock.writeLock().lock();
         try {
+            // Apply the pending alarms to the current graph first
+            applyStatuses(m_g, drainPendingAlarms());
+
             // Create a new graph
             BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
 
             // Prime the graph with the state from the previous graph and
             // keep track of the new reductions keys
+            final Map<String, Status> statuses = new LinkedHashMap<>();
             Set<String> reductionsKeysToLookup = Sets.newHashSet();
             for (String reductionKey : g.getReductionKeys()) {
                 GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
                 if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
+                    statuses.put(reductionKey, reductionKeyVertex.getStatus());
                 } else {
                     reductionsKeysToLookup.add(reductionKey);
                 }
@@ -122,11 +169,13 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 if (reductionsKeysToLookup.size() > 0) {
                     final Map<String, AlarmWrapper> lookup = m_alarmProvider.lookup(reductionsKeysToLookup);
                     for (Entry<String, AlarmWrapper> eachEntry : lookup.entrySet()) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
+                        statuses.put(eachEntry.getKey(), eachEntry.getValue().getStatus());
                     }
                 }
             }
+            applyStatuses(g, statuses);
             m_g = g;
+            m_snapshot = new StatusSnapshot(g);
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -134,41 +183,142 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        if (m_alarmBatchWindow > 0) {
+            // Coalesce the update with the other ones received during the window
+            synchronized (m_pendingAlarms) {
+                final boolean schedule = m_pendingAlarms.isEmpty();
+                m_pendingAlarms.put(alarm.getReductionKey(), alarm.getStatus());
+                if (schedule) {
+                    getBatchExecutor().schedule(this::flushPendingAlarms, m_alarmBatchWindow, TimeUnit.MILLISECONDS);
+                }
+            }
+            return;
+        }
+
+        m_rwLock.writeLock().lock();
+        try {
+            publish(applyStatuses(m_g, Collections.singletonMap(alarm.getReductionKey(), alarm.getStatus())));
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the alarm updates which have been coalesced so far.
+     */
+    protected void flushPendingAlarms() {
         m_rwLock.writeLock().lock();
         try {
-            // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            final Map<String, Status> statuses = drainPendingAlarms();
+            LOG.debug("Applying {} coalesced alarm updates.", statuses.size());
+            publish(applyStatuses(m_g, statuses));
+        } catch (RuntimeException e) {
+            LOG.error("Failed to apply the alarm updates.", e);
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
+    private Map<String, Status> drainPendingAlarms() {
+        synchronized (m_pendingAlarms) {
+            if (m_pendingAlarms.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            final Map<String, Status> statuses = new LinkedHashMap<>(m_pendingAlarms);
+            m_pendingAlarms.clear();
+            return statuses;
+        }
+    }
+
+    /**
+     * Publishes the new status of the given vertices of the current graph.
+     */
+    private void publish(Set<GraphVertex> changedVertices) {
+        if (!changedVertices.isEmpty()) {
+            m_snapshot = m_snapshot.update(changedVertices);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getBatchExecutor() {
+        if (m_batchExecutor == null) {
+            m_batchExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("bsm-alarm-batch-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return m_batchExecutor;
+    }
+
+    /**
+     * Applies the pending alarm updates and stops the thread applying the batches.
+     */
+    public void destroy() {
+        final ScheduledExecutorService batchExecutor;
+        synchronized (this) {
+            batchExecutor = m_batchExecutor;
+            m_batchExecutor = null;
+        }
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        flushPendingAlarms();
+    }
+
     @Override
     public void handleAllAlarms(List<AlarmWrapper> alarms) {
-        final Set<String> reductionKeysFromGivenAlarms = new HashSet<>(alarms.size());
+        final Map<String, Status> statuses = new LinkedHashMap<>(alarms.size());
+        for (AlarmWrapper alarm : alarms) {
+            statuses.put(alarm.getReductionKey(), alarm.getStatus());
+        }
         m_rwLock.writeLock().lock();
         try {
-            for (AlarmWrapper alarm : alarms) {
-                // Recursively propagate the status for all of the given alarms
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
-                // Keep track of the reduction keys that have been processed
-                reductionKeysFromGivenAlarms.add(alarm.getReductionKey());
-            }
+            // Apply the pending alarms first, the given ones supersede them
+            publish(applyStatuses(m_g, drainPendingAlarms()));
 
-            for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), reductionKeysFromGivenAlarms)) {
+            for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), statuses.keySet()).immutableCopy()) {
                 // There is a vertex on the graph that corresponds to this reduction key
                 // but no alarm with this reduction key exists
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
+                statuses.put(missingReductionKey, Status.INDETERMINATE);
             }
+            publish(applyStatuses(m_g, statuses));
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
+    /**
+     * Updates the status of the given reduction keys and propagates the changes
+     * up the graph. The vertices that need to be reduced again are processed
+     * level by level, starting with the deepest one, so that each of them is
+     * only reduced once.
+     *
+     * @return the vertices whose status changed
+     */
+    private Set<GraphVertex> applyStatuses(BusinessServiceGraph graph, Map<String, Status> statusesByReductionKey) {
+        final TreeMap<Integer, Set<GraphVertex>> dirtyByLevel = new TreeMap<>(Collections.reverseOrder());
+        final Set<GraphVertex> changed = new LinkedHashSet<>();
+        for (Entry<String, Status> entry : statusesByReductionKey.entrySet()) {
+            final GraphVertex vertex = graph.getVertexByReductionKey(entry.getKey());
+            if (updateVertex(graph, vertex, entry.getValue(), dirtyByLevel)) {
+                changed.add(vertex);
+            }
+        }
+
+        Entry<Integer, Set<GraphVertex>> dirty;
+        while ((dirty = dirtyByLevel.pollFirstEntry()) != null) {
+            for (GraphVertex vertex : dirty.getValue()) {
+                if (updateVertex(graph, vertex, reduce(graph, vertex), dirtyByLevel)) {
+                    changed.add(vertex);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus, Map<Integer, Set<GraphVertex>> dirtyByLevel) {
         if (vertex == null) {
             // Nothing to do here
-            return;
+            return false;
         }
 
         // Apply lower bound
@@ -178,7 +328,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         Status previousStatus = vertex.getStatus();
         if (previousStatus.equals(newStatus)) {
             // The status hasn't changed, there's nothing to propagate
-            return;
+            return false;
         }
         vertex.setStatus(newStatus);
 
@@ -186,7 +336,6 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         onStatusUpdated(graph, vertex, previousStatus);
 
         // Update the edges with the mapped status
-        List<GraphEdge> updatedEges = Lists.newArrayList();
         for (GraphEdge edge : graph.getInEdges(vertex)) {
             Status mappedStatus = newStatus;
             if (newStatus.isGreaterThan(MIN_SEVERITY)) {
@@ -201,38 +350,28 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 continue;
             }
 
-            // Update the status and add it to the list of edges to propagate
+            // Update the status and mark the parent for reduction
             edge.setStatus(mappedStatus);
-            updatedEges.add(edge);
-        }
-
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            if (parent != null) {
+                dirtyByLevel.computeIfAbsent(parent.getLevel(), level -> new LinkedHashSet<>()).add(parent);
+            }
         }
+        return true;
     }
 
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
-        }
-
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
         Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
 
-        Status newStatus;
         if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
+            return reducedStatus.get().getStatus();
         } else {
-            newStatus = MIN_SEVERITY;
+            return MIN_SEVERITY;
         }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -297,58 +436,26 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     @Override
     public Status getOperationalStatus(BusinessService businessService) {
         Objects.requireNonNull(businessService);
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        final StatusSnapshot snapshot = m_snapshot;
+        return snapshot.getStatus(snapshot.getGraph().getVertexByBusinessServiceId(businessService.getId()));
     }
 
     @Override
     public Status getOperationalStatus(IpService ipService) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        final StatusSnapshot snapshot = m_snapshot;
+        return snapshot.getStatus(snapshot.getGraph().getVertexByIpServiceId(ipService.getId()));
     }
 
     @Override
     public Status getOperationalStatus(String reductionKey) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        final StatusSnapshot snapshot = m_snapshot;
+        return snapshot.getStatus(snapshot.getGraph().getVertexByReductionKey(reductionKey));
     }
 
     @Override
     public Status getOperationalStatus(Edge edge) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
-        }
+        final StatusSnapshot snapshot = m_snapshot;
+        return snapshot.getStatus(snapshot.getGraph().getVertexByEdgeId(edge.getId()));
     }
 
     public void setAlarmProvider(AlarmProvider alarmProvider) {
@@ -449,7 +556,9 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     public BusinessServiceStateMachine clone(boolean preserveState) {
         m_rwLock.readLock().lock();
         try {
-            final BusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine();
+            final DefaultBusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine();
+            // Apply the state right away
+            sm.setAlarmBatchWindow(0);
 
             // Rebuild the graph using the business services from the existing state machine
             final BusinessServiceGraph graph = getGraph();
@@ -573,4 +682,66 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private List<GraphVertex> calculateImpact(GraphVertex vertex) {
         return GraphAlgorithms.calculateImpact(m_g, vertex);
     }
+
+    /**
+     * Immutable copy of the statuses of the vertices of a graph.
+     *
+     * The statuses that changed since the last complete copy are kept in a
+     * separate, small map, so that an update only copies those. Once there are
+     * more changes than the square root of the number of vertices, a complete
+     * copy is made again. Publishing a single change thus costs O(sqrt(V))
+     * amortized instead of O(V).
+     */
+    private static class StatusSnapshot {
+        private static final int MIN_CHANGES = 64;
+
+        private final BusinessServiceGraph m_graph;
+        private final Map<GraphVertex, Status> m_statuses;
+        private final Map<GraphVertex, Status> m_changes;
+        private final int m_maxChanges;
+
+        private StatusSnapshot(BusinessServiceGraph graph) {
+            m_graph = graph;
+            final Map<GraphVertex, Status> statuses = new HashMap<>(graph.getVertexCount() * 2);
+            for (GraphVertex vertex : graph.getVertices()) {
+                statuses.put(vertex, vertex.getStatus());
+            }
+            m_statuses = Collections.unmodifiableMap(statuses);
+            m_changes = Collections.emptyMap();
+            m_maxChanges = Math.max(MIN_CHANGES, (int) Math.sqrt(statuses.size()));
+        }
+
+        private StatusSnapshot(StatusSnapshot previous, Map<GraphVertex, Status> changes) {
+            m_graph = previous.m_graph;
+            m_statuses = previous.m_statuses;
+            m_changes = Collections.unmodifiableMap(changes);
+            m_maxChanges = previous.m_maxChanges;
+        }
+
+        /**
+         * @return a snapshot with the current status of the given vertices of the graph
+         */
+        private StatusSnapshot update(Collection<GraphVertex> vertices) {
+            if (m_changes.size() + vertices.size() > m_maxChanges) {
+                return new StatusSnapshot(m_graph);
+            }
+            final Map<GraphVertex, Status> changes = new HashMap<>(m_changes);
+            for (GraphVertex vertex : vertices) {
+                changes.put(vertex, vertex.getStatus());
+            }
+            return new StatusSnapshot(this, changes);
+        }
+
+        private BusinessServiceGraph getGraph() {
+            return m_graph;
+        }
+
+        private Status getStatus(GraphVertex vertex) {
+            if (vertex == null) {
+                return null;
+            }
+            final Status status = m_changes.get(vertex);
+            return status != null ? status : m_statuses.get(vertex);
+        }
+    }
 }
@@ -56,6 +56,7 @@ import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DefaultBusinessServiceStateMachineTest {
@@ -260,4 +261,119 @@ public class DefaultBusinessServiceStateMachineTest {
         stateMachine.renderGraphToPng(pngFile);
         assertTrue(pngFile.getAbsolutePath() + " should exist.", pngFile.exists());
     }
+
+    @Test
+    public void canPropagateEachVertexOncePerBatch() {
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withName("b1")
+                    .withBusinessService(2)
+                        .withName("b2")
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                    .commit()
+                .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+        BusinessService b2 = h.getBusinessServiceById(2);
+
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Both alarms are applied before b2 and b1 are reduced
+        stateMachine.handleAllAlarms(Lists.newArrayList(
+                new MockAlarmWrapper("a1", Status.MINOR),
+                new MockAlarmWrapper("a2", Status.CRITICAL)));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b2));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b1));
+        // A single state change for each of the business services
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+    }
+
+    @Test
+    public void canCoalesceAlarmUpdates() {
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(1, "a1")
+                    .withReductionKey(2, "a2")
+                    .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        // Use a long window, the updates are flushed explicitly
+        stateMachine.setAlarmBatchWindow(60000);
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.CRITICAL));
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a2", Status.MINOR));
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.WARNING));
+
+        // Nothing is visible until the batch is applied
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b1));
+        assertEquals(0, stateChangeHandler.getStateChanges().size());
+
+        stateMachine.flushPendingAlarms();
+        assertEquals(Status.WARNING, stateMachine.getOperationalStatus(h.getEdgeByReductionKey("a1")));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(1, stateChangeHandler.getStateChanges().size());
+
+        // Pending updates are applied before reloading the business services
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a2", Status.MAJOR));
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b1));
+    }
+
+    @Test
+    public void canPublishChangedStatusesIncrementally() {
+        // Enough reduction keys to fill the changes of the snapshot a few times
+        final int numReductionKeys = 500;
+        MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder builder = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1);
+        for (int i = 0; i < numReductionKeys; i++) {
+            builder = builder.withReductionKey(i + 1, "a" + i);
+        }
+        MockBusinessServiceHierarchy h = builder.commit().build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        for (int i = 0; i < numReductionKeys; i++) {
+            stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a" + i, Status.MINOR));
+            assertEquals(Status.MINOR, stateMachine.getOperationalStatus(h.getEdgeByReductionKey("a" + i)));
+            assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b1));
+        }
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a7", Status.CRITICAL));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b1));
+
+        // The statuses published earlier are still visible
+        for (int i = 0; i < numReductionKeys; i++) {
+            assertEquals(i == 7 ? Status.CRITICAL : Status.MINOR, stateMachine.getOperationalStatus("a" + i));
+        }
+    }
+
+    @Test
+    public void canApplyPendingAlarmsWhenDestroyed() {
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(1, "a1")
+                    .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        stateMachine.setAlarmBatchWindow(60000);
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.MAJOR));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b1));
+
+        stateMachine.destroy();
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b1));
+    }
 }
@@ -36,26 +36,21 @@ import java.util.Date;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.joda.time.Duration;
 import org.nustaq.serialization.FSTConfiguration;
 import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.core.utils.InetAddressUtils;
-import org.opennms.features.distributed.kvstore.api.BlobStore;
-import org.opennms.features.distributed.kvstore.api.SerializingBlobStore;
 import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.model.ResourceId;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
 import org.opennms.netmgt.threshd.api.ThresholdingSession;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 /**
@@ -91,7 +86,7 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
 
     private String key;
 
-    private final SerializingBlobStore<T> kvStore;
+    private final Class<T> stateType;
 
     protected T state;
     
@@ -107,25 +102,6 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
     
     private String instance;
 
-    private static final Map<Class<? extends AbstractThresholdEvaluatorState.AbstractState>,
-            SerializingBlobStore<? extends AbstractThresholdEvaluatorState.AbstractState>> serdesMap
-            = new ConcurrentHashMap<>();
-
-    /**
-     * A last updated cache to track when the last time we know we persisted a given key was. This is for performance
-     * reasons so that on fetch we can see if we already were the last ones to update and avoid a full fetch if so.
-     */
-    private static final Map<String, Long> lastUpdatedCache = CacheBuilder.newBuilder()
-            .maximumSize(10000)
-            .build(new CacheLoader<String, Long>() {
-                @Override
-                public Long load(String key) {
-                    // We don't actually want to load anything if the key isn't in the cache
-                    return null;
-                }
-            })
-            .asMap();
-
     static abstract class AbstractState implements Serializable {
         String interpolatedExpression = null;
 
@@ -150,7 +126,7 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
         Objects.requireNonNull(thresholdingSession.getBlobStore());
 
         this.thresholdingSession = thresholdingSession;
-        kvStore = getKvStoreForType(stateType, thresholdingSession.getBlobStore());
+        this.stateType = Objects.requireNonNull(stateType);
         key = String.format("%d-%s-%s-%s-%s-%s", thresholdingSession.getKey().getNodeId(),
                 thresholdingSession.getKey().getLocation(), threshold.getDsType(),
                 threshold.getDatasourceExpression(), thresholdingSession.getKey().getResource(), threshold.getType());
@@ -161,14 +137,20 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
     }
 
     /**
-     * This method serves to ensure that we only instantiate a single serdes wrapper for a given state type rather than
-     * creating a separate serdes wrapper for every evaluator. The serdes wrappers will be stored in a map keyed by the
-     * type they deal with.
+     * The states are written to and read from the store through the write-behind cache of the session's state monitor,
+     * which is shared by all of the evaluators using the same monitor.
      */
-    @SuppressWarnings("unchecked") // The cast is guaranteed to work based on how we are keying the map by the type
-    private static <U extends AbstractThresholdEvaluatorState.AbstractState> SerializingBlobStore<U> getKvStoreForType(Class<U> stateType, BlobStore blobStore) {
-        return (SerializingBlobStore<U>) serdesMap.computeIfAbsent(stateType,
-                c -> SerializingBlobStore.ofType(blobStore, fst::asByteArray, bytes -> c.cast(fst.asObject(bytes))));
+    private ThresholdStateCache getStateCache() {
+        final ThresholdStateMonitor monitor = thresholdingSession.getThresholdStateMonitor();
+        if (!(monitor instanceof BlobStoreAwareMonitor)) {
+            throw new IllegalStateException("Threshold states can only be persisted through a "
+                    + BlobStoreAwareMonitor.class.getSimpleName() + ", got: " + monitor);
+        }
+        return ((BlobStoreAwareMonitor) monitor).getStateCache();
+    }
+
+    private T deserialize(byte[] bytes) {
+        return stateType.cast(fst.asObject(bytes));
     }
 
     protected abstract void initializeState();
@@ -180,11 +162,12 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
     private void persistStateIfNeeded() {
         if (shouldPersist()) {
             try {
-                long newTimestamp = kvStore.put(key, state, THRESHOLDING_KV_CONTEXT, stateTTL);
-                lastUpdatedCache.put(key, newTimestamp);
+                // The state is serialized right away since it keeps changing while the cache writes it in the
+                // background
+                getStateCache().put(key, fst.asByteArray(state), stateTTL, isDistributed());
 
-                // If we successfully stored the state we will mark that the persisted state is up to date and no longer
-                // dirty
+                // Once the cache has taken over the state we will mark that the persisted state is up to date and no
+                // longer dirty
                 isStateDirty = false;
             } catch (RuntimeException e) {
                 RATE_LIMITED_LOGGER.warn("Failed to store state for threshold {}", key, e);
@@ -192,7 +175,6 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void fetchState() {
         thresholdingSession.getThresholdStateMonitor().withReadLock(() -> {
             // Fetch the state to make sure we have the latest if we are thresholding in a distributed environment or if
@@ -205,16 +187,12 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
             }
 
             try {
-                Long lastKnownUpdate = lastUpdatedCache.get(key);
-
-                // If we don't have a record of when this was last updated locally, get it from the store
-                // Otherwise if we are evaluating for the first time we need to fetch regardless since we have no state
-                if (lastKnownUpdate == null || firstEvaluation) {
-                    kvStore.get(key, THRESHOLDING_KV_CONTEXT).ifPresent(v -> state = v);
+                // If we are evaluating for the first time we need to fetch regardless since we have no state
+                if (firstEvaluation) {
+                    getStateCache().get(key, isDistributed()).ifPresent(v -> state = deserialize(v));
                 } else {
-                    // Otherwise get it from the store only if our record is stale
-                    kvStore.getIfStale(key, THRESHOLDING_KV_CONTEXT, lastKnownUpdate)
-                            .ifPresent(o -> o.ifPresent(v -> state = v));
+                    // Otherwise get it from the store only if someone else updated it since our last write
+                    getStateCache().getIfStale(key).ifPresent(v -> state = deserialize(v));
                 }
             } catch (RuntimeException e) {
                 RATE_LIMITED_LOGGER.warn("Failed to retrieve state for threshold {}", key, e);
@@ -427,9 +405,4 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
         this.instance = instance;
         key = String.format("%s-%s", key, instance);
     }
-    
-    @VisibleForTesting
-    static void clearSerdesMap() {
-        serdesMap.clear();
-    }
 }
@@ -31,6 +31,7 @@ package org.opennms.netmgt.threshd;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -100,6 +101,22 @@ public abstract class BaseThresholdDefConfigWrapper {
      * @return Collection of the names of datasources
      */
     public abstract Collection<String> getRequiredDatasources();
+
+    /**
+     * Returns the values of the required datasources, in the order of {@link #getRequiredDatasources()}
+     *
+     * @param values map of values by datasource name
+     * @return the values, null for the datasources which are missing from the map
+     */
+    public Double[] getRequiredValues(Map<String, Double> values) {
+        final Collection<String> datasources = getRequiredDatasources();
+        final Double[] requiredValues = new Double[datasources.size()];
+        int i = 0;
+        for (final String ds : datasources) {
+            requiredValues[i++] = values.get(ds);
+        }
+        return requiredValues;
+    }
     
     /**
      * <p>getDsType</p>
@@ -38,6 +38,8 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
+import javax.annotation.PreDestroy;
+
 import org.opennms.features.distributed.kvstore.api.BlobStore;
 import org.opennms.netmgt.threshd.api.ReinitializableState;
 import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
@@ -46,6 +48,9 @@ import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
  * This implementation tracks the in-memory states of thresholds while also being aware of their persistence. This
  * allows for the encapsulation of atomic clear/reinitialize logic where both the in-memory and persisted copies of the
  * state can be cleared together without clients of being aware.
+ * <p>
+ * The persisted states are accessed through a write-behind {@link ThresholdStateCache}, which is owned by the monitor
+ * and flushed when the monitor is destroyed.
  */
 public class BlobStoreAwareMonitor implements ThresholdStateMonitor {
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
@@ -53,9 +58,22 @@ public class BlobStoreAwareMonitor implements ThresholdStateMonitor {
     private final Lock writeLock = readWriteLock.writeLock();
     private final Map<String, ReinitializableState> stateMap = new ConcurrentHashMap<>();
     private final BlobStore blobStore;
+    private final ThresholdStateCache stateCache;
 
     public BlobStoreAwareMonitor(BlobStore blobStore) {
         this.blobStore = Objects.requireNonNull(blobStore);
+        stateCache = ThresholdStateCache.create(blobStore);
+    }
+
+    // Spring and OSGi destroy entry point
+    @PreDestroy
+    public void destroy() {
+        // Write the states that are still pending
+        stateCache.close();
+    }
+
+    ThresholdStateCache getStateCache() {
+        return stateCache;
     }
 
     @Override
@@ -111,10 +129,13 @@ public class BlobStoreAwareMonitor implements ThresholdStateMonitor {
     }
 
     private void clearSingleStateFromPersistence(String stateKey) {
+        // Drop the cached state first so that a pending write can't bring it back
+        stateCache.invalidate(stateKey);
         blobStore.delete(stateKey, AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT);
     }
 
     private void clearAllStatesFromPersistence() {
+        stateCache.invalidateAll();
         blobStore.truncateContext(AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT);
     }
 }
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A threshold expression which is parsed once, and can then be evaluated repeatedly and
+ * concurrently with different values.
+ *
+ * The values are not passed by name, but as an array whose slots follow the layout given
+ * when compiling the expression (the required datasources of the threshold), so that no maps
+ * need to be built in order to evaluate the expression.
+ */
+final class CompiledExpression {
+
+    /**
+     * The engine and the expressions it creates are thread-safe, so a single engine is shared.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    private static final ExpressionConfigWrapper.MathBinding MATH = new ExpressionConfigWrapper.MathBinding();
+
+    private final String m_expression;
+
+    private final Expression m_compiled;
+
+    private final List<String> m_layout;
+
+    private final Map<String, Integer> m_slots;
+
+    private CompiledExpression(String expression, Expression compiled, List<String> layout) {
+        m_expression = Objects.requireNonNull(expression);
+        m_compiled = Objects.requireNonNull(compiled);
+        m_layout = ImmutableList.copyOf(layout);
+        final Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < m_layout.size(); i++) {
+            slots.putIfAbsent(m_layout.get(i), i);
+        }
+        m_slots = slots;
+    }
+
+    /**
+     * Parses the given expression.
+     *
+     * @param expression an expression without any mate data
+     * @param layout the names of the variables, in the order in which their values will be passed
+     */
+    static CompiledExpression compile(String expression, List<String> layout) {
+        return new CompiledExpression(expression, JEXL_ENGINE.createExpression(expression), layout);
+    }
+
+    /**
+     * Returns the variables referenced by the given expression, see {@link ExpressionImpl#getVariables()}.
+     */
+    static Set<List<String>> getVariables(String expression) {
+        return ((ExpressionImpl) JEXL_ENGINE.createExpression(expression)).getVariables();
+    }
+
+    String getExpression() {
+        return m_expression;
+    }
+
+    List<String> getLayout() {
+        return m_layout;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values the values of the variables, ordered like the layout of the expression
+     */
+    double evaluate(Double[] values) throws ThresholdExpressionException {
+        return evaluate(new SlotContext(values));
+    }
+
+    /**
+     * Evaluates the expression once for each of the given rows of values.
+     *
+     * @param rows the values of the variables for every evaluation, ordered like the layout of the expression
+     * @param errors receives the error of each row which could not be evaluated, must be as long as <code>rows</code>
+     * @return the results, in the order of the rows, with {@link Double#NaN} for the rows which could not be evaluated
+     */
+    double[] evaluate(List<Double[]> rows, ThresholdExpressionException[] errors) {
+        final double[] results = new double[rows.size()];
+        final SlotContext context = new SlotContext(null);
+        for (int i = 0; i < results.length; i++) {
+            context.reset(rows.get(i));
+            try {
+                results[i] = evaluate(context);
+            } catch (ThresholdExpressionException e) {
+                results[i] = Double.NaN;
+                errors[i] = e;
+            }
+        }
+        return results;
+    }
+
+    private double evaluate(SlotContext context) throws ThresholdExpressionException {
+        try {
+            final Object result = m_compiled.evaluate(context);
+            return Double.parseDouble(result.toString());
+        } catch (Throwable e) {
+            throw new ThresholdExpressionException("Error while evaluating expression " + m_expression + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    /**
+     * Resolves the variables of the expression from the slots of the current values.
+     */
+    private final class SlotContext implements JexlContext {
+        private Double[] m_values;
+        private Map<String, Object> m_assigned;
+        private Map<String, Double> m_datasources;
+
+        private SlotContext(Double[] values) {
+            m_values = values;
+        }
+
+        private void reset(Double[] values) {
+            m_values = values;
+            m_assigned = null;
+            m_datasources = null;
+        }
+
+        private Double getValue(Object name) {
+            final Integer slot = m_slots.get(name);
+            return slot != null && slot < m_values.length ? m_values[slot] : null;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_assigned != null && m_assigned.containsKey(name)) {
+                return m_assigned.get(name);
+            }
+            if ("math".equals(name)) {
+                return MATH;
+            }
+            if ("datasources".equals(name)) {
+                // To workaround NMS-5019
+                if (m_datasources == null) {
+                    m_datasources = new DatasourcesView(this);
+                }
+                return m_datasources;
+            }
+            return getValue(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            if (m_assigned == null) {
+                m_assigned = new HashMap<>();
+            }
+            m_assigned.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return m_slots.containsKey(name)
+                    || "math".equals(name)
+                    || "datasources".equals(name)
+                    || (m_assigned != null && m_assigned.containsKey(name));
+        }
+    }
+
+    /**
+     * Read-only view of the values by datasource name.
+     */
+    private final class DatasourcesView extends AbstractMap<String, Double> {
+        private final SlotContext m_context;
+
+        private DatasourcesView(SlotContext context) {
+            m_context = context;
+        }
+
+        @Override
+        public Double get(Object key) {
+            return m_context.getValue(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return m_slots.containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            final Map<String, Double> values = new LinkedHashMap<>();
+            for (final String name : m_layout) {
+                values.put(name, m_context.getValue(name));
+            }
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+    }
+}
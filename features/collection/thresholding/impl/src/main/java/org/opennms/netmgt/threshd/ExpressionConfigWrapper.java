@@ -30,15 +30,12 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
 
-import org.apache.commons.jexl2.ExpressionImpl;
-import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.core.rpc.utils.mate.EmptyScope;
 import org.opennms.core.rpc.utils.mate.Interpolator;
 import org.opennms.core.rpc.utils.mate.Scope;
@@ -46,6 +43,11 @@ import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * 
  * @author <a href="mailto:agalue@opennms.org">Alejandro Galue</a>
@@ -55,33 +57,45 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Upper limit for the number of interpolated expressions kept in their compiled form.
+     */
+    private static final int MAX_COMPILED_EXPRESSIONS = 100;
+
     private final Expression m_expression;
-    private final Collection<String> m_datasources;    
-    private final JexlEngine jexlEngine = new JexlEngine();
-    
+    private final List<String> m_datasources;
+    private final CompiledExpression m_compiledExpression;
+    private final Cache<String, CompiledExpression> m_interpolatedExpressions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_COMPILED_EXPRESSIONS)
+            .build();
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        m_datasources = new ArrayList<>();
+        final List<String> datasources = new ArrayList<>();
         try {
             // We need to remove any mate data that are part of the expression before we try to find the datasources so
             // we will interpolate with an empty scope and rely on default values to keep the expression valid
-            ExpressionImpl e = (ExpressionImpl) jexlEngine
-                    .createExpression(interpolateExpression(m_expression.getExpression(), EmptyScope.EMPTY));
-            LOG.trace("List of Variables on the Expression: {}", e.getVariables());
-            for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
+            final Collection<List<String>> variables = CompiledExpression.getVariables(
+                    interpolateExpression(m_expression.getExpression(), EmptyScope.EMPTY));
+            LOG.trace("List of Variables on the Expression: {}", variables);
+            for (List<String> list : variables) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
                     continue;
                 }
                 if (list.get(0).equalsIgnoreCase("datasources")) {
                     // Include the internal parameter. See NMS-5019
-                    m_datasources.add(list.get(1).intern());
+                    datasources.add(list.get(1).intern());
                 } else {
                     // Include the first element, because datasources and math are the only composite elements
-                    m_datasources.add(list.get(0).intern());
+                    datasources.add(list.get(0).intern());
                 }
             }
+            m_datasources = Collections.unmodifiableList(datasources);
+            // Expressions without mate data are the same for every resource, so they can be compiled right away
+            m_compiledExpression = Interpolator.containsMateData(m_expression.getExpression()) ? null
+                    : CompiledExpression.compile(m_expression.getExpression(), m_datasources);
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
@@ -150,22 +164,40 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     }
 
     /**
-     * Evaluate given an already interpolated expression that contains no mate data.
+     * Returns the compiled expression, or null if the expression contains mate data and therefore needs to be
+     * interpolated for every resource before it can be evaluated.
      */
-    public double evaluate(String expression, Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String, Object> context = new HashMap<>(values);
-        context.put("datasources", new HashMap<>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
-        double result;
+    CompiledExpression getCompiledExpression() {
+        return m_compiledExpression;
+    }
+
+    /**
+     * Returns the compiled form of an already interpolated expression that contains no mate data.
+     */
+    CompiledExpression compile(String expression) throws ThresholdExpressionException {
+        if (m_compiledExpression != null && m_compiledExpression.getExpression().equals(expression)) {
+            return m_compiledExpression;
+        }
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = jexlEngine.createExpression(expression).evaluate(new MapContext(context));
-            result = Double.parseDouble(resultObject.toString());
-        } catch (Throwable e) {
-            throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
+            return m_interpolatedExpressions.get(expression, () -> CompiledExpression.compile(expression, m_datasources));
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getCause().getMessage(), e.getCause());
         }
-        return result;
+    }
+
+    /**
+     * Evaluate given an already interpolated expression that contains no mate data.
+     */
+    public double evaluate(String expression, Map<String, Double> values) throws ThresholdExpressionException {
+        return evaluate(expression, getRequiredValues(values));
+    }
+
+    /**
+     * Evaluate given an already interpolated expression that contains no mate data, with the values ordered like the
+     * {@link #getRequiredDatasources() required datasources}.
+     */
+    public double evaluate(String expression, Double[] values) throws ThresholdExpressionException {
+        return compile(expression).evaluate(values);
     }
 
     /**
@@ -174,6 +206,14 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
      */
     public ExpressionValue interpolateAndEvaluate(Map<String, Double> values, Scope scope)
             throws ThresholdExpressionException {
+        return interpolateAndEvaluate(getRequiredValues(values), scope);
+    }
+
+    /**
+     * Same as {@link #interpolateAndEvaluate(Map, Scope)}, with the values ordered like the
+     * {@link #getRequiredDatasources() required datasources}.
+     */
+    public ExpressionValue interpolateAndEvaluate(Double[] values, Scope scope) throws ThresholdExpressionException {
         String interpolatedExpression = interpolateExpression(m_expression.getExpression(), scope);
         return new ExpressionValue(interpolatedExpression, evaluate(interpolatedExpression, values));
     }
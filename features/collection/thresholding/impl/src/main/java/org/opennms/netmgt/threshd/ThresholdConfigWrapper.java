@@ -79,6 +79,16 @@ public class ThresholdConfigWrapper extends BaseThresholdDefConfigWrapper {
         return result.doubleValue();
     }
 
+    /**
+     * Same as {@link #evaluate(Map)}, with the value given in the order of {@link #getRequiredDatasources()}.
+     */
+    public double evaluate(Double[] values) {
+        if (values.length == 0 || values[0] == null) {
+            return 0.0;
+        }
+        return values[0].doubleValue();
+    }
+
     @Override
     public void accept(ThresholdDefVisitor thresholdDefVisitor) {
         thresholdDefVisitor.visit(this);
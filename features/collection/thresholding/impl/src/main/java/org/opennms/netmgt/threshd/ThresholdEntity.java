@@ -28,7 +28,9 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -244,6 +246,64 @@ public final class ThresholdEntity implements Cloneable {
      * @param resource a {@link org.opennms.netmgt.threshd.CollectionResourceWrapper} object.
      */
     public List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
+        return evaluateAndCreateEvents(resource, getThresholdConfig().getRequiredValues(values), null, date);
+    }
+
+    /**
+     * Evaluates the threshold for each of the given resources and create any
+     * events for thresholds.
+     *
+     * Expressions which do not contain mate data are the same for all of the
+     * resources, so they are evaluated for all of the resources in a single pass
+     * before the evaluators are updated.
+     *
+     * @param resources the resources to evaluate the threshold for
+     * @param values
+     *          the values of each resource, ordered like the required datasources
+     *          of the threshold config (see {@link BaseThresholdDefConfigWrapper#getRequiredValues(Map)})
+     * @param date
+     *          Date to use in created events
+     * @return the list of events of each resource, in the order of the resources
+     */
+    public List<List<Event>> evaluateAndCreateEvents(List<CollectionResourceWrapper> resources, List<Double[]> values, Date date) {
+        final AtomicReference<CompiledExpression> compiledExpressionRef = new AtomicReference<>(null);
+        getThresholdConfig().accept(new ThresholdDefVisitor() {
+            @Override
+            public void visit(ThresholdConfigWrapper thresholdConfigWrapper) {
+                // Nothing to compute in advance
+            }
+
+            @Override
+            public void visit(ExpressionConfigWrapper expressionConfigWrapper) {
+                compiledExpressionRef.set(expressionConfigWrapper.getCompiledExpression());
+            }
+        });
+
+        final CompiledExpression compiledExpression = compiledExpressionRef.get();
+        double[] results = null;
+        ThresholdExpressionException[] errors = null;
+        if (compiledExpression != null) {
+            errors = new ThresholdExpressionException[values.size()];
+            results = compiledExpression.evaluate(values, errors);
+        }
+
+        final List<List<Event>> events = new ArrayList<>(resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            final CollectionResourceWrapper resource = resources.get(i);
+            final EvaluatedExpression evaluatedExpression = results == null ? null
+                    : new EvaluatedExpression(compiledExpression.getExpression(), results[i], errors[i]);
+            try {
+                events.add(evaluateAndCreateEvents(resource, values.get(i), evaluatedExpression, date));
+            } catch (Exception e) {
+                LOG.warn("evaluateAndCreateEvents: Can't evaluate {} on {} because {}", this, resource, e.getMessage());
+                events.add(Collections.emptyList());
+            }
+        }
+        return events;
+    }
+
+    private List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Double[] values,
+                                                EvaluatedExpression evaluatedExpression, Date date) {
         List<Event> events = new LinkedList<Event>();
 
         String instance = null;
@@ -280,6 +340,12 @@ public final class ThresholdEntity implements Cloneable {
                     // also retrieve the interpolated expression so we can persist it in our state going forward
                     @Override
                     public double get(Consumer<String> expressionConsumer) throws ThresholdExpressionException {
+                        if (evaluatedExpression != null) {
+                            // The expression does not contain any mate data and was already evaluated
+                            expressionConsumer.accept(evaluatedExpression.expression);
+                            return evaluatedExpression.get();
+                        }
+
                         // Default to empty scopes and then attempt to populate each of node, interface, and service
                         // scopes below
                         Scope[] scopes = new Scope[]{EmptyScope.EMPTY, EmptyScope.EMPTY, EmptyScope.EMPTY};
@@ -308,8 +374,11 @@ public final class ThresholdEntity implements Cloneable {
                     // providing us that expression that it has persisted along with its state so that we do not need to
                     // perform interpolation again
                     @Override
-                    public double get(String evaluatedExpression) throws ThresholdExpressionException {
-                        return expressionConfigWrapper.evaluate(evaluatedExpression, values);
+                    public double get(String interpolatedExpression) throws ThresholdExpressionException {
+                        if (evaluatedExpression != null && evaluatedExpression.expression.equals(interpolatedExpression)) {
+                            return evaluatedExpression.get();
+                        }
+                        return expressionConfigWrapper.evaluate(interpolatedExpression, values);
                     }
                 };
 
@@ -453,6 +522,28 @@ public final class ThresholdEntity implements Cloneable {
         m_thresholdingEventProxy = eventProxy;
     }
 
+    /**
+     * The result of an expression which was evaluated in advance.
+     */
+    private static class EvaluatedExpression {
+        private final String expression;
+        private final double value;
+        private final ThresholdExpressionException error;
+
+        private EvaluatedExpression(String expression, double value, ThresholdExpressionException error) {
+            this.expression = expression;
+            this.value = value;
+            this.error = error;
+        }
+
+        private double get() throws ThresholdExpressionException {
+            if (error != null) {
+                throw error;
+            }
+            return value;
+        }
+    }
+
     @FunctionalInterface
     private interface EvaluateFunction {
         ThresholdEvaluatorState.ValueStatus evaluate(ThresholdEvaluatorState thresholdEvaluatorState)
@@ -0,0 +1,701 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.joda.time.Duration;
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.features.distributed.kvstore.api.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * A local write-behind cache in front of the {@link BlobStore} which holds the serialized threshold evaluator states.
+ * <p>
+ * Writes only mark the state of a key as dirty. The dirty states are periodically flushed to the store in batches of
+ * asynchronous puts, so that a state which changes several times between two flushes is only written once. Reads are
+ * served from the cache whenever the cached state can be trusted, and concurrent reads of a key that is not cached share
+ * a single round trip to the store.
+ * <p>
+ * The number of cached states is bounded. Clean states are evicted in LRU order, whereas dirty states are kept until
+ * they have been flushed. Once the dirty states alone exceed the bound, the writers flush them themselves, and the
+ * oldest states which the store failed to accept are dropped.
+ * <p>
+ * Every cache is owned by the {@link BlobStoreAwareMonitor} of its store, which closes it when it is destroyed.
+ */
+final class ThresholdStateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateCache.class);
+    private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    /**
+     * Interval at which the dirty states are written to the store. A value of 0 disables the write-behind, every state
+     * is then written to the store before {@link #put(String, byte[], int, boolean)} returns.
+     */
+    static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.netmgt.threshd.state_cache.flush_interval_ms";
+
+    static final String FLUSH_BATCH_SIZE_PROPERTY = "org.opennms.netmgt.threshd.state_cache.flush_batch_size";
+
+    static final String MAX_ENTRIES_PROPERTY = "org.opennms.netmgt.threshd.state_cache.max_entries";
+
+    private static final String CONTEXT = AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT;
+
+    // The open caches, only used for the metrics and to share the flusher
+    private static final Set<ThresholdStateCache> CACHES = ConcurrentHashMap.newKeySet();
+
+    private static final MetricRegistry METRICS = new MetricRegistry();
+    private static final Meter WRITES = METRICS.meter("state.writes");
+    private static final Meter COALESCED_WRITES = METRICS.meter("state.writes.coalesced");
+    private static final Meter FLUSHED_WRITES = METRICS.meter("state.writes.flushed");
+    private static final Meter FAILED_WRITES = METRICS.meter("state.writes.failed");
+    private static final Meter DROPPED_WRITES = METRICS.meter("state.writes.dropped");
+    private static final Meter READS = METRICS.meter("state.reads");
+    private static final Meter READ_HITS = METRICS.meter("state.reads.hits");
+    private static final Meter COALESCED_READS = METRICS.meter("state.reads.coalesced");
+    private static final Meter ROUND_TRIPS_SAVED = METRICS.meter("state.roundtrips.saved");
+    private static final Timer FLUSHES = METRICS.timer("state.flushes");
+
+    static {
+        METRICS.register("state.cached", (Gauge<Integer>) () -> CACHES.stream()
+                .mapToInt(ThresholdStateCache::size)
+                .sum());
+        METRICS.register("state.dirty", (Gauge<Integer>) () -> CACHES.stream()
+                .mapToInt(ThresholdStateCache::getDirtyCount)
+                .sum());
+        // Age in milliseconds of the oldest state that has not been written to the store yet
+        METRICS.register("state.flush.lag", (Gauge<Long>) () -> CACHES.stream()
+                .mapToLong(ThresholdStateCache::getFlushLag)
+                .max()
+                .orElse(0L));
+    }
+
+    // Guarded by CACHES
+    private static ScheduledExecutorService flusher;
+    private static JmxReporter reporter;
+
+    private final BlobStore blobStore;
+
+    private final long flushIntervalMs;
+
+    private final int flushBatchSize;
+
+    private final int maxEntries;
+
+    // Both maps are guarded by this, an entry is always in exactly one of them
+    private final Map<String, Entry> clean = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Entry> dirty = new LinkedHashMap<>();
+
+    private final Map<String, CompletableFuture<Optional<byte[]>>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> flushTask;
+
+    private static final class Entry {
+        private final String key;
+        private byte[] value;
+        private int ttlInSeconds;
+        // Incremented on every local write
+        private long version;
+        // The latest version handed over to the store
+        private long sentVersion;
+        // The latest version known to be in the store
+        private long flushedVersion;
+        // Completed once the write of the sent version is done, null if there is no write in flight
+        private CompletableFuture<Void> inFlight;
+        private long dirtySince;
+        private long pendingSince;
+        // Timestamp of the state in the store as of our last write or load, null if unknown
+        private Long lastUpdated;
+        // Whether the last write of this entry failed
+        private boolean failed;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private boolean isDirty() {
+            return version != flushedVersion;
+        }
+
+        private boolean isPending() {
+            return version != sentVersion;
+        }
+    }
+
+    private static final class Write {
+        private final Entry entry;
+        private final byte[] value;
+        private final int ttlInSeconds;
+        private final long version;
+        private final CompletableFuture<Void> done;
+
+        private Write(Entry entry) {
+            this.entry = entry;
+            this.value = entry.value;
+            this.ttlInSeconds = entry.ttlInSeconds;
+            this.version = entry.version;
+            this.done = new CompletableFuture<>();
+        }
+    }
+
+    ThresholdStateCache(BlobStore blobStore, long flushIntervalMs, int flushBatchSize, int maxEntries) {
+        this.blobStore = Objects.requireNonNull(blobStore);
+        this.flushIntervalMs = flushIntervalMs;
+        this.flushBatchSize = Math.max(1, flushBatchSize);
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Creates and starts a cache for the given store, configured by the system properties. The caches share a single
+     * flusher thread, which is stopped once all of them are closed.
+     */
+    static ThresholdStateCache create(BlobStore blobStore) {
+        final ThresholdStateCache cache = new ThresholdStateCache(blobStore,
+                SystemProperties.getLong(FLUSH_INTERVAL_PROPERTY, 1000),
+                SystemProperties.getInteger(FLUSH_BATCH_SIZE_PROPERTY, 500),
+                SystemProperties.getInteger(MAX_ENTRIES_PROPERTY, 10000));
+        synchronized (CACHES) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("threshold-state-flusher-%d")
+                        .setDaemon(true)
+                        .build());
+            }
+            if (reporter == null) {
+                reporter = JmxReporter.forRegistry(METRICS)
+                        .inDomain("org.opennms.netmgt.threshd")
+                        .build();
+                reporter.start();
+            }
+            CACHES.add(cache);
+            cache.start(flusher);
+        }
+        return cache;
+    }
+
+    void start(ScheduledExecutorService executor) {
+        this.executor = Objects.requireNonNull(executor);
+        if (isWriteBehind()) {
+            flushTask = executor.scheduleWithFixedDelay(() -> {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    RATE_LIMITED_LOGGER.warn("Failed to flush the threshold states.", e);
+                }
+            }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic flushes and writes all of the dirty states to the store.
+     */
+    void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        executor = null;
+        flush();
+        awaitInFlight(snapshotInFlight());
+
+        synchronized (CACHES) {
+            if (CACHES.remove(this) && CACHES.isEmpty()) {
+                if (flusher != null) {
+                    flusher.shutdown();
+                    flusher = null;
+                }
+                if (reporter != null) {
+                    reporter.stop();
+                    reporter = null;
+                }
+            }
+        }
+    }
+
+    private boolean isWriteBehind() {
+        return flushIntervalMs > 0;
+    }
+
+    /**
+     * Stores the serialized state of the given key. The state is written to the store with the next flush, unless it
+     * is superseded by another write of the same key before.
+     * <p>
+     * When distributed, the next flush is triggered right away so that the state becomes visible to the other
+     * instances as soon as possible, without blocking the caller.
+     */
+    void put(String key, byte[] value, int ttlInSeconds, boolean distributed) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        WRITES.mark();
+
+        final boolean flushNow;
+        final boolean overflow;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            Entry entry = dirty.get(key);
+            if (entry == null) {
+                entry = clean.remove(key);
+                if (entry == null) {
+                    entry = new Entry(key);
+                }
+                entry.dirtySince = now;
+                dirty.put(key, entry);
+            }
+
+            if (entry.isPending()) {
+                // The previous state was never sent to the store and never will be
+                COALESCED_WRITES.mark();
+                ROUND_TRIPS_SAVED.mark();
+            } else {
+                entry.pendingSince = now;
+            }
+            entry.value = value;
+            entry.ttlInSeconds = ttlInSeconds;
+            entry.version++;
+
+            evict();
+            // All of the clean states are gone at this point, only dirty ones are left over
+            overflow = size() > maxEntries;
+            flushNow = distributed || dirty.size() >= flushBatchSize;
+        }
+
+        if (!isWriteBehind()) {
+            flushKey(key);
+        } else if (overflow) {
+            // The flusher doesn't keep up, so we write the states ourselves rather than letting them pile up
+            flush();
+            awaitInFlight(snapshotInFlight());
+            dropFailed();
+        } else if (flushNow) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Returns the latest state of the given key.
+     * <p>
+     * When not distributed, we are the only ones updating the states so the cached state is returned if there is one.
+     * Otherwise, the store is asked whether someone else updated the state since our last write. A write of ours that
+     * is still pending is not waited for, unless we never wrote the key before and have nothing to compare with.
+     */
+    Optional<byte[]> get(String key, boolean distributed) {
+        READS.mark();
+        if (distributed) {
+            final Long lastUpdated = getLastUpdated(key);
+            if (lastUpdated != null) {
+                final Optional<Optional<byte[]>> stale = blobStore.getIfStale(key, CONTEXT, lastUpdated);
+                if (stale.isPresent() && stale.get().isPresent()) {
+                    update(key, stale.get().get());
+                    return stale.get();
+                }
+                synchronized (this) {
+                    final Entry entry = lookup(key);
+                    // A pending write of ours brings back a state that is missing in the store
+                    if (entry != null && (stale.isPresent() || entry.isDirty())) {
+                        return Optional.of(entry.value);
+                    }
+                }
+                if (!stale.isPresent()) {
+                    return Optional.empty();
+                }
+            }
+        } else {
+            synchronized (this) {
+                final Entry entry = lookup(key);
+                if (entry != null) {
+                    READ_HITS.mark();
+                    ROUND_TRIPS_SAVED.mark();
+                    return Optional.of(entry.value);
+                }
+            }
+        }
+        return load(key, distributed);
+    }
+
+    /**
+     * Returns the state of the given key if it was updated in the store by someone else since we last wrote or loaded
+     * it. Like {@link #get(String, boolean)}, this does not wait for a pending write of ours.
+     */
+    Optional<byte[]> getIfStale(String key) {
+        READS.mark();
+
+        final Long lastUpdated = getLastUpdated(key);
+        if (lastUpdated == null) {
+            return load(key, true);
+        }
+
+        final Optional<Optional<byte[]>> stale = blobStore.getIfStale(key, CONTEXT, lastUpdated);
+        if (stale.isPresent() && stale.get().isPresent()) {
+            update(key, stale.get().get());
+            return stale.get();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the timestamp of our last completed write or load of the given key, or null if unknown. If we never
+     * completed a write of the key but have one pending, it is written first, since the store couldn't tell whether
+     * someone else updated the state after us otherwise.
+     */
+    private Long getLastUpdated(String key) {
+        synchronized (this) {
+            final Entry entry = lookup(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.lastUpdated != null || !entry.isDirty()) {
+                return entry.lastUpdated;
+            }
+        }
+        flushKey(key);
+        synchronized (this) {
+            final Entry entry = lookup(key);
+            return entry != null ? entry.lastUpdated : null;
+        }
+    }
+
+    /**
+     * Drops the state of the given key. Waits for a write of the key that is in flight, so that the state can safely be
+     * deleted from the store afterwards.
+     */
+    void invalidate(String key) {
+        final CompletableFuture<Void> inFlight;
+        synchronized (this) {
+            Entry entry = dirty.remove(key);
+            if (entry == null) {
+                entry = clean.remove(key);
+            }
+            inFlight = entry != null ? entry.inFlight : null;
+        }
+        if (inFlight != null) {
+            inFlight.join();
+        }
+    }
+
+    /**
+     * Drops all of the states. Waits for the writes that are in flight, so that the states can safely be deleted from
+     * the store afterwards.
+     */
+    void invalidateAll() {
+        final List<CompletableFuture<Void>> inFlight;
+        synchronized (this) {
+            inFlight = snapshotInFlight();
+            dirty.clear();
+            clean.clear();
+        }
+        awaitInFlight(inFlight);
+    }
+
+    /**
+     * Writes the dirty states to the store in batches of asynchronous puts, and waits for the writes to complete.
+     */
+    void flush() {
+        flushRequested.set(false);
+
+        final List<Write> writes = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : dirty.values()) {
+                if (entry.isPending() && entry.inFlight == null) {
+                    writes.add(send(entry));
+                }
+            }
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        try (Timer.Context ctx = FLUSHES.time()) {
+            for (List<Write> batch : Lists.partition(writes, flushBatchSize)) {
+                CompletableFuture.allOf(batch.stream()
+                        .map(this::writeAsync)
+                        .toArray(CompletableFuture[]::new))
+                        .join();
+            }
+        }
+    }
+
+    private void requestFlush() {
+        final ScheduledExecutorService executor = this.executor;
+        if (executor != null && flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (RuntimeException e) {
+                flushRequested.set(false);
+                LOG.debug("Failed to schedule a flush of the threshold states.", e);
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the latest local state of the given key has been written to the store.
+     */
+    private void flushKey(String key) {
+        CompletableFuture<Void> inFlight;
+        synchronized (this) {
+            final Entry entry = dirty.get(key);
+            if (entry == null) {
+                return;
+            }
+            inFlight = entry.inFlight;
+        }
+        if (inFlight != null) {
+            inFlight.join();
+        }
+
+        final Write write;
+        synchronized (this) {
+            final Entry entry = dirty.get(key);
+            if (entry == null || !entry.isPending() || entry.inFlight != null) {
+                return;
+            }
+            write = send(entry);
+        }
+        try {
+            written(write, blobStore.put(key, write.value, CONTEXT, write.ttlInSeconds), null);
+        } catch (RuntimeException e) {
+            written(write, null, e);
+        }
+    }
+
+    // Must be called while holding the lock
+    private Write send(Entry entry) {
+        final Write write = new Write(entry);
+        entry.sentVersion = entry.version;
+        entry.inFlight = write.done;
+        return write;
+    }
+
+    private CompletableFuture<Void> writeAsync(Write write) {
+        try {
+            return blobStore.putAsync(write.entry.key, write.value, CONTEXT, write.ttlInSeconds)
+                    .handle((timestamp, ex) -> {
+                        written(write, timestamp, ex);
+                        return null;
+                    });
+        } catch (RuntimeException e) {
+            written(write, null, e);
+            return write.done;
+        }
+    }
+
+    private void written(Write write, Long timestamp, Throwable ex) {
+        final Entry entry = write.entry;
+        synchronized (this) {
+            if (entry.inFlight == write.done) {
+                entry.inFlight = null;
+            }
+            entry.failed = ex != null;
+            if (ex == null) {
+                FLUSHED_WRITES.mark();
+                entry.flushedVersion = write.version;
+                entry.lastUpdated = timestamp;
+                // Only move the entry if it was not invalidated in the meantime
+                if (dirty.get(entry.key) == entry) {
+                    if (!entry.isDirty()) {
+                        dirty.remove(entry.key);
+                        entry.dirtySince = 0;
+                        clean.put(entry.key, entry);
+                        evict();
+                    } else {
+                        entry.dirtySince = entry.pendingSince;
+                    }
+                }
+            } else {
+                FAILED_WRITES.mark();
+                // Send the state again with the next flush
+                entry.sentVersion = entry.flushedVersion;
+            }
+        }
+        write.done.complete(null);
+
+        if (ex != null) {
+            RATE_LIMITED_LOGGER.warn("Failed to store state for threshold {}", entry.key, ex);
+        }
+    }
+
+    /**
+     * Reads the state of the given key from the store. Concurrent reads of the same key share a single round trip.
+     * <p>
+     * When distributed, the timestamp of the state in the store is read first and kept with the loaded state, so that
+     * {@link #getIfStale(String)} only needs to read the state again once someone else updated it. A write that happens
+     * in between is newer than this timestamp, and is read again with the next check.
+     */
+    private Optional<byte[]> load(String key, boolean distributed) {
+        final CompletableFuture<Optional<byte[]>> future = new CompletableFuture<>();
+        final CompletableFuture<Optional<byte[]>> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            COALESCED_READS.mark();
+            ROUND_TRIPS_SAVED.mark();
+            return existing.join();
+        }
+
+        try {
+            final OptionalLong loadedAt = distributed ? blobStore.getLastUpdated(key, CONTEXT) : OptionalLong.empty();
+            final Optional<byte[]> value = blobStore.get(key, CONTEXT);
+            value.ifPresent(v -> {
+                synchronized (this) {
+                    Entry entry = lookup(key);
+                    if (entry == null) {
+                        entry = new Entry(key);
+                        clean.put(key, entry);
+                        evict();
+                    } else if (entry.isDirty() || entry.lastUpdated != null) {
+                        // Don't overwrite a state that was written locally while we were loading
+                        return;
+                    }
+                    entry.value = v;
+                    entry.lastUpdated = loadedAt.isPresent() ? loadedAt.getAsLong() : null;
+                }
+            });
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Replaces the cached state of the given key with a state that someone else wrote to the store after us.
+     */
+    private synchronized void update(String key, byte[] value) {
+        final Entry entry = lookup(key);
+        if (entry == null) {
+            return;
+        }
+        entry.value = value;
+        if (entry.isDirty()) {
+            // Our pending write must not undo their update, so it now carries their state
+            entry.version++;
+        }
+    }
+
+    // Must be called while holding the lock
+    private Entry lookup(String key) {
+        final Entry entry = dirty.get(key);
+        return entry != null ? entry : clean.get(key);
+    }
+
+    // Must be called while holding the lock
+    private void evict() {
+        final Iterator<Entry> it = clean.values().iterator();
+        while (size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops the oldest dirty states which the store failed to accept, until the number of states is back within the
+     * bound. These states are lost, just like they would have been without the cache.
+     */
+    private void dropFailed() {
+        int dropped = 0;
+        synchronized (this) {
+            final Iterator<Entry> it = dirty.values().iterator();
+            while (size() > maxEntries && it.hasNext()) {
+                final Entry entry = it.next();
+                if (entry.failed && entry.inFlight == null) {
+                    it.remove();
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            DROPPED_WRITES.mark(dropped);
+            RATE_LIMITED_LOGGER.warn("The store does not accept the threshold states, {} states were dropped.", dropped);
+        }
+    }
+
+    private synchronized List<CompletableFuture<Void>> snapshotInFlight() {
+        final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        for (Entry entry : dirty.values()) {
+            if (entry.inFlight != null) {
+                inFlight.add(entry.inFlight);
+            }
+        }
+        return inFlight;
+    }
+
+    private static void awaitInFlight(List<CompletableFuture<Void>> inFlight) {
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+    }
+
+    synchronized int size() {
+        return clean.size() + dirty.size();
+    }
+
+    synchronized int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Returns the age in milliseconds of the oldest state that has not been written to the store yet.
+     */
+    synchronized long getFlushLag() {
+        long oldest = Long.MAX_VALUE;
+        for (Entry entry : dirty.values()) {
+            oldest = Math.min(oldest, entry.dirtySince);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+}
@@ -36,6 +36,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.opennms.core.soa.lookup.ServiceLookup;
 import org.opennms.core.soa.lookup.ServiceLookupBuilder;
@@ -132,6 +133,12 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
         }, 0, TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES));
     }
     
+    // Spring and OSGi destroy entry point
+    @PreDestroy
+    public void destroy() {
+        reInitializeTimer.cancel();
+    }
+
     private void reinitializeOnTimer() {
         thresholdingSetPersister.reinitializeThresholdingSets();
     }
@@ -32,8 +32,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -94,6 +94,11 @@ public class ThresholdingSetImpl implements ThresholdingSet {
     private ServiceParameters m_svcParams;
 
     protected final List<ThresholdGroup> m_thresholdGroups = new LinkedList<>();
+    /**
+     * Immutable copy of m_thresholdGroups, published after every change so that
+     * thresholds can be applied without holding the lock.
+     */
+    private volatile List<ThresholdGroup> m_thresholdGroupsSnapshot = Collections.emptyList();
     protected final List<String> m_scheduledOutages = new ArrayList<>();
     
     private final ThresholdingSession m_thresholdingSession;
@@ -149,6 +154,7 @@ public class ThresholdingSetImpl implements ThresholdingSet {
                 }
             }
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+            publishThresholdGroups();
         }
         updateScheduledOutages();
     }
@@ -167,9 +173,12 @@ public class ThresholdingSetImpl implements ThresholdingSet {
         } catch (final Exception e) {
             LOG.error("Failed to reinitialize thresholding set.  Reverting to previous configuration.", e);
             m_hasThresholds = hasThresholds;
-            if (!thresholdGroups.equals(m_thresholdGroups)) {
-                m_thresholdGroups.clear();
-                m_thresholdGroups.addAll(thresholdGroups);
+            synchronized(m_thresholdGroups) {
+                if (!thresholdGroups.equals(m_thresholdGroups)) {
+                    m_thresholdGroups.clear();
+                    m_thresholdGroups.addAll(thresholdGroups);
+                    publishThresholdGroups();
+                }
             }
             if (!scheduledOutages.equals(m_scheduledOutages)) {
                 m_scheduledOutages.clear();
@@ -233,29 +242,35 @@ public class ThresholdingSetImpl implements ThresholdingSet {
             m_thresholdGroups.clear();
             m_thresholdGroups.addAll(newThresholdGroupList);
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+            publishThresholdGroups();
         }
     }
 
+    /*
+     * Must be called while holding the lock on m_thresholdGroups, after changing it.
+     */
+    private void publishThresholdGroups() {
+        m_thresholdGroupsSnapshot = Collections.unmodifiableList(new ArrayList<>(m_thresholdGroups));
+    }
+
     public boolean hasThresholds() {
         return m_hasThresholds;
     }
 
     private boolean hasThresholds(final String resourceTypeName, final String attributeName) {
         boolean ok = false;
-        synchronized(m_thresholdGroups) {
-            for (ThresholdGroup group : m_thresholdGroups) {
-                Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
-                if (entityMap != null) {
-                    for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
-                        final Set<ThresholdEntity> value = entry.getValue();
-                        for (final ThresholdEntity thresholdEntity : value) {
-                            final Collection<String> requiredDatasources = thresholdEntity.getRequiredDatasources();
-                            if (requiredDatasources.contains(attributeName)) {
-                                ok = true;
-                                LOG.debug("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
-                            } else {
-                                LOG.trace("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
-                            }
+        for (ThresholdGroup group : m_thresholdGroupsSnapshot) {
+            Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
+            if (entityMap != null) {
+                for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
+                    final Set<ThresholdEntity> value = entry.getValue();
+                    for (final ThresholdEntity thresholdEntity : value) {
+                        final Collection<String> requiredDatasources = thresholdEntity.getRequiredDatasources();
+                        if (requiredDatasources.contains(attributeName)) {
+                            ok = true;
+                            LOG.debug("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
+                        } else {
+                            LOG.trace("hasThresholds: {}@{}? {}", resourceTypeName, attributeName, ok);
                         }
                     }
                 }
@@ -290,56 +305,102 @@ public class ThresholdingSetImpl implements ThresholdingSet {
      * @return a {@link java.util.List} object.
      */
     protected final List<Event> applyThresholds(CollectionResourceWrapper resourceWrapper, Map<String, CollectionAttribute> attributesMap) {
-        List<Event> eventsList = new LinkedList<>();
         if (attributesMap == null || attributesMap.size() == 0) {
             LOG.debug("applyThresholds: Ignoring resource {} because required attributes map is empty.", resourceWrapper);
-            return eventsList;
+            return new LinkedList<>();
         }
         LOG.debug("applyThresholds: Applying thresholds on {} using {} attributes.", resourceWrapper, attributesMap.size());
-        Date date = new Date();
-        synchronized(m_thresholdGroups) {
-            for (ThresholdGroup group : m_thresholdGroups) {
-                Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
-                if (entityMap != null) {
-                    for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
-                        final String key = entry.getKey();
-                        final Set<ThresholdEntity> value = entry.getValue();
-                        for (final ThresholdEntity thresholdEntity : value) {
+        return evaluateThresholds(Collections.singletonList(resourceWrapper));
+    }
+
+    /*
+     * Apply thresholds definitions for all of the specified resources in a single pass: the threshold
+     * definitions are looked up once, and each of them is evaluated for all of the resources of its
+     * resource type at once.
+     * Return a list of events to be send if some thresholds must be triggered or be rearmed, ordered by resource.
+     *
+     * @param resourceWrappers the resources, see {@link #wrapResource(CollectionResource, Map, Date, Long)}
+     * @return a {@link java.util.List} object.
+     */
+    private List<Event> evaluateThresholds(List<CollectionResourceWrapper> resourceWrappers) {
+        final Date date = new Date();
+        final List<List<Event>> eventsByResource = new ArrayList<>(resourceWrappers.size());
+        final Map<String, List<Integer>> resourcesByType = new LinkedHashMap<>();
+        for (int i = 0; i < resourceWrappers.size(); i++) {
+            eventsByResource.add(new LinkedList<>());
+            resourcesByType.computeIfAbsent(resourceWrappers.get(i).getResourceTypeName(), type -> new ArrayList<>()).add(i);
+        }
+
+        final List<CollectionResourceWrapper> resources = new ArrayList<>();
+        final List<Double[]> values = new ArrayList<>();
+        final List<Integer> indexes = new ArrayList<>();
+        for (ThresholdGroup group : m_thresholdGroupsSnapshot) {
+            for (final Entry<String, List<Integer>> typeEntry : resourcesByType.entrySet()) {
+                Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, typeEntry.getKey());
+                if (entityMap == null) {
+                    continue;
+                }
+                for (final Entry<String, Set<ThresholdEntity>> entry : entityMap.entrySet()) {
+                    final String key = entry.getKey();
+                    final Set<ThresholdEntity> value = entry.getValue();
+                    for (final ThresholdEntity thresholdEntity : value) {
+                        resources.clear();
+                        values.clear();
+                        indexes.clear();
+                        for (final Integer index : typeEntry.getValue()) {
+                            final CollectionResourceWrapper resourceWrapper = resourceWrappers.get(index);
                             if (passedThresholdFilters(resourceWrapper, thresholdEntity)) {
                                 LOG.info("applyThresholds: Processing threshold {} : {} on resource {}", key, thresholdEntity, resourceWrapper);
-                                Collection<String> requiredDatasources = thresholdEntity.getThresholdConfig().getRequiredDatasources();
-                                final Map<String, Double> values = new HashMap<String,Double>();
-                                boolean valueMissing = false;
-                                boolean relaxed = thresholdEntity.getThresholdConfig().getBasethresholddef().getRelaxed();
-                                for(final String ds : requiredDatasources) {
-                                    final Double dsValue = resourceWrapper.getAttributeValue(ds);
-                                    if(dsValue == null) {
-                                        LOG.info("applyThresholds: Could not get data source value for '{}', {}", ds, (relaxed ? "but the expression will be evaluated (relaxed mode enabled)" : "not evaluating threshold"));
-                                        valueMissing = true;
-                                    }
-                                    values.put(ds,dsValue);
-                                }
-                                if(!valueMissing || relaxed) {
+                                final Double[] dsValues = getRequiredValues(resourceWrapper, thresholdEntity);
+                                if (dsValues != null) {
                                     LOG.info("applyThresholds: All attributes found for {}, evaluating", resourceWrapper);
                                     resourceWrapper.setDsLabel(thresholdEntity.getDatasourceLabel());
-                                    try {
-                                        List<Event> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resourceWrapper, values, date);
-                                        eventsList.addAll(thresholdEvents);
-                                    } catch (Exception e) {
-                                        LOG.warn("applyThresholds: Can't evaluate {} on {} because {}", key, resourceWrapper, e.getMessage());
-                                    }
+                                    resources.add(resourceWrapper);
+                                    values.add(dsValues);
+                                    indexes.add(index);
                                 }
                             } else {
                                 LOG.info("applyThresholds: Not processing threshold {} : {} because no filters matched", key, thresholdEntity);
                             }
                         }
+                        if (resources.isEmpty()) {
+                            continue;
+                        }
+                        final List<List<Event>> thresholdEvents = thresholdEntity.evaluateAndCreateEvents(resources, values, date);
+                        for (int i = 0; i < indexes.size(); i++) {
+                            eventsByResource.get(indexes.get(i)).addAll(thresholdEvents.get(i));
+                        }
                     }
                 }
             }
         }
+
+        final List<Event> eventsList = new LinkedList<>();
+        eventsByResource.forEach(eventsList::addAll);
         return eventsList;
     }
 
+    /*
+     * Returns the values of the datasources required by the threshold, or null if the threshold
+     * must not be evaluated because some of them are missing.
+     */
+    private Double[] getRequiredValues(CollectionResourceWrapper resourceWrapper, ThresholdEntity thresholdEntity) {
+        final Collection<String> requiredDatasources = thresholdEntity.getThresholdConfig().getRequiredDatasources();
+        final Double[] values = new Double[requiredDatasources.size()];
+        boolean valueMissing = false;
+        boolean relaxed = thresholdEntity.getThresholdConfig().getBasethresholddef().getRelaxed();
+        int i = 0;
+        for(final String ds : requiredDatasources) {
+            final Double dsValue = resourceWrapper.getAttributeValue(ds);
+            if(dsValue == null) {
+                LOG.info("applyThresholds: Could not get data source value for '{}', {}", ds, (relaxed ? "but the expression will be evaluated (relaxed mode enabled)" : "not evaluating threshold"));
+                valueMissing = true;
+            }
+            values[i++] = dsValue;
+        }
+        return !valueMissing || relaxed ? values : null;
+    }
+
     protected boolean passedThresholdFilters(CollectionResourceWrapper resource, ThresholdEntity thresholdEntity) {
         // Check Valid Interface Resource based on suggestions from Bug 2711
         if (resource.isAnInterfaceResource() && !resource.isValidInterfaceResource()) {
@@ -539,11 +600,47 @@ public class ThresholdingSetImpl implements ThresholdingSet {
             LOG.debug("applyThresholds: Ignoring resource {} because data collection is disabled for this resource.", resource);
             return new LinkedList<>();
         }
+        CollectionResourceWrapper resourceWrapper = createResourceWrapper(resource, attributesMap, collectionTimestamp, sequenceNumber);
+        return Collections.unmodifiableList(applyThresholds(resourceWrapper, attributesMap));
+    }
+
+    /**
+     * Apply thresholds on all of the given resources at once, see {@link #wrapResource(CollectionResource, Map, Date, Long)}.
+     *
+     * @return the events to send, ordered by resource
+     */
+    public List<Event> applyThresholds(List<CollectionResourceWrapper> resourceWrappers) {
+        if (resourceWrappers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(evaluateThresholds(resourceWrappers));
+    }
+
+    /**
+     * Wraps the resource, along with the values of its attributes, so that thresholds can be applied on it later.
+     *
+     * @return the wrapped resource, or null if there are no thresholds to apply on the resource
+     */
+    public CollectionResourceWrapper wrapResource(CollectionResource resource, Map<String, CollectionAttribute> attributesMap,
+                                                  Date collectionTimestamp, Long sequenceNumber) {
+        if (!isCollectionEnabled(resource)) {
+            LOG.debug("wrapResource: Ignoring resource {} because data collection is disabled for this resource.", resource);
+            return null;
+        }
+        if (attributesMap == null || attributesMap.size() == 0) {
+            LOG.debug("wrapResource: Ignoring resource {} because required attributes map is empty.", resource);
+            return null;
+        }
+        return createResourceWrapper(resource, attributesMap, collectionTimestamp, sequenceNumber);
+    }
+
+    private CollectionResourceWrapper createResourceWrapper(CollectionResource resource, Map<String, CollectionAttribute> attributesMap,
+                                                            Date collectionTimestamp, Long sequenceNumber) {
         CollectionResourceWrapper resourceWrapper = new CollectionResourceWrapper(collectionTimestamp, m_nodeId,
                 m_hostAddress, m_serviceName, m_repository, resource, attributesMap, m_resourceStorageDao,
                 m_ifLabelDao, sequenceNumber);
         resourceWrapper.setCounterReset(m_counterReset);
-        return Collections.unmodifiableList(applyThresholds(resourceWrapper, attributesMap));
+        return resourceWrapper;
     }
 
     public List<ThresholdGroup> getThresholdGroups() {
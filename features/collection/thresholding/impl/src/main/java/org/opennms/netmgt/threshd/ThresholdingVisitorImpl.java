@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -52,8 +53,9 @@ import com.google.common.annotations.VisibleForTesting;
 /**
  * Implements CollectionSetVisitor to implement thresholding.
  * Works by simply recording all the attributes that come in via visitAttribute
- * into an internal data structure, per resource, and then on "completeResource", does
- * threshold checking against that in memory structure.
+ * into an internal data structure, per resource, and then on "completeCollectionSet", does
+ * threshold checking against that in memory structure for all of the resources at once.
+ * Resources which are visited outside of a CollectionSet are checked on "completeResource".
  *
  * Suggested usage is one per CollectableService; this object holds the current state of thresholds
  * for this interface/service combination
@@ -78,7 +80,14 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
     /**
      * Holds required attribute from CollectionResource to evaluate thresholds.
      */
-    final Map<String, CollectionAttribute> m_attributesMap = new HashMap<String, CollectionAttribute>();
+    Map<String, CollectionAttribute> m_attributesMap = new HashMap<String, CollectionAttribute>();
+
+    /**
+     * Holds the completed resources of the CollectionSet, on which thresholds will be applied.
+     */
+    final List<CollectionResourceWrapper> m_resources = new ArrayList<>();
+
+    private boolean m_visitingCollectionSet = false;
 
 	private Date m_collectionTimestamp;
 
@@ -115,6 +124,7 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
     @Override
     public void visitCollectionSet(CollectionSet set) {
         m_collectionTimestamp = set.getCollectionTimestamp();
+        m_visitingCollectionSet = true;
     }
     
     /**
@@ -134,7 +144,8 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
 
     @Override
     public void visitResource(CollectionResource resource) {
-        m_attributesMap.clear();
+        // The map of the previous resource is still referenced by its wrapper
+        m_attributesMap = new HashMap<String, CollectionAttribute>();
     }
 
     /**
@@ -154,13 +165,41 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
     }
 
     /**
-     * Apply threshold for specific resource (and required attributes).
-     * Send thresholds events (if exists).
+     * Record the specific resource (and required attributes), so that thresholds are
+     * applied on it once the whole CollectionSet has been visited.
+     * Apply threshold right away if the resource is not part of a CollectionSet.
      */
     @Override
     public void completeResource(CollectionResource resource) {
-        List<Event> eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp,
-                m_sequenceNumber);
+        final CollectionResourceWrapper resourceWrapper = m_thresholdingSet.wrapResource(resource, m_attributesMap,
+                m_collectionTimestamp, m_sequenceNumber);
+        if (resourceWrapper == null) {
+            return;
+        }
+        if (m_visitingCollectionSet) {
+            m_resources.add(resourceWrapper);
+        } else {
+            sendEvents(m_thresholdingSet.applyThresholds(Collections.singletonList(resourceWrapper)));
+        }
+    }
+
+    /**
+     * Apply thresholds for all of the resources of the CollectionSet in a single pass.
+     * Send thresholds events (if exists).
+     */
+    @Override
+    public void completeCollectionSet(CollectionSet set) {
+        m_visitingCollectionSet = false;
+        final List<Event> eventList;
+        try {
+            eventList = m_thresholdingSet.applyThresholds(m_resources);
+        } finally {
+            m_resources.clear();
+        }
+        sendEvents(eventList);
+    }
+
+    private void sendEvents(List<Event> eventList) {
         for (Event event : eventList) {
             m_thresholdingEventProxy.sendEvent(event);
         }
@@ -32,6 +32,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import org.junit.Before;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 
@@ -40,6 +41,12 @@ import org.opennms.netmgt.xml.event.Parm;
  *
  */
 public abstract class AbstractThresholdEvaluatorTestCase {
+    @Before
+    public void clearStateCaches() {
+        // The states are cached by the state monitor, don't leak them from one test to the next
+        MockSession.resetStateMonitor();
+    }
+
     protected static void parmPresentAndValueNonNull(Event event, String parmName) {
         boolean parmPresent = false;
         
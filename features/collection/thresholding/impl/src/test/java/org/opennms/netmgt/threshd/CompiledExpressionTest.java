@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompiledExpressionTest {
+
+    @Test
+    public void canEvaluateWithSlots() throws Exception {
+        final CompiledExpression expression = CompiledExpression.compile("ifInOctets * 8 / ifSpeed", Arrays.asList("ifInOctets", "ifSpeed"));
+        assertEquals(16.0, expression.evaluate(new Double[]{20.0, 10.0}), 0.0);
+        assertEquals(8.0, expression.evaluate(new Double[]{10.0, 10.0}), 0.0);
+    }
+
+    @Test
+    public void canEvaluateDatasourcesWithInvalidNames() throws Exception {
+        // See NMS-5019
+        final CompiledExpression expression = CompiledExpression.compile("datasources['ns-dskTotal'] - datasources['ns-dskUsed']",
+                Arrays.asList("ns-dskTotal", "ns-dskUsed"));
+        assertEquals(60.0, expression.evaluate(new Double[]{100.0, 40.0}), 0.0);
+    }
+
+    @Test
+    public void canEvaluateMath() throws Exception {
+        final CompiledExpression expression = CompiledExpression.compile("math.max(data, 5)", Arrays.asList("data"));
+        assertEquals(10.0, expression.evaluate(new Double[]{10.0}), 0.0);
+        assertEquals(5.0, expression.evaluate(new Double[]{1.0}), 0.0);
+    }
+
+    @Test
+    public void canEvaluateMissingValues() throws Exception {
+        // Missing values are possible when relaxed mode is enabled
+        final CompiledExpression expression = CompiledExpression.compile("a + b", Arrays.asList("a", "b"));
+        assertEquals(1.0, expression.evaluate(new Double[]{1.0, null}), 0.0);
+    }
+
+    @Test
+    public void canEvaluateRows() {
+        final CompiledExpression expression = CompiledExpression.compile("a / b", Arrays.asList("a", "b"));
+        final List<Double[]> rows = Arrays.asList(new Double[]{4.0, 2.0}, new Double[]{1.0, 0.0}, new Double[]{9.0, 3.0});
+        final ThresholdExpressionException[] errors = new ThresholdExpressionException[rows.size()];
+
+        final double[] results = expression.evaluate(rows, errors);
+
+        assertEquals(2.0, results[0], 0.0);
+        assertNull(errors[0]);
+        assertTrue(Double.isNaN(results[1]));
+        assertNotNull(errors[1]);
+        assertEquals(3.0, results[2], 0.0);
+        assertNull(errors[2]);
+    }
+
+    @Test
+    public void doesNotShareAssignmentsBetweenRows() {
+        final CompiledExpression expression = CompiledExpression.compile("x = a + 1", Arrays.asList("a"));
+        final List<Double[]> rows = Arrays.asList(new Double[]{1.0}, new Double[]{2.0});
+
+        final double[] results = expression.evaluate(rows, new ThresholdExpressionException[rows.size()]);
+
+        assertArrayEquals(new double[]{2.0, 3.0}, results, 0.0);
+    }
+
+    @Test(expected = ThresholdExpressionException.class)
+    public void failsWithoutResult() throws Exception {
+        CompiledExpression.compile("b", Arrays.asList("a")).evaluate(new Double[]{1.0});
+    }
+}
@@ -52,11 +52,23 @@ public class MockSession {
             when(mockSession.getKey()).thenReturn(mockKey);
 
             when(mockSession.getBlobStore()).thenReturn(NoOpBlobStore.getInstance());
-            ThresholdStateMonitor mockStateMonitor = new BlobStoreAwareMonitor(mockSession.getBlobStore());
-            when(mockSession.getThresholdStateMonitor()).thenReturn(mockStateMonitor);
-
+            resetStateMonitor();
         }
 
         return mockSession;
     }
+
+    /**
+     * Replaces the state monitor of the session, and with it the cached states, by a new one for the session's blob
+     * store. The previous monitor is destroyed.
+     */
+    static void resetStateMonitor() {
+        ThresholdingSession session = getSession();
+        ThresholdStateMonitor previous = session.getThresholdStateMonitor();
+        if (previous instanceof BlobStoreAwareMonitor) {
+            ((BlobStoreAwareMonitor) previous).destroy();
+        }
+        ThresholdStateMonitor mockStateMonitor = new BlobStoreAwareMonitor(session.getBlobStore());
+        when(session.getThresholdStateMonitor()).thenReturn(mockStateMonitor);
+    }
 }
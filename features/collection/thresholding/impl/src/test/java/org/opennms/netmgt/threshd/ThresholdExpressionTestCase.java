@@ -59,6 +59,8 @@ public class ThresholdExpressionTestCase extends TestCase {
     
     @Override
     public void setUp() {
+        // The states are cached by the state monitor, don't leak them from one test to the next
+        MockSession.resetStateMonitor();
         expression=new Expression();
         expression.setType(ThresholdType.HIGH);
         expression.setDsType("node");
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.distributed.kvstore.blob.inmemory.InMemoryMapBlobStore;
+
+public class ThresholdStateCacheTest {
+    private static final String CONTEXT = AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT;
+
+    private CountingBlobStore blobStore;
+
+    /**
+     * A thread safe in-memory blob store that counts the round trips.
+     */
+    private static class CountingBlobStore extends InMemoryMapBlobStore {
+        private final AtomicInteger puts = new AtomicInteger();
+        private final AtomicInteger gets = new AtomicInteger();
+        private volatile CountDownLatch getLatch;
+        private volatile boolean failing;
+
+        private CountingBlobStore() {
+            // Every write gets a distinct timestamp
+            super(new AtomicLong()::incrementAndGet);
+        }
+
+        @Override
+        public synchronized long put(String key, byte[] value, String context, Integer ttlInSeconds) {
+            if (failing) {
+                throw new IllegalStateException("The store is down");
+            }
+            puts.incrementAndGet();
+            return super.put(key, value, context, ttlInSeconds);
+        }
+
+        @Override
+        public Optional<byte[]> get(String key, String context) {
+            gets.incrementAndGet();
+            final CountDownLatch latch = getLatch;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                return super.get(key, context);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        blobStore = new CountingBlobStore();
+    }
+
+    private ThresholdStateCache writeBehindCache(int maxEntries) {
+        // The cache is not started, so the states are only written when we flush explicitly
+        return new ThresholdStateCache(blobStore, TimeUnit.HOURS.toMillis(1), 100, maxEntries);
+    }
+
+    @Test
+    public void canCoalesceWritesUntilFlush() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.put("a", new byte[]{2}, 60, false);
+        cache.put("a", new byte[]{3}, 60, false);
+        cache.put("b", new byte[]{4}, 60, false);
+
+        assertEquals(0, blobStore.puts.get());
+        assertEquals(2, cache.getDirtyCount());
+
+        cache.flush();
+
+        // Only the latest state of every key is written
+        assertEquals(2, blobStore.puts.get());
+        assertArrayEquals(new byte[]{3}, blobStore.get("a", CONTEXT).get());
+        assertArrayEquals(new byte[]{4}, blobStore.get("b", CONTEXT).get());
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(0L, cache.getFlushLag());
+
+        // Nothing left to write
+        cache.flush();
+        assertEquals(2, blobStore.puts.get());
+    }
+
+    @Test
+    public void canServePendingStatesLocally() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, false);
+
+        assertArrayEquals(new byte[]{1}, cache.get("a", false).get());
+        assertEquals(0, blobStore.gets.get());
+
+        // A miss goes to the store once, and is served locally afterwards
+        blobStore.put("b", new byte[]{2}, CONTEXT, 60);
+        assertArrayEquals(new byte[]{2}, cache.get("b", false).get());
+        assertArrayEquals(new byte[]{2}, cache.get("b", false).get());
+        assertEquals(1, blobStore.gets.get());
+    }
+
+    @Test
+    public void canCoalesceConcurrentMisses() throws Exception {
+        ThresholdStateCache cache = writeBehindCache(10);
+        blobStore.put("a", new byte[]{1}, CONTEXT, 60);
+        blobStore.getLatch = new CountDownLatch(1);
+
+        CompletableFuture<Optional<byte[]>> first = CompletableFuture.supplyAsync(() -> cache.get("a", false));
+        // Wait for the first read to reach the store before starting the second one
+        while (blobStore.gets.get() == 0) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Optional<byte[]>> second = CompletableFuture.supplyAsync(() -> cache.get("a", false));
+        Thread.sleep(100);
+        blobStore.getLatch.countDown();
+
+        assertArrayEquals(new byte[]{1}, first.get(10, TimeUnit.SECONDS).get());
+        assertArrayEquals(new byte[]{1}, second.get(10, TimeUnit.SECONDS).get());
+        assertEquals(1, blobStore.gets.get());
+    }
+
+    @Test
+    public void canFlushWhenDirtyStatesExceedBound() {
+        ThresholdStateCache cache = writeBehindCache(2);
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.put("b", new byte[]{2}, 60, false);
+        assertEquals(0, blobStore.puts.get());
+
+        // The dirty states no longer fit, so the writer flushes them before the clean states are evicted
+        cache.put("c", new byte[]{3}, 60, false);
+        assertEquals(3, blobStore.puts.get());
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(2, cache.size());
+
+        // One of the states was evicted once it was clean
+        assertArrayEquals(new byte[]{1}, blobStore.get("a", CONTEXT).get());
+        assertArrayEquals(new byte[]{2}, blobStore.get("b", CONTEXT).get());
+        assertArrayEquals(new byte[]{3}, blobStore.get("c", CONTEXT).get());
+    }
+
+    @Test
+    public void canDropFailedStatesWhenDirtyStatesExceedBound() {
+        ThresholdStateCache cache = writeBehindCache(2);
+        blobStore.failing = true;
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.put("b", new byte[]{2}, 60, false);
+        cache.put("c", new byte[]{3}, 60, false);
+
+        // The oldest state was dropped, the others are still waiting to be written
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getDirtyCount());
+
+        blobStore.failing = false;
+        cache.flush();
+        assertEquals(2, blobStore.puts.get());
+        assertFalse(blobStore.get("a", CONTEXT).isPresent());
+        assertArrayEquals(new byte[]{2}, blobStore.get("b", CONTEXT).get());
+        assertArrayEquals(new byte[]{3}, blobStore.get("c", CONTEXT).get());
+    }
+
+    @Test
+    public void canCheckLoadedStateForUpdates() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        blobStore.put("a", new byte[]{1}, CONTEXT, 60);
+
+        // We never wrote the key, but we remember which state we loaded and only read it again once it changes
+        assertArrayEquals(new byte[]{1}, cache.getIfStale("a").get());
+        assertFalse(cache.getIfStale("a").isPresent());
+        assertFalse(cache.getIfStale("a").isPresent());
+        assertEquals(1, blobStore.gets.get());
+
+        // Someone else updates the state
+        blobStore.put("a", new byte[]{2}, CONTEXT, 60);
+        assertArrayEquals(new byte[]{2}, cache.getIfStale("a").get());
+        assertEquals(2, blobStore.gets.get());
+    }
+
+    @Test
+    public void canFlushOwnWriteBeforeDistributedRead() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, true);
+
+        // We never wrote the key before, so our own write is made visible to the others before we compare with the
+        // store
+        assertArrayEquals(new byte[]{1}, cache.get("a", true).get());
+        assertEquals(1, blobStore.puts.get());
+        assertFalse(cache.getIfStale("a").isPresent());
+
+        // Someone else updates the state
+        blobStore.put("a", new byte[]{2}, CONTEXT, 60);
+        assertArrayEquals(new byte[]{2}, cache.getIfStale("a").get());
+    }
+
+    @Test
+    public void canReadThroughWithoutWaitingForPendingWrites() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, true);
+        cache.flush();
+        assertEquals(1, blobStore.puts.get());
+
+        // Our next write is pending, the distributed reads still go to the store but don't write it first
+        cache.put("a", new byte[]{2}, 60, true);
+        assertArrayEquals(new byte[]{2}, cache.get("a", true).get());
+        assertFalse(cache.getIfStale("a").isPresent());
+        assertEquals(1, blobStore.puts.get());
+        assertEquals(1, cache.getDirtyCount());
+
+        // Someone else updates the state after our last write, their state wins over our pending write
+        blobStore.put("a", new byte[]{3}, CONTEXT, 60);
+        assertArrayEquals(new byte[]{3}, cache.getIfStale("a").get());
+        assertArrayEquals(new byte[]{3}, cache.get("a", true).get());
+        cache.flush();
+        assertArrayEquals(new byte[]{3}, blobStore.get("a", CONTEXT).get());
+        assertFalse(cache.getIfStale("a").isPresent());
+    }
+
+    @Test
+    public void canServePendingWriteOfDeletedState() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, true);
+        cache.flush();
+
+        cache.put("a", new byte[]{2}, 60, true);
+        blobStore.delete("a", CONTEXT);
+
+        // The pending write brings the state back
+        assertArrayEquals(new byte[]{2}, cache.get("a", true).get());
+        cache.flush();
+        assertArrayEquals(new byte[]{2}, blobStore.get("a", CONTEXT).get());
+    }
+
+    @Test
+    public void canDropPendingStates() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.put("b", new byte[]{2}, 60, false);
+        cache.invalidate("a");
+        cache.flush();
+
+        assertEquals(1, blobStore.puts.get());
+        assertFalse(blobStore.get("a", CONTEXT).isPresent());
+
+        cache.put("c", new byte[]{3}, 60, false);
+        cache.invalidateAll();
+        cache.flush();
+        assertEquals(1, blobStore.puts.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void canWriteThrough() {
+        ThresholdStateCache cache = new ThresholdStateCache(blobStore, 0, 100, 10);
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.put("a", new byte[]{2}, 60, false);
+
+        assertEquals(2, blobStore.puts.get());
+        assertEquals(0, cache.getDirtyCount());
+        assertArrayEquals(new byte[]{2}, blobStore.get("a", CONTEXT).get());
+    }
+
+    @Test
+    public void canFlushOnClose() {
+        ThresholdStateCache cache = writeBehindCache(10);
+        cache.put("a", new byte[]{1}, 60, false);
+        cache.close();
+
+        assertEquals(1, blobStore.puts.get());
+        assertArrayEquals(new byte[]{1}, blobStore.get("a", CONTEXT).get());
+    }
+}
@@ -49,7 +49,6 @@ import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.features.distributed.kvstore.api.BlobStore;
 import org.opennms.netmgt.config.threshd.Threshold;
 import org.opennms.netmgt.config.threshd.ThresholdType;
-import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
 import org.opennms.netmgt.threshd.api.ThresholdingSession;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -70,7 +69,7 @@ public class ThresholdStateIT {
     private BlobStore blobStore;
 
     private final ThresholdingSession thresholdingSession = MockSession.getSession();
-    private ThresholdStateMonitor monitor;
+    private BlobStoreAwareMonitor monitor;
 
     @Before
     public void setup() {
@@ -81,6 +80,7 @@ public class ThresholdStateIT {
     
     @After
     public void cleanup() {
+        monitor.destroy();
         blobStore.truncateContext(AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT);
     }
     
@@ -109,9 +109,11 @@ public class ThresholdStateIT {
         // This test needs to use a non-default blobstore so we can count blobstore operations
         BlobStore mockBlobStore = mock(BlobStore.class);
         when(thresholdingSession.getBlobStore()).thenReturn(mockBlobStore);
-        // We also need to explicitly clear the existing serdes that are in use since they will have been built using
-        // the other blobstore impl
-        AbstractThresholdEvaluatorState.clearSerdesMap();
+        // We also need a monitor for that blobstore so that the evaluations below don't start out with the states
+        // cached for the other blobstore impl
+        monitor.destroy();
+        monitor = new BlobStoreAwareMonitor(mockBlobStore);
+        when(thresholdingSession.getThresholdStateMonitor()).thenReturn(monitor);
         
         // Set up the mock so that any type of fetch operation will increment a counter
         AtomicInteger fetchesPerformed = new AtomicInteger(0);
@@ -128,7 +128,6 @@ import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.opennms.netmgt.snmp.proxy.common.LocationAwareSnmpClientRpcImpl;
 import org.opennms.netmgt.threshd.api.ThresholdInitializationException;
-import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
 import org.opennms.netmgt.threshd.api.ThresholdingSession;
 import org.opennms.netmgt.threshd.api.ThresholdingVisitor;
 import org.opennms.netmgt.xml.event.Event;
@@ -261,8 +260,7 @@ public class ThresholdingVisitorIT {
         ThresholdingSession mockSession = MockSession.getSession();
         InMemoryMapBlobStore blobStore = InMemoryMapBlobStore.withDefaultTicks();
         when(mockSession.getBlobStore()).thenReturn(blobStore);
-        ThresholdStateMonitor monitor = new BlobStoreAwareMonitor(mockSession.getBlobStore());
-        when(mockSession.getThresholdStateMonitor()).thenReturn(monitor);
+        MockSession.resetStateMonitor();
     }
     
     @Before
@@ -1698,6 +1696,8 @@ public class ThresholdingVisitorIT {
         // NMS-12329: Previously the persisted states were not keyed correctly and collided resulting in there being
         // fewer persisted states than expected that ended up getting shared. To verify this is no longer happening we 
         // enumerate the persisted states to check that the correct number of individual states were persisted.
+        // The states are written behind, so make sure they made it to the store first.
+        ((BlobStoreAwareMonitor) MockSession.getSession().getThresholdStateMonitor()).getStateCache().flush();
         Set<String> persistedKeys = MockSession.getSession()
                 .getBlobStore()
                 .enumerateContext(AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT)
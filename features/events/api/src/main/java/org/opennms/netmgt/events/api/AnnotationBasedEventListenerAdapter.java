@@ -31,6 +31,8 @@ package org.opennms.netmgt.events.api;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -71,6 +73,8 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
     private volatile String m_logPrefix = null;
     private volatile int m_threads = 1;
     private volatile EventSubscriptionService m_subscriptionService;
+    // Either this adapter, or the batching listener which is registered in its place
+    private volatile org.opennms.netmgt.events.api.EventListener m_registeredListener;
 
     private final Map<String, Method> m_ueiToHandlerMap = new HashMap<String, Method>();
     private final List<Method> m_eventPreProcessors = new LinkedList<>();
@@ -159,18 +163,11 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
         }
         
         
-        Method m = m_ueiToHandlerMap.get(event.getUei());
-        
-        if (m == null) {
-            // Try to get a catch-all event handler
-            m = m_ueiToHandlerMap.get(EventHandler.ALL_UEIS);
-            if (m == null) {
-                throw new IllegalArgumentException("Received an event for which we have no handler!");
-            }
+        final Method method = findHandler(event);
+        if (method == null) {
+            throw new IllegalArgumentException("Received an event for which we have no handler!");
         }
         
-        final Method method = m;
-        
          
         Logging.withPrefix(m_logPrefix, new Runnable() {
 
@@ -194,6 +191,73 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
         });
     }
 
+    private Method findHandler(Event event) {
+        final Method method = m_ueiToHandlerMap.get(event.getUei());
+        if (method == null) {
+            // Try to get a catch-all event handler
+            return m_ueiToHandlerMap.get(EventHandler.ALL_UEIS);
+        }
+        return method;
+    }
+
+    /**
+     * Hands a batch of events over to an annotated listener which implements {@link BatchEventListener}
+     * with a single call. Every event still goes through the pre- and post-processors, and if the batch
+     * fails, the exception is handed to the exception handlers for each of its events.
+     *
+     * @param events the events to process
+     */
+    protected void processEvents(final List<Event> events) {
+        Logging.withPrefix(m_logPrefix, new Runnable() {
+
+            @Override
+            public void run() {
+                final List<Event> batch = new ArrayList<>(events.size());
+                for (final Event event : events) {
+                    if (event.getUei() == null) {
+                        continue;
+                    }
+                    if (findHandler(event) == null) {
+                        LOG.warn("Received an event for which we have no handler: {}", event.getUei());
+                        continue;
+                    }
+                    try {
+                        preprocessEvent(event);
+                        batch.add(event);
+                    } catch (IllegalAccessException e) {
+                        throw new UndeclaredThrowableException(e);
+                    } catch (InvocationTargetException e) {
+                        handleException(event, e.getCause());
+                    }
+                }
+
+                if (batch.isEmpty()) {
+                    return;
+                }
+
+                try {
+                    ((BatchEventListener) m_annotatedListener).onEvents(Collections.unmodifiableList(batch));
+                } catch (Throwable t) {
+                    for (final Event event : batch) {
+                        handleException(event, t);
+                    }
+                    return;
+                }
+
+                for (final Event event : batch) {
+                    try {
+                        postprocessEvent(event);
+                    } catch (IllegalAccessException e) {
+                        throw new UndeclaredThrowableException(e);
+                    } catch (InvocationTargetException e) {
+                        handleException(event, e.getCause());
+                    }
+                }
+            }
+
+        });
+    }
+
     /**
      * <p>postprocessEvent</p>
      *
@@ -305,12 +369,15 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
         
         populateExceptionHandlersSet();
 
+        // Only hand batches of events to the listeners which can process them
+        m_registeredListener = m_annotatedListener instanceof BatchEventListener ? new BatchingListener() : this;
+
         // If we only have one EventHandler that is intended to be used as a handler for any UEI, then
         // register this class as an EventListener for all UEIs
         if (m_ueiToHandlerMap.size() == 1 && EventHandler.ALL_UEIS.equals(m_ueiToHandlerMap.keySet().toArray()[0])) {
-            m_subscriptionService.addEventListener(this);
+            m_subscriptionService.addEventListener(m_registeredListener);
         } else {
-            m_subscriptionService.addEventListener(this, new HashSet<String>(m_ueiToHandlerMap.keySet()));
+            m_subscriptionService.addEventListener(m_registeredListener, new HashSet<String>(m_ueiToHandlerMap.keySet()));
         }
     }
 
@@ -348,6 +415,31 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
         return m_threads;
     }
 
+    /**
+     * Registered in place of the adapter when the annotated listener implements {@link BatchEventListener}.
+     */
+    private class BatchingListener implements ThreadAwareEventListener, BatchEventListener {
+        @Override
+        public String getName() {
+            return AnnotationBasedEventListenerAdapter.this.getName();
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            AnnotationBasedEventListenerAdapter.this.onEvent(event);
+        }
+
+        @Override
+        public void onEvents(List<Event> events) {
+            processEvents(events);
+        }
+
+        @Override
+        public int getNumThreads() {
+            return AnnotationBasedEventListenerAdapter.this.getNumThreads();
+        }
+    }
+
     private static class ClassComparator<T> implements Comparator<Class<? extends T>> {
         @Override
         public int compare(Class<? extends T> lhsType, Class<? extends T> rhsType) {
@@ -442,7 +534,7 @@ public class AnnotationBasedEventListenerAdapter implements StoppableEventListen
      */
     @Override
     public void close() {
-        m_subscriptionService.removeEventListener(this);
+        m_subscriptionService.removeEventListener(m_registeredListener != null ? m_registeredListener : this);
     }
 
     /**
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.events.api;
+
+import java.util.List;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Optional extension of the {@link EventListener} interface which can be
+ * implemented by listeners that are able to process several events at once.
+ *
+ * Broadcasters that support batching will hand over all of the events which
+ * are queued for the listener with a single call to {@link #onEvents(List)},
+ * in the order in which they were broadcast. Other broadcasters will continue
+ * to invoke {@link #onEvent(Event)} for every event.
+ */
+public interface BatchEventListener extends EventListener {
+
+    /**
+     * Process a batch of sent events.
+     *
+     * @param events the events, never empty
+     */
+    void onEvents(List<Event> events);
+
+}
@@ -32,21 +32,23 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.BatchEventListener;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
@@ -62,8 +64,10 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 /**
  * An implementation of the EventIpcManager interface that can be used to
@@ -77,6 +81,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * Maximum number of events handed over to a listener thread at once.
+     */
+    public static final int DEFAULT_LISTENER_BATCH_SIZE = 100;
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -115,6 +124,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * Snapshot of the listener registrations above used by the broadcasts,
+     * replaced whenever the registrations change
+     */
+    private volatile EventListenerIndex<EventListenerExecutor> m_index = EventListenerIndex.empty();
+
     /**
      * The thread pool handling the events
      */
@@ -126,82 +141,232 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    private Integer m_listenerQueueLength;
+
+    private int m_listenerBatchSize = DEFAULT_LISTENER_BATCH_SIZE;
+
     private final MetricRegistry m_registry;
 
     /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
+     * The threads dedicated to each listener. The events meant for each listener
+     * are added to lock-free queues when 'broadcastNow()' is called. The
+     * listener threads take the events off of their queue in batches and send
+     * them to the listener.
      */
     private static class EventListenerExecutor {
         /**
-         * Listener to which this thread is dedicated
+         * Listener to which these threads are dedicated
          */
         private final EventListener m_listener;
 
         /**
-         * The thread that is running this runnable.
+         * One worker per thread, every worker owns a share of the queue.
          */
-        private final ExecutorService m_delegateThread;
+        private final Worker[] m_workers;
+
+        private final AtomicInteger m_nextWorker = new AtomicInteger();
+
+        private final MetricRegistry m_registry;
+
+        private final Counter m_dropped;
+
+        private final Timer m_lag;
+
+        private volatile boolean m_stopped = false;
 
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        EventListenerExecutor(EventListener listener, Integer queueLength, int batchSize, MetricRegistry registry) {
             m_listener = listener;
+            m_registry = registry;
 
             int numThreads = 1;
             if (m_listener instanceof ThreadAwareEventListener) {
-                numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
+                numThreads = Math.max(1, ((ThreadAwareEventListener)m_listener).getNumThreads());
             }
 
-            m_delegateThread = new ThreadPoolExecutor(
-                    numThreads,
-                    numThreads,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), numThreads),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
-                    }
-            );
+            m_dropped = m_registry.counter(getMetricName("dropped"));
+            m_lag = m_registry.timer(getMetricName("lag"));
+            m_registry.remove(getMetricName("queued"));
+            m_registry.register(getMetricName("queued"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getQueueSize();
+                }
+            });
+
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles. Therefore, if Notifd
+            // registers for an event then all logs for handling that event will end up
+            // inside notifd.log.
+            final ThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numThreads);
+            m_workers = new Worker[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                if (queueLength == null) {
+                    m_workers[i] = new Worker(EventListenerQueue.unbounded(), batchSize);
+                } else {
+                    // Every thread can hold one event (or batch of events) in addition to
+                    // its share of the queue, like the threads of a thread pool would
+                    final int capacity = queueLength / numThreads + (i < queueLength % numThreads ? 1 : 0) + 1;
+                    m_workers[i] = new Worker(EventListenerQueue.bounded(capacity), Math.min(batchSize, capacity));
+                }
+            }
+            for (Worker worker : m_workers) {
+                worker.m_thread = threadFactory.newThread(worker);
+                worker.m_thread.start();
+            }
         }
 
-        public CompletableFuture<Void> addEvent(final Event event) {
-            return CompletableFuture.runAsync(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                         if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+        /**
+         * Queues the event for the listener.
+         *
+         * @return a future which completes once the listener handled the event
+         *   when <code>synchronous</code> is set, <code>null</code> otherwise
+         */
+        public CompletableFuture<Void> addEvent(final Event event, final boolean synchronous) {
+            final QueuedEvent queuedEvent = new QueuedEvent(event, synchronous ? new CompletableFuture<>() : null);
+            if (!m_stopped) {
+                // Spread the events over the threads, moving on to the next one if a queue is full
+                final int start = Math.floorMod(m_nextWorker.getAndIncrement(), m_workers.length);
+                for (int i = 0; i < m_workers.length; i++) {
+                    final Worker worker = m_workers[(start + i) % m_workers.length];
+                    if (worker.m_queue.offer(queuedEvent)) {
+                        worker.wakeUp();
+                        return queuedEvent.m_future;
                     }
                 }
-            }, m_delegateThread);
+            }
+
+            m_dropped.inc();
+            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+            if (queuedEvent.m_future != null) {
+                queuedEvent.m_future.complete(null);
+            }
+            return queuedEvent.m_future;
+        }
+
+        private int getQueueSize() {
+            int size = 0;
+            for (Worker worker : m_workers) {
+                size += worker.m_queue.size();
+            }
+            return size;
+        }
+
+        private String getMetricName(String name) {
+            return MetricRegistry.name("eventlisteners", m_listener.getName(), name);
         }
 
         /**
-         * Stops the execution of this listener.
+         * Stops the execution of this listener, once the events that are
+         * already queued are handled.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            m_stopped = true;
+            for (Worker worker : m_workers) {
+                LockSupport.unpark(worker.m_thread);
+            }
+            m_registry.remove(getMetricName("queued"));
+            m_registry.remove(getMetricName("dropped"));
+            m_registry.remove(getMetricName("lag"));
+        }
+
+        private class Worker implements Runnable {
+            private final EventListenerQueue<QueuedEvent> m_queue;
+            private final QueuedEvent[] m_batch;
+            private volatile boolean m_idle = false;
+            private Thread m_thread;
+
+            private Worker(EventListenerQueue<QueuedEvent> queue, int batchSize) {
+                m_queue = queue;
+                m_batch = new QueuedEvent[Math.max(1, batchSize)];
+            }
+
+            private void wakeUp() {
+                if (m_idle) {
+                    LockSupport.unpark(m_thread);
+                }
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    final int n = m_queue.peek(m_batch, m_batch.length);
+                    if (n == 0) {
+                        if (m_stopped) {
+                            return;
+                        }
+                        m_idle = true;
+                        // Check again after announcing that we're idle, so that we don't miss a wake up.
+                        // addEvent() and stop() unpark the thread, there is no need to poll the queue.
+                        if (m_queue.isEmpty() && !m_stopped) {
+                            LockSupport.park(this);
+                        }
+                        m_idle = false;
+                        continue;
+                    }
+
+                    // The oldest event in the batch has been waiting the longest
+                    m_lag.update(System.nanoTime() - m_batch[0].m_enqueuedNanos, TimeUnit.NANOSECONDS);
+
+                    // Make sure we restore our log4j logging prefix after the listener is called
+                    final Map<String,String> mdc = Logging.getCopyOfContextMap();
+                    try {
+                        if (m_listener instanceof BatchEventListener) {
+                            dispatchBatch(n);
+                        } else {
+                            for (int i = 0; i < n; i++) {
+                                dispatch(m_batch[i].m_event);
+                                Logging.setContextMap(mdc);
+                            }
+                        }
+                    } finally {
+                        Logging.setContextMap(mdc);
+                    }
+
+                    m_queue.release(n);
+                    for (int i = 0; i < n; i++) {
+                        if (m_batch[i].m_future != null) {
+                            m_batch[i].m_future.complete(null);
+                        }
+                        m_batch[i] = null;
+                    }
+                }
+            }
+
+            private void dispatch(Event event) {
+                try {
+                    if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
+                    m_listener.onEvent(event);
+                } catch (Throwable t) {
+                    LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                }
+            }
+
+            private void dispatchBatch(int n) {
+                final List<Event> events = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    events.add(m_batch[i].m_event);
+                }
+                try {
+                    if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvents on {} for {} events", m_listener.getName(), n);
+                    ((BatchEventListener)m_listener).onEvents(Collections.unmodifiableList(events));
+                } catch (Throwable t) {
+                    LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+                }
+            }
+        }
+    }
+
+    private static class QueuedEvent {
+        private final Event m_event;
+        private final CompletableFuture<Void> m_future;
+        private final long m_enqueuedNanos = System.nanoTime();
+
+        private QueuedEvent(Event event, CompletableFuture<Void> future) {
+            m_event = event;
+            m_future = future;
         }
     }
 
@@ -296,54 +461,34 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        // Use the same snapshot of the registrations for the whole broadcast
+        final EventListenerIndex<EventListenerExecutor> index = m_index;
+        if (LOG.isDebugEnabled() && index.getMatchAllListeners().isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
-        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
-
-        // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(event, listener));
-        }
-
         if (event.getUei() == null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Event ID {} does not have a UEI, so skipping UEI matching", event.getDbid());
             }
-            return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
-        }
-        
-        if (sentToListeners.isEmpty()) {
+        // Send to listeners interested in receiving all events, and to the
+        // listeners who are interested in this event UEI
+        final List<EventListenerExecutor> listeners = index.getListeners(event.getUei());
+        if (listeners.isEmpty()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
             }
+            return;
+        }
+
+        final List<CompletableFuture<Void>> listenerFutures = synchronous ? new ArrayList<>(listeners.size()) : null;
+        for (EventListenerExecutor listener : listeners) {
+            final CompletableFuture<Void> future = listener.addEvent(event, synchronous);
+            if (synchronous) {
+                listenerFutures.add(future);
+            }
         }
 
         // If synchronous...
@@ -353,10 +498,6 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
-    private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
-    }
-
     /**
      * {@inheritDoc}
      *
@@ -375,6 +516,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateIndex();
     }
 
     /**
@@ -404,6 +547,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateIndex();
     }
 
     /**
@@ -438,6 +583,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateIndex();
     }
 
     /**
@@ -457,6 +604,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateIndex();
     }
 
     /**
@@ -477,6 +626,9 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
+        // stop broadcasting to the listener before stopping its thread
+        updateIndex();
+
         // stop and remove the listener thread for this listener
         if (m_listenerThreads.containsKey(listener.getName())) {
             m_listenerThreads.get(listener.getName()).stop();
@@ -494,10 +646,38 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        // Without a configured limit the listener queues are unbounded, like the handler queue
+        final Integer queueLength;
+        if (m_handlerQueueLength == null || m_listenerQueueLength == null) {
+            queueLength = m_handlerQueueLength == null ? m_listenerQueueLength : m_handlerQueueLength;
+        } else {
+            queueLength = Math.min(m_handlerQueueLength, m_listenerQueueLength);
+        }
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, queueLength, m_listenerBatchSize, m_registry);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * Publish a new snapshot of the listener registrations for the broadcasts.
+     */
+    private void updateIndex() {
+        final List<EventListenerExecutor> matchAll = new ArrayList<>(m_listeners.size());
+        for (EventListener listener : m_listeners) {
+            matchAll.add(m_listenerThreads.get(listener.getName()));
+        }
+
+        final Map<String, List<EventListenerExecutor>> ueiListeners = new HashMap<>();
+        for (Map.Entry<String, List<EventListener>> entry : m_ueiListeners.entrySet()) {
+            final List<EventListenerExecutor> executors = new ArrayList<>(entry.getValue().size());
+            for (EventListener listener : entry.getValue()) {
+                executors.add(m_listenerThreads.get(listener.getName()));
+            }
+            ueiListeners.put(entry.getKey(), executors);
+        }
+
+        m_index = new EventListenerIndex<>(matchAll, ueiListeners);
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -634,12 +814,51 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    /**
+     * <p>getListenerQueueLength</p>
+     *
+     * @return a {@link java.lang.Integer} object, <code>null</code> if the listener queues are unbounded.
+     */
+    public Integer getListenerQueueLength() {
+        return m_listenerQueueLength;
+    }
+
+    /**
+     * <p>setListenerQueueLength</p>
+     *
+     * Limits the number of events queued for a single listener. Once a
+     * listener's queue is full, further events for it are discarded; every
+     * discarded event is logged and counted in the listener's "dropped" metric.
+     * The queues are unbounded unless this or the handler queue length is set.
+     *
+     * @param size a int.
+     */
+    public void setListenerQueueLength(int size) {
+        Assert.isTrue(size > 0, "listenerQueueLength must be positive");
+        m_listenerQueueLength = size;
+    }
+
+    /**
+     * <p>getListenerBatchSize</p>
+     *
+     * @return a int.
+     */
+    public int getListenerBatchSize() {
+        return m_listenerBatchSize;
+    }
+
+    /**
+     * <p>setListenerBatchSize</p>
+     *
+     * @param size a int.
+     */
+    public void setListenerBatchSize(int size) {
+        Assert.isTrue(size > 0, "listenerBatchSize must be positive");
+        m_listenerBatchSize = size;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_index.hasUeiListeners(uei);
     }
 }
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the event listener registrations, used to find the
+ * listeners of a broadcast event without locking.
+ *
+ * A listener registered for a UEI ending with a "/" receives all of the events
+ * whose UEI starts with it, i.e. "uei.opennms.org/nodes/" matches
+ * "uei.opennms.org/nodes/nodeDown". The listeners resolved for a UEI are cached,
+ * so that the wildcard matching only needs to be done once per UEI and snapshot.
+ *
+ * @param <T> type of listeners
+ */
+class EventListenerIndex<T> {
+
+    /**
+     * Upper limit for the number of cached UEIs, in case events are
+     * sent with an unbounded number of distinct UEIs.
+     */
+    private static final int MAX_CACHED_UEIS = 10000;
+
+    private final List<T> m_matchAll;
+
+    private final Map<String, List<T>> m_ueiListeners;
+
+    private final Map<String, List<T>> m_resolved = new ConcurrentHashMap<>();
+
+    EventListenerIndex(List<T> matchAll, Map<String, List<T>> ueiListeners) {
+        m_matchAll = Collections.unmodifiableList(new ArrayList<>(matchAll));
+        final Map<String, List<T>> copy = new HashMap<>();
+        for (Map.Entry<String, List<T>> entry : ueiListeners.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            }
+        }
+        m_ueiListeners = copy;
+    }
+
+    static <T> EventListenerIndex<T> empty() {
+        return new EventListenerIndex<>(Collections.emptyList(), Collections.emptyMap());
+    }
+
+    /**
+     * Returns the listeners interested in all events.
+     */
+    List<T> getMatchAllListeners() {
+        return m_matchAll;
+    }
+
+    /**
+     * Returns the listeners interested in events with the given UEI, including the listeners
+     * interested in all events. Every listener is returned once.
+     */
+    List<T> getListeners(String uei) {
+        if (uei == null) {
+            return m_matchAll;
+        }
+        List<T> listeners = m_resolved.get(uei);
+        if (listeners == null) {
+            listeners = resolve(uei);
+            if (m_resolved.size() < MAX_CACHED_UEIS) {
+                m_resolved.put(uei, listeners);
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * Returns <code>true</code> if there are listeners registered for exactly this UEI.
+     */
+    boolean hasUeiListeners(String uei) {
+        return m_ueiListeners.containsKey(uei);
+    }
+
+    private List<T> resolve(String uei) {
+        final Set<T> listeners = new LinkedHashSet<>(m_matchAll);
+        // Loop to attempt partial wild card "directory" matches
+        for (String prefix = uei; prefix.length() > 0; ) {
+            final List<T> ueiListeners = m_ueiListeners.get(prefix);
+            if (ueiListeners != null) {
+                listeners.addAll(ueiListeners);
+            }
+
+            // Try wild cards: Find / before last character
+            final int i = prefix.lastIndexOf("/", prefix.length() - 2);
+            if (i > 0) {
+                // Split at "/", including the /
+                prefix = prefix.substring(0, i + 1);
+            } else {
+                // No more wild cards to match
+                break;
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(listeners));
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.core.utils.MpscRingBuffer;
+
+/**
+ * A lock-free queue used to queue events for an event listener thread.
+ *
+ * Any thread may add elements, but only the listener thread may remove them.
+ * The listener thread first peeks at the queued elements and releases them
+ * once it is done with them, so that the elements which are being processed
+ * still count against the capacity of a bounded queue.
+ *
+ * @param <E> type of elements
+ */
+abstract class EventListenerQueue<E> {
+
+    /**
+     * Creates a queue backed by a ring buffer, which holds up to <code>capacity</code> elements.
+     */
+    static <E> EventListenerQueue<E> bounded(int capacity) {
+        return new Bounded<>(capacity);
+    }
+
+    /**
+     * Creates a linked queue without a capacity limit.
+     */
+    static <E> EventListenerQueue<E> unbounded() {
+        return new Linked<>();
+    }
+
+    /**
+     * Adds the element, if there is room for it.
+     *
+     * @return <code>true</code> if the element was added, <code>false</code> if the queue is full
+     */
+    abstract boolean offer(E element);
+
+    /**
+     * Copies up to <code>max</code> of the oldest elements to the given array
+     * without removing them. Must only be called by the listener thread.
+     *
+     * @return the number of elements copied
+     */
+    abstract int peek(E[] batch, int max);
+
+    /**
+     * Removes the <code>n</code> oldest elements, which must have been returned by
+     * {@link #peek(Object[], int)} before. Must only be called by the listener thread.
+     */
+    abstract void release(int n);
+
+    abstract int size();
+
+    abstract boolean isEmpty();
+
+    private static class Bounded<E> extends EventListenerQueue<E> {
+
+        private final MpscRingBuffer<E> m_buffer;
+
+        private Bounded(int capacity) {
+            m_buffer = new MpscRingBuffer<>(capacity);
+        }
+
+        @Override
+        boolean offer(E element) {
+            return m_buffer.offer(element);
+        }
+
+        @Override
+        int peek(E[] batch, int max) {
+            return m_buffer.peek(batch, max);
+        }
+
+        @Override
+        void release(int n) {
+            m_buffer.release(n);
+        }
+
+        @Override
+        int size() {
+            return m_buffer.size();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return m_buffer.isEmpty();
+        }
+    }
+
+    private static class Linked<E> extends EventListenerQueue<E> {
+
+        private final ConcurrentLinkedQueue<E> m_elements = new ConcurrentLinkedQueue<>();
+
+        // ConcurrentLinkedQueue.size() walks the whole queue
+        private final AtomicInteger m_size = new AtomicInteger();
+
+        @Override
+        boolean offer(E element) {
+            m_elements.offer(element);
+            m_size.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        int peek(E[] batch, int max) {
+            // Only the listener thread removes elements, so the head of the queue stays put
+            final Iterator<E> it = m_elements.iterator();
+            int n = 0;
+            while (n < max && it.hasNext()) {
+                batch[n++] = it.next();
+            }
+            return n;
+        }
+
+        @Override
+        void release(int n) {
+            for (int i = 0; i < n; i++) {
+                m_elements.poll();
+            }
+            m_size.addAndGet(-n);
+        }
+
+        @Override
+        int size() {
+            return Math.max(0, m_size.get());
+        }
+
+        @Override
+        boolean isEmpty() {
+            return m_elements.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+
+/**
+ * An {@link EventWriter} that coalesces the events of concurrently processed logs
+ * into micro-batches, which are inserted with JDBC batches in a single transaction.
+ *
+ * The logs are queued, and the first thread to acquire the write lock inserts all of
+ * the queued events, including the ones of the threads waiting for the lock. Every
+ * caller only returns once its events have been committed, so that the database ids
+ * are set on the events before they are broadcast.
+ *
+ * If a batch fails, the logs it contains are written again one by one, so that a
+ * single bad event only fails its own log.
+ */
+public class BatchingEventWriter extends HibernateEventWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingEventWriter.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+    private final Queue<PendingLog> m_pendingLogs = new ConcurrentLinkedQueue<>();
+
+    private final Lock m_writeLock = new ReentrantLock();
+
+    private int m_maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private final Timer writeTimer;
+
+    private final Histogram batchSizes;
+
+    public BatchingEventWriter(MetricRegistry registry) {
+        super(registry);
+        writeTimer = registry.timer("eventlogs.process.write");
+        batchSizes = registry.histogram("eventlogs.process.write.batch");
+    }
+
+    @Override
+    public void process(Log eventLog) throws EventProcessorException {
+        final List<Event> eventsToPersist = getEventsToPersist(eventLog);
+
+        // If there are no events to persist, avoid queuing the log
+        if (eventsToPersist.size() < 1) {
+            return;
+        }
+
+        final PendingLog pendingLog = new PendingLog(eventLog.getHeader(), eventsToPersist);
+        m_pendingLogs.add(pendingLog);
+
+        // Time the wait for the lock as well as the transaction and insertions
+        try (Context context = writeTimer.time()) {
+            m_writeLock.lock();
+            try {
+                // Our log may have been written by the previous holder of the lock
+                while (!pendingLog.done) {
+                    writeNextBatch();
+                }
+            } finally {
+                m_writeLock.unlock();
+            }
+        }
+
+        if (pendingLog.exception != null) {
+            throw pendingLog.exception;
+        }
+    }
+
+    /**
+     * Writes the oldest of the queued logs. Must be called while holding the write lock.
+     */
+    private void writeNextBatch() {
+        final List<PendingLog> batch = new ArrayList<>();
+        int numEvents = 0;
+        PendingLog pendingLog;
+        while (numEvents < m_maxBatchSize && (pendingLog = m_pendingLogs.poll()) != null) {
+            batch.add(pendingLog);
+            numEvents += pendingLog.events.size();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchSizes.update(numEvents);
+
+        try {
+            write(batch);
+        } catch (EventProcessorException e) {
+            if (batch.size() == 1) {
+                batch.get(0).exception = e;
+            } else {
+                LOG.warn("Failed to write a batch of {} events from {} logs. Writing the logs individually.", numEvents, batch.size(), e);
+                for (PendingLog eachLog : batch) {
+                    try {
+                        write(Collections.singletonList(eachLog));
+                    } catch (EventProcessorException ex) {
+                        eachLog.exception = ex;
+                    }
+                }
+            }
+        } finally {
+            for (PendingLog eachLog : batch) {
+                eachLog.done = true;
+            }
+        }
+    }
+
+    private void write(final List<PendingLog> batch) throws EventProcessorException {
+        final List<Event> events = new ArrayList<>();
+        try {
+            getTransactionManager().execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    final List<OnmsEvent> ovents = new ArrayList<>();
+                    for (PendingLog pendingLog : batch) {
+                        for (Event event : pendingLog.events) {
+                            LOG.debug("BatchingEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+                            ovents.add(createOnmsEvent(pendingLog.header, event));
+                            events.add(event);
+                        }
+                    }
+                    getEventDao().insertAll(ovents);
+
+                    // Update the events with the database IDs of the events stored in the database
+                    for (int i = 0; i < events.size(); i++) {
+                        events.get(i).setDbid(ovents.get(i).getId());
+                    }
+                }
+            });
+        } catch (Throwable e) {
+            // The IDs are not valid if the transaction was rolled back
+            for (Event event : events) {
+                event.setDbid(null);
+            }
+            if (e instanceof DeadlockLoserDataAccessException) {
+                throw new EventProcessorException("Encountered deadlock when inserting " + events.size() + " events", e);
+            }
+            throw new EventProcessorException("Unexpected exception while storing " + events.size() + " events", e);
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return m_maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events written with a single transaction.
+     * A single log is never split across transactions, so batches may be larger if
+     * the first log in the batch contains more events.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        m_maxBatchSize = maxBatchSize;
+    }
+
+    private static class PendingLog {
+        private final Header header;
+        private final List<Event> events;
+        private boolean done = false;
+        private EventProcessorException exception;
+
+        private PendingLog(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }
+}
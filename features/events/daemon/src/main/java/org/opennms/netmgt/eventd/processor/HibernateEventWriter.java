@@ -29,6 +29,7 @@
 package org.opennms.netmgt.eventd.processor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -163,16 +164,7 @@ public class HibernateEventWriter implements EventWriter {
     @Override
     public void process(Log eventLog) throws EventProcessorException {
         if (eventLog != null && eventLog.getEvents() != null) {
-            final List<Event> eventsInLog = eventLog.getEvents().getEventCollection();
-            // This shouldn't happen, but just to be safe...
-            if (eventsInLog == null) {
-                return;
-            }
-
-            // Find the events in the log that need to be persisted
-            final List<Event> eventsToPersist = eventsInLog.stream()
-                .filter(e -> checkEventSanityAndDoWeProcess(e, "HibernateEventWriter"))
-                .collect(Collectors.toList());
+            final List<Event> eventsToPersist = getEventsToPersist(eventLog);
 
             // If there are no events to persist, avoid creating a database transaction
             if (eventsToPersist.size() < 1) {
@@ -204,6 +196,23 @@ public class HibernateEventWriter implements EventWriter {
         }
     }
 
+    /**
+     * Finds the events in the log that need to be persisted.
+     */
+    protected static List<Event> getEventsToPersist(Log eventLog) {
+        if (eventLog == null || eventLog.getEvents() == null) {
+            return Collections.emptyList();
+        }
+        final List<Event> eventsInLog = eventLog.getEvents().getEventCollection();
+        // This shouldn't happen, but just to be safe...
+        if (eventsInLog == null) {
+            return Collections.emptyList();
+        }
+        return eventsInLog.stream()
+            .filter(e -> checkEventSanityAndDoWeProcess(e, "HibernateEventWriter"))
+            .collect(Collectors.toList());
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -232,7 +241,7 @@ public class HibernateEventWriter implements EventWriter {
      *                Thrown if a required resource cannot be found in the
      *                properties file.
      */
-    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
+    protected OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
 
         OnmsEvent ovent = new OnmsEvent();
 
@@ -402,7 +411,19 @@ public class HibernateEventWriter implements EventWriter {
         return ovent;
     }
 
+    protected TransactionOperations getTransactionManager() {
+        return m_transactionManager;
+    }
+
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    protected EventDao getEventDao() {
+        return eventDao;
+    }
+
+    public void setEventDao(EventDao eventDao) {
+        this.eventDao = eventDao;
+    }
 }
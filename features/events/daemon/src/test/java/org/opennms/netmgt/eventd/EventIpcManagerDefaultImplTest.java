@@ -37,17 +37,22 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
+import org.opennms.netmgt.events.api.BatchEventListener;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventListener;
@@ -765,6 +770,154 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         assertEquals(1, counter.get());
     }
 
+    /**
+     * Verify that an event listener that implements the {@link BatchEventListener} interface
+     * receives the events which queued up while it was busy in a single batch.
+     */
+    public void testBatchEventListener() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<List<Event>> batches = new CopyOnWriteArrayList<>();
+        final BatchEventListener batchListener = new BatchEventListener() {
+            @Override
+            public String getName() {
+                return "testBatchEventListener";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                onEvents(Collections.singletonList(e));
+            }
+
+            @Override
+            public void onEvents(List<Event> events) {
+                batches.add(events);
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setListenerBatchSize(10);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(batchListener, "uei.opennms.org/foo/");
+
+        final List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+            events.add(new EventBuilder("uei.opennms.org/foo/" + i, "testBatchEventListener").getEvent());
+        }
+
+        // Keep the listener busy with the first event while the others are queued
+        manager.broadcastNow(events.get(0), false);
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+        for (Event event : events.subList(1, events.size())) {
+            manager.broadcastNow(event, false);
+        }
+        release.countDown();
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> batches.stream().mapToInt(List::size).sum(), equalTo(21));
+        assertEquals(Arrays.asList(1, 10, 10), batches.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(events, batches.stream().flatMap(List::stream).collect(Collectors.toList()));
+        assertEquals(3, m_registry.getTimers().get("eventlisteners.testBatchEventListener.lag").getCount());
+    }
+
+    public void testFullListenerQueueDiscardsEvents() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger();
+        final EventListener blockedListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testFullListenerQueueDiscardsEvents";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setListenerQueueLength(5);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(blockedListener);
+
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testFullListenerQueueDiscardsEvents").getEvent(), false);
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+        // 5 events fit into the queue, the others are discarded
+        for (int i = 0; i < 10; i++) {
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testFullListenerQueueDiscardsEvents").getEvent(), false);
+        }
+        // The queue size includes the event being handled
+        assertEquals(6, m_registry.getGauges().get("eventlisteners.testFullListenerQueueDiscardsEvents.queued").getValue());
+        assertEquals(5, m_registry.getCounters().get("eventlisteners.testFullListenerQueueDiscardsEvents.dropped").getCount());
+
+        // Synchronous broadcasts don't wait for discarded events
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testFullListenerQueueDiscardsEvents").getEvent(), true);
+        assertEquals(6, m_registry.getCounters().get("eventlisteners.testFullListenerQueueDiscardsEvents.dropped").getCount());
+
+        release.countDown();
+        await().atMost(10, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(6)));
+
+        // The metrics are removed together with the listener
+        manager.removeEventListener(blockedListener);
+        assertFalse(m_registry.getGauges().containsKey("eventlisteners.testFullListenerQueueDiscardsEvents.queued"));
+    }
+
+    public void testListenerQueueIsUnboundedByDefault() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger();
+        final EventListener blockedListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testListenerQueueIsUnboundedByDefault";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(blockedListener);
+
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testListenerQueueIsUnboundedByDefault").getEvent(), false);
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100000; i++) {
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testListenerQueueIsUnboundedByDefault").getEvent(), false);
+        }
+        assertEquals(100001, m_registry.getGauges().get("eventlisteners.testListenerQueueIsUnboundedByDefault.queued").getValue());
+        assertEquals(0, m_registry.getCounters().get("eventlisteners.testListenerQueueIsUnboundedByDefault.dropped").getCount());
+
+        release.countDown();
+        await().atMost(30, TimeUnit.SECONDS).untilAtomic(counter, is(equalTo(100001)));
+        manager.removeEventListener(blockedListener);
+    }
+
     private static class MultiThreadedEventListener implements ThreadAwareEventListener, EventListener {
         private final ThreadLocker locker;
         private final int numThreads;
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Verifies that the events of concurrently processed logs are written together.
+ */
+public class BatchingEventWriterTest {
+
+    private BatchingEventWriter eventWriter;
+    private TransactionOperations transactionManager;
+    private EventDao eventDao;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        eventWriter = new BatchingEventWriter(new MetricRegistry()) {
+            @Override
+            protected OnmsEvent createOnmsEvent(Header eventHeader, Event event) {
+                final OnmsEvent ovent = new OnmsEvent();
+                ovent.setEventUei(event.getUei());
+                return ovent;
+            }
+        };
+
+        transactionManager = mock(TransactionOperations.class);
+        when(transactionManager.execute(any(TransactionCallback.class))).thenAnswer(invocation ->
+                ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null));
+        eventWriter.setTransactionManager(transactionManager);
+
+        eventDao = mock(EventDao.class);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final List<OnmsEvent> ovents = (List<OnmsEvent>) invocation.getArguments()[0];
+            final List<String> ueis = new ArrayList<>();
+            for (OnmsEvent ovent : ovents) {
+                if ("bad".equals(ovent.getEventUei())) {
+                    throw new IllegalStateException("bad event");
+                }
+                ueis.add(ovent.getEventUei());
+            }
+            for (OnmsEvent ovent : ovents) {
+                ovent.setId(nextId.getAndIncrement());
+            }
+            batches.add(ueis);
+            return null;
+        }).when(eventDao).insertAll(any(List.class));
+        eventWriter.setEventDao(eventDao);
+    }
+
+    @Test
+    public void testNoTransactionOpened() throws EventProcessorException {
+        eventWriter.process(null);
+        eventWriter.process(new Log());
+
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_DO_NOT_PERSIST);
+        eventWriter.process(bldr.getLog());
+
+        verify(transactionManager, never()).execute(any(TransactionCallback.class));
+    }
+
+    @Test
+    public void testIdsAreSet() throws EventProcessorException {
+        final Log log = createLog("uei1");
+        eventWriter.process(log);
+
+        assertEquals(Integer.valueOf(1), log.getEvents().getEvent(0).getDbid());
+        assertEquals(Collections.singletonList(Collections.singletonList("uei1")), batches);
+    }
+
+    /**
+     * Verifies that the logs which are queued while a batch is being written
+     * are written together with the next batch.
+     */
+    @Test(timeout = 30000)
+    public void testConcurrentLogsAreBatched() throws Exception {
+        final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        when(transactionManager.execute(any(TransactionCallback.class))).thenAnswer(invocation -> {
+            if (firstBatchStarted.getCount() > 0) {
+                firstBatchStarted.countDown();
+                releaseFirstBatch.await();
+            }
+            return ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null);
+        });
+
+        final Log log1 = createLog("uei1");
+        final Log log2 = createLog("uei2");
+        final Log log3 = createLog("uei3");
+        final Thread t1 = startProcessing(log1);
+        firstBatchStarted.await();
+
+        // Queue two more logs while the first batch is being written
+        final Thread t2 = startProcessing(log2);
+        final Thread t3 = startProcessing(log3);
+        while (t2.getState() != Thread.State.WAITING || t3.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        releaseFirstBatch.countDown();
+        t1.join();
+        t2.join();
+        t3.join();
+
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList("uei1"), batches.get(0));
+        assertEquals(2, batches.get(1).size());
+        assertNotNull(log2.getEvents().getEvent(0).getDbid());
+        assertNotNull(log3.getEvents().getEvent(0).getDbid());
+    }
+
+    /**
+     * Verifies that a bad event only fails its own log.
+     */
+    @Test
+    public void testFailedBatchIsWrittenIndividually() throws Exception {
+        final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        when(transactionManager.execute(any(TransactionCallback.class))).thenAnswer(invocation -> {
+            if (firstBatchStarted.getCount() > 0) {
+                firstBatchStarted.countDown();
+                releaseFirstBatch.await();
+            }
+            return ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(null);
+        });
+
+        final Log log1 = createLog("uei1");
+        final Log goodLog = createLog("good");
+        final Log badLog = createLog("bad");
+        final Thread t1 = startProcessing(log1);
+        firstBatchStarted.await();
+
+        final Thread t2 = startProcessing(goodLog);
+        while (t2.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        final List<Exception> exceptions = new ArrayList<>();
+        final Thread t3 = new Thread(() -> {
+            try {
+                eventWriter.process(badLog);
+            } catch (EventProcessorException e) {
+                exceptions.add(e);
+            }
+        });
+        t3.start();
+        while (t3.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        releaseFirstBatch.countDown();
+        t1.join();
+        t2.join();
+        t3.join();
+
+        assertEquals(1, exceptions.size());
+        assertNotNull(goodLog.getEvents().getEvent(0).getDbid());
+        assertNull(badLog.getEvents().getEvent(0).getDbid());
+        assertEquals(Collections.singletonList("good"), batches.get(1));
+    }
+
+    private Thread startProcessing(Log log) {
+        final Thread thread = new Thread(() -> {
+            try {
+                eventWriter.process(log);
+            } catch (EventProcessorException e) {
+                fail(e.getMessage());
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static Log createLog(String uei) {
+        final EventBuilder bldr = new EventBuilder(uei, "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        return bldr.getLog();
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An Aho-Corasick automaton used to find all of the given keywords
+ * contained in a text with a single pass over the text.
+ *
+ * The automaton is compiled to a deterministic transition table. To keep the
+ * table small, the characters are mapped to classes: every character that
+ * appears in one of the keywords has its own class, all of the other
+ * characters share class 0.
+ */
+class AhoCorasick {
+
+    private static final int ASCII = 128;
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    /** Character classes of the ASCII characters */
+    private final int[] m_asciiClasses = new int[ASCII];
+
+    /** Sorted non-ASCII characters of the keywords and their classes */
+    private final char[] m_otherChars;
+    private final int[] m_otherClasses;
+
+    private final int m_numClasses;
+
+    /** Transition table, indexed by state * number of classes + class */
+    private final int[] m_transitions;
+
+    /** Keywords ending at each state, including the ones reached through the failure links */
+    private final int[][] m_outputs;
+
+    private final int m_numKeywords;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param keywords the keywords, must not be empty. The index of a keyword
+     *                 in the list is used to identify it in the results.
+     */
+    AhoCorasick(List<String> keywords) {
+        m_numKeywords = keywords.size();
+
+        // Assign the character classes
+        final TreeSet<Character> chars = new TreeSet<>();
+        for (final String keyword : keywords) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Keywords must not be empty");
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                chars.add(keyword.charAt(i));
+            }
+        }
+        int numClasses = 1;
+        final List<Character> others = new ArrayList<>();
+        for (final Character c : chars) {
+            if (c < ASCII) {
+                m_asciiClasses[c] = numClasses++;
+            } else {
+                others.add(c);
+            }
+        }
+        m_otherChars = new char[others.size()];
+        m_otherClasses = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            m_otherChars[i] = others.get(i);
+            m_otherClasses[i] = numClasses++;
+        }
+        m_numClasses = numClasses;
+
+        // Build the trie
+        final List<int[]> gotos = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        gotos.add(newRow());
+        outputs.add(new ArrayList<>());
+        for (int k = 0; k < keywords.size(); k++) {
+            final String keyword = keywords.get(k);
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                final int cls = classOf(keyword.charAt(i));
+                int next = gotos.get(state)[cls];
+                if (next < 0) {
+                    next = gotos.size();
+                    gotos.add(newRow());
+                    outputs.add(new ArrayList<>());
+                    gotos.get(state)[cls] = next;
+                }
+                state = next;
+            }
+            outputs.get(state).add(k);
+        }
+
+        // Compute the failure links breadth first and turn the trie into a DFA
+        final int numStates = gotos.size();
+        final int[] fail = new int[numStates];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        final int[] root = gotos.get(0);
+        for (int cls = 0; cls < m_numClasses; cls++) {
+            if (root[cls] < 0) {
+                root[cls] = 0;
+            } else {
+                fail[root[cls]] = 0;
+                queue.add(root[cls]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            final int[] row = gotos.get(state);
+            outputs.get(state).addAll(outputs.get(fail[state]));
+            for (int cls = 0; cls < m_numClasses; cls++) {
+                final int next = row[cls];
+                if (next < 0) {
+                    row[cls] = gotos.get(fail[state])[cls];
+                } else {
+                    fail[next] = gotos.get(fail[state])[cls];
+                    queue.add(next);
+                }
+            }
+        }
+
+        m_transitions = new int[numStates * m_numClasses];
+        m_outputs = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            System.arraycopy(gotos.get(state), 0, m_transitions, state * m_numClasses, m_numClasses);
+            final List<Integer> output = outputs.get(state);
+            m_outputs[state] = output.isEmpty() ? NO_OUTPUT : output.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private int[] newRow() {
+        final int[] row = new int[m_numClasses];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int classOf(char c) {
+        if (c < ASCII) {
+            return m_asciiClasses[c];
+        }
+        final int i = Arrays.binarySearch(m_otherChars, c);
+        return i < 0 ? 0 : m_otherClasses[i];
+    }
+
+    int getNumKeywords() {
+        return m_numKeywords;
+    }
+
+    /**
+     * Finds the keywords contained in the given text.
+     *
+     * @return the indexes of the keywords that were found
+     */
+    BitSet find(CharSequence text) {
+        final BitSet found = new BitSet(m_numKeywords);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = m_transitions[state * m_numClasses + classOf(text.charAt(i))];
+            for (final int keyword : m_outputs[state]) {
+                found.set(keyword);
+            }
+        }
+        return found;
+    }
+}
@@ -33,9 +33,11 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -97,6 +99,8 @@ public class ConvertToEvent {
         }
     );
 
+    private static final AtomicReference<SyslogMatchIndex> MATCH_INDEX = new AtomicReference<>();
+
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -345,21 +349,33 @@ public class ConvertToEvent {
 
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp);
 
-        final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
-            final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
-                                              containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
-                                              matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
-                                              matchHostname(uei.getHostnameMatch().orElse(null), message.getHostName()) &&
-                                              matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
-
-            if (messageMatchesUeiListEntry) {
-                if (uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
+        final SyslogMatchIndex matchIndex = getMatchIndex(config);
+        final List<UeiMatch> ueiMatch = matchIndex.getUeiList();
+        if (ueiMatch.size() > 0) {
+            // Only the entries which may match the message need to be evaluated
+            final BitSet candidates = matchIndex.getUeiCandidates(message.getMessage());
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                final UeiMatch uei = ueiMatch.get(i);
+                final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
+                                                  containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
+                                                  matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
+                                                  matchHostname(uei.getHostnameMatch().orElse(null), message.getHostName()) &&
+                                                  matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
+
+                if (messageMatchesUeiListEntry) {
+                    final boolean matched;
+                    try {
+                        if (uei.getMatch().getType().equals("substr")) {
+                            matched = matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei());
+                        } else {
+                            matched = matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei());
+                        }
+                    } catch (final MessageDiscardedException e) {
+                        matchIndex.countUeiMatch(i);
+                        throw e;
                     }
-                } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei())) {
+                    if (matched) {
+                        matchIndex.countUeiMatch(i);
                         break;
                     }
                 }
@@ -367,25 +383,29 @@ public class ConvertToEvent {
         }
 
         // Time to verify if we need to hide the message
-        final List<HideMatch> hideMatch = (config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages());
+        final List<HideMatch> hideMatch = matchIndex.getHideList();
         boolean doHide = false;
         if (hideMatch.size() > 0) {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
 
-            for (final HideMatch hide : hideMatch) {
+            final BitSet candidates = matchIndex.getHideCandidates(fullText);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                final HideMatch hide = hideMatch.get(i);
                 if (hide.getMatch().getType().equals("substr")) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
+                        matchIndex.countHideMatch(i);
                         doHide = true;
                         break;
                     }
-                } else if (hide.getMatch().getType().equals("regex")) {
+                } else {
                     try {
                         Pattern msgPat = getPattern(hide.getMatch().getExpression());
                         Matcher msgMat = msgPat.matcher(fullText);
                         if (msgMat.find()) {
                             // We should hide the message based on this match
+                            matchIndex.countHideMatch(i);
                             doHide = true;
                             break;
                         }
@@ -405,6 +425,23 @@ public class ConvertToEvent {
         m_event = bldr.getEvent();
     }
 
+    /**
+     * Returns the index of the &lt;uei-match&gt; and &lt;hide-match&gt; entries of the given
+     * configuration. The index is rebuilt whenever the configuration is reloaded.
+     */
+    static SyslogMatchIndex getMatchIndex(final SyslogdConfig config) {
+        final List<UeiMatch> ueiList = config.getUeiList() == null ? Collections.emptyList() : config.getUeiList();
+        final List<HideMatch> hideList = config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages();
+        SyslogMatchIndex matchIndex = MATCH_INDEX.get();
+        if (matchIndex == null || !matchIndex.isFor(ueiList, hideList)) {
+            matchIndex = new SyslogMatchIndex(ueiList, hideList);
+            MATCH_INDEX.set(matchIndex);
+            LOG.debug("Indexed {} uei-match and {} hide-match entries, {} of which are pre-filtered.",
+                    ueiList.size(), hideList.size(), matchIndex.getFilteredCount());
+        }
+        return matchIndex;
+    }
+
     private static boolean matchFind(final String expression, final String input, final String context) {
         if (input == null) {
             return false;
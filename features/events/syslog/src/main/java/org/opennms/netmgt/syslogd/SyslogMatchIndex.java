@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+/**
+ * Pre-filters the &lt;uei-match&gt; and &lt;hide-match&gt; entries of the Syslogd
+ * configuration, so that the message of a syslog event is only evaluated
+ * against the entries which may actually match it.
+ *
+ * The expressions of the substring entries and a literal that must be contained
+ * in any text matched by the regex entries are searched for with a single
+ * {@link AhoCorasick} pass over the message. Regular expressions from which no
+ * such literal can be extracted are always evaluated. The candidates are returned
+ * in configuration order, so that the first matching entry still wins.
+ *
+ * The number of messages matched by each entry is counted, which allows to
+ * find entries that never match.
+ */
+class SyslogMatchIndex {
+
+    /** Rule that must always be evaluated */
+    private static final int ALWAYS = -1;
+
+    /** Rule that can never match, i.e. with an unsupported match type */
+    private static final int NEVER = -2;
+
+    /** Escapes that stand for a single character (class) or an anchor, without any arguments */
+    private static final String SIMPLE_ESCAPES = "dDsSwWbBAGZzntrfeahHvVRX";
+
+    private final List<UeiMatch> m_ueiList;
+    private final int m_ueiListSize;
+    private final List<HideMatch> m_hideList;
+    private final int m_hideListSize;
+
+    private final Rules m_ueiRules;
+    private final Rules m_hideRules;
+
+    SyslogMatchIndex(List<UeiMatch> ueiList, List<HideMatch> hideList) {
+        m_ueiList = ueiList;
+        m_ueiListSize = ueiList.size();
+        m_hideList = hideList;
+        m_hideListSize = hideList.size();
+        m_ueiRules = new Rules(ueiList, UeiMatch::getMatch, type -> type.startsWith("regex"));
+        m_hideRules = new Rules(hideList, HideMatch::getMatch, type -> type.equals("regex"));
+    }
+
+    /**
+     * Returns <code>true</code> if the index was built for the given lists.
+     */
+    boolean isFor(List<UeiMatch> ueiList, List<HideMatch> hideList) {
+        return m_ueiList == ueiList && m_ueiListSize == ueiList.size()
+                && m_hideList == hideList && m_hideListSize == hideList.size();
+    }
+
+    List<UeiMatch> getUeiList() {
+        return m_ueiList;
+    }
+
+    List<HideMatch> getHideList() {
+        return m_hideList;
+    }
+
+    /**
+     * Returns the indexes of the &lt;uei-match&gt; entries which may match the given message.
+     */
+    BitSet getUeiCandidates(String message) {
+        return m_ueiRules.getCandidates(message);
+    }
+
+    /**
+     * Returns the indexes of the &lt;hide-match&gt; entries which may match the given message.
+     */
+    BitSet getHideCandidates(String message) {
+        return m_hideRules.getCandidates(message);
+    }
+
+    void countUeiMatch(int index) {
+        m_ueiRules.m_hits.incrementAndGet(index);
+    }
+
+    void countHideMatch(int index) {
+        m_hideRules.m_hits.incrementAndGet(index);
+    }
+
+    long getUeiMatchCount(int index) {
+        return m_ueiRules.m_hits.get(index);
+    }
+
+    long getHideMatchCount(int index) {
+        return m_hideRules.m_hits.get(index);
+    }
+
+    /**
+     * Returns the &lt;uei-match&gt; entries which did not match any message since the index was built.
+     */
+    List<UeiMatch> getUnmatchedUeiMatches() {
+        return m_ueiRules.getUnmatched(m_ueiList);
+    }
+
+    /**
+     * Returns the &lt;hide-match&gt; entries which did not match any message since the index was built.
+     */
+    List<HideMatch> getUnmatchedHideMatches() {
+        return m_hideRules.getUnmatched(m_hideList);
+    }
+
+    /**
+     * Returns the number of entries which are pre-filtered, and not always evaluated.
+     */
+    int getFilteredCount() {
+        return m_ueiRules.m_filtered + m_hideRules.m_filtered;
+    }
+
+    private static class Rules {
+        /** Keyword required by each rule, or one of {@link #ALWAYS} and {@link #NEVER} */
+        private final int[] m_keywords;
+        private final AhoCorasick m_automaton;
+        private final AtomicLongArray m_hits;
+        private final int m_filtered;
+
+        private <T> Rules(List<T> rules, Function<T, Match> getMatch, Function<String, Boolean> isRegex) {
+            m_keywords = new int[rules.size()];
+            m_hits = new AtomicLongArray(rules.size());
+
+            final Map<String, Integer> keywordIds = new HashMap<>();
+            final List<String> keywords = new ArrayList<>();
+            int filtered = 0;
+            for (int i = 0; i < rules.size(); i++) {
+                final Match match = getMatch.apply(rules.get(i));
+                final String type = match.getType();
+                final String keyword;
+                if ("substr".equals(type)) {
+                    keyword = match.getExpression();
+                } else if (type != null && isRegex.apply(type)) {
+                    keyword = match.getExpression() == null ? null : requiredLiteral(match.getExpression());
+                } else {
+                    m_keywords[i] = NEVER;
+                    continue;
+                }
+                if (keyword == null || keyword.isEmpty()) {
+                    m_keywords[i] = ALWAYS;
+                    continue;
+                }
+                Integer id = keywordIds.get(keyword);
+                if (id == null) {
+                    id = keywords.size();
+                    keywordIds.put(keyword, id);
+                    keywords.add(keyword);
+                }
+                m_keywords[i] = id;
+                filtered++;
+            }
+            m_automaton = keywords.isEmpty() ? null : new AhoCorasick(keywords);
+            m_filtered = filtered;
+        }
+
+        private BitSet getCandidates(String text) {
+            // Without a text, let the rules deal with it
+            final BitSet found = m_automaton == null || text == null ? null : m_automaton.find(text);
+            final BitSet candidates = new BitSet(m_keywords.length);
+            for (int i = 0; i < m_keywords.length; i++) {
+                final int keyword = m_keywords[i];
+                if (keyword == ALWAYS || (keyword >= 0 && (found == null || found.get(keyword)))) {
+                    candidates.set(i);
+                }
+            }
+            return candidates;
+        }
+
+        private <T> List<T> getUnmatched(List<T> rules) {
+            final List<T> unmatched = new ArrayList<>();
+            for (int i = 0; i < m_keywords.length; i++) {
+                if (m_hits.get(i) == 0) {
+                    unmatched.add(rules.get(i));
+                }
+            }
+            return Collections.unmodifiableList(unmatched);
+        }
+    }
+
+    /**
+     * Extracts the longest literal which must be contained in any text
+     * matched by the given regular expression.
+     *
+     * The extraction is conservative: groups, character classes and optional
+     * characters end a literal, and expressions with top-level alternations,
+     * embedded flags or unusual escapes don't yield a literal at all.
+     *
+     * @return the literal, or <code>null</code> if none could be extracted
+     */
+    static String requiredLiteral(String regex) {
+        final int n = regex.length();
+        final StringBuilder run = new StringBuilder();
+        String best = "";
+        int i = 0;
+        while (i < n) {
+            final char c = regex.charAt(i);
+            final char literal;
+            final int next;
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= n) {
+                        return null;
+                    }
+                    final char escaped = regex.charAt(i + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        if (SIMPLE_ESCAPES.indexOf(escaped) < 0) {
+                            // Back-references, quotes, code points, properties, ...
+                            return null;
+                        }
+                        best = longest(best, run);
+                        i += 2;
+                        continue;
+                    }
+                    literal = escaped;
+                    next = i + 2;
+                    break;
+                case '[':
+                    best = longest(best, run);
+                    i = skipClass(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    continue;
+                case '(':
+                    if (i + 2 < n && regex.charAt(i + 1) == '?' && ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+                        // Embedded flags, i.e. (?i), may change the meaning of the literals
+                        return null;
+                    }
+                    best = longest(best, run);
+                    i = skipGroup(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    continue;
+                case '{':
+                    best = longest(best, run);
+                    i = regex.indexOf('}', i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    i++;
+                    continue;
+                case '.':
+                case '^':
+                case '$':
+                case '*':
+                case '+':
+                case '?':
+                    best = longest(best, run);
+                    i++;
+                    continue;
+                case '|':
+                case ')':
+                case ']':
+                case '}':
+                    return null;
+                default:
+                    literal = c;
+                    next = i + 1;
+            }
+
+            if (next < n) {
+                final char quantifier = regex.charAt(next);
+                if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                    // The character is optional
+                    best = longest(best, run);
+                    i = next;
+                    continue;
+                } else if (quantifier == '+') {
+                    // The character is required, but may be repeated
+                    run.append(literal);
+                    best = longest(best, run);
+                    i = next;
+                    continue;
+                }
+            }
+            run.append(literal);
+            i = next;
+        }
+        best = longest(best, run);
+        return best.isEmpty() ? null : best;
+    }
+
+    private static String longest(String best, StringBuilder run) {
+        final String candidate = run.toString();
+        run.setLength(0);
+        return candidate.length() > best.length() ? candidate : best;
+    }
+
+    /**
+     * Returns the index following the character class which starts at the given index, or -1.
+     */
+    private static int skipClass(String regex, int start) {
+        final int n = regex.length();
+        int i = start + 1;
+        if (i < n && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < n && regex.charAt(i) == ']') {
+            // A leading ] is a literal
+            i++;
+        }
+        int depth = 1;
+        while (i < n) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index following the group which starts at the given index, or -1.
+     */
+    private static int skipGroup(String regex, int start) {
+        final int n = regex.length();
+        int i = start + 1;
+        int depth = 1;
+        while (i < n) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
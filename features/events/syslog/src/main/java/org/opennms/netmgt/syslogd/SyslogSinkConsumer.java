@@ -54,6 +54,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -83,6 +84,11 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
+        // Number of configuration entries that did not match any message since the configuration was loaded
+        registry.register("consumer.ueimatch.unmatched", (Gauge<Integer>) () -> syslogdConfig == null ? 0
+                : ConvertToEvent.getMatchIndex(syslogdConfig).getUnmatchedUeiMatches().size());
+        registry.register("consumer.hidematch.unmatched", (Gauge<Integer>) () -> syslogdConfig == null ? 0
+                : ConvertToEvent.getMatchIndex(syslogdConfig).getUnmatchedHideMatches().size());
         localAddr = InetAddressUtils.getLocalHostName();
     }
 
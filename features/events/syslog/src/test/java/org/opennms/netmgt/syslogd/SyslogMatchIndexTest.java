@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class SyslogMatchIndexTest {
+
+    @Test
+    public void testAhoCorasick() {
+        final AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers", "\u00fc"));
+        assertEquals(bits(0, 1, 3), automaton.find("ushers"));
+        assertEquals(bits(2), automaton.find("this"));
+        assertEquals(bits(4), automaton.find("gr\u00fcn"));
+        assertEquals(bits(), automaton.find("nothing to see"));
+        assertEquals(bits(), automaton.find(""));
+    }
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals(", changed state to ", SyslogMatchIndex.requiredLiteral("^%LINK: (.*), changed state to (up|down)"));
+        assertEquals("%LINK-3-UPDOWN: ", SyslogMatchIndex.requiredLiteral("^%LINK-3-UPDOWN: (Interface)"));
+        assertEquals(" foo.bar", SyslogMatchIndex.requiredLiteral("\\d+ foo\\.bar\\s"));
+        assertEquals("abc", SyslogMatchIndex.requiredLiteral("abcd?e"));
+        assertEquals("abc", SyslogMatchIndex.requiredLiteral("x*abc+"));
+        assertEquals("ab", SyslogMatchIndex.requiredLiteral("[a-z]+abc{2,}"));
+        assertEquals("after", SyslogMatchIndex.requiredLiteral("(?:x|y)after"));
+        assertEquals("kept", SyslogMatchIndex.requiredLiteral("[\\])]kept"));
+
+        // Nothing that can safely be used
+        assertNull(SyslogMatchIndex.requiredLiteral(".*"));
+        assertNull(SyslogMatchIndex.requiredLiteral("foo|bar"));
+        assertNull(SyslogMatchIndex.requiredLiteral("(?i)foo"));
+        assertNull(SyslogMatchIndex.requiredLiteral("\\Qfoo\\E"));
+        assertNull(SyslogMatchIndex.requiredLiteral("(foo)\\1"));
+        assertNull(SyslogMatchIndex.requiredLiteral("\\p{Alpha}"));
+        assertNull(SyslogMatchIndex.requiredLiteral("(unbalanced"));
+    }
+
+    @Test
+    public void testRequiredLiteralIsContainedInMatches() {
+        final List<String> regexes = Arrays.asList(
+                "^%LINK-3-UPDOWN: Interface (.*), changed state to (up|down)",
+                "(?<name>\\w+)=(\\d+) ms",
+                "a+b?c*d{1,2}e",
+                "fail(ed|ure) for [^ ]+ from ([0-9.]+)");
+        final List<String> texts = Arrays.asList(
+                "%LINK-3-UPDOWN: Interface Gi0/1, changed state to up",
+                "latency=12 ms",
+                "aaacdde",
+                "ae",
+                "failure for root from 10.0.0.1",
+                "failed for admin from 127.0.0.1");
+        for (final String regex : regexes) {
+            final String literal = SyslogMatchIndex.requiredLiteral(regex);
+            for (final String text : texts) {
+                if (Pattern.compile(regex, Pattern.MULTILINE).matcher(text).find()) {
+                    assertTrue(regex + " matched " + text, literal == null || text.contains(literal));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCandidatesKeepConfigurationOrder() {
+        final List<UeiMatch> ueiMatches = new ArrayList<>();
+        ueiMatches.add(ueiMatch("regex", ".*"));
+        ueiMatches.add(ueiMatch("substr", "down"));
+        ueiMatches.add(ueiMatch("regex", "(\\S+) went down"));
+        ueiMatches.add(ueiMatch("substr", "up"));
+        ueiMatches.add(ueiMatch("unknown", "down"));
+        ueiMatches.add(ueiMatch("substr", "down"));
+        final SyslogMatchIndex index = new SyslogMatchIndex(ueiMatches, Collections.emptyList());
+
+        assertEquals(bits(0, 1, 2, 5), index.getUeiCandidates("Interface eth0 went down"));
+        assertEquals(bits(0, 3), index.getUeiCandidates("Interface eth0 is up"));
+        assertEquals(bits(0), index.getUeiCandidates("nothing"));
+        assertEquals(4, index.getFilteredCount());
+    }
+
+    @Test
+    public void testHideCandidates() {
+        final List<HideMatch> hideMatches = new ArrayList<>();
+        hideMatches.add(hideMatch("substr", "password"));
+        // Hide matches only support exact "regex" types
+        hideMatches.add(hideMatch("regex-foo", "secret"));
+        hideMatches.add(hideMatch("regex", "secret=\\S+"));
+        final SyslogMatchIndex index = new SyslogMatchIndex(Collections.emptyList(), hideMatches);
+
+        assertEquals(bits(0), index.getHideCandidates("user password changed"));
+        assertEquals(bits(2), index.getHideCandidates("secret=1234"));
+        assertEquals(bits(), index.getHideCandidates("hello"));
+    }
+
+    @Test
+    public void testMatchCounts() {
+        final List<UeiMatch> ueiMatches = Arrays.asList(ueiMatch("substr", "a"), ueiMatch("substr", "b"));
+        final List<HideMatch> hideMatches = Collections.singletonList(hideMatch("substr", "c"));
+        final SyslogMatchIndex index = new SyslogMatchIndex(ueiMatches, hideMatches);
+        assertTrue(index.isFor(ueiMatches, hideMatches));
+        assertFalse(index.isFor(new ArrayList<>(ueiMatches), hideMatches));
+
+        assertEquals(ueiMatches, index.getUnmatchedUeiMatches());
+        index.countUeiMatch(1);
+        index.countUeiMatch(1);
+        assertEquals(2, index.getUeiMatchCount(1));
+        assertEquals(Collections.singletonList(ueiMatches.get(0)), index.getUnmatchedUeiMatches());
+
+        assertEquals(hideMatches, index.getUnmatchedHideMatches());
+        index.countHideMatch(0);
+        assertEquals(1, index.getHideMatchCount(0));
+        assertEquals(Collections.emptyList(), index.getUnmatchedHideMatches());
+    }
+
+    private static BitSet bits(int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    private static Match match(String type, String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        return match;
+    }
+
+    private static UeiMatch ueiMatch(String type, String expression) {
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match(type, expression));
+        ueiMatch.setUei("uei.opennms.org/test/" + expression);
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(String type, String expression) {
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match(type, expression));
+        return hideMatch;
+    }
+}
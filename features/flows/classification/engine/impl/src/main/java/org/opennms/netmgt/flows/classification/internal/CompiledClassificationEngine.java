@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.Collections;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.index.ClassificationIndex;
+
+/**
+ * Classifies against an immutable {@link ClassificationIndex}.
+ *
+ * A reload compiles a new index from the rules and swaps it in, so {@link #classify(ClassificationRequest)}
+ * never blocks and this engine does not need to be wrapped in a {@link ThreadSafeClassificationEngine}.
+ */
+public class CompiledClassificationEngine implements ClassificationEngine {
+
+    private final ClassificationRuleProvider ruleProvider;
+
+    private final FilterService filterService;
+
+    private volatile ClassificationIndex index;
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService) {
+        this(ruleProvider, filterService, true);
+    }
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService, final boolean initialize) {
+        this.ruleProvider = Objects.requireNonNull(ruleProvider);
+        this.filterService = Objects.requireNonNull(filterService);
+        this.index = new ClassificationIndex(Collections.emptyList(), filterService);
+
+        if (initialize) {
+            this.reload();
+        }
+    }
+
+    @Override
+    public String classify(final ClassificationRequest classificationRequest) {
+        // We return null instead of 'Undefined', to let the caller (e.g. rest service, or ui) decide
+        // what an unmapped definition should be named.
+        return index.classify(classificationRequest);
+    }
+
+    @Override
+    public synchronized void reload() {
+        index = new ClassificationIndex(DefaultClassificationEngine.expandOmnidirectionalRules(ruleProvider.getRules()), filterService);
+    }
+}
@@ -124,6 +124,14 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         return result;
     }
 
+    static List<RuleDefinition> expandOmnidirectionalRules(final List<Rule> rules) {
+        return rules.stream()
+                .flatMap(rule -> rule.isOmnidirectional() && (rule.hasSrcPortDefinition() || rule.hasSrcAddressDefinition() || rule.hasDstPortDefinition() || rule.hasDstAddressDefinition())
+                        ? Stream.of(rule, reverseRule(rule))
+                        : Stream.of(rule))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public void reload() {
         // Reset existing data
@@ -132,11 +140,7 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         portClassifiersCache.invalidateAll();
 
         // Load rules and expand omnidirectional rules to reversed ones
-        final List<RuleDefinition> rules = ruleProvider.getRules().stream()
-                .flatMap(rule -> rule.isOmnidirectional() && (rule.hasSrcPortDefinition() || rule.hasSrcAddressDefinition() || rule.hasDstPortDefinition() || rule.hasDstAddressDefinition())
-                        ? Stream.of(rule, reverseRule(rule))
-                        : Stream.of(rule))
-                .collect(Collectors.toList());
+        final List<RuleDefinition> rules = expandOmnidirectionalRules(ruleProvider.getRules());
 
         // Rules which are not bound to a src OR dst port are stored here temporarily
         final List<RuleDefinition> anyPortRules = new ArrayList<>();
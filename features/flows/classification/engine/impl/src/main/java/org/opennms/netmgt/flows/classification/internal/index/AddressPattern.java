@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+import org.opennms.core.utils.IPLike;
+
+/**
+ * A precompiled src or dst address definition of a rule.
+ *
+ * Matches like the {@code IpMatcher}: "*" matches everything,
+ * definitions containing a wildcard are IPLIKE expressions and everything else must match the address exactly.
+ * IPv4 IPLIKE expressions are compiled to a bit mask per octet, so matching a parsed address is a few bit tests.
+ */
+final class AddressPattern {
+
+    /** Key of the index dimension used for addresses which are not IPv4 addresses. */
+    static final int NON_IPV4 = 256;
+
+    private enum Type {
+        ANY,
+        EXACT,
+        IPV4,
+        IPLIKE,
+    }
+
+    private final String pattern;
+
+    private final Type type;
+
+    // 4 octets with 256 bits each
+    private final long[][] octets;
+
+    AddressPattern(final String pattern) {
+        this.pattern = Objects.requireNonNull(pattern);
+        if ("*".equals(pattern)) {
+            this.type = Type.ANY;
+            this.octets = null;
+        } else if (!pattern.contains("*")) {
+            this.type = Type.EXACT;
+            this.octets = null;
+        } else {
+            this.octets = compileIPv4(pattern);
+            this.type = this.octets != null ? Type.IPV4 : Type.IPLIKE;
+        }
+    }
+
+    /**
+     * Returns the first octets of the addresses this pattern may match, including {@link #NON_IPV4}.
+     */
+    BitSet getFirstOctets() {
+        final BitSet keys = new BitSet(NON_IPV4 + 1);
+        switch (type) {
+            case EXACT:
+                final long address = parseIPv4(pattern);
+                keys.set(address >= 0 ? (int) (address >>> 24) : NON_IPV4);
+                break;
+            case IPV4:
+                for (int octet = 0; octet < 256; octet++) {
+                    if (isSet(octets[0], octet)) {
+                        keys.set(octet);
+                    }
+                }
+                keys.set(NON_IPV4);
+                break;
+            default:
+                keys.set(0, NON_IPV4 + 1);
+        }
+        return keys;
+    }
+
+    /**
+     * @param address the address of the request
+     * @param parsed the address as returned by {@link #parseIPv4(String)}
+     */
+    boolean matches(final String address, final long parsed) {
+        switch (type) {
+            case ANY:
+                return true;
+            case EXACT:
+                return pattern.equals(address);
+            case IPV4:
+                if (parsed >= 0) {
+                    return isSet(octets[0], (int) (parsed >>> 24) & 0xFF)
+                            && isSet(octets[1], (int) (parsed >>> 16) & 0xFF)
+                            && isSet(octets[2], (int) (parsed >>> 8) & 0xFF)
+                            && isSet(octets[3], (int) parsed & 0xFF);
+                }
+                return matchesIPLike(address);
+            default:
+                return matchesIPLike(address);
+        }
+    }
+
+    private boolean matchesIPLike(final String address) {
+        if (address == null) {
+            return false;
+        }
+        try {
+            return IPLike.matches(address, pattern);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isSet(final long[] bits, final int octet) {
+        return (bits[octet >>> 6] & (1L << octet)) != 0;
+    }
+
+    /**
+     * Parses a dotted decimal IPv4 address without allocating.
+     *
+     * @return the address as unsigned 32 bit value or -1 if the given string is not a IPv4 address
+     */
+    static long parseIPv4(final String address) {
+        if (address == null) {
+            return -1;
+        }
+        final int length = address.length();
+        long result = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && digits > 0 && octets < 3) {
+                result = (result << 8) | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        return (result << 8) | value;
+    }
+
+    /**
+     * Compiles a IPv4 IPLIKE expression to a bit mask per octet.
+     *
+     * @return the masks or null if the expression can not be compiled and must be evaluated by {@link IPLike}
+     */
+    private static long[][] compileIPv4(final String pattern) {
+        if (pattern.indexOf(':') >= 0) {
+            return null;
+        }
+        final String[] fields = pattern.split("\\.", -1);
+        if (fields.length != 4) {
+            return null;
+        }
+        final long[][] octets = new long[4][4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                if (fields[i].isEmpty()) {
+                    return null;
+                }
+                for (final String element : fields[i].split(",", -1)) {
+                    final int dashCount = IPLike.countChar('-', element);
+                    if ("*".equals(element)) {
+                        setRange(octets[i], 0, 255);
+                    } else if (dashCount == 0) {
+                        final long value = Long.parseLong(element, 10);
+                        setRange(octets[i], value, value);
+                    } else if (dashCount == 1) {
+                        final String[] range = element.split("-");
+                        if (range.length != 2) {
+                            return null;
+                        }
+                        setRange(octets[i], Long.parseLong(range[0]), Long.parseLong(range[1]));
+                    }
+                    // More than one dash never matches
+                }
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return octets;
+    }
+
+    private static void setRange(final long[] bits, final long from, final long to) {
+        for (long octet = Math.max(from, 0); octet <= Math.min(to, 255); octet++) {
+            bits[(int) octet >>> 6] |= 1L << octet;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePositionComparator;
+
+/**
+ * Immutable, precompiled index over a set of rules.
+ *
+ * The rules are ordered by their position and each of protocol, src port, dst port and the first octet of the
+ * src and dst address maps to the bit set of rules which may match the request.
+ * Classifying a request intersects these five sets and verifies the remaining candidates in order
+ * against their address definitions and exporter filter. The first matching rule wins.
+ *
+ * A classification does not allocate and does not lock, so an instance can be shared between any number of threads.
+ */
+public final class ClassificationIndex {
+
+    private static final int NO_PROTOCOL = 256;
+
+    private static final int NO_PORT = Rule.MAX_PORT_VALUE + 1;
+
+    private final int words;
+
+    private final String[] names;
+
+    private final AddressPattern[] srcAddresses;
+
+    private final AddressPattern[] dstAddresses;
+
+    private final String[] exporterFilters;
+
+    private final FilterService filterService;
+
+    private final Dimension protocols;
+
+    private final Dimension srcPorts;
+
+    private final Dimension dstPorts;
+
+    private final Dimension srcOctets;
+
+    private final Dimension dstOctets;
+
+    public ClassificationIndex(final Collection<? extends RuleDefinition> ruleDefinitions, final FilterService filterService) {
+        this.filterService = Objects.requireNonNull(filterService);
+
+        final List<RuleDefinition> rules = sort(ruleDefinitions);
+        final int size = rules.size();
+        this.words = Math.max(1, (size + 63) >>> 6);
+        this.names = new String[size];
+        this.srcAddresses = new AddressPattern[size];
+        this.dstAddresses = new AddressPattern[size];
+        this.exporterFilters = new String[size];
+
+        final Dimension.Builder protocols = new Dimension.Builder(NO_PROTOCOL + 1, size);
+        final Dimension.Builder srcPorts = new Dimension.Builder(NO_PORT + 1, size);
+        final Dimension.Builder dstPorts = new Dimension.Builder(NO_PORT + 1, size);
+        final Dimension.Builder srcOctets = new Dimension.Builder(AddressPattern.NON_IPV4 + 1, size);
+        final Dimension.Builder dstOctets = new Dimension.Builder(AddressPattern.NON_IPV4 + 1, size);
+
+        for (int i = 0; i < size; i++) {
+            final RuleDefinition rule = rules.get(i);
+            names[i] = rule.getName();
+
+            if (rule.hasProtocolDefinition()) {
+                final BitSet keys = new BitSet(NO_PROTOCOL + 1);
+                for (final StringValue value : new StringValue(rule.getProtocol()).splitBy(",")) {
+                    final Protocol protocol = Protocols.getProtocol(value.getValue());
+                    if (protocol != null && protocol.getDecimal() >= 0 && protocol.getDecimal() < NO_PROTOCOL) {
+                        keys.set(protocol.getDecimal());
+                    }
+                }
+                protocols.add(i, keys);
+            } else {
+                protocols.addAll(i);
+            }
+
+            if (rule.hasSrcPortDefinition()) {
+                srcPorts.add(i, toBitSet(new PortValue(rule.getSrcPort())));
+            } else {
+                srcPorts.addAll(i);
+            }
+
+            if (rule.hasDstPortDefinition()) {
+                dstPorts.add(i, toBitSet(new PortValue(rule.getDstPort())));
+            } else {
+                dstPorts.addAll(i);
+            }
+
+            if (rule.hasSrcAddressDefinition()) {
+                srcAddresses[i] = new AddressPattern(rule.getSrcAddress());
+                srcOctets.add(i, srcAddresses[i].getFirstOctets());
+            } else {
+                srcOctets.addAll(i);
+            }
+
+            if (rule.hasDstAddressDefinition()) {
+                dstAddresses[i] = new AddressPattern(rule.getDstAddress());
+                dstOctets.add(i, dstAddresses[i].getFirstOctets());
+            } else {
+                dstOctets.addAll(i);
+            }
+
+            if (rule.hasExportFilterDefinition()) {
+                exporterFilters[i] = rule.getExporterFilter();
+            }
+        }
+
+        this.protocols = protocols.build();
+        this.srcPorts = srcPorts.build();
+        this.dstPorts = dstPorts.build();
+        this.srcOctets = srcOctets.build();
+        this.dstOctets = dstOctets.build();
+    }
+
+    public String classify(final ClassificationRequest request) {
+        final String srcAddress = request.getSrcAddress();
+        final String dstAddress = request.getDstAddress();
+        final long srcParsed = AddressPattern.parseIPv4(srcAddress);
+        final long dstParsed = AddressPattern.parseIPv4(dstAddress);
+
+        final long[] protocolRules = protocols.get(protocolKey(request.getProtocol()));
+        final long[] srcPortRules = srcPorts.get(portKey(request.getSrcPort()));
+        final long[] dstPortRules = dstPorts.get(portKey(request.getDstPort()));
+        final long[] srcOctetRules = srcOctets.get(srcParsed >= 0 ? (int) (srcParsed >>> 24) : AddressPattern.NON_IPV4);
+        final long[] dstOctetRules = dstOctets.get(dstParsed >= 0 ? (int) (dstParsed >>> 24) : AddressPattern.NON_IPV4);
+
+        for (int w = 0; w < words; w++) {
+            long candidates = protocolRules[w] & srcPortRules[w] & dstPortRules[w] & srcOctetRules[w] & dstOctetRules[w];
+            while (candidates != 0) {
+                final int rule = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                if ((srcAddresses[rule] == null || srcAddresses[rule].matches(srcAddress, srcParsed))
+                        && (dstAddresses[rule] == null || dstAddresses[rule].matches(dstAddress, dstParsed))
+                        && (exporterFilters[rule] == null || filterService.matches(request.getExporterAddress(), exporterFilters[rule]))) {
+                    return names[rule];
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    private static int protocolKey(final Protocol protocol) {
+        if (protocol == null || protocol.getDecimal() < 0 || protocol.getDecimal() >= NO_PROTOCOL) {
+            return NO_PROTOCOL;
+        }
+        return protocol.getDecimal();
+    }
+
+    private static int portKey(final Integer port) {
+        if (port == null || port < Rule.MIN_PORT_VALUE || port > Rule.MAX_PORT_VALUE) {
+            return NO_PORT;
+        }
+        return port;
+    }
+
+    private static BitSet toBitSet(final PortValue portValue) {
+        final BitSet keys = new BitSet(NO_PORT + 1);
+        for (final Integer port : portValue.getPorts()) {
+            if (port >= Rule.MIN_PORT_VALUE && port <= Rule.MAX_PORT_VALUE) {
+                keys.set(port);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Orders the rules by group and rule position.
+     *
+     * Rules on the same position are ordered the way the port based lookup of the
+     * {@link org.opennms.netmgt.flows.classification.internal.DefaultClassificationEngine} returns them:
+     * rules bound to a src port only, then rules without ports, then rules bound to a dst port.
+     */
+    private static List<RuleDefinition> sort(final Collection<? extends RuleDefinition> ruleDefinitions) {
+        final List<RuleDefinition> rules = new ArrayList<>(ruleDefinitions);
+        rules.sort(new RulePositionComparator().thenComparingInt(ClassificationIndex::portTier));
+        return rules;
+    }
+
+    private static int portTier(final RuleDefinition rule) {
+        if (rule.hasDstPortDefinition()) {
+            return 2;
+        }
+        return rule.hasSrcPortDefinition() ? 0 : 1;
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One dimension of the {@link ClassificationIndex}.
+ *
+ * Maps each key of the dimension (e.g. a port or a protocol number) to the set of rules which may
+ * match a request with this key. Each set is a bit set over the rule indices, stored as a plain long array
+ * so that the sets of several dimensions can be intersected word by word without allocating.
+ * Keys sharing the same rules share the same array.
+ */
+final class Dimension {
+
+    private final int[] keys;
+
+    private final long[][] sets;
+
+    private Dimension(final int[] keys, final long[][] sets) {
+        this.keys = keys;
+        this.sets = sets;
+    }
+
+    long[] get(final int key) {
+        return sets[keys[key]];
+    }
+
+    int getNumberOfSets() {
+        return sets.length;
+    }
+
+    static final class Builder {
+        private final int numKeys;
+        private final int words;
+
+        // Each event is (key << 32) | (rule << 1) | (add ? 1 : 0), which sorts removals before additions on the same key
+        private long[] events = new long[64];
+        private int numEvents = 0;
+
+        Builder(final int numKeys, final int numRules) {
+            this.numKeys = numKeys;
+            this.words = Math.max(1, (numRules + 63) >>> 6);
+        }
+
+        Builder addAll(final int rule) {
+            return addRange(rule, 0, numKeys);
+        }
+
+        Builder add(final int rule, final BitSet keys) {
+            for (int from = keys.nextSetBit(0); from >= 0 && from < numKeys; from = keys.nextSetBit(from)) {
+                final int to = Math.min(keys.nextClearBit(from), numKeys);
+                addRange(rule, from, to);
+                from = to;
+            }
+            return this;
+        }
+
+        private Builder addRange(final int rule, final int from, final int to) {
+            addEvent(((long) from << 32) | ((long) rule << 1) | 1L);
+            if (to < numKeys) {
+                addEvent(((long) to << 32) | ((long) rule << 1));
+            }
+            return this;
+        }
+
+        private void addEvent(final long event) {
+            if (numEvents == events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+            events[numEvents++] = event;
+        }
+
+        Dimension build() {
+            Arrays.sort(events, 0, numEvents);
+
+            final int[] keys = new int[numKeys];
+            final List<long[]> sets = new ArrayList<>();
+            final Map<SetKey, Integer> setIndices = new HashMap<>();
+
+            // Sweep over the keys and only materialize a set where rules start or stop to apply
+            final long[] current = new long[words];
+            int index = -1;
+            int e = 0;
+            for (int key = 0; key < numKeys; key++) {
+                boolean changed = index < 0;
+                while (e < numEvents && (int) (events[e] >>> 32) == key) {
+                    final int rule = (int) ((events[e] & 0xFFFFFFFFL) >>> 1);
+                    if ((events[e] & 1L) != 0) {
+                        current[rule >>> 6] |= 1L << rule;
+                    } else {
+                        current[rule >>> 6] &= ~(1L << rule);
+                    }
+                    changed = true;
+                    e++;
+                }
+                if (changed) {
+                    final SetKey setKey = new SetKey(current.clone());
+                    index = setIndices.computeIfAbsent(setKey, k -> {
+                        sets.add(k.bits);
+                        return sets.size() - 1;
+                    });
+                }
+                keys[key] = index;
+            }
+            return new Dimension(keys, sets.toArray(new long[sets.size()][]));
+        }
+    }
+
+    private static final class SetKey {
+        private final long[] bits;
+        private final int hashCode;
+
+        private SetKey(final long[] bits) {
+            this.bits = bits;
+            this.hashCode = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof SetKey && Arrays.equals(bits, ((SetKey) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.opennms.core.network.IPAddress;
+import org.opennms.core.network.IPAddressRange;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineTest {
+
+    @Test
+    public void verifyRuleEngineBasic() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+            Lists.newArrayList(
+                    new RuleBuilder().withName("rule1").withPosition(1).withSrcPort(80).build(),
+                    new RuleBuilder().withName("rule2").withPosition(2).withDstPort(443).build(),
+                    new RuleBuilder().withName("rule3").withPosition(3).withSrcPort(8888).withDstPort(9999).build(),
+                    new RuleBuilder().withName("rule4").withPosition(4).withSrcPort(8888).withDstPort(80).build(),
+                    new RuleBuilder().withName("rule5").withPosition(5).build()
+            ), FilterService.NOOP);
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(1).withDstPort(2).build()));
+    }
+
+    @Test
+    public void verifyRuleEngineWithOmnidirectionals() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+                Lists.newArrayList(
+                        new RuleBuilder().withName("rule1").withSrcPort(80).withOmnidirectional(true).build(),
+                        new RuleBuilder().withName("rule2").withDstPort(443).withOmnidirectional(true).build(),
+                        new RuleBuilder().withName("rule3").withSrcPort(8080).withDstPort(8443).withOmnidirectional(true).build(),
+                        new RuleBuilder().withName("rule4").withSrcPort(1337).build(),
+                        new RuleBuilder().withName("rule5").withDstPort(7331).build()
+                ), FilterService.NOOP);
+
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(80).build()));
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(9999).build()));
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(443).withDstPort(9999).build()));
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).build()));
+
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8080).withDstPort(8443).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8443).withDstPort(8080).build()));
+
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(1337).withDstPort(9999).build()));
+        assertNull(engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(1337).build()));
+
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(7331).build()));
+        assertNull(engine.classify(new ClassificationRequestBuilder().withSrcPort(7331).withDstPort(9999).build()));
+    }
+
+    @Test
+    public void verifyAddressRuleWins() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+            new RuleBuilder().withName("HTTP").withDstPort(80).build(),
+            new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
+            new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("XXX", engine.classify(new ClassificationRequest("Default", 0, null, 80, "192.168.2.1", ProtocolType.TCP)));
+        assertEquals("XXX2", engine.classify(new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(ProtocolType.TCP)
+                .withSrcAddress("192.168.2.1").withSrcPort(4789)
+                .withDstAddress("52.31.45.219").withDstPort(80)
+                .build()));
+    }
+
+    @Test
+    public void verifyIpLikeAddresses() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("range").withPosition(1).withDstAddress("10.1-2.*.1,3,5-6").build(),
+                new RuleBuilder().withName("v6").withPosition(2).withDstAddress("fe80:*:*:*:*:*:*:1").build(),
+                new RuleBuilder().withName("exact").withPosition(3).withSrcAddress("172.16.0.1").withProtocol("udp").build()
+        ), FilterService.NOOP);
+
+        assertEquals("range", engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.2.200.5", ProtocolType.TCP)));
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.2.200.4", ProtocolType.TCP)));
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.3.0.1", ProtocolType.TCP)));
+
+        // Not expressible as IPv4 bit masks, falls back to IPLIKE
+        assertEquals("v6", engine.classify(new ClassificationRequest("Default", 0, null, 80, "fe80:0:0:0:0:0:0:1", ProtocolType.TCP)));
+
+        assertEquals("exact", engine.classify(new ClassificationRequest("Default", 0, "172.16.0.1", 80, "192.168.0.1", ProtocolType.UDP)));
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, "172.16.0.1", 80, "192.168.0.1", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifyExporterFilter() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("filtered").withPosition(1).withDstPort(80).withExporterFilter("categoryName == 'Routers'").build(),
+                new RuleBuilder().withName("http").withPosition(2).withDstPort(80).build()
+        ), new FilterService() {
+            @Override
+            public void validate(String filterExpression) {
+            }
+
+            @Override
+            public boolean matches(String address, String filterExpression) {
+                return "10.0.0.1".equals(address);
+            }
+        });
+
+        assertEquals("filtered", engine.classify(new ClassificationRequestBuilder().withDstPort(80).withProtocol(ProtocolType.TCP).withExporterAddress("10.0.0.1").build()));
+        assertEquals("http", engine.classify(new ClassificationRequestBuilder().withDstPort(80).withProtocol(ProtocolType.TCP).withExporterAddress("10.0.0.2").build()));
+    }
+
+    @Test
+    public void verifyIpRange() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("HTTP").withDstPort("80").withPosition(1).build(),
+                new RuleBuilder().withName("DUMMY").withDstAddress("192.168.1.*").withDstPort("8000-9000,80,8080").withPosition(2).build()
+        ), FilterService.NOOP);
+
+        for (IPAddress ipAddress : new IPAddressRange("192.168.1.0", "192.168.1.255")) {
+            assertEquals("DUMMY", engine.classify(new ClassificationRequest("Default", 0, null, 8080, ipAddress.toString(), ProtocolType.TCP)));
+        }
+        assertNull(engine.classify(new ClassificationRequest("Default", 0, null, 8080, "192.168.2.1", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifyReloadSwapsRules() {
+        final AtomicReference<List<Rule>> rules = new AtomicReference<>(Lists.newArrayList(
+                new RuleBuilder().withName("before").withDstPort(80).build()));
+        final ClassificationEngine engine = new CompiledClassificationEngine(rules::get, FilterService.NOOP, false);
+
+        final ClassificationRequest request = new ClassificationRequestBuilder().withSrcPort(50000).withDstPort(80).withProtocol(ProtocolType.TCP).build();
+        assertNull(engine.classify(request));
+
+        engine.reload();
+        assertEquals("before", engine.classify(request));
+
+        rules.set(Lists.newArrayList(new RuleBuilder().withName("after").withDstPort(80).build()));
+        engine.reload();
+        assertEquals("after", engine.classify(request));
+    }
+
+    @Test
+    public void verifyBehavesLikeDefaultEngine() {
+        final Random random = new Random(0);
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i).withPosition(i);
+            if (random.nextInt(3) == 0) {
+                builder.withProtocol(random.nextBoolean() ? "tcp" : "tcp,udp");
+            }
+            if (random.nextInt(3) == 0) {
+                builder.withSrcPort(random.nextInt(2048));
+            }
+            if (random.nextInt(2) == 0) {
+                final int start = random.nextInt(2048);
+                builder.withDstPort(start + "-" + (start + random.nextInt(16)));
+            }
+            if (random.nextInt(4) == 0) {
+                builder.withSrcAddress("10." + random.nextInt(4) + ".*.*");
+            }
+            if (random.nextInt(4) == 0) {
+                builder.withDstAddress("192.168." + random.nextInt(4) + "." + random.nextInt(4));
+            }
+            builder.withOmnidirectional(random.nextInt(10) == 0);
+            rules.add(builder.build());
+        }
+
+        final ClassificationEngine expected = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+        final ClassificationEngine actual = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+
+        for (int i = 0; i < 20000; i++) {
+            // The default engine orders rules on the same position by the port they were looked up with,
+            // which is ambiguous if both ports are equal
+            final int srcPort = random.nextInt(2048);
+            final int dstPort = (srcPort + 1 + random.nextInt(2047)) % 2048;
+            final ClassificationRequest request = new ClassificationRequest("Default",
+                    srcPort,
+                    "10." + random.nextInt(4) + "." + random.nextInt(4) + "." + random.nextInt(4),
+                    dstPort,
+                    "192.168." + random.nextInt(4) + "." + random.nextInt(4),
+                    Protocols.getProtocol(random.nextBoolean() ? "tcp" : "udp"));
+            assertEquals(request.toString(), expected.classify(request), actual.classify(request));
+        }
+    }
+}
@@ -29,9 +29,12 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -74,11 +77,20 @@ public class DocumentEnricher {
     // Caches NodeDocument data
     private final Cache<NodeInfoKey, Optional<NodeDocument>> nodeInfoCache;
 
+    // Preloaded NodeDocument data, used instead of the cache if available
+    private final NodeInfoIndex nodeInfoIndex;
+
     private final Timer nodeLoadTimer;
 
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             SessionUtils sessionUtils, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
+        this(metricRegistry, nodeDao, interfaceToNodeCache, sessionUtils, classificationEngine, cacheConfig, null);
+    }
+
+    public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
+                            SessionUtils sessionUtils, ClassificationEngine classificationEngine,
+                            CacheConfig cacheConfig, NodeInfoIndex nodeInfoIndex) {
         this.nodeDao = Objects.requireNonNull(nodeDao);
         this.interfaceToNodeCache = Objects.requireNonNull(interfaceToNodeCache);
         this.sessionUtils = Objects.requireNonNull(sessionUtils);
@@ -92,6 +104,7 @@ public class DocumentEnricher {
                         return getNodeInfo(key.location, key.ipAddress, key.contextKey, key.value);
                     }
                 }).build();
+        this.nodeInfoIndex = nodeInfoIndex;
         this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
     }
 
@@ -101,48 +114,81 @@ public class DocumentEnricher {
             return Collections.emptyList();
         }
 
-        return sessionUtils.withTransaction(() -> flows.stream().map(flow -> {
+        if (nodeInfoIndex == null || !nodeInfoIndex.isEnabled()) {
+            return sessionUtils.withTransaction(() -> flows.stream().map(flow -> {
+                final FlowDocument document = FlowDocument.from(flow);
+
+                // Node data
+                getNodeInfoFromCache(source.getLocation(), source.getSourceAddress(), source.getContextKey(), flow.getNodeIdentifier()).ifPresent(document::setNodeExporter);
+                if (document.getDstAddr() != null) {
+                    getNodeInfoFromCache(source.getLocation(), document.getDstAddr(), null, null).ifPresent(document::setNodeDst);
+                }
+                if (document.getSrcAddr() != null) {
+                    getNodeInfoFromCache(source.getLocation(), document.getSrcAddr(), null, null).ifPresent(document::setNodeSrc);
+                }
+
+                enrich(document, source);
+                return document;
+            }).collect(Collectors.toList()));
+        }
+
+        // The exporter is the same for all flows of the batch, unless it is identified by meta-data
+        final Map<String, Optional<NodeDocument>> exporters = new HashMap<>();
+        final List<FlowDocument> documents = new ArrayList<>(flows.size());
+        for (final Flow flow : flows) {
             final FlowDocument document = FlowDocument.from(flow);
-            // Metadata from message
-            document.setHost(source.getSourceAddress());
-            document.setLocation(source.getLocation());
 
             // Node data
-            getNodeInfoFromCache(source.getLocation(), source.getSourceAddress(), source.getContextKey(), flow.getNodeIdentifier()).ifPresent(document::setNodeExporter);
+            exporters.computeIfAbsent(flow.getNodeIdentifier(), nodeIdentifier -> getExporterInfo(source, nodeIdentifier)).ifPresent(document::setNodeExporter);
             if (document.getDstAddr() != null) {
-                getNodeInfoFromCache(source.getLocation(), document.getDstAddr(), null, null).ifPresent(document::setNodeDst);
+                nodeInfoIndex.lookup(source.getLocation(), document.getDstAddr()).ifPresent(document::setNodeDst);
             }
             if (document.getSrcAddr() != null) {
-                getNodeInfoFromCache(source.getLocation(), document.getSrcAddr(), null, null).ifPresent(document::setNodeSrc);
+                nodeInfoIndex.lookup(source.getLocation(), document.getSrcAddr()).ifPresent(document::setNodeSrc);
             }
 
-            // Locality
-            if (document.getSrcAddr() != null) {
-                document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
-            }
-            if (document.getDstAddr() != null) {
-                document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
-            }
+            enrich(document, source);
+            documents.add(document);
+        }
+        return documents;
+    }
 
-            if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
-                document.setFlowLocality(Locality.PUBLIC);
-            } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
-                document.setFlowLocality(Locality.PRIVATE);
-            }
+    private void enrich(final FlowDocument document, final FlowSource source) {
+        // Metadata from message
+        document.setHost(source.getSourceAddress());
+        document.setLocation(source.getLocation());
 
-            final ClassificationRequest classificationRequest = createClassificationRequest(document);
+        // Locality
+        if (document.getSrcAddr() != null) {
+            document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+        }
+        if (document.getDstAddr() != null) {
+            document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+        }
 
-            // Check whether classification is possible
-            if (classificationRequest.isClassifiable()) {
-                // Apply Application mapping
-                document.setApplication(classificationEngine.classify(classificationRequest));
-            }
+        if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
+            document.setFlowLocality(Locality.PUBLIC);
+        } else if (Locality.PRIVATE.equals(document.getDstLocality()) || Locality.PRIVATE.equals(document.getSrcLocality())) {
+            document.setFlowLocality(Locality.PRIVATE);
+        }
+
+        final ClassificationRequest classificationRequest = createClassificationRequest(document);
+
+        // Check whether classification is possible
+        if (classificationRequest.isClassifiable()) {
+            // Apply Application mapping
+            document.setApplication(classificationEngine.classify(classificationRequest));
+        }
 
-            // Conversation tagging
-            document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
+        // Conversation tagging
+        document.setConvoKey(ConversationKeyUtils.getConvoKeyAsJsonString(document));
+    }
 
-            return document;
-        }).collect(Collectors.toList()));
+    private Optional<NodeDocument> getExporterInfo(final FlowSource source, final String nodeIdentifier) {
+        if (source.getContextKey() != null && !Strings.isNullOrEmpty(nodeIdentifier)) {
+            return sessionUtils.withTransaction(() -> getNodeInfoFromCache(source.getLocation(), source.getSourceAddress(), source.getContextKey(), nodeIdentifier));
+        }
+        return nodeInfoIndex.lookup(source.getLocation(), source.getSourceAddress());
     }
 
     private static boolean isPrivateAddress(String ipAddress) {
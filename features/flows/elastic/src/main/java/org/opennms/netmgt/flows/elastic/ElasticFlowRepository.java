@@ -42,6 +42,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
@@ -79,6 +80,7 @@ import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -169,6 +171,10 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final ConcurrentMap<Integer, Set<Integer>> markerCache = Maps.newConcurrentMap();
 
+    private FlowRollupAggregator rollupAggregator;
+
+    private FlowRollupRepository rollupRepository;
+
     public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy,
                                  DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
                                  SessionUtils sessionUtils, NodeDao nodeDao, SnmpInterfaceDao snmpInterfaceDao,
@@ -253,6 +259,11 @@ public class ElasticFlowRepository implements FlowRepository {
             flowsPersistedMeter.mark(flowDocuments.size());
         }
 
+        if (rollupAggregator != null) {
+            // Only aggregate persisted flows, so that logs which are retried are not counted twice
+            rollupAggregator.aggregate(flowDocuments);
+        }
+
         // Mark nodes and interfaces as having associated flows
         try (final Timer.Context ctx = logMarkingTimer.time()) {
             final List<Integer> nodesToUpdate = Lists.newArrayListWithExpectedSize(flowDocuments.size());
@@ -313,7 +324,8 @@ public class ElasticFlowRepository implements FlowRepository {
     @Override
     public CompletableFuture<List<TrafficSummary<String>>> getTopNApplicationSummaries(int N, boolean includeOther,
                                                                                        List<Filter> filters) {
-        return getTotalBytesFromTopN(N, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters);
+        return fromRollupsOrElse(rollups -> rollups.getTopNSummaries(N, FlowRollup.Dimension.APPLICATION, includeOther, filters),
+                () -> getTotalBytesFromTopN(N, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters));
     }
 
     @Override
@@ -337,7 +349,8 @@ public class ElasticFlowRepository implements FlowRepository {
     public CompletableFuture<Table<Directional<String>, Long, Double>> getTopNApplicationSeries(int N, long step,
                                                                                                 boolean includeOther,
                                                                                                 List<Filter> filters) {
-        return getSeriesFromTopN(N, step, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters)
+        return fromRollupsOrElse(rollups -> rollups.getTopNSeries(N, step, FlowRollup.Dimension.APPLICATION, includeOther, filters),
+                () -> getSeriesFromTopN(N, step, "netflow.application", UNKNOWN_APPLICATION_NAME, includeOther, filters))
                 .thenCompose((res) -> mapTable(res, CompletableFuture::completedFuture));
     }
 
@@ -367,7 +380,8 @@ public class ElasticFlowRepository implements FlowRepository {
     public CompletableFuture<List<TrafficSummary<Conversation>>> getTopNConversationSummaries(int N,
                                                                                               boolean includeOther,
                                                                                               List<Filter> filters) {
-        return getTotalBytesFromTopN(N, "netflow.convo_key", null, includeOther, filters)
+        return fromRollupsOrElse(rollups -> rollups.getTopNSummaries(N, FlowRollup.Dimension.CONVERSATION, includeOther, filters),
+                () -> getTotalBytesFromTopN(N, "netflow.convo_key", null, includeOther, filters))
                 .thenCompose((summaries) -> transpose(summaries.stream()
                                                                .map(summary -> this.resolveHostnameForConversation(summary.getEntity(), filters)
                                                                                    .thenApply(conversation -> TrafficSummary.from(conversation)
@@ -402,7 +416,8 @@ public class ElasticFlowRepository implements FlowRepository {
                                                                                                           long step,
                                                                                                           boolean includeOther,
                                                                                                           List<Filter> filters) {
-        return getSeriesFromTopN(N, step, "netflow.convo_key", null, includeOther, filters)
+        return fromRollupsOrElse(rollups -> rollups.getTopNSeries(N, step, FlowRollup.Dimension.CONVERSATION, includeOther, filters),
+                () -> getSeriesFromTopN(N, step, "netflow.convo_key", null, includeOther, filters))
                 .thenCompose((res) -> mapTable(res, convoKey -> this.resolveHostnameForConversation(convoKey, filters)));
     }
 
@@ -443,7 +458,8 @@ public class ElasticFlowRepository implements FlowRepository {
     @Override
     public CompletableFuture<List<TrafficSummary<Host>>> getTopNHostSummaries(int N, boolean includeOther,
                                                                               List<Filter> filters) {
-        return getTotalBytesFromTopN(N, "hosts", null, includeOther, filters)
+        return fromRollupsOrElse(rollups -> rollups.getTopNSummaries(N, FlowRollup.Dimension.HOST, includeOther, filters),
+                () -> getTotalBytesFromTopN(N, "hosts", null, includeOther, filters))
                 .thenCompose((summaries) -> transpose(summaries.stream()
                                 .map(summary -> this.resolveHostnameForHost(summary.getEntity(), filters)
                                         .thenApply(host -> TrafficSummary.from(host)
@@ -479,7 +495,8 @@ public class ElasticFlowRepository implements FlowRepository {
     public CompletableFuture<Table<Directional<Host>, Long, Double>> getTopNHostSeries(int N, long step,
                                                                                          boolean includeOther,
                                                                                          List<Filter> filters) {
-        return getSeriesFromTopN(N, step, "hosts", null, includeOther, filters)
+        return fromRollupsOrElse(rollups -> rollups.getTopNSeries(N, step, FlowRollup.Dimension.HOST, includeOther, filters),
+                () -> getSeriesFromTopN(N, step, "hosts", null, includeOther, filters))
                 .thenCompose((res) -> mapTable(res, host -> this.resolveHostnameForHost(host, filters)));
     }
 
@@ -749,6 +766,26 @@ public class ElasticFlowRepository implements FlowRepository {
                 .thenCompose((topN) -> getTotalBytesFrom(topN, groupByTerm, keyForMissingTerm, includeOther, filters));
     }
 
+    /**
+     * Answers a top N query from the rollups, if they are enabled and cover the query,
+     * and from the flow documents otherwise.
+     */
+    private <T> CompletableFuture<T> fromRollupsOrElse(Function<FlowRollupRepository, CompletableFuture<Optional<T>>> rollupQuery,
+                                                       Supplier<CompletableFuture<T>> query) {
+        if (rollupRepository == null || !rollupRepository.isEnabled()) {
+            return query.get();
+        }
+        return rollupQuery.apply(rollupRepository)
+                .handle((res, ex) -> {
+                    if (ex != null) {
+                        LOG.warn("Failed to query the flow rollups. Using the flow documents instead: {}", ex.getMessage());
+                        return Optional.<T>empty();
+                    }
+                    return res;
+                })
+                .thenCompose(res -> res.isPresent() ? CompletableFuture.completedFuture(res.get()) : query.get());
+    }
+
     private CompletableFuture<SearchResult> searchAsync(String query, TimeRangeFilter timeRangeFilter) {
         Search.Builder builder = new Search.Builder(query);
         if(timeRangeFilter != null) {
@@ -758,7 +795,11 @@ public class ElasticFlowRepository implements FlowRepository {
 
             LOG.debug("Executing asynchronous query on {}: {}", indices, query);
         } else {
-            LOG.debug("Executing asynchronous query on all indices: {}", query);
+            // Limit the query to the flow indices, which excludes the rollups
+            final String indices = Strings.nullToEmpty(indexSettings.getIndexPrefix()) + INDEX_NAME + "-*";
+            builder.addIndex(indices);
+
+            LOG.debug("Executing asynchronous query on {}: {}", indices, query);
         }
         return executeAsync(builder.build());
     }
@@ -884,6 +925,14 @@ public class ElasticFlowRepository implements FlowRepository {
                 .collect(Collectors.toSet());
     }
 
+    public void setRollupAggregator(FlowRollupAggregator rollupAggregator) {
+        this.rollupAggregator = rollupAggregator;
+    }
+
+    public void setRollupRepository(FlowRollupRepository rollupRepository) {
+        this.rollupRepository = rollupRepository;
+    }
+
     public Identity getIdentity() {
         return identity;
     }
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Pre-aggregated traffic of a time bucket, stored in the rollup index.
+ *
+ * A rollup holds the keys with the most traffic of one dimension (i.e. applications),
+ * for all flows, the flows of an exporter or the flows of an exporter's interface.
+ * Every instance which persists flows writes its own rollups, so the rollups of a bucket
+ * must be summed up when querying them.
+ */
+public class FlowRollup {
+
+    public enum Level {
+        @SerializedName("global")
+        GLOBAL,
+        @SerializedName("exporter")
+        EXPORTER,
+        @SerializedName("interface")
+        INTERFACE
+    }
+
+    public enum Dimension {
+        @SerializedName("application")
+        APPLICATION,
+        @SerializedName("host")
+        HOST,
+        @SerializedName("conversation")
+        CONVERSATION;
+
+        public String getValue() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Start of the bucket.
+     */
+    @SerializedName("@timestamp")
+    private long timestamp;
+
+    @SerializedName("bucket_size")
+    private long bucketSize;
+
+    @SerializedName("level")
+    private Level level;
+
+    @SerializedName("dimension")
+    private Dimension dimension;
+
+    /**
+     * Exporter, if the level is exporter or interface.
+     */
+    @SerializedName("node_exporter")
+    private NodeDocument nodeExporter;
+
+    /**
+     * SNMP interface index, if the level is interface. Ingress traffic is counted for the input
+     * and egress traffic for the output interface of a flow.
+     */
+    @SerializedName("if_index")
+    private Integer ifIndex;
+
+    @SerializedName("bytes_in")
+    private double bytesIn;
+
+    @SerializedName("bytes_out")
+    private double bytesOut;
+
+    /**
+     * Upper bound for the traffic of a key which is missing from the entries, and for the traffic
+     * which was not recorded for a key of the entries.
+     */
+    @SerializedName("max_error")
+    private double maxError;
+
+    @SerializedName("instance")
+    private String instance;
+
+    @SerializedName("entries")
+    private List<Entry> entries = new ArrayList<>();
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    public void setBucketSize(long bucketSize) {
+        this.bucketSize = bucketSize;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(Dimension dimension) {
+        this.dimension = dimension;
+    }
+
+    public NodeDocument getNodeExporter() {
+        return nodeExporter;
+    }
+
+    public void setNodeExporter(NodeDocument nodeExporter) {
+        this.nodeExporter = nodeExporter;
+    }
+
+    public Integer getIfIndex() {
+        return ifIndex;
+    }
+
+    public void setIfIndex(Integer ifIndex) {
+        this.ifIndex = ifIndex;
+    }
+
+    public double getBytesIn() {
+        return bytesIn;
+    }
+
+    public void setBytesIn(double bytesIn) {
+        this.bytesIn = bytesIn;
+    }
+
+    public double getBytesOut() {
+        return bytesOut;
+    }
+
+    public void setBytesOut(double bytesOut) {
+        this.bytesOut = bytesOut;
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    public void setMaxError(double maxError) {
+        this.maxError = maxError;
+    }
+
+    public String getInstance() {
+        return instance;
+    }
+
+    public void setInstance(String instance) {
+        this.instance = instance;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static class Entry {
+        @SerializedName("key")
+        private String key;
+
+        @SerializedName("bytes")
+        private double bytes;
+
+        @SerializedName("bytes_in")
+        private double bytesIn;
+
+        @SerializedName("bytes_out")
+        private double bytesOut;
+
+        public Entry() {
+        }
+
+        public Entry(String key, double bytesIn, double bytesOut) {
+            this.key = key;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.bytes = bytesIn + bytesOut;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public double getBytes() {
+            return bytes;
+        }
+
+        public double getBytesIn() {
+            return bytesIn;
+        }
+
+        public double getBytesOut() {
+            return bytesOut;
+        }
+    }
+}
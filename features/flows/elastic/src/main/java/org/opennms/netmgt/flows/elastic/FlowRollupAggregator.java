@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.opennms.features.jest.client.bulk.BulkRequest;
+import org.opennms.features.jest.client.bulk.BulkWrapper;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.features.jest.client.template.TemplateInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+
+/**
+ * Aggregates the enriched flows into time-bucketed rollups, which are periodically written
+ * to the rollup index.
+ *
+ * For every bucket, the traffic of the applications, hosts and conversations is tracked
+ * globally, per exporter and per exporter interface in {@link HeavyHitters} of bounded size.
+ * The bytes of a flow are distributed over the buckets proportionally to the time the flow
+ * spans, in the same way as the <code>proportional_sum</code> aggregation does.
+ *
+ * Rollups are written whenever they changed since the last flush and are dropped from memory
+ * once the bucket is older than the allowed lateness. Traffic which arrives for a bucket which
+ * has already been dropped is discarded.
+ */
+public class FlowRollupAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRollupAggregator.class);
+
+    public static final String INDEX_NAME = "netflow_rollup";
+
+    private final JestClient client;
+
+    private final IndexStrategy indexStrategy;
+
+    private final IndexSettings indexSettings;
+
+    private final TemplateInitializer initializer;
+
+    // Written rollups are unique per instance and start, so that instances never overwrite each other
+    private final String instance = UUID.randomUUID().toString();
+
+    private final Map<RollupKey, Rollup> rollups = new ConcurrentHashMap<>();
+
+    private final Timer flushTimer;
+
+    private final Meter rollupsWritten;
+
+    private final Meter droppedFlows;
+
+    private boolean enabled = true;
+
+    // in ms
+    private long bucketSize = 300000;
+
+    private int capacity = 100;
+
+    // in ms
+    private long flushInterval = 60000;
+
+    // in ms
+    private long lateness = 600000;
+
+    private int bulkRetryCount = 5;
+
+    private ScheduledExecutorService executor;
+
+    public FlowRollupAggregator(final MetricRegistry metricRegistry, final JestClient client, final IndexStrategy indexStrategy,
+                                final IndexSettings indexSettings, final TemplateInitializer initializer) {
+        this.client = Objects.requireNonNull(client);
+        this.indexStrategy = Objects.requireNonNull(indexStrategy);
+        this.indexSettings = Objects.requireNonNull(indexSettings);
+        this.initializer = Objects.requireNonNull(initializer);
+        this.flushTimer = metricRegistry.timer("rollupFlush");
+        this.rollupsWritten = metricRegistry.meter("rollupsWritten");
+        this.droppedFlows = metricRegistry.meter("rollupDroppedFlows");
+        metricRegistry.register("rollupsInMemory", (Gauge<Integer>) rollups::size);
+    }
+
+    public void start() {
+        if (!enabled) {
+            LOG.info("Flow rollups are disabled.");
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("flows-rollup-flush-%d")
+                .build());
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.error("An error occurred while writing the flow rollups: {}", e.getMessage(), e);
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.warn("Failed to write the remaining flow rollups: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    public void setBucketSize(final long bucketSize) {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be positive");
+        }
+        this.bucketSize = bucketSize;
+    }
+
+    public void setCapacity(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setFlushInterval(final long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setLateness(final long lateness) {
+        this.lateness = lateness;
+    }
+
+    public void setBulkRetryCount(final int bulkRetryCount) {
+        this.bulkRetryCount = bulkRetryCount;
+    }
+
+    /**
+     * Adds the traffic of the given flows to the rollups.
+     */
+    public void aggregate(final Collection<FlowDocument> flows) {
+        aggregate(flows, System.currentTimeMillis());
+    }
+
+    void aggregate(final Collection<FlowDocument> flows, final long now) {
+        if (!enabled) {
+            return;
+        }
+        for (final FlowDocument flow : flows) {
+            if (!aggregate(flow, now)) {
+                droppedFlows.mark();
+            }
+        }
+    }
+
+    private boolean aggregate(final FlowDocument flow, final long now) {
+        if (flow.getBytes() == null || flow.getDirection() == null) {
+            return true;
+        }
+        final boolean ingress = flow.getDirection() == Direction.INGRESS;
+        final double bytes = flow.getBytes() * getMultiplier(flow.getSamplingInterval());
+
+        final long last = flow.getLastSwitched() != null ? flow.getLastSwitched() : flow.getTimestamp();
+        final long first = flow.getDeltaSwitched() != null ? Math.min(flow.getDeltaSwitched(), last) : last;
+        if (first > now + lateness) {
+            // Don't keep buckets for timestamps which are far in the future
+            return false;
+        }
+
+        boolean complete = true;
+        for (long bucket = floor(first, bucketSize); bucket <= last; bucket += bucketSize) {
+            if (isClosed(bucket, now)) {
+                // The bucket may already have been written and dropped from memory
+                complete = false;
+                continue;
+            }
+            // Distribute the bytes proportionally to the time spent in the bucket
+            final double share;
+            if (last == first) {
+                share = bytes;
+            } else {
+                share = bytes * (Math.min(last, bucket + bucketSize) - Math.max(first, bucket)) / (last - first);
+            }
+            if (share <= 0) {
+                continue;
+            }
+            complete &= aggregate(flow, bucket, ingress ? share : 0, ingress ? 0 : share);
+        }
+        return complete;
+    }
+
+    private boolean aggregate(final FlowDocument flow, final long bucket, final double bytesIn, final double bytesOut) {
+        final NodeDocument exporter = flow.getNodeExporter() != null && flow.getNodeExporter().getNodeId() != null
+                ? flow.getNodeExporter() : null;
+        final Integer ifIndex = flow.getDirection() == Direction.INGRESS ? flow.getInputSnmp() : flow.getOutputSnmp();
+
+        boolean complete = true;
+        for (final FlowRollup.Dimension dimension : FlowRollup.Dimension.values()) {
+            final List<String> keys = getKeys(flow, dimension);
+            if (keys.isEmpty()) {
+                continue;
+            }
+            complete &= add(new RollupKey(bucket, FlowRollup.Level.GLOBAL, null, null, dimension), null, keys, bytesIn, bytesOut);
+            if (exporter != null) {
+                complete &= add(new RollupKey(bucket, FlowRollup.Level.EXPORTER, exporter.getNodeId(), null, dimension),
+                        exporter, keys, bytesIn, bytesOut);
+                if (ifIndex != null && ifIndex != 0) {
+                    complete &= add(new RollupKey(bucket, FlowRollup.Level.INTERFACE, exporter.getNodeId(), ifIndex, dimension),
+                            exporter, keys, bytesIn, bytesOut);
+                }
+            }
+        }
+        return complete;
+    }
+
+    private boolean add(final RollupKey key, final NodeDocument exporter, final List<String> keys,
+                        final double bytesIn, final double bytesOut) {
+        final Rollup rollup = rollups.computeIfAbsent(key, k -> new Rollup(exporter, capacity));
+        synchronized (rollup) {
+            if (rollup.evicted) {
+                return false;
+            }
+            for (final String k : keys) {
+                rollup.sketch.add(k, bytesIn, bytesOut);
+            }
+            rollup.dirty = true;
+            return true;
+        }
+    }
+
+    /**
+     * A bucket is closed once the allowed lateness has passed since its end.
+     */
+    private boolean isClosed(final long bucket, final long now) {
+        return bucket + bucketSize + lateness < now;
+    }
+
+    private static List<String> getKeys(final FlowDocument flow, final FlowRollup.Dimension dimension) {
+        switch (dimension) {
+            case APPLICATION:
+                return Collections.singletonList(flow.getApplication() != null
+                        ? flow.getApplication() : ElasticFlowRepository.UNKNOWN_APPLICATION_NAME);
+            case HOST:
+                return flow.getHosts() != null ? new ArrayList<>(flow.getHosts()) : Collections.emptyList();
+            case CONVERSATION:
+                return flow.getConvoKey() != null ? Collections.singletonList(flow.getConvoKey()) : Collections.emptyList();
+            default:
+                throw new IllegalArgumentException("Unknown dimension: " + dimension);
+        }
+    }
+
+    private static double getMultiplier(final Double samplingInterval) {
+        return samplingInterval != null && samplingInterval > 1 ? samplingInterval : 1;
+    }
+
+    private static long floor(final long timestamp, final long size) {
+        return Math.floorDiv(timestamp, size) * size;
+    }
+
+    /**
+     * Writes the rollups which changed since the last flush and drops the closed buckets from memory.
+     */
+    public void flush() throws IOException {
+        final long now = System.currentTimeMillis();
+        final List<FlowRollup> changed = collect(now);
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (!initializer.isInitialized()) {
+            initializer.initialize();
+        }
+
+        try (Timer.Context ctx = flushTimer.time()) {
+            final BulkRequest<FlowRollup> bulkRequest = new BulkRequest<>(client, changed, (documents) -> {
+                final Bulk.Builder bulkBuilder = new Bulk.Builder();
+                for (final FlowRollup rollup : documents) {
+                    final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(rollup.getTimestamp()));
+                    bulkBuilder.addAction(new Index.Builder(rollup)
+                            .index(index)
+                            .id(getId(rollup))
+                            .build());
+                }
+                return new BulkWrapper(bulkBuilder);
+            }, bulkRetryCount);
+            try {
+                bulkRequest.execute();
+                rollupsWritten.mark(changed.size());
+            } catch (IOException ex) {
+                // Write the rollups again with the next flush, rewriting the ones which succeeded does no harm
+                markDirty(changed);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Returns the rollups which changed since the last call and evicts the buckets which are closed.
+     */
+    List<FlowRollup> collect(final long now) {
+        final List<FlowRollup> changed = new ArrayList<>();
+        for (final Map.Entry<RollupKey, Rollup> entry : rollups.entrySet()) {
+            final RollupKey key = entry.getKey();
+            final Rollup rollup = entry.getValue();
+            synchronized (rollup) {
+                if (rollup.dirty) {
+                    changed.add(rollup.toDocument(key, bucketSize, instance));
+                    rollup.dirty = false;
+                } else if (isClosed(key.bucket + bucketSize, now)) {
+                    // Wait for another bucket, so that no flows which were being aggregated
+                    // while the bucket was closed can re-create it
+                    rollup.evicted = true;
+                    rollups.remove(key, rollup);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void markDirty(final Collection<FlowRollup> documents) {
+        for (final FlowRollup document : documents) {
+            final Integer nodeId = document.getNodeExporter() != null ? document.getNodeExporter().getNodeId() : null;
+            final Rollup rollup = rollups.get(new RollupKey(document.getTimestamp(), document.getLevel(), nodeId,
+                    document.getIfIndex(), document.getDimension()));
+            if (rollup != null) {
+                synchronized (rollup) {
+                    rollup.dirty = true;
+                }
+            }
+        }
+    }
+
+    private static String getId(final FlowRollup rollup) {
+        final Integer nodeId = rollup.getNodeExporter() != null ? rollup.getNodeExporter().getNodeId() : null;
+        return String.format("%s-%d-%s-%s-%s-%s", rollup.getInstance(), rollup.getTimestamp(),
+                rollup.getLevel().name().toLowerCase(), nodeId, rollup.getIfIndex(), rollup.getDimension().getValue());
+    }
+
+    private static class Rollup {
+        private final NodeDocument exporter;
+        private final HeavyHitters sketch;
+        private boolean dirty;
+        private boolean evicted;
+
+        private Rollup(final NodeDocument exporter, final int capacity) {
+            this.exporter = exporter;
+            this.sketch = new HeavyHitters(capacity);
+        }
+
+        private FlowRollup toDocument(final RollupKey key, final long bucketSize, final String instance) {
+            final FlowRollup document = new FlowRollup();
+            document.setTimestamp(key.bucket);
+            document.setBucketSize(bucketSize);
+            document.setLevel(key.level);
+            document.setDimension(key.dimension);
+            if (exporter != null) {
+                final NodeDocument nodeExporter = new NodeDocument();
+                nodeExporter.setNodeId(exporter.getNodeId());
+                nodeExporter.setForeignSource(exporter.getForeignSource());
+                nodeExporter.setForeignId(exporter.getForeignId());
+                document.setNodeExporter(nodeExporter);
+            }
+            document.setIfIndex(key.ifIndex);
+            document.setBytesIn(sketch.getBytesIn());
+            document.setBytesOut(sketch.getBytesOut());
+            document.setMaxError(sketch.getMaxError());
+            document.setInstance(instance);
+            document.setEntries(sketch.getTop(sketch.getCapacity()).stream()
+                    .map(e -> new FlowRollup.Entry(e.getKey(), e.getBytesIn(), e.getBytesOut()))
+                    .collect(Collectors.toList()));
+            return document;
+        }
+    }
+
+    private static class RollupKey {
+        private final long bucket;
+        private final FlowRollup.Level level;
+        private final Integer nodeId;
+        private final Integer ifIndex;
+        private final FlowRollup.Dimension dimension;
+
+        private RollupKey(final long bucket, final FlowRollup.Level level, final Integer nodeId,
+                          final Integer ifIndex, final FlowRollup.Dimension dimension) {
+            this.bucket = bucket;
+            this.level = level;
+            this.nodeId = nodeId;
+            this.ifIndex = ifIndex;
+            this.dimension = dimension;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final RollupKey that = (RollupKey) o;
+            return bucket == that.bucket &&
+                    level == that.level &&
+                    Objects.equals(nodeId, that.nodeId) &&
+                    Objects.equals(ifIndex, that.ifIndex) &&
+                    dimension == that.dimension;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucket, level, nodeId, ifIndex, dimension);
+        }
+    }
+}
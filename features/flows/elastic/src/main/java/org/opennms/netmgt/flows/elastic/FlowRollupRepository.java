@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.features.jest.client.SearchResultUtils;
+import org.opennms.features.jest.client.index.IndexSelector;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.netmgt.flows.api.Directional;
+import org.opennms.netmgt.flows.api.TrafficSummary;
+import org.opennms.netmgt.flows.filter.api.ExporterNodeFilter;
+import org.opennms.netmgt.flows.filter.api.Filter;
+import org.opennms.netmgt.flows.filter.api.SnmpInterfaceIdFilter;
+import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+
+/**
+ * Answers the top N queries from the rollups written by the {@link FlowRollupAggregator}.
+ *
+ * Only coarse queries are answered: the time range must span at least the configured minimum
+ * range and the step of a series must be a multiple of the bucket size. The buckets are selected
+ * by their start, so the traffic at the edges of the time range is accounted for with the
+ * granularity of a bucket. If a query can not be answered, i.e. because the rollups do not go
+ * back far enough, an empty result is returned and the caller should fall back to the flow documents.
+ */
+public class FlowRollupRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRollupRepository.class);
+
+    private final JestClient client;
+
+    private final IndexStrategy indexStrategy;
+
+    private final IndexSettings indexSettings;
+
+    private final SearchQueryProvider searchQueryProvider = new SearchQueryProvider();
+
+    private boolean enabled = true;
+
+    // in ms
+    private long bucketSize = 300000;
+
+    // in ms
+    private long minRange = 21600000;
+
+    private IndexSelector indexSelector;
+
+    public FlowRollupRepository(final JestClient client, final IndexStrategy indexStrategy, final IndexSettings indexSettings) {
+        this.client = Objects.requireNonNull(client);
+        this.indexStrategy = Objects.requireNonNull(indexStrategy);
+        this.indexSettings = Objects.requireNonNull(indexSettings);
+        this.indexSelector = new IndexSelector(indexSettings, FlowRollupAggregator.INDEX_NAME, indexStrategy, bucketSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setBucketSize(final long bucketSize) {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be positive");
+        }
+        this.bucketSize = bucketSize;
+        // Include the index of the bucket the time range starts in
+        this.indexSelector = new IndexSelector(indexSettings, FlowRollupAggregator.INDEX_NAME, indexStrategy, bucketSize);
+    }
+
+    public void setMinRange(final long minRange) {
+        this.minRange = minRange;
+    }
+
+    /**
+     * Returns the traffic of the top N keys of the given dimension, ordered by their total traffic.
+     */
+    public CompletableFuture<Optional<List<TrafficSummary<String>>>> getTopNSummaries(final int N,
+                                                                                      final FlowRollup.Dimension dimension,
+                                                                                      final boolean includeOther,
+                                                                                      final List<Filter> filters) {
+        final TimeRangeFilter timeRangeFilter = getTimeRangeFilter(filters);
+        if (timeRangeFilter == null || N < 1) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return getTopN(N, dimension, timeRangeFilter, filters)
+                .thenApply(res -> res.map(topN -> {
+                    final List<TrafficSummary<String>> summaries = new ArrayList<>(topN.entries.size() + 1);
+                    double bytesIn = 0, bytesOut = 0;
+                    for (final FlowRollup.Entry entry : topN.entries) {
+                        summaries.add(TrafficSummary.from(entry.getKey())
+                                .withBytes(Math.round(entry.getBytesIn()), Math.round(entry.getBytesOut()))
+                                .build());
+                        bytesIn += entry.getBytesIn();
+                        bytesOut += entry.getBytesOut();
+                    }
+                    if (includeOther && topN.hits > 0) {
+                        summaries.add(TrafficSummary.from(ElasticFlowRepository.OTHER_NAME)
+                                .withBytes(Math.round(Math.max(0, topN.bytesIn - bytesIn)),
+                                        Math.round(Math.max(0, topN.bytesOut - bytesOut)))
+                                .build());
+                    }
+                    return summaries;
+                }));
+    }
+
+    /**
+     * Returns the series of the top N keys of the given dimension, with one column per step.
+     */
+    public CompletableFuture<Optional<Table<Directional<String>, Long, Double>>> getTopNSeries(final int N,
+                                                                                               final long step,
+                                                                                               final FlowRollup.Dimension dimension,
+                                                                                               final boolean includeOther,
+                                                                                               final List<Filter> filters) {
+        final TimeRangeFilter timeRangeFilter = getTimeRangeFilter(filters);
+        if (timeRangeFilter == null || N < 1 || step < bucketSize || step % bucketSize != 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return getTopN(N, dimension, timeRangeFilter, filters)
+                .thenCompose(res -> {
+                    if (!res.isPresent()) {
+                        return CompletableFuture.completedFuture(Optional.empty());
+                    }
+                    final List<String> topN = new ArrayList<>(res.get().entries.size());
+                    res.get().entries.forEach(e -> topN.add(e.getKey()));
+
+                    final String query = searchQueryProvider.getRollupSeriesQuery(topN, step, timeRangeFilter.getStart(),
+                            timeRangeFilter.getEnd(), getLevel(filters), dimension, bucketSize, filters);
+                    return searchAsync(query, timeRangeFilter)
+                            .thenApply(series -> Optional.of(TableUtils.sortTableByRowKeys(toTable(series, topN, includeOther), topN)));
+                });
+    }
+
+    private CompletableFuture<Optional<TopN>> getTopN(final int N, final FlowRollup.Dimension dimension,
+                                                      final TimeRangeFilter timeRangeFilter, final List<Filter> filters) {
+        if (!enabled || timeRangeFilter.getEnd() - timeRangeFilter.getStart() < minRange) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        final String query = searchQueryProvider.getRollupTopNQuery(N, getLevel(filters), dimension, bucketSize, filters);
+        return searchAsync(query, timeRangeFilter).thenApply(res -> {
+            final JsonObject aggs = res.getJsonObject().getAsJsonObject("aggregations");
+            final JsonElement firstBucket = SearchResultUtils.getPath(aggs, new String[]{"coverage", "rollups", "first_bucket", "value"});
+            if (firstBucket == null || firstBucket.isJsonNull()
+                    || firstBucket.getAsLong() > Math.floorDiv(timeRangeFilter.getStart(), bucketSize) * bucketSize) {
+                LOG.debug("The rollups do not cover the time range starting at {}.", timeRangeFilter.getStart());
+                return Optional.empty();
+            }
+
+            final TopN topN = new TopN();
+            topN.hits = SearchResultUtils.getTotal(res);
+            topN.bytesIn = getValue(aggs, "bytes_in");
+            topN.bytesOut = getValue(aggs, "bytes_out");
+            for (final JsonElement bucket : getBuckets(aggs, "entries", "grouped_by")) {
+                final JsonObject entry = bucket.getAsJsonObject();
+                topN.entries.add(new FlowRollup.Entry(entry.get("key").getAsString(),
+                        getValue(entry, "bytes_in"), getValue(entry, "bytes_out")));
+            }
+            return Optional.of(topN);
+        });
+    }
+
+    private static Table<Directional<String>, Long, Double> toTable(final SearchResult res, final List<String> topN,
+                                                                    final boolean includeOther) {
+        // Keep track of the values of all directions, to only add the rows of directions with traffic
+        final Map<Directional<String>, Map<Long, Double>> rows = new HashMap<>();
+        final List<Long> columns = new ArrayList<>();
+
+        final JsonObject aggs = res.getJsonObject().getAsJsonObject("aggregations");
+        for (final JsonElement histogramBucket : getBuckets(aggs, "series")) {
+            final JsonObject series = histogramBucket.getAsJsonObject();
+            final long time = series.get("key").getAsLong();
+            columns.add(time);
+
+            double bytesIn = 0, bytesOut = 0;
+            for (final JsonElement bucket : getBuckets(series, "entries", "grouped_by")) {
+                final JsonObject entry = bucket.getAsJsonObject();
+                final String key = entry.get("key").getAsString();
+                final double in = getValue(entry, "bytes_in");
+                final double out = getValue(entry, "bytes_out");
+                rows.computeIfAbsent(new Directional<>(key, true), k -> new HashMap<>()).put(time, in);
+                rows.computeIfAbsent(new Directional<>(key, false), k -> new HashMap<>()).put(time, out);
+                bytesIn += in;
+                bytesOut += out;
+            }
+            if (includeOther) {
+                rows.computeIfAbsent(new Directional<>(ElasticFlowRepository.OTHER_NAME, true), k -> new HashMap<>())
+                        .put(time, Math.max(0, getValue(series, "bytes_in") - bytesIn));
+                rows.computeIfAbsent(new Directional<>(ElasticFlowRepository.OTHER_NAME, false), k -> new HashMap<>())
+                        .put(time, Math.max(0, getValue(series, "bytes_out") - bytesOut));
+            }
+        }
+
+        final ImmutableTable.Builder<Directional<String>, Long, Double> builder = ImmutableTable.builder();
+        for (final Map.Entry<Directional<String>, Map<Long, Double>> row : rows.entrySet()) {
+            if (row.getValue().values().stream().noneMatch(v -> v > 0)) {
+                continue;
+            }
+            for (final Long column : columns) {
+                builder.put(row.getKey(), column, row.getValue().getOrDefault(column, 0d));
+            }
+        }
+        return builder.build();
+    }
+
+    private static FlowRollup.Level getLevel(final List<Filter> filters) {
+        if (filters.stream().anyMatch(f -> f instanceof SnmpInterfaceIdFilter)) {
+            return FlowRollup.Level.INTERFACE;
+        } else if (filters.stream().anyMatch(f -> f instanceof ExporterNodeFilter)) {
+            return FlowRollup.Level.EXPORTER;
+        }
+        return FlowRollup.Level.GLOBAL;
+    }
+
+    private static TimeRangeFilter getTimeRangeFilter(final List<Filter> filters) {
+        return filters.stream()
+                .filter(f -> f instanceof TimeRangeFilter)
+                .map(f -> (TimeRangeFilter) f)
+                .findFirst().orElse(null);
+    }
+
+    private static JsonArray getBuckets(final JsonObject aggs, final String... path) {
+        final String[] bucketsPath = new String[path.length + 1];
+        System.arraycopy(path, 0, bucketsPath, 0, path.length);
+        bucketsPath[path.length] = "buckets";
+        final JsonElement buckets = SearchResultUtils.getPath(aggs, bucketsPath);
+        return buckets != null && buckets.isJsonArray() ? buckets.getAsJsonArray() : new JsonArray();
+    }
+
+    private static double getValue(final JsonObject aggs, final String name) {
+        final JsonElement value = SearchResultUtils.getPath(aggs, new String[]{name, "value"});
+        return value != null && !value.isJsonNull() ? value.getAsDouble() : 0;
+    }
+
+    private CompletableFuture<SearchResult> searchAsync(final String query, final TimeRangeFilter timeRangeFilter) {
+        final List<String> indices = indexSelector.getIndexNames(timeRangeFilter.getStart(), timeRangeFilter.getEnd());
+        final Search search = new Search.Builder(query)
+                .addIndices(indices)
+                .setParameter("ignore_unavailable", "true")
+                .build();
+        LOG.debug("Executing asynchronous rollup query on {}: {}", indices, query);
+
+        final CompletableFuture<SearchResult> future = new CompletableFuture<>();
+        client.executeAsync(search, new JestResultHandler<SearchResult>() {
+            @Override
+            public void completed(SearchResult result) {
+                if (!result.isSucceeded()) {
+                    future.completeExceptionally(new Exception(result.getErrorMessage()));
+                } else {
+                    future.complete(result);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    private static class TopN {
+        private final List<FlowRollup.Entry> entries = new ArrayList<>();
+        private long hits;
+        private double bytesIn;
+        private double bytesOut;
+    }
+}
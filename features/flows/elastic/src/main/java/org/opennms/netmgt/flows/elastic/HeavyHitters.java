@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded summary of the bytes sent in and out per key, which keeps track of the keys
+ * with the most traffic, following the Space-Saving algorithm.
+ *
+ * Up to twice the capacity of keys are tracked. When this limit is exceeded, the keys with
+ * the lowest estimated traffic are dropped until the capacity is reached again, and the highest
+ * of their estimates becomes the error of the keys added afterwards. A key which was dropped
+ * may therefore have sent up to that much traffic before it was added again.
+ *
+ * The traffic recorded for a key is a lower bound: the actual traffic of a key is at least
+ * {@link Entry#getBytes()} and at most {@link Entry#getEstimate()}, which exceeds the former
+ * by at most {@link #getMaxError()} bytes. Keys which are not tracked sent at most
+ * {@link #getMaxError()} bytes. The keys are ranked by their estimate. The totals are always exact.
+ *
+ * Instances are not thread safe.
+ */
+class HeavyHitters {
+
+    private static final Comparator<Entry> BY_ESTIMATE_DESC = Comparator.comparingDouble(Entry::getEstimate).reversed()
+            .thenComparing(Entry::getKey);
+
+    private final int capacity;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private double bytesIn;
+
+    private double bytesOut;
+
+    private double maxError;
+
+    HeavyHitters(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds the given traffic to the key.
+     */
+    void add(final String key, final double bytesIn, final double bytesOut) {
+        Objects.requireNonNull(key);
+        this.bytesIn += bytesIn;
+        this.bytesOut += bytesOut;
+
+        // A key which is added again may have been dropped, and inherits the highest dropped estimate
+        final Entry entry = entries.computeIfAbsent(key, k -> new Entry(k, maxError));
+        entry.bytesIn += bytesIn;
+        entry.bytesOut += bytesOut;
+
+        if (entries.size() > 2 * capacity) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns the entries with the most traffic, ordered by their estimated traffic.
+     */
+    List<Entry> getTop(final int n) {
+        final List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(BY_ESTIMATE_DESC);
+        return sorted.size() > n ? new ArrayList<>(sorted.subList(0, n)) : sorted;
+    }
+
+    Entry get(final String key) {
+        return entries.get(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    double getBytesIn() {
+        return bytesIn;
+    }
+
+    double getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Returns the upper bound for the traffic of a key which is not accounted for.
+     */
+    double getMaxError() {
+        return maxError;
+    }
+
+    private void compact() {
+        final List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(BY_ESTIMATE_DESC);
+        for (final Entry dropped : sorted.subList(capacity, sorted.size())) {
+            maxError = Math.max(maxError, dropped.getEstimate());
+            entries.remove(dropped.key);
+        }
+    }
+
+    static class Entry {
+        private final String key;
+        private final double error;
+        private double bytesIn;
+        private double bytesOut;
+
+        private Entry(final String key, final double error) {
+            this.key = key;
+            this.error = error;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        double getBytesIn() {
+            return bytesIn;
+        }
+
+        double getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * Returns the traffic recorded since the key was added.
+         */
+        double getBytes() {
+            return bytesIn + bytesOut;
+        }
+
+        /**
+         * Returns the upper bound for the traffic that the key may have sent before it was added.
+         */
+        double getError() {
+            return error;
+        }
+
+        /**
+         * Returns the upper bound for the traffic of the key.
+         */
+        double getEstimate() {
+            return getBytes() + error;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.utils.AddressTable;
+import org.opennms.core.utils.LocationUtils;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.SessionUtils;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.model.OnmsCategory;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.PrimaryType;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Index of the node information used to enrich flows, keyed by location and IP address.
+ *
+ * The index is loaded from the database when it is started and is afterwards kept up to date
+ * by the node and interface events: the nodes referenced by these events are reloaded
+ * periodically, in a single transaction, and a new index is built from the loaded nodes.
+ * Lookups are done on an immutable snapshot and never access the database, so that
+ * addresses which are not known to any node are as cheap to look up as the known ones.
+ *
+ * If several nodes share an address, the node which is returned is the same as the one
+ * returned by {@link InterfaceToNodeCache#getFirstNodeId}, since their interfaces are ordered
+ * by {@link InterfaceToNodeCache#sortKey}.
+ */
+public class NodeInfoIndex implements EventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(NodeInfoIndex.class);
+
+    private static final List<String> UEIS = ImmutableList.of(
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LOCATION_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI);
+
+    private final NodeDao nodeDao;
+
+    private final SessionUtils sessionUtils;
+
+    private final Timer loadTimer;
+
+    private boolean enabled = true;
+
+    // in ms
+    private long updateInterval = 1000;
+
+    // in ms
+    private long fullSyncInterval = 0;
+
+    // Snapshot of the index, keyed by location
+    private volatile Map<String, AddressTable<NodeDocument>> tables = Collections.emptyMap();
+
+    // The indexed nodes, only accessed while holding the lock on this index
+    private final Map<Integer, IndexedNode> nodes = new HashMap<>();
+
+    // Nodes which need to be reloaded
+    private final Set<Integer> pendingNodes = ConcurrentHashMap.newKeySet();
+
+    private EventSubscriptionService eventSubscriptionService;
+
+    private ScheduledExecutorService executor;
+
+    private long lastFullSync;
+
+    public NodeInfoIndex(final MetricRegistry metricRegistry, final NodeDao nodeDao, final SessionUtils sessionUtils) {
+        this.nodeDao = Objects.requireNonNull(nodeDao);
+        this.sessionUtils = Objects.requireNonNull(sessionUtils);
+        this.loadTimer = metricRegistry.timer("nodeIndexLoadTime");
+        metricRegistry.register("nodeIndexSize", (Gauge<Integer>) this::size);
+    }
+
+    public void start() {
+        if (!enabled) {
+            LOG.info("The node index is disabled. Node information is retrieved using the node cache.");
+            return;
+        }
+        sync();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("flows-node-index-%d")
+                .build());
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                if (fullSyncInterval > 0 && System.currentTimeMillis() - lastFullSync >= fullSyncInterval) {
+                    sync();
+                } else {
+                    update();
+                }
+            } catch (Exception e) {
+                LOG.error("An error occurred while updating the node index: {}", e.getMessage(), e);
+            }
+        }, updateInterval, updateInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public synchronized void onBind(final EventSubscriptionService eventSubscriptionService, final Map properties) {
+        LOG.debug("bind called with {}: {}", eventSubscriptionService, properties);
+        if (eventSubscriptionService != null && this.eventSubscriptionService == null) {
+            this.eventSubscriptionService = eventSubscriptionService;
+            eventSubscriptionService.addEventListener(this, UEIS);
+        }
+    }
+
+    public synchronized void onUnbind(final EventSubscriptionService eventSubscriptionService, final Map properties) {
+        LOG.debug("Unbind called with {}: {}", eventSubscriptionService, properties);
+        if (eventSubscriptionService != null && eventSubscriptionService == this.eventSubscriptionService) {
+            eventSubscriptionService.removeEventListener(this, UEIS);
+            this.eventSubscriptionService = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setUpdateInterval(final long updateInterval) {
+        this.updateInterval = updateInterval;
+    }
+
+    public void setFullSyncInterval(final long fullSyncInterval) {
+        this.fullSyncInterval = fullSyncInterval;
+    }
+
+    /**
+     * Returns the node information for the given address, in its textual form.
+     */
+    public Optional<NodeDocument> lookup(final String location, final String ipAddress) {
+        final AddressTable<NodeDocument> table = tables.get(LocationUtils.getEffectiveLocationName(location));
+        if (table == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(table.get(ipAddress));
+    }
+
+    /**
+     * Returns the number of indexed addresses.
+     */
+    public int size() {
+        return tables.values().stream().mapToInt(AddressTable::size).sum();
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(final Event event) {
+        if (event.getNodeid() != null) {
+            pendingNodes.add(event.getNodeid().intValue());
+        }
+        if (EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(event.getUei())) {
+            addPendingNode(event.getParm(EventConstants.PARM_OLD_NODEID));
+            addPendingNode(event.getParm(EventConstants.PARM_NEW_NODEID));
+        }
+    }
+
+    private void addPendingNode(final Parm parm) {
+        if (parm == null || parm.getValue() == null) {
+            return;
+        }
+        try {
+            pendingNodes.add(Integer.parseInt(parm.getValue().getContent()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid node id in parameter {}: {}", parm.getParmName(), parm.getValue().getContent());
+        }
+    }
+
+    /**
+     * Reloads all of the nodes and rebuilds the index.
+     */
+    public synchronized void sync() {
+        // Changes which happen while loading are contained in the loaded nodes
+        pendingNodes.clear();
+        lastFullSync = System.currentTimeMillis();
+
+        try (Timer.Context ctx = loadTimer.time()) {
+            final Map<Integer, IndexedNode> loaded = sessionUtils.withReadOnlyTransaction(() -> {
+                final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
+                builder.ne("type", String.valueOf(OnmsNode.NodeType.DELETED.value()));
+
+                final Map<Integer, IndexedNode> result = new HashMap<>();
+                for (final OnmsNode node : nodeDao.findMatching(builder.toCriteria())) {
+                    result.put(node.getId(), IndexedNode.from(node));
+                }
+                return result;
+            });
+            nodes.clear();
+            nodes.putAll(loaded);
+            rebuild();
+        }
+        LOG.info("Loaded {} addresses of {} nodes into the node index.", size(), nodes.size());
+    }
+
+    /**
+     * Reloads the nodes changed since the last update and rebuilds the index, if there are any.
+     */
+    public synchronized void update() {
+        if (pendingNodes.isEmpty()) {
+            return;
+        }
+        final Set<Integer> nodeIds = new HashSet<>(pendingNodes);
+        pendingNodes.removeAll(nodeIds);
+
+        try (Timer.Context ctx = loadTimer.time()) {
+            sessionUtils.withReadOnlyTransaction(() -> {
+                for (final Integer nodeId : nodeIds) {
+                    final OnmsNode node = nodeDao.get(nodeId);
+                    if (node == null || node.getType() == OnmsNode.NodeType.DELETED) {
+                        nodes.remove(nodeId);
+                    } else {
+                        nodes.put(nodeId, IndexedNode.from(node));
+                    }
+                }
+                return null;
+            });
+            rebuild();
+        }
+        LOG.debug("Updated {} nodes in the node index.", nodeIds.size());
+    }
+
+    private void rebuild() {
+        // Determine the preferred node for every address
+        final Map<String, Map<InetAddress, IndexedInterface>> preferred = new HashMap<>();
+        for (final IndexedNode node : nodes.values()) {
+            final Map<InetAddress, IndexedInterface> interfaces = preferred.computeIfAbsent(node.location, l -> new HashMap<>());
+            for (final IndexedInterface iface : node.interfaces) {
+                interfaces.merge(iface.address, iface, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+
+        final Map<String, AddressTable<NodeDocument>> newTables = new HashMap<>();
+        for (final Map.Entry<String, Map<InetAddress, IndexedInterface>> entry : preferred.entrySet()) {
+            final int numIpv4 = (int) entry.getValue().keySet().stream().filter(a -> a instanceof Inet4Address).count();
+            final AddressTable<NodeDocument> table = new AddressTable<>(numIpv4, entry.getValue().size() - numIpv4);
+            for (final IndexedInterface iface : entry.getValue().values()) {
+                table.put(iface.address.getAddress(), iface.node.document);
+            }
+            newTables.put(entry.getKey(), table);
+        }
+        tables = newTables;
+    }
+
+    private static class IndexedNode {
+        private final String location;
+        private final NodeDocument document;
+        private final List<IndexedInterface> interfaces = new ArrayList<>();
+
+        private IndexedNode(final String location, final NodeDocument document) {
+            this.location = location;
+            this.document = document;
+        }
+
+        private static IndexedNode from(final OnmsNode node) {
+            final NodeDocument document = new NodeDocument();
+            document.setForeignSource(node.getForeignSource());
+            document.setForeignId(node.getForeignId());
+            document.setNodeId(node.getId());
+            document.setCategories(node.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+
+            final IndexedNode indexedNode = new IndexedNode(LocationUtils.getEffectiveLocationName(
+                    node.getLocation() != null ? node.getLocation().getLocationName() : null), document);
+            for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                // Skip deleted interfaces
+                if ("D".equals(iface.getIsManaged()) || iface.getIpAddress() == null) {
+                    continue;
+                }
+                indexedNode.interfaces.add(new IndexedInterface(indexedNode, iface.getIpAddress(), iface.getIsSnmpPrimary()));
+            }
+            return indexedNode;
+        }
+    }
+
+    private static class IndexedInterface implements Comparable<IndexedInterface> {
+        private final IndexedNode node;
+        private final InetAddress address;
+        private final long sortKey;
+
+        private IndexedInterface(final IndexedNode node, final InetAddress address, final PrimaryType type) {
+            this.node = node;
+            this.address = address;
+            this.sortKey = InterfaceToNodeCache.sortKey(node.document.getNodeId(), type);
+        }
+
+        @Override
+        public int compareTo(final IndexedInterface that) {
+            return Long.compare(this.sortKey, that.sortKey);
+        }
+    }
+}
@@ -170,6 +170,29 @@ public class SearchQueryProvider implements FilterVisitor<String> {
                 .build());
     }
 
+    public String getRollupTopNQuery(int N, FlowRollup.Level level, FlowRollup.Dimension dimension, long bucketSize,
+                                     List<Filter> filters) {
+        return render("rollup_top_n.ftl", ImmutableMap.builder()
+                .put("filters", getRollupFilterQueries(bucketSize, filters))
+                .put("N", N)
+                .put("level", level.name().toLowerCase())
+                .put("dimension", dimension.getValue())
+                .build());
+    }
+
+    public String getRollupSeriesQuery(Collection<String> from, long step, long start, long end, FlowRollup.Level level,
+                                       FlowRollup.Dimension dimension, long bucketSize, List<Filter> filters) {
+        return render("rollup_series.ftl", ImmutableMap.builder()
+                .put("filters", getRollupFilterQueries(bucketSize, filters))
+                .put("from", from)
+                .put("step", step)
+                .put("start", start)
+                .put("end", end)
+                .put("level", level.name().toLowerCase())
+                .put("dimension", dimension.getValue())
+                .build());
+    }
+
     private String render(String templateName, Map<Object, Object> context) {
         try {
             final StringWriter writer = new StringWriter();
@@ -187,6 +210,34 @@ public class SearchQueryProvider implements FilterVisitor<String> {
                 .collect(Collectors.toList());
     }
 
+    private List<String> getRollupFilterQueries(long bucketSize, List<Filter> filters) {
+        final FilterVisitor<String> rollupFilterVisitor = new FilterVisitor<String>() {
+            @Override
+            public String visit(ExporterNodeFilter exporterNodeFilter) {
+                // Rollups use the same fields as the flow documents for the exporter
+                return SearchQueryProvider.this.visit(exporterNodeFilter);
+            }
+
+            @Override
+            public String visit(TimeRangeFilter timeRangeFilter) {
+                return render("filter_rollup_time_range.ftl", ImmutableMap.builder()
+                        .put("start", Math.floorDiv(timeRangeFilter.getStart(), bucketSize) * bucketSize)
+                        .put("end", timeRangeFilter.getEnd())
+                        .build());
+            }
+
+            @Override
+            public String visit(SnmpInterfaceIdFilter snmpInterfaceIdFilter) {
+                return render("filter_rollup_snmp_interface.ftl", ImmutableMap.builder()
+                        .put("snmpInterfaceId", snmpInterfaceIdFilter.getSnmpInterfaceId())
+                        .build());
+            }
+        };
+        return filters.stream()
+                .map(f -> f.visit(rollupFilterVisitor))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public String visit(ExporterNodeFilter exporterNodeFilter) {
         return render("filter_exporter_node.ftl", ImmutableMap.builder()
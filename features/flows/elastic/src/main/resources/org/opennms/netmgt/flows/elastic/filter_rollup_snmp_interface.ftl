@@ -0,0 +1,6 @@
+<#-- Rollups of an interface contain the ingress traffic of its input and the egress traffic of its output -->
+{
+  "term": {
+    "if_index": ${snmpInterfaceId?long?c}
+  }
+}
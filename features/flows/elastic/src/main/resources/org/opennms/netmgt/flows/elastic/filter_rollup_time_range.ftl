@@ -0,0 +1,10 @@
+<#-- Rollups are selected by the start of their bucket -->
+{
+  "range": {
+    "@timestamp": {
+      "gte": ${start?long?c},
+      "lt": ${end?long?c},
+      "format": "epoch_millis"
+    }
+  }
+}
@@ -0,0 +1,31 @@
+<#-- The first bucket for which rollups were written, regardless of the filters -->
+"coverage": {
+  "global": {},
+  "aggs": {
+    "rollups": {
+      "filter": {
+        "bool": {
+          "filter": [
+            {
+              "term": {
+                "level": "${level?json_string}"
+              }
+            },
+            {
+              "term": {
+                "dimension": "${dimension?json_string}"
+              }
+            }
+          ]
+        }
+      },
+      "aggs": {
+        "first_bucket": {
+          "min": {
+            "field": "@timestamp"
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+{
+  "size": 0,
+  "query": {
+    "bool": {
+      "filter": [
+        {
+          "term": {
+            "level": "${level?json_string}"
+          }
+        },
+        {
+          "term": {
+            "dimension": "${dimension?json_string}"
+          }
+        },
+        <#list filters as filter>${filter}<#sep>,</#list>
+      ]
+    }
+  },
+  "aggs": {
+    <#include "rollup_coverage.ftl">,
+    "series": {
+      "date_histogram": {
+        "field": "@timestamp",
+        "fixed_interval": "${step?long?c}ms",
+        "min_doc_count": 0,
+        "extended_bounds": {
+          "min": ${start?long?c},
+          "max": ${end?long?c}
+        }
+      },
+      "aggs": {
+        "bytes_in": {
+          "sum": {
+            "field": "bytes_in"
+          }
+        },
+        "bytes_out": {
+          "sum": {
+            "field": "bytes_out"
+          }
+        },
+        "entries": {
+          "nested": {
+            "path": "entries"
+          },
+          "aggs": {
+            "grouped_by": {
+              "terms": {
+                "field": "entries.key",
+                "include": [<#list from as fromTerm>"${fromTerm?json_string}"<#sep>,</#list>],
+                "size": ${from?size?long?c}
+              },
+              "aggs": {
+                "bytes_in": {
+                  "sum": {
+                    "field": "entries.bytes_in"
+                  }
+                },
+                "bytes_out": {
+                  "sum": {
+                    "field": "entries.bytes_out"
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+{
+  "size": 0,
+  "query": {
+    "bool": {
+      "filter": [
+        {
+          "term": {
+            "level": "${level?json_string}"
+          }
+        },
+        {
+          "term": {
+            "dimension": "${dimension?json_string}"
+          }
+        },
+        <#list filters as filter>${filter}<#sep>,</#list>
+      ]
+    }
+  },
+  "aggs": {
+    <#include "rollup_coverage.ftl">,
+    "bytes_in": {
+      "sum": {
+        "field": "bytes_in"
+      }
+    },
+    "bytes_out": {
+      "sum": {
+        "field": "bytes_out"
+      }
+    },
+    "entries": {
+      "nested": {
+        "path": "entries"
+      },
+      "aggs": {
+        "grouped_by": {
+          "terms": {
+            "field": "entries.key",
+            "size": ${N?long?c},
+            "order": {
+              "bytes": "desc"
+            }
+          },
+          "aggs": {
+            "bytes": {
+              "sum": {
+                "field": "entries.bytes"
+              }
+            },
+            "bytes_in": {
+              "sum": {
+                "field": "entries.bytes_in"
+              }
+            },
+            "bytes_out": {
+              "sum": {
+                "field": "entries.bytes_out"
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
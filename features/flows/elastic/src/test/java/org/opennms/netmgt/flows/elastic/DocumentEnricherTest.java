@@ -29,6 +29,7 @@
 package org.opennms.netmgt.flows.elastic;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -36,25 +37,33 @@ import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opennms.core.cache.CacheConfigBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.mock.MockSessionUtils;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.flows.api.FlowSource;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.events.EventBuilder;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 
 public class DocumentEnricherTest {
 
+    private MockDocumentEnricherFactory factory;
     private DocumentEnricher enricher;
+    private NodeDao nodeDao;
     private AtomicInteger nodeDaoGetCounter;
 
     @Before
     public void setUp() {
-        final MockDocumentEnricherFactory factory = new MockDocumentEnricherFactory();
+        factory = new MockDocumentEnricherFactory();
         enricher = factory.getEnricher();
-        final NodeDao nodeDao = factory.getNodeDao();
+        nodeDao = factory.getNodeDao();
         final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
         nodeDaoGetCounter = factory.getNodeDaoGetCounter();
 
@@ -78,6 +87,57 @@ public class DocumentEnricherTest {
         assertEquals(6, nodeDaoGetCounter.get());
     }
 
+    @Test
+    public void verifyNodeIndexUsage() {
+        for (int nodeId = 1; nodeId <= 3; nodeId++) {
+            new OnmsIpInterface(InetAddressUtils.addr("10.0.0." + nodeId), nodeDao.get(nodeId));
+        }
+        final NodeInfoIndex index = new NodeInfoIndex(new MetricRegistry(), nodeDao, new MockSessionUtils());
+        index.sync();
+        assertEquals(3, index.size());
+
+        final DocumentEnricher indexedEnricher = new DocumentEnricher(new MetricRegistry(), nodeDao, factory.getInterfaceToNodeCache(),
+                new MockSessionUtils(), factory.getClassificationEngine(),
+                new CacheConfigBuilder().withName("flows.node").withMaximumSize(1000).withExpireAfterWrite(300).build(),
+                index);
+        final FlowSource source = new FlowSource("Default", "10.0.0.1", null);
+
+        final List<FlowDocument> documents = Lists.newArrayList();
+        documents.add(createFlowDocument("10.0.0.1", "10.0.0.2"));
+        documents.add(createFlowDocument("10.0.0.1", "10.0.0.3"));
+        documents.add(createFlowDocument("10.0.0.2", "192.0.2.1"));
+
+        final int numGets = nodeDaoGetCounter.get();
+        List<FlowDocument> enriched = indexedEnricher.enrich(documents.stream().map(TestFlow::new).collect(Collectors.toList()), source);
+
+        // The nodes are never loaded while enriching
+        assertEquals(numGets, nodeDaoGetCounter.get());
+        assertEquals(Integer.valueOf(1), enriched.get(0).getNodeExporter().getNodeId());
+        assertEquals(Integer.valueOf(1), enriched.get(0).getNodeSrc().getNodeId());
+        assertEquals(Integer.valueOf(2), enriched.get(0).getNodeDst().getNodeId());
+        assertEquals(Integer.valueOf(3), enriched.get(1).getNodeDst().getNodeId());
+        assertEquals(Integer.valueOf(2), enriched.get(2).getNodeSrc().getNodeId());
+        assertNull(enriched.get(2).getNodeDst());
+
+        // Add the unknown address to a node, the index is updated once the event was received
+        new OnmsIpInterface(InetAddressUtils.addr("192.0.2.1"), nodeDao.get(3));
+        index.update();
+        assertNull(index.lookup("Default", "192.0.2.1").orElse(null));
+
+        index.onEvent(new EventBuilder(EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI, "test")
+                .setNodeid(3)
+                .setInterface(InetAddressUtils.addr("192.0.2.1"))
+                .getEvent());
+        index.update();
+        assertEquals(4, index.size());
+
+        enriched = indexedEnricher.enrich(documents.stream().map(TestFlow::new).collect(Collectors.toList()), source);
+        assertEquals(Integer.valueOf(3), enriched.get(2).getNodeDst().getNodeId());
+
+        // Addresses are only known at the location of their node
+        assertNull(index.lookup("Somewhere", "10.0.0.1").orElse(null));
+    }
+
     private static FlowDocument createFlowDocument(String sourceIp, String destIp) {
         final FlowDocument document = new FlowDocument();
         document.setSrcAddr(sourceIp);
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.features.jest.client.template.TemplateInitializer;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.searchbox.client.JestClient;
+
+public class FlowRollupAggregatorTest {
+
+    private static final long BUCKET_SIZE = 60000;
+
+    private static final long NOW = 1000 * BUCKET_SIZE;
+
+    private FlowRollupAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        aggregator = new FlowRollupAggregator(new MetricRegistry(), mock(JestClient.class), IndexStrategy.MONTHLY,
+                new IndexSettings(), mock(TemplateInitializer.class));
+        aggregator.setBucketSize(BUCKET_SIZE);
+        aggregator.setCapacity(10);
+        aggregator.setLateness(BUCKET_SIZE);
+    }
+
+    @Test
+    public void testAggregatesPerLevelAndDimension() {
+        aggregator.aggregate(Collections.singletonList(flow("http", Direction.INGRESS, NOW - 50000, NOW - 40000, 100)), NOW);
+
+        final List<FlowRollup> rollups = aggregator.collect(NOW);
+        // Three levels for each of the three dimensions
+        assertEquals(9, rollups.size());
+
+        final FlowRollup global = find(rollups, FlowRollup.Level.GLOBAL, FlowRollup.Dimension.APPLICATION);
+        assertEquals(NOW - BUCKET_SIZE, global.getTimestamp());
+        assertNull(global.getNodeExporter());
+        assertEquals(100, global.getBytesIn(), 0);
+        assertEquals(0, global.getBytesOut(), 0);
+        assertEquals("http", global.getEntries().get(0).getKey());
+
+        final FlowRollup iface = find(rollups, FlowRollup.Level.INTERFACE, FlowRollup.Dimension.HOST);
+        assertEquals(Integer.valueOf(1), iface.getNodeExporter().getNodeId());
+        assertEquals(Integer.valueOf(2), iface.getIfIndex());
+        assertEquals(2, iface.getEntries().size());
+        assertEquals(100, iface.getEntries().get(0).getBytesIn(), 0);
+
+        // Nothing changed since the last flush
+        assertTrue(aggregator.collect(NOW).isEmpty());
+    }
+
+    @Test
+    public void testDistributesBytesOverBuckets() {
+        // Spans the last 15 seconds of one and the first 5 seconds of the next bucket
+        aggregator.aggregate(Collections.singletonList(flow(null, Direction.EGRESS, NOW - 15000, NOW + 5000, 200)), NOW);
+
+        final Map<Long, FlowRollup> buckets = aggregator.collect(NOW).stream()
+                .filter(r -> r.getLevel() == FlowRollup.Level.GLOBAL && r.getDimension() == FlowRollup.Dimension.APPLICATION)
+                .collect(Collectors.toMap(FlowRollup::getTimestamp, Function.identity()));
+        assertEquals(2, buckets.size());
+        assertEquals(150, buckets.get(NOW - BUCKET_SIZE).getBytesOut(), 0.001);
+        assertEquals(50, buckets.get(NOW).getBytesOut(), 0.001);
+        assertEquals(ElasticFlowRepository.UNKNOWN_APPLICATION_NAME, buckets.get(NOW).getEntries().get(0).getKey());
+    }
+
+    @Test
+    public void testClosesOldBuckets() {
+        aggregator.aggregate(Collections.singletonList(flow("http", Direction.INGRESS, NOW - 50000, NOW - 40000, 100)), NOW);
+        assertEquals(9, aggregator.collect(NOW).size());
+
+        // The bucket is dropped from memory once it is closed
+        final long later = NOW + 3 * BUCKET_SIZE;
+        assertTrue(aggregator.collect(later).isEmpty());
+
+        // Late flows for the bucket are discarded instead of overwriting the written rollups
+        aggregator.aggregate(Collections.singletonList(flow("http", Direction.INGRESS, NOW - 50000, NOW - 40000, 100)), later);
+        assertTrue(aggregator.collect(later).isEmpty());
+    }
+
+    private static FlowRollup find(List<FlowRollup> rollups, FlowRollup.Level level, FlowRollup.Dimension dimension) {
+        return rollups.stream()
+                .filter(r -> r.getLevel() == level && r.getDimension() == dimension)
+                .findFirst().get();
+    }
+
+    private static FlowDocument flow(String application, Direction direction, long first, long last, long bytes) {
+        final NodeDocument exporter = new NodeDocument();
+        exporter.setNodeId(1);
+
+        final FlowDocument flow = new FlowDocument();
+        flow.setTimestamp(last);
+        flow.setDeltaSwitched(first);
+        flow.setLastSwitched(last);
+        flow.setBytes(bytes);
+        flow.setDirection(direction);
+        flow.setApplication(application);
+        flow.addHost("10.0.0.1");
+        flow.addHost("10.0.0.2");
+        flow.setConvoKey("[\"Default\",6,\"10.0.0.1\",\"10.0.0.2\",\"http\"]");
+        flow.setNodeExporter(exporter);
+        flow.setInputSnmp(2);
+        flow.setOutputSnmp(3);
+        return flow;
+    }
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.test.elastic.ElasticSearchRule;
+import org.opennms.core.test.elastic.ElasticSearchServerConfig;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.elasticsearch.plugin.DriftPlugin;
+import org.opennms.features.jest.client.RestClientFactory;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.netmgt.dao.mock.MockNodeDao;
+import org.opennms.netmgt.dao.mock.MockSessionUtils;
+import org.opennms.netmgt.dao.mock.MockSnmpInterfaceDao;
+import org.opennms.netmgt.flows.api.Directional;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowSource;
+import org.opennms.netmgt.flows.filter.api.ExporterNodeFilter;
+import org.opennms.netmgt.flows.filter.api.Filter;
+import org.opennms.netmgt.flows.filter.api.NodeCriteria;
+import org.opennms.netmgt.flows.filter.api.SnmpInterfaceIdFilter;
+import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
+import org.opennms.netmgt.model.OnmsNode;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+
+import io.searchbox.client.JestClient;
+
+/**
+ * Verifies that the top N queries answered from the rollups match the ones answered from the flow documents.
+ */
+public class FlowRollupIT {
+
+    private static final long BUCKET_SIZE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int EXPORTER_NODE_ID = 1;
+
+    @Rule
+    public ElasticSearchRule elasticSearchRule = new ElasticSearchRule(new ElasticSearchServerConfig()
+            .withPlugins(DriftPlugin.class));
+
+    private ElasticFlowRepository rawRepository;
+
+    private ElasticFlowRepository rollupFlowRepository;
+
+    private FlowRollupAggregator rollupAggregator;
+
+    private FlowRollupRepository rollupRepository;
+
+    /**
+     * The start of the first bucket containing flows.
+     */
+    private long start;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "DEBUG");
+        final MockDocumentEnricherFactory mockDocumentEnricherFactory = new MockDocumentEnricherFactory();
+
+        // Resolve the exporter, so that the rollups of the exporter and its interfaces are written
+        mockDocumentEnricherFactory.getInterfaceToNodeCache().setNodeId("test", InetAddressUtils.addr("127.0.0.1"), EXPORTER_NODE_ID);
+        final OnmsNode exporter = new OnmsNode();
+        exporter.setId(EXPORTER_NODE_ID);
+        exporter.setForeignSource("SomeFs");
+        exporter.setForeignId("SomeFid");
+        mockDocumentEnricherFactory.getNodeDao().save(exporter);
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final JestClient client = new RestClientFactory(elasticSearchRule.getUrl()).createClient();
+
+        rawRepository = createRepository(metricRegistry, client, mockDocumentEnricherFactory);
+        rollupFlowRepository = createRepository(metricRegistry, client, mockDocumentEnricherFactory);
+
+        final FlowRollupInitializer rollupInitializer = new FlowRollupInitializer(client);
+        rollupAggregator = new FlowRollupAggregator(metricRegistry, client, IndexStrategy.MONTHLY, new IndexSettings(), rollupInitializer);
+        rollupAggregator.setBucketSize(BUCKET_SIZE);
+        // Keep all the buckets of the test in memory until they are flushed
+        rollupAggregator.setLateness(TimeUnit.HOURS.toMillis(1));
+        rollupRepository = new FlowRollupRepository(client, IndexStrategy.MONTHLY, new IndexSettings());
+        rollupRepository.setBucketSize(BUCKET_SIZE);
+        rollupRepository.setMinRange(2 * BUCKET_SIZE);
+        rollupFlowRepository.setRollupAggregator(rollupAggregator);
+        rollupFlowRepository.setRollupRepository(rollupRepository);
+
+        new ElasticFlowRepositoryInitializer(client, new IndexSettings()).initialize();
+        rollupInitializer.initialize();
+
+        // Align the flows to steps of two buckets, which are compared as well
+        start = Math.floorDiv(System.currentTimeMillis(), 2 * BUCKET_SIZE) * 2 * BUCKET_SIZE - 4 * BUCKET_SIZE;
+        loadFlows();
+    }
+
+    @Test
+    public void canGetTopNSummariesFromRollups() throws Exception {
+        for (final List<Filter> filters : getFilterCombinations(start, start + 4 * BUCKET_SIZE)) {
+            // Make sure the answers really come from the rollups
+            for (final FlowRollup.Dimension dimension : FlowRollup.Dimension.values()) {
+                assertTrue(rollupRepository.getTopNSummaries(1, dimension, false, filters).get().isPresent());
+            }
+
+            for (int N = 1; N <= 3; N++) {
+                // Applications and conversations have a single key per flow, so the remainder is comparable
+                for (final boolean includeOther : Arrays.asList(false, true)) {
+                    assertThat(rollupFlowRepository.getTopNApplicationSummaries(N, includeOther, filters).get(),
+                            equalTo(rawRepository.getTopNApplicationSummaries(N, includeOther, filters).get()));
+                    assertThat(rollupFlowRepository.getTopNConversationSummaries(N, includeOther, filters).get(),
+                            equalTo(rawRepository.getTopNConversationSummaries(N, includeOther, filters).get()));
+                }
+            }
+
+            // Hosts of the same conversation share the same traffic, so their order is not defined
+            final List<?> rawHosts = rawRepository.getTopNHostSummaries(10, false, filters).get();
+            assertThat(rollupFlowRepository.getTopNHostSummaries(10, false, filters).get(), containsInAnyOrder(rawHosts.toArray()));
+        }
+    }
+
+    @Test
+    public void canGetTopNSeriesFromRollups() throws Exception {
+        for (final List<Filter> filters : getFilterCombinations(start, start + 4 * BUCKET_SIZE)) {
+            for (final FlowRollup.Dimension dimension : FlowRollup.Dimension.values()) {
+                assertTrue(rollupRepository.getTopNSeries(2, BUCKET_SIZE, dimension, true, filters).get().isPresent());
+            }
+
+            for (final long step : Arrays.asList(BUCKET_SIZE, 2 * BUCKET_SIZE)) {
+                for (final boolean includeOther : Arrays.asList(false, true)) {
+                    assertSameSeries(rollupFlowRepository.getTopNApplicationSeries(2, step, includeOther, filters).get(),
+                            rawRepository.getTopNApplicationSeries(2, step, includeOther, filters).get());
+                    assertSameSeries(rollupFlowRepository.getTopNConversationSeries(2, step, includeOther, filters).get(),
+                            rawRepository.getTopNConversationSeries(2, step, includeOther, filters).get());
+                }
+                assertSameSeries(rollupFlowRepository.getTopNHostSeries(10, step, false, filters).get(),
+                        rawRepository.getTopNHostSeries(10, step, false, filters).get());
+            }
+        }
+    }
+
+    @Test
+    public void canFallBackToFlowDocuments() throws Exception {
+        // The range starts before the first bucket for which rollups were written
+        final List<Filter> uncovered = Lists.newArrayList(new TimeRangeFilter(start - BUCKET_SIZE, start + 4 * BUCKET_SIZE));
+        assertFalse(rollupRepository.getTopNSummaries(10, FlowRollup.Dimension.APPLICATION, false, uncovered).get().isPresent());
+        assertFalse(rollupRepository.getTopNSeries(10, BUCKET_SIZE, FlowRollup.Dimension.APPLICATION, false, uncovered).get().isPresent());
+        assertThat(rollupFlowRepository.getTopNApplicationSummaries(10, true, uncovered).get(),
+                equalTo(rawRepository.getTopNApplicationSummaries(10, true, uncovered).get()));
+        assertSameSeries(rollupFlowRepository.getTopNApplicationSeries(10, BUCKET_SIZE, true, uncovered).get(),
+                rawRepository.getTopNApplicationSeries(10, BUCKET_SIZE, true, uncovered).get());
+
+        // The range is shorter than the minimum range
+        final List<Filter> tooShort = Lists.newArrayList(new TimeRangeFilter(start + BUCKET_SIZE, start + 2 * BUCKET_SIZE));
+        assertFalse(rollupRepository.getTopNSummaries(10, FlowRollup.Dimension.APPLICATION, false, tooShort).get().isPresent());
+        assertThat(rollupFlowRepository.getTopNApplicationSummaries(10, true, tooShort).get(),
+                equalTo(rawRepository.getTopNApplicationSummaries(10, true, tooShort).get()));
+
+        // The step is not a multiple of the bucket size
+        final List<Filter> covered = Lists.newArrayList(new TimeRangeFilter(start, start + 4 * BUCKET_SIZE));
+        assertFalse(rollupRepository.getTopNSeries(10, BUCKET_SIZE / 2, FlowRollup.Dimension.APPLICATION, false, covered).get().isPresent());
+        assertSameSeries(rollupFlowRepository.getTopNApplicationSeries(10, BUCKET_SIZE / 2, true, covered).get(),
+                rawRepository.getTopNApplicationSeries(10, BUCKET_SIZE / 2, true, covered).get());
+    }
+
+    private static ElasticFlowRepository createRepository(final MetricRegistry metricRegistry, final JestClient client,
+                                                          final MockDocumentEnricherFactory mockDocumentEnricherFactory) {
+        return new ElasticFlowRepository(metricRegistry, client, IndexStrategy.MONTHLY, mockDocumentEnricherFactory.getEnricher(),
+                mockDocumentEnricherFactory.getClassificationEngine(), new MockSessionUtils(), new MockNodeDao(), new MockSnmpInterfaceDao(),
+                new MockIdentity(), new MockTracerRegistry(), new IndexSettings(), 3, 12000);
+    }
+
+    private static List<List<Filter>> getFilterCombinations(final long start, final long end) {
+        return Arrays.asList(
+                Lists.newArrayList(new TimeRangeFilter(start, end)),
+                Lists.newArrayList(new TimeRangeFilter(start, end), new ExporterNodeFilter(new NodeCriteria(EXPORTER_NODE_ID))),
+                Lists.newArrayList(new TimeRangeFilter(start, end), new ExporterNodeFilter(new NodeCriteria(EXPORTER_NODE_ID)),
+                        new SnmpInterfaceIdFilter(98)));
+    }
+
+    /**
+     * Compares the cells with traffic, since the flow documents may yield additional empty rows and columns.
+     */
+    private static <T> void assertSameSeries(final Table<Directional<T>, Long, Double> actual,
+                                             final Table<Directional<T>, Long, Double> expected) {
+        final Map<Directional<T>, Map<Long, Double>> actualCells = getCellsWithTraffic(actual);
+        final Map<Directional<T>, Map<Long, Double>> expectedCells = getCellsWithTraffic(expected);
+        assertThat(actualCells.keySet(), equalTo(expectedCells.keySet()));
+        for (final Map.Entry<Directional<T>, Map<Long, Double>> row : expectedCells.entrySet()) {
+            final Map<Long, Double> actualRow = actualCells.get(row.getKey());
+            assertThat(actualRow.keySet(), equalTo(row.getValue().keySet()));
+            for (final Map.Entry<Long, Double> cell : row.getValue().entrySet()) {
+                assertEquals(cell.getValue(), actualRow.get(cell.getKey()), 0.01);
+            }
+        }
+    }
+
+    private static <T> Map<Directional<T>, Map<Long, Double>> getCellsWithTraffic(final Table<Directional<T>, Long, Double> table) {
+        final Map<Directional<T>, Map<Long, Double>> cells = new HashMap<>();
+        for (final Table.Cell<Directional<T>, Long, Double> cell : table.cellSet()) {
+            if (cell.getValue() != null && cell.getValue() > 0.01) {
+                cells.computeIfAbsent(cell.getRowKey(), k -> new HashMap<>()).put(cell.getColumnKey(), cell.getValue());
+            }
+        }
+        return cells;
+    }
+
+    private void loadFlows() throws Exception {
+        final List<FlowDocument> documents = new FlowBuilder()
+                .withSnmpInterfaceId(98)
+                // 192.168.1.100:43444 <-> 10.1.1.11:80 (110 bytes)
+                .withDirection(Direction.INGRESS)
+                .withFlow(at(0, 1), at(0, 20), "192.168.1.100", 43444, "10.1.1.11", 80, 10)
+                .withDirection(Direction.EGRESS)
+                .withFlow(at(0, 1), at(0, 20), "10.1.1.11", 80, "192.168.1.100", 43444, 100)
+                // 192.168.1.100:43445 <-> 10.1.1.12:443 (1300 bytes)
+                .withDirection(Direction.INGRESS)
+                .withFlow(at(1, 5), at(1, 30), "192.168.1.100", 43445, "10.1.1.12", 443, 300)
+                .withDirection(Direction.EGRESS)
+                .withFlow(at(1, 5), at(1, 30), "10.1.1.12", 443, "192.168.1.100", 43445, 1000)
+                // 192.168.1.102:50000 <-> 10.1.1.13:50001 (2070 bytes)
+                .withDirection(Direction.INGRESS)
+                .withFlow(at(2, 10), at(2, 50), "192.168.1.102", 50000, "10.1.1.13", 50001, 2000)
+                .withDirection(Direction.EGRESS)
+                .withFlow(at(2, 10), at(2, 50), "10.1.1.13", 50001, "192.168.1.102", 50000, 70)
+                // 192.168.1.103:43446 <-> 10.1.1.11:80 (40 bytes)
+                .withDirection(Direction.INGRESS)
+                .withFlow(at(3, 0), at(3, 5), "192.168.1.103", 43446, "10.1.1.11", 80, 40)
+                // Traffic on another interface
+                .withSnmpInterfaceId(97)
+                // 192.168.1.101:43442 <-> 10.1.1.12:443 (1210 bytes)
+                .withDirection(Direction.INGRESS)
+                .withFlow(at(2, 0), at(2, 40), "192.168.1.101", 43442, "10.1.1.12", 443, 110)
+                .withDirection(Direction.EGRESS)
+                .withFlow(at(2, 0), at(2, 40), "10.1.1.12", 443, "192.168.1.101", 43442, 1100)
+                // 192.168.1.104:43447 <-> 10.1.1.14:80 (5000 bytes)
+                .withFlow(at(3, 20), at(3, 40), "10.1.1.14", 80, "192.168.1.104", 43447, 5000)
+                .build();
+
+        final List<Flow> flows = documents.stream().map(TestFlow::new).collect(Collectors.toList());
+        rollupFlowRepository.persist(flows, new FlowSource("test", "127.0.0.1", null));
+        rollupAggregator.flush();
+
+        // Wait until both the flows and the rollups are searchable
+        final List<Filter> filters = Lists.newArrayList(new TimeRangeFilter(start, start + 4 * BUCKET_SIZE));
+        await().atMost(60, TimeUnit.SECONDS).until(() -> rawRepository.getFlowCount(filters).get(), equalTo((long) flows.size()));
+        for (final List<Filter> combination : getFilterCombinations(start, start + 4 * BUCKET_SIZE)) {
+            for (final FlowRollup.Dimension dimension : FlowRollup.Dimension.values()) {
+                await().atMost(60, TimeUnit.SECONDS).until(() -> rollupRepository.getTopNSummaries(1, dimension, false, combination).get()
+                        .map(List::size).orElse(0), equalTo(1));
+            }
+        }
+        assertThat(rawRepository.getTopNApplicationSummaries(10, false, filters).get(), hasSize(3));
+    }
+
+    /**
+     * Returns the given offset in seconds within the given bucket.
+     */
+    private Date at(final int bucket, final int seconds) {
+        return new Date(start + bucket * BUCKET_SIZE + TimeUnit.SECONDS.toMillis(seconds));
+    }
+}
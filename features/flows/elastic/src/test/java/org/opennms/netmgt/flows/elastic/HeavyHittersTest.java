@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void testExactBelowCapacity() {
+        final HeavyHitters sketch = new HeavyHitters(3);
+        sketch.add("a", 10, 0);
+        sketch.add("b", 0, 20);
+        sketch.add("a", 5, 5);
+
+        assertEquals(2, sketch.size());
+        assertEquals(15, sketch.get("a").getBytesIn(), 0);
+        assertEquals(5, sketch.get("a").getBytesOut(), 0);
+        assertEquals(15, sketch.getBytesIn(), 0);
+        assertEquals(25, sketch.getBytesOut(), 0);
+        assertEquals(0, sketch.getMaxError(), 0);
+
+        final List<String> top = sketch.getTop(1).stream().map(HeavyHitters.Entry::getKey).collect(Collectors.toList());
+        assertEquals(1, top.size());
+        assertEquals("a", top.get(0));
+    }
+
+    @Test
+    public void testHeavyHittersSurviveCompaction() {
+        final HeavyHitters sketch = new HeavyHitters(2);
+        sketch.add("heavy1", 1000, 0);
+        sketch.add("heavy2", 0, 500);
+        for (int i = 0; i < 100; i++) {
+            sketch.add("light" + i, 1, 1);
+        }
+
+        // The number of keys is bounded, while the totals are exact
+        assertEquals(true, sketch.size() <= 4);
+        assertEquals(1100, sketch.getBytesIn(), 0);
+        assertEquals(600, sketch.getBytesOut(), 0);
+        assertTrue(sketch.getMaxError() >= 2);
+
+        final List<String> top = sketch.getTop(2).stream().map(HeavyHitters.Entry::getKey).collect(Collectors.toList());
+        assertEquals("heavy1", top.get(0));
+        assertEquals("heavy2", top.get(1));
+        assertEquals(1000, sketch.get("heavy1").getBytes(), 0);
+        assertNull(sketch.get("light0"));
+    }
+
+    @Test
+    public void testErrorBound() {
+        final HeavyHitters sketch = new HeavyHitters(10);
+        final Map<String, Double> exact = new HashMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Skewed distribution of the keys
+            final String key = "key" + (int) Math.floor(Math.pow(random.nextDouble(), 3) * 200);
+            final double bytes = random.nextInt(100);
+            sketch.add(key, bytes, 0);
+            exact.merge(key, bytes, Double::sum);
+        }
+
+        for (final Map.Entry<String, Double> e : exact.entrySet()) {
+            final HeavyHitters.Entry entry = sketch.get(e.getKey());
+            if (entry == null) {
+                assertTrue(e.getValue() <= sketch.getMaxError());
+            } else {
+                assertTrue(entry.getBytes() <= e.getValue());
+                assertTrue(e.getValue() <= entry.getEstimate());
+                assertTrue(entry.getError() <= sketch.getMaxError());
+            }
+        }
+
+        // The heaviest key is found
+        final String heaviest = exact.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+        assertEquals(heaviest, sketch.getTop(1).get(0).getKey());
+    }
+}
@@ -28,10 +28,17 @@
 
 package org.opennms.netmgt.newts;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -44,15 +51,20 @@ import org.opennms.netmgt.newts.support.NewtsUtils;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+import org.opennms.newts.cassandra.search.ResourceMetadataCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
@@ -70,6 +82,20 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The writer threads coalesce the samples of consecutive ring buffer entries
+ * until either a full batch of <code>max_batch_size</code> samples is pending, or
+ * the ring buffer is empty. The samples are partitioned by resource and metric
+ * before being written, so that the samples of a metric are only split across
+ * batches when there are more than <code>max_batch_size</code> of them.
+ *
+ * Index-only samples for resources which are already known to the
+ * {@link ResourceMetadataCache}, i.e. which were indexed before or loaded by the
+ * {@link org.opennms.netmgt.newts.support.CachePrimer}, are not published at all.
+ *
+ * When a target write latency is set, the number of entries accepted on the
+ * ring buffer is reduced while the observed write latency is above the target,
+ * and increased again once it recovers.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -81,12 +107,20 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    /**
+     * Weight of the most recent write in the moving average of the write latency.
+     */
+    private static final double LATENCY_EWMA_ALPHA = 0.2;
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
     @Autowired
     private Indexer m_indexer;
 
+    @Autowired(required=false)
+    private ResourceMetadataCache m_resourceMetadataCache;
+
     private WorkerPool<SampleBatchEvent> m_workerPool;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
@@ -99,12 +133,41 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    private final Meter m_throttledSamples;
+
+    private final Meter m_skippedIndexSamples;
+
+    private final Histogram m_batchSizes;
+
+    private final Timer m_insertLatency;
+
+    private final Timer m_indexLatency;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
+     *
+     * Entries are counted before they are published, so that the writer threads never
+     * see less entries than there actually are on the ring buffer.
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    private final PendingSamples m_pendingInserts = new PendingSamples();
+
+    private final PendingSamples m_pendingIndexes = new PendingSamples();
+
+    private long m_targetWriteLatencyMs = 0;
+
+    /**
+     * Maximum number of entries accepted on the ring buffer, adjusted to the write latency.
+     */
+    private volatile int m_admissionLimit;
+
+    /**
+     * Moving average of the write latency, guarded by <code>this</code>.
+     */
+    private double m_writeLatencyEwmaMs = 0;
+
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
             @Named("newts.writer_threads") Integer numWriterThreads, @Named("newtsMetricRegistry") MetricRegistry registry) {
@@ -118,6 +181,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
         m_numEntriesOnRingBuffer.set(0L);
+        m_admissionLimit = ringBufferSize;
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
                 new Gauge<Long>() {
@@ -133,8 +197,27 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         return Long.valueOf(m_ringBufferSize);
                     }
                 });
+        registry.register(MetricRegistry.name("ring-buffer", "admission-limit"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_admissionLimit;
+                    }
+                });
+        registry.register(MetricRegistry.name("writer", "pending-samples"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_pendingInserts.size() + m_pendingIndexes.size();
+                    }
+                });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_throttledSamples = registry.meter(MetricRegistry.name("ring-buffer", "throttled-samples"));
+        m_skippedIndexSamples = registry.meter(MetricRegistry.name("writer", "skipped-index-samples"));
+        m_batchSizes = registry.histogram(MetricRegistry.name("writer", "batch-size"));
+        m_insertLatency = registry.timer(MetricRegistry.name("writer", "insert-latency"));
+        m_indexLatency = registry.timer(MetricRegistry.name("writer", "index-latency"));
 
         LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
         setUpWorkerPool();
@@ -167,6 +250,8 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void destroy() throws Exception {
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
+            // Write out anything that is still pending
+            flush();
         }
     }
 
@@ -175,12 +260,60 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     }
 
     public void index(List<Sample> samples) {
-        pushToRingBuffer(samples, INDEX_ONLY_TRANSLATOR);
+        pushToRingBuffer(withoutIndexedSamples(samples), INDEX_ONLY_TRANSLATOR);
+    }
+
+    /**
+     * Removes the samples for which the resource, the metric and all of the
+     * attributes are already present in the cache, since indexing them
+     * again wouldn't result in any writes.
+     */
+    private List<Sample> withoutIndexedSamples(List<Sample> samples) {
+        if (m_resourceMetadataCache == null || NewtsUtils.DISABLE_INDEXING || samples.isEmpty()) {
+            return samples;
+        }
+        final List<Sample> samplesToIndex = samples.stream()
+                .filter(s -> !isIndexed(s))
+                .collect(Collectors.toList());
+        m_skippedIndexSamples.mark(samples.size() - samplesToIndex.size());
+        return samplesToIndex;
+    }
+
+    private boolean isIndexed(Sample sample) {
+        final Optional<ResourceMetadata> metadata = m_resourceMetadataCache.get(sample.getContext(), sample.getResource());
+        if (!metadata.isPresent() || !metadata.get().containsMetric(sample.getName())) {
+            return false;
+        }
+        final Optional<Map<String, String>> attributes = sample.getResource().getAttributes();
+        if (attributes.isPresent()) {
+            for (Map.Entry<String, String> attribute : attributes.get().entrySet()) {
+                if (!metadata.get().containsAttribute(attribute.getKey(), attribute.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+        if (samples.isEmpty()) {
+            // Nothing to write
+            return;
+        }
+
+        if (m_numEntriesOnRingBuffer.get() >= m_admissionLimit) {
+            RATE_LIMITED_LOGGER.warn("The write latency is above the target of {}ms. {} samples will be dropped.",
+                    m_targetWriteLatencyMs, samples.size());
+            m_throttledSamples.mark(samples.size());
+            return;
+        }
+
+        // Increase our entry counter
+        m_numEntriesOnRingBuffer.incrementAndGet();
+
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+            m_numEntriesOnRingBuffer.decrementAndGet();
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -194,10 +327,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         }
                     });
             m_droppedSamples.mark(samples.size());
-            return;
         }
-        // Increase our entry counter
-        m_numEntriesOnRingBuffer.incrementAndGet();
     }
 
     @Override
@@ -205,31 +335,164 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         // We'd expect the logs from this thread to be in collectd.log
         Logging.putPrefix("collectd");
 
-        List<Sample> samples = event.getSamples();
+        final List<Sample> samples = event.getSamples();
+        event.setSamples(null);
+        if (event.isIndexOnly()) {
+            m_pendingIndexes.add(samples);
+        } else {
+            m_pendingInserts.add(samples);
+        }
+
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
-            try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
-                }
+        // The thread handling the last entry on the ring buffer always sees the counter at zero,
+        // and writes out whatever is still pending
+        flush();
+    }
+
+    private void flush() {
+        flush(m_pendingInserts, false);
+        flush(m_pendingIndexes, true);
+    }
+
+    private void flush(PendingSamples pending, boolean indexOnly) {
+        while (true) {
+            if (m_numEntriesOnRingBuffer.get() > 0 && pending.size() < m_maxBatchSize) {
+                // Wait for more samples, another thread will pick these up
+                return;
+            }
+
+            final List<Sample> samples = pending.drain(m_maxBatchSize);
+            if (samples.isEmpty()) {
+                return;
+            }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+            // Partition the samples into collections smaller then max_batch_size
+            for (List<Sample> batch : partition(samples, m_maxBatchSize)) {
+                write(batch, indexOnly);
+            }
+        }
+    }
+
+    private void write(List<Sample> batch, boolean indexOnly) {
+        final long start = System.nanoTime();
+        try {
+            if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
+                LOG.debug("Indexing {} samples", batch.size());
+                m_indexer.update(batch);
+            } else {
+                LOG.debug("Inserting {} samples", batch.size());
+                m_sampleRepository.insert(batch);
+            }
+
+            if (LOG.isDebugEnabled()) {
+                String uniqueResourceIds = batch.stream()
+                    .map(s -> s.getResource().getId())
+                    .distinct()
+                    .collect(Collectors.joining(", "));
+                LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+            }
+        } catch (Throwable t) {
+            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+        } finally {
+            final long latency = System.nanoTime() - start;
+            (indexOnly ? m_indexLatency : m_insertLatency).update(latency, TimeUnit.NANOSECONDS);
+            m_batchSizes.update(batch.size());
+            updateAdmissionLimit(latency);
+        }
+    }
+
+    /**
+     * Shrinks the admission limit while the write latency is above the target, and
+     * grows it back to the size of the ring buffer when it is below.
+     *
+     * Called by all of the writer threads, the updates are serialized so that none
+     * of the measurements are lost. This is cheap compared to the write itself.
+     */
+    private synchronized void updateAdmissionLimit(long latencyNanos) {
+        if (m_targetWriteLatencyMs <= 0) {
+            return;
+        }
+
+        final double ewma = m_writeLatencyEwmaMs + LATENCY_EWMA_ALPHA * (latencyNanos / 1000000d - m_writeLatencyEwmaMs);
+        m_writeLatencyEwmaMs = ewma;
+
+        final int limit = m_admissionLimit;
+        if (ewma > m_targetWriteLatencyMs) {
+            // Keep enough entries to keep all of the writer threads busy
+            m_admissionLimit = Math.max(m_numWriterThreads, limit - limit / 16);
+        } else if (limit < m_ringBufferSize) {
+            m_admissionLimit = Math.min(m_ringBufferSize, limit + Math.max(1, m_ringBufferSize / 256));
+        }
+    }
+
+    /**
+     * Splits the samples into batches of at most <code>maxBatchSize</code> samples.
+     *
+     * The samples are grouped by resource and metric, keeping their order within a group.
+     * Whole groups are added to a batch while they fit, and a group is only split when
+     * it holds more than <code>maxBatchSize</code> samples by itself.
+     */
+    @VisibleForTesting
+    static List<List<Sample>> partition(List<Sample> samples, int maxBatchSize) {
+        final Map<String, Map<String, List<Sample>>> samplesByResourceAndMetric = new LinkedHashMap<>();
+        for (Sample sample : samples) {
+            samplesByResourceAndMetric.computeIfAbsent(sample.getResource().getId(), id -> new LinkedHashMap<>())
+                    .computeIfAbsent(sample.getName(), name -> new ArrayList<>())
+                    .add(sample);
+        }
+
+        final List<List<Sample>> batches = new ArrayList<>();
+        List<Sample> batch = new ArrayList<>(Math.min(maxBatchSize, samples.size()));
+        for (Map<String, List<Sample>> samplesByMetric : samplesByResourceAndMetric.values()) {
+            for (List<Sample> group : samplesByMetric.values()) {
+                if (!batch.isEmpty() && batch.size() + group.size() > maxBatchSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>(maxBatchSize);
                 }
-            } catch (Throwable t) {
-                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+                for (List<Sample> chunk : Lists.partition(group, maxBatchSize)) {
+                    if (batch.size() + chunk.size() > maxBatchSize) {
+                        batches.add(batch);
+                        batch = new ArrayList<>(maxBatchSize);
+                    }
+                    batch.addAll(chunk);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Samples taken off the ring buffer, which have not been written yet.
+     */
+    private static class PendingSamples {
+        private final Queue<List<Sample>> m_samples = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger m_size = new AtomicInteger();
+
+        private void add(List<Sample> samples) {
+            m_samples.add(samples);
+            m_size.addAndGet(samples.size());
+        }
+
+        private int size() {
+            return m_size.get();
+        }
+
+        /**
+         * Removes at least <code>max</code> samples, or all of them, whichever is less.
+         */
+        private List<Sample> drain(int max) {
+            final List<Sample> drained = new ArrayList<>(max);
+            List<Sample> samples;
+            while (drained.size() < max && (samples = m_samples.poll()) != null) {
+                drained.addAll(samples);
             }
+            m_size.addAndGet(-drained.size());
+            return drained;
         }
     }
 
@@ -256,4 +519,25 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    public void setResourceMetadataCache(ResourceMetadataCache resourceMetadataCache) {
+        m_resourceMetadataCache = resourceMetadataCache;
+    }
+
+    /**
+     * Sets the target latency for writes to Cassandra, in milliseconds.
+     * A value of 0 disables the adaptive admission limit.
+     */
+    public synchronized void setTargetWriteLatencyMs(long targetWriteLatencyMs) {
+        Preconditions.checkArgument(targetWriteLatencyMs >= 0, "targetWriteLatencyMs must be positive");
+        m_targetWriteLatencyMs = targetWriteLatencyMs;
+        if (targetWriteLatencyMs == 0) {
+            m_admissionLimit = m_ringBufferSize;
+        }
+    }
+
+    @VisibleForTesting
+    int getAdmissionLimit() {
+        return m_admissionLimit;
+    }
 }
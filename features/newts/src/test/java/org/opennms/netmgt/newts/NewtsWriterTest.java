@@ -29,14 +29,24 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
+import org.opennms.netmgt.newts.support.NewtsUtils;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
@@ -49,10 +59,14 @@ import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.search.Indexer;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+import org.opennms.newts.cassandra.search.ResourceMetadataCache;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
 public class NewtsWriterTest {
@@ -119,6 +133,148 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that the samples of consecutive entries on the ring buffer
+     * are written together, grouped by resource and metric.
+     */
+    @Test
+    public void samplesAreCoalescedAndGroupedByResourceAndMetric() throws Exception {
+        Lock lock = new ReentrantLock();
+        RecordingSampleRepository sampleRepo = new RecordingSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(100, 1024, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        // Keep the writer thread busy while the other samples are queued
+        lock.lock();
+        writer.insert(Lists.newArrayList(new Sample(Timestamp.now(), new Resource("w"), "y", MetricType.COUNTER, new Counter(0))));
+        while (sampleRepo.getNumThreadsLocked() < 1) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            Resource r = new Resource(i % 2 == 0 ? "x" : "z");
+            writer.insert(Lists.newArrayList(
+                    new Sample(Timestamp.now(), r, "y1", MetricType.COUNTER, new Counter(i)),
+                    new Sample(Timestamp.now(), r, "y2", MetricType.COUNTER, new Counter(i))));
+        }
+
+        lock.unlock();
+        writer.destroy();
+
+        // The queued samples should have been written with a single batch
+        List<List<String>> batches = sampleRepo.getBatches();
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList("w/y"), batches.get(0));
+        assertEquals(100, batches.get(1).size());
+        assertEquals(Collections.nCopies(25, "x/y1"), batches.get(1).subList(0, 25));
+        assertEquals(Collections.nCopies(25, "x/y2"), batches.get(1).subList(25, 50));
+        assertEquals(Collections.nCopies(25, "z/y1"), batches.get(1).subList(50, 75));
+        assertEquals(Collections.nCopies(25, "z/y2"), batches.get(1).subList(75, 100));
+        assertEquals(2, registry.getHistograms().get("writer.batch-size").getCount());
+    }
+
+    /**
+     * Verifies that the samples of a metric are only split across batches
+     * when they don't fit in a single batch.
+     */
+    @Test
+    public void samplesOfAMetricAreKeptInTheSameBatch() {
+        Resource x = new Resource("x");
+        Resource z = new Resource("z");
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            samples.add(new Sample(Timestamp.now(), x, "y1", MetricType.COUNTER, new Counter(i)));
+            samples.add(new Sample(Timestamp.now(), z, "y1", MetricType.COUNTER, new Counter(i)));
+            samples.add(new Sample(Timestamp.now(), x, "y2", MetricType.COUNTER, new Counter(i)));
+        }
+        for (int i = 0; i < 9; i++) {
+            samples.add(new Sample(Timestamp.now(), z, "y2", MetricType.COUNTER, new Counter(i)));
+        }
+
+        List<List<String>> batches = NewtsWriter.partition(samples, 4).stream()
+                .map(NewtsWriterTest::toKeys)
+                .collect(Collectors.toList());
+        assertEquals(Lists.newArrayList(
+                Collections.nCopies(3, "x/y1"),
+                Collections.nCopies(3, "x/y2"),
+                Collections.nCopies(3, "z/y1"),
+                Collections.nCopies(4, "z/y2"),
+                Collections.nCopies(4, "z/y2"),
+                Collections.nCopies(1, "z/y2")), batches);
+    }
+
+    private static List<String> toKeys(Collection<Sample> samples) {
+        return samples.stream()
+                .map(s -> s.getResource().getId() + "/" + s.getName())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Verifies that index-only samples which are already present in the
+     * resource meta-data cache are not indexed again.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void indexedSamplesAreSkipped() throws Exception {
+        ResourceMetadata metadata = mock(ResourceMetadata.class);
+        when(metadata.containsMetric("strings")).thenReturn(true);
+        when(metadata.containsAttribute("a", "1")).thenReturn(true);
+        ResourceMetadataCache cache = mock(ResourceMetadataCache.class);
+        when(cache.get(any(Context.class), any(Resource.class))).thenAnswer(invocation -> {
+            Resource resource = (Resource)invocation.getArguments()[1];
+            return "known".equals(resource.getId()) ? Optional.of(metadata) : Optional.absent();
+        });
+
+        List<Sample> indexed = Collections.synchronizedList(new ArrayList<>());
+        Indexer indexer = mock(Indexer.class);
+        doAnswer(invocation -> indexed.addAll((Collection<Sample>)invocation.getArguments()[0])).when(indexer).update(any());
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(16, 1024, 1, registry);
+        writer.setIndexer(indexer);
+        writer.setResourceMetadataCache(cache);
+
+        Context context = new Context("test");
+        writer.index(Lists.newArrayList(
+                NewtsUtils.createSampleForIndexingStrings(context, new Resource("known", Optional.of(ImmutableMap.of("a", "1")))),
+                NewtsUtils.createSampleForIndexingStrings(context, new Resource("known", Optional.of(ImmutableMap.of("a", "2")))),
+                NewtsUtils.createSampleForIndexingStrings(context, new Resource("unknown", Optional.of(ImmutableMap.of("a", "1"))))));
+        writer.destroy();
+
+        assertEquals(2, indexed.size());
+        assertEquals(1, registry.getMeters().get("writer.skipped-index-samples").getCount());
+    }
+
+    /**
+     * Verifies that the number of entries accepted on the ring buffer
+     * is reduced when the writes are slower than the target latency.
+     */
+    @Test
+    public void admissionLimitIsReducedWhenWritesAreSlow() throws Exception {
+        int ringBufferSize = 1024;
+        SampleRepository sampleRepo = new MockSampleRepository() {
+            @Override
+            public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        };
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, 1, new MetricRegistry());
+        writer.setSampleRepository(sampleRepo);
+        writer.setTargetWriteLatencyMs(1);
+
+        Resource x = new Resource("x");
+        for (int i = 0; i < 20; i++) {
+            writer.insert(Lists.newArrayList(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i))));
+        }
+        writer.destroy();
+
+        assertTrue(writer.getAdmissionLimit() < ringBufferSize);
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -164,6 +320,24 @@ public class NewtsWriterTest {
         }
     }
 
+    private static class RecordingSampleRepository extends LockedSampleRepository {
+        private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+        public RecordingSampleRepository(Lock lock) {
+            super(lock);
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            batches.add(toKeys(samples));
+            super.insert(samples, calculateTimeToLive);
+        }
+
+        public List<List<String>> getBatches() {
+            return batches;
+        }
+    }
+
     private static class MockSampleRepository implements SampleRepository {
         @Override
         public void insert(Collection<Sample> samples) {
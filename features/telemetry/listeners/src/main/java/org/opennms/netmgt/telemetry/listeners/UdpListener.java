@@ -28,26 +28,33 @@
 
 package org.opennms.netmgt.telemetry.listeners;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BooleanSupplier;
 
 import org.opennms.netmgt.telemetry.api.receiver.Listener;
 import org.opennms.netmgt.telemetry.api.receiver.Parser;
 import org.opennms.netmgt.telemetry.listeners.utils.BufferUtils;
+import org.opennms.netmgt.telemetry.listeners.utils.UdpSocketStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -58,25 +65,49 @@ import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.internal.SocketUtils;
 
+/**
+ * Receives datagrams on a UDP port and hands them over to the parsers.
+ *
+ * By default, a single socket is used. When more than one socket is requested, all of
+ * them are bound to the same port with <code>SO_REUSEPORT</code>, using Netty's native
+ * epoll transport, and the kernel spreads the datagrams over the sockets. Without the
+ * native transport, the listener falls back to a single NIO socket.
+ *
+ * With several sockets, the datagrams of an exporter are always parsed by the same event
+ * loop, no matter which socket received them, so that the parser state of an exporter,
+ * like its templates, is updated in the order in which the datagrams were received.
+ */
 public class UdpListener implements Listener {
     private static final Logger LOG = LoggerFactory.getLogger(UdpListener.class);
 
     private final String name;
     private final List<UdpParser> parsers;
 
+    private final MetricRegistry metrics;
     private final Meter packetsReceived;
 
     private EventLoopGroup bossGroup;
-    private ChannelFuture socketFuture;
+    private final List<Channel> channels = new ArrayList<>();
+    private final List<String> socketGauges = new ArrayList<>();
+
+    /**
+     * The event loops the datagrams are parsed on, by exporter, when several sockets are used.
+     */
+    private volatile EventLoop[] exporterLoops;
+
+    // Replaced by the tests to simulate a missing native transport
+    private BooleanSupplier epollAvailable = EpollSupport::isAvailable;
 
     private String host = null;
     private int port = 50000;
     private int maxPacketSize = 8096;
+    private int sockets = 1;
+    private int receiveBufferSize = Integer.MAX_VALUE;
 
     public UdpListener(final String name, final List<UdpParser> parsers, final MetricRegistry metrics) {
         this.name = Objects.requireNonNull(name);
         this.parsers = Objects.requireNonNull(parsers);
-        Objects.requireNonNull(metrics);
+        this.metrics = Objects.requireNonNull(metrics);
 
         if (this.parsers.isEmpty()) {
             throw new IllegalArgumentException("At least 1 parsers must be defined");
@@ -91,10 +122,16 @@ public class UdpListener implements Listener {
     }
 
     public void start() throws InterruptedException {
+        final boolean epoll = this.sockets > 1 && isEpollAvailable();
+        final int numSockets = epoll ? this.sockets : 1;
+
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("telemetryd-" + (epoll ? "epoll" : "nio") + "-" + name + "-%d")
+                .build();
         // Netty defaults to 2 * num cores when the number of threads is set to 0
-        this.bossGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder()
-                .setNameFormat("telemetryd-nio-" + name + "-%d")
-                .build() );
+        this.bossGroup = epoll
+                ? EpollSupport.newEventLoopGroup(threadFactory)
+                : new NioEventLoopGroup(0, threadFactory);
 
         this.parsers.forEach(parser -> parser.start(this.bossGroup));
 
@@ -102,20 +139,62 @@ public class UdpListener implements Listener {
                 ? SocketUtils.socketAddress(this.host, this.port)
                 : new InetSocketAddress(this.port);
 
-        this.socketFuture = new Bootstrap()
+        final Bootstrap bootstrap = new Bootstrap()
                 .group(this.bossGroup)
-                .channel(NioDatagramChannel.class)
                 .option(ChannelOption.SO_REUSEADDR, true)
-                .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
-                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize))
-                .handler(new DefaultChannelInitializer())
-                .bind(address)
-                .sync();
+                .option(ChannelOption.SO_RCVBUF, this.receiveBufferSize)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize));
+        if (epoll) {
+            EpollSupport.reusePort(bootstrap);
+        } else {
+            bootstrap.channel(NioDatagramChannel.class);
+        }
+
+        boolean bound = false;
+        try {
+            for (int i = 0; i < numSockets; i++) {
+                final Channel channel = bootstrap
+                        .handler(new DefaultChannelInitializer(numSockets > 1 ? socketMeter(i) : null))
+                        .bind(address)
+                        .sync()
+                        .channel();
+                this.channels.add(channel);
+                if (epoll) {
+                    registerDropsGauge(i, UdpSocketStats.inode(EpollSupport.fileDescriptor(channel)));
+                }
+            }
+            bound = true;
+        } finally {
+            if (!bound) {
+                // Don't leak the sockets which were bound before the failure
+                LOG.warn("Failed to bind listener {} to {}. Closing its sockets.", name, address);
+                close();
+            }
+        }
+
+        if (numSockets > 1) {
+            this.exporterLoops = this.channels.stream()
+                    .map(Channel::eventLoop)
+                    .distinct()
+                    .toArray(EventLoop[]::new);
+            LOG.info("Listening on {} with {} sockets.", address, numSockets);
+        }
     }
 
     public void stop() throws InterruptedException {
+        close();
+    }
+
+    private void close() throws InterruptedException {
         LOG.info("Closing channel...");
-        this.socketFuture.channel().close().sync();
+        for (final Channel channel : this.channels) {
+            channel.close().sync();
+        }
+        this.channels.clear();
+        this.exporterLoops = null;
+
+        this.socketGauges.forEach(this.metrics::remove);
+        this.socketGauges.clear();
 
         this.parsers.forEach(Parser::stop);
 
@@ -123,6 +202,46 @@ public class UdpListener implements Listener {
         this.bossGroup.shutdownGracefully().sync();
     }
 
+    /**
+     * Returns the event loop the datagrams of the given exporter are parsed on.
+     */
+    static EventLoop exporterLoop(final EventLoop[] loops, final InetAddress exporter) {
+        return loops[Math.floorMod(exporter.hashCode(), loops.length)];
+    }
+
+    List<Channel> getChannels() {
+        return this.channels;
+    }
+
+    void setEpollAvailable(final BooleanSupplier epollAvailable) {
+        this.epollAvailable = Objects.requireNonNull(epollAvailable);
+    }
+
+    private boolean isEpollAvailable() {
+        try {
+            if (this.epollAvailable.getAsBoolean()) {
+                return true;
+            }
+            LOG.warn("The native epoll transport is not available. Listener {} will use a single socket.", name, EpollSupport.unavailabilityCause());
+        } catch (LinkageError e) {
+            LOG.warn("The native epoll transport is not installed. Listener {} will use a single socket.", name);
+        }
+        return false;
+    }
+
+    private Meter socketMeter(final int socket) {
+        return this.metrics.meter(MetricRegistry.name("listeners", name, "sockets", Integer.toString(socket), "packetsReceived"));
+    }
+
+    private void registerDropsGauge(final int socket, final long inode) {
+        if (inode < 0) {
+            return;
+        }
+        final String gaugeName = MetricRegistry.name("listeners", name, "sockets", Integer.toString(socket), "drops");
+        this.metrics.register(gaugeName, (Gauge<Long>) () -> UdpSocketStats.drops(inode));
+        this.socketGauges.add(gaugeName);
+    }
+
     public String getHost() {
         return host;
     }
@@ -147,6 +266,25 @@ public class UdpListener implements Listener {
         this.maxPacketSize = maxPacketSize;
     }
 
+    public int getSockets() {
+        return sockets;
+    }
+
+    public void setSockets(int sockets) {
+        if (sockets < 1) {
+            throw new IllegalArgumentException("At least 1 socket is required");
+        }
+        this.sockets = sockets;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -155,31 +293,19 @@ public class UdpListener implements Listener {
 
     private class DefaultChannelInitializer extends ChannelInitializer<DatagramChannel> {
 
+        private final Meter socketPacketsReceived;
+
+        private DefaultChannelInitializer(final Meter socketPacketsReceived) {
+            this.socketPacketsReceived = socketPacketsReceived;
+        }
+
         @Override
         protected void initChannel(DatagramChannel ch) {
 
-            if (parsers.size() == 1) {
-                final UdpParser parser = parsers.get(0);
-                // If only one parser is defined, we can directly use the handler
-                ch.pipeline().addLast(new SingleDatagramPacketParserHandler(parser));
-            } else {
-                // Otherwise dispatch
-                ch.pipeline().addLast(new SimpleChannelInboundHandler<DatagramPacket>() {
-                    @Override
-                    protected void channelRead0(final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
-                        for (final UdpParser parser : parsers) {
-                            if (BufferUtils.peek(msg.content(), ((Dispatchable) parser)::handles)) {
-                                new SingleDatagramPacketParserHandler(parser).channelRead0(ctx, msg);
-                                return;
-                            }
-                        }
-                        LOG.warn("Unhandled packet from {}", msg.sender());
-                    }
-                });
-            }
+            ch.pipeline().addLast(new DatagramPacketHandler());
 
             // Accounting
-            ch.pipeline().addFirst(new AccountingHandler());
+            ch.pipeline().addFirst(new AccountingHandler(socketPacketsReceived));
 
             // Add error handling
             ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
@@ -193,35 +319,77 @@ public class UdpListener implements Listener {
     }
 
     private class AccountingHandler extends ChannelInboundHandlerAdapter {
+        private final Meter socketPacketsReceived;
+
+        private AccountingHandler(final Meter socketPacketsReceived) {
+            this.socketPacketsReceived = socketPacketsReceived;
+        }
+
         @Override
         public  void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
             packetsReceived.mark();
+            if (socketPacketsReceived != null) {
+                socketPacketsReceived.mark();
+            }
             super.channelRead(ctx, msg);
         }
     }
 
-    // Invokes parse of the provided parsers and also adds some error handling
-    private static class SingleDatagramPacketParserHandler extends SimpleChannelInboundHandler<DatagramPacket> {
-
-        final UdpParser parser;
+    // Moves the packet over to the event loop of its exporter, if needed, before parsing it
+    private class DatagramPacketHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
+            final EventLoop[] loops = exporterLoops;
+            if (loops != null) {
+                final EventLoop loop = exporterLoop(loops, msg.sender().getAddress());
+                if (!loop.inEventLoop()) {
+                    // The packet is released after returning from here
+                    msg.retain();
+                    loop.execute(() -> {
+                        try {
+                            dispatch(ctx, msg);
+                        } catch (final Exception e) {
+                            ctx.fireExceptionCaught(e);
+                        } finally {
+                            msg.release();
+                        }
+                    });
+                    return;
+                }
+            }
+            dispatch(ctx, msg);
+        }
+    }
 
-        private SingleDatagramPacketParserHandler(UdpParser parser) {
-            this.parser = parser;
+    private void dispatch(final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
+        if (parsers.size() == 1) {
+            // If only one parser is defined, we can directly use it
+            parse(parsers.get(0), ctx, msg);
+            return;
         }
 
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) throws Exception {
-            parser.parse(
-                    ReferenceCountUtil.retain(msg.content()),
-                    msg.sender(), msg.recipient()
-                ).handle((result, ex) -> {
-                    ReferenceCountUtil.release(msg.content());
-                    if (ex != null) {
-                        ctx.fireExceptionCaught(ex);
-                    }
-                    return result;
-                });
+        // Otherwise dispatch
+        for (final UdpParser parser : parsers) {
+            if (BufferUtils.peek(msg.content(), ((Dispatchable) parser)::handles)) {
+                parse(parser, ctx, msg);
+                return;
+            }
         }
+        LOG.warn("Unhandled packet from {}", msg.sender());
+    }
+
+    // Invokes parse of the provided parser and also adds some error handling
+    private static void parse(final UdpParser parser, final ChannelHandlerContext ctx, final DatagramPacket msg) throws Exception {
+        parser.parse(
+                ReferenceCountUtil.retain(msg.content()),
+                msg.sender(), msg.recipient()
+            ).handle((result, ex) -> {
+                ReferenceCountUtil.release(msg.content());
+                if (ex != null) {
+                    ctx.fireExceptionCaught(ex);
+                }
+                return result;
+            });
     }
 
 }
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the kernel statistics of UDP sockets from <code>/proc/net/udp</code> and
+ * <code>/proc/net/udp6</code>, which are only available on Linux.
+ */
+public final class UdpSocketStats {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketStats.class);
+
+    private static final Path[] PROC_NET_UDP = new Path[] { Paths.get("/proc/net/udp"), Paths.get("/proc/net/udp6") };
+
+    private static final int INODE_COLUMN = 9;
+    private static final int DROPS_COLUMN = 12;
+
+    private UdpSocketStats() {
+    }
+
+    /**
+     * Returns the inode of the socket behind the given file descriptor of this process, or -1 if unknown.
+     */
+    public static long inode(final int fd) {
+        try {
+            final String link = Files.readSymbolicLink(Paths.get("/proc/self/fd", Integer.toString(fd))).toString();
+            if (link.startsWith("socket:[") && link.endsWith("]")) {
+                return Long.parseLong(link.substring("socket:[".length(), link.length() - 1));
+            }
+        } catch (IOException | UnsupportedOperationException | NumberFormatException e) {
+            LOG.debug("Failed to determine the inode of file descriptor {}", fd, e);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of datagrams the kernel dropped for the socket with the
+     * given inode, because its receive buffer was full, or -1 if unknown.
+     */
+    public static long drops(final long inode) {
+        for (final Path path : PROC_NET_UDP) {
+            try (Stream<String> lines = Files.lines(path)) {
+                final long drops = drops(lines, inode);
+                if (drops >= 0) {
+                    return drops;
+                }
+            } catch (IOException | UncheckedIOException e) {
+                LOG.debug("Failed to read {}", path, e);
+            }
+        }
+        return -1;
+    }
+
+    public static long drops(final Stream<String> lines, final long inode) {
+        final String inodeColumn = Long.toString(inode);
+        return lines.skip(1)
+                .map(line -> line.trim().split("\\s+"))
+                .filter(columns -> columns.length > DROPS_COLUMN && inodeColumn.equals(columns[INODE_COLUMN]))
+                .mapToLong(columns -> Long.parseLong(columns[DROPS_COLUMN]))
+                .findFirst()
+                .orElse(-1);
+    }
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+public class UdpListenerTest {
+
+    @Test
+    public void exportersAreAlwaysParsedOnTheSameEventLoop() throws Exception {
+        final DefaultEventLoopGroup group = new DefaultEventLoopGroup(4);
+        try {
+            final EventLoop[] loops = new EventLoop[4];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = group.next();
+            }
+
+            final Set<EventLoop> used = new HashSet<>();
+            for (int i = 1; i < 64; i++) {
+                final byte[] address = new byte[] { 10, 0, 0, (byte) i };
+                final EventLoop loop = UdpListener.exporterLoop(loops, InetAddress.getByAddress(address));
+                assertSame(loop, UdpListener.exporterLoop(loops, InetAddress.getByAddress(address)));
+                used.add(loop);
+            }
+            // The exporters are spread over all of the loops
+            assertEquals(loops.length, used.size());
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+
+    @Test
+    public void fallsBackToSingleNioSocketWhenEpollIsMissing() throws Exception {
+        final RecordingParser parser = new RecordingParser(1);
+        final UdpListener listener = new UdpListener("test", Collections.singletonList(parser), new MetricRegistry());
+        listener.setHost("127.0.0.1");
+        listener.setPort(freePort());
+        listener.setSockets(4);
+        listener.setEpollAvailable(() -> {
+            throw new NoClassDefFoundError("io/netty/channel/epoll/Epoll");
+        });
+
+        listener.start();
+        try {
+            assertEquals(1, listener.getChannels().size());
+            assertTrue(listener.getChannels().get(0) instanceof NioDatagramChannel);
+
+            send(listener.getPort(), 1);
+            assertTrue(parser.parsed.await(10, TimeUnit.SECONDS));
+        } finally {
+            listener.stop();
+        }
+    }
+
+    @Test
+    public void fallsBackToSingleNioSocketWhenEpollIsUnavailable() throws Exception {
+        final UdpListener listener = new UdpListener("test", Collections.singletonList(new RecordingParser(0)), new MetricRegistry());
+        listener.setHost("127.0.0.1");
+        listener.setPort(freePort());
+        listener.setSockets(4);
+        listener.setEpollAvailable(() -> false);
+
+        listener.start();
+        try {
+            assertEquals(1, listener.getChannels().size());
+            assertTrue(listener.getChannels().get(0) instanceof NioDatagramChannel);
+        } finally {
+            listener.stop();
+        }
+    }
+
+    @Test
+    public void parsesDatagramsOfAnExporterOnOneThread() throws Exception {
+        Assume.assumeTrue(Epoll.isAvailable());
+
+        final RecordingParser parser = new RecordingParser(200);
+        final UdpListener listener = new UdpListener("test", Collections.singletonList(parser), new MetricRegistry());
+        listener.setHost("127.0.0.1");
+        listener.setPort(freePort());
+        listener.setSockets(4);
+
+        listener.start();
+        try {
+            assertEquals(4, listener.getChannels().size());
+
+            // Every client socket has its own source port, so the kernel spreads them over the sockets
+            for (int i = 0; i < 4; i++) {
+                send(listener.getPort(), 50);
+            }
+            assertTrue(parser.parsed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, parser.threads.size());
+        } finally {
+            listener.stop();
+        }
+    }
+
+    @Test
+    public void releasesResourcesWhenBindFails() throws Exception {
+        final RecordingParser parser = new RecordingParser(0);
+        final UdpListener listener = new UdpListener("test", Collections.singletonList(parser), new MetricRegistry());
+
+        try (DatagramSocket taken = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            listener.setHost("127.0.0.1");
+            listener.setPort(taken.getLocalPort());
+
+            try {
+                listener.start();
+                fail("The port is already in use");
+            } catch (final Exception e) {
+                // expected
+            }
+        }
+
+        assertTrue(parser.started);
+        assertTrue(parser.stopped);
+        assertTrue(listener.getChannels().isEmpty());
+    }
+
+    private static int freePort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void send(final int port, final int count) throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            final byte[] data = new byte[] { 1, 2, 3, 4 };
+            for (int i = 0; i < count; i++) {
+                socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("127.0.0.1"), port));
+            }
+        }
+    }
+
+    private static class RecordingParser implements UdpParser {
+        private final CountDownLatch parsed;
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private volatile boolean started;
+        private volatile boolean stopped;
+
+        private RecordingParser(final int expected) {
+            this.parsed = new CountDownLatch(expected);
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void start(final ScheduledExecutorService executorService) {
+            this.started = true;
+        }
+
+        @Override
+        public void stop() {
+            this.stopped = true;
+        }
+
+        @Override
+        public CompletableFuture<?> parse(final ByteBuf buffer, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
+            this.threads.add(Thread.currentThread());
+            this.parsed.countDown();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class UdpSocketStatsTest {
+
+    private static final String[] PROC_NET_UDP = new String[] {
+            "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops",
+            "  111: 00000000:0202 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 17231 2 0000000000000000 0",
+            " 1133: 0100007F:C350 00000000:0000 07 00000000:00034000 00:00000000 00000000   996        0 42424 2 0000000000000000 1337",
+            " 1133: 0100007F:C350 00000000:0000 07 00000000:00000000 00:00000000 00000000   996        0 42425 2 0000000000000000 12",
+    };
+
+    @Test
+    public void readsDropsOfTheSocket() {
+        assertEquals(1337, UdpSocketStats.drops(Stream.of(PROC_NET_UDP), 42424));
+        assertEquals(12, UdpSocketStats.drops(Stream.of(PROC_NET_UDP), 42425));
+        assertEquals(0, UdpSocketStats.drops(Stream.of(PROC_NET_UDP), 17231));
+    }
+
+    @Test
+    public void returnsMinusOneForUnknownSockets() {
+        assertEquals(-1, UdpSocketStats.drops(Stream.of(PROC_NET_UDP), 4242));
+        // The header line is skipped
+        assertEquals(-1, UdpSocketStats.drops(Stream.of(PROC_NET_UDP[0]), 0));
+        assertEquals(-1, UdpSocketStats.drops(Stream.empty(), 42424));
+    }
+
+    @Test
+    public void ignoresTruncatedLines() {
+        assertEquals(-1, UdpSocketStats.drops(Stream.of(PROC_NET_UDP[0], "  111: 00000000:0202 00000000:0000 07"), 42424));
+    }
+}
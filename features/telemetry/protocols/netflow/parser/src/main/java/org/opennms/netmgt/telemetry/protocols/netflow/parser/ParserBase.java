@@ -57,7 +57,9 @@ import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.telemetry.api.receiver.Parser;
 import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.BooleanValue;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
@@ -329,9 +331,7 @@ public class ParserBase implements Parser {
             writer.writeInt32("@version", protocol.version);
 
             final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer, enrichment);
-            for (final Value<?> value : record) {
-                value.visit(visitor);
-            }
+            PackedRecord.visit(record, visitor);
 
             writer.writeEndDocument();
         }
@@ -469,6 +469,11 @@ public class ParserBase implements Parser {
             this.writer.writeInt64(value.getName(), value.getValue().longValue());
         }
 
+        @Override
+        public void acceptUnsigned(final String name, final Optional<Semantics> semantics, final long value) {
+            this.writer.writeInt64(name, value);
+        }
+
         @Override
         public void accept(final UndeclaredValue value) {
             this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
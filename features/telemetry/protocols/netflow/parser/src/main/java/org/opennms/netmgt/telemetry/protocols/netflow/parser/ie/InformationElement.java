@@ -39,6 +39,12 @@ public interface InformationElement {
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException;
 
+    default void parseInto(final PackedRecord.Builder record,
+                           final Session.Resolver resolver,
+                           final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+        record.add(this.parse(resolver, buffer));
+    }
+
     String getName();
 
     int getMinimumFieldLength();
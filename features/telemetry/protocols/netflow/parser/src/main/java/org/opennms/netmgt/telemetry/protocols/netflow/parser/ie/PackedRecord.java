@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+import com.google.common.primitives.UnsignedLong;
+
+/**
+ * A data record whose unsigned fields are kept as primitives.
+ *
+ * Most of the fields of a flow are counters, identifiers and ports. When packed records are
+ * enabled, the decoder writes these to a primitive array instead of creating an
+ * {@link UnsignedValue} for each of them. The values are only created if the record is iterated,
+ * {@link #visit(Iterable, Value.Visitor)} hands the primitives to the visitor instead.
+ *
+ * The fields of a record are collected in a {@link Builder} which is reused by the decoding thread.
+ */
+public final class PackedRecord extends AbstractList<Value<?>> {
+
+    public static final String PACKED_RECORDS_SYS_PROP = "org.opennms.netflow.parser.packedRecords";
+    public static final boolean PACKED_RECORDS = Boolean.getBoolean(PACKED_RECORDS_SYS_PROP);
+
+    private static final ThreadLocal<Builder> BUILDER = ThreadLocal.withInitial(Builder::new);
+
+    public static final class Builder {
+        private String[] names = new String[32];
+        private Object[] semantics = new Object[32];
+        private long[] unsigned = new long[32];
+        private Value<?>[] values = new Value<?>[32];
+        private int size = 0;
+
+        private Builder() {
+        }
+
+        public void add(final Value<?> value) {
+            final int i = this.next();
+            this.names[i] = value.getName();
+            this.values[i] = value;
+        }
+
+        public void addUnsigned(final String name, final Optional<Semantics> semantics, final long value) {
+            final int i = this.next();
+            this.names[i] = name;
+            this.semantics[i] = semantics;
+            this.unsigned[i] = value;
+        }
+
+        public PackedRecord build() {
+            final PackedRecord record = new PackedRecord(Collections.emptyList(),
+                    Arrays.copyOf(this.names, this.size),
+                    Arrays.copyOf(this.semantics, this.size),
+                    Arrays.copyOf(this.unsigned, this.size),
+                    Arrays.copyOf(this.values, this.size),
+                    Collections.emptyList());
+            this.clear();
+            return record;
+        }
+
+        private int next() {
+            if (this.size == this.names.length) {
+                final int capacity = this.size * 2;
+                this.names = Arrays.copyOf(this.names, capacity);
+                this.semantics = Arrays.copyOf(this.semantics, capacity);
+                this.unsigned = Arrays.copyOf(this.unsigned, capacity);
+                this.values = Arrays.copyOf(this.values, capacity);
+            }
+            return this.size++;
+        }
+
+        private void clear() {
+            // Do not keep the values of the last record alive
+            Arrays.fill(this.semantics, 0, this.size, null);
+            Arrays.fill(this.values, 0, this.size, null);
+            this.size = 0;
+        }
+    }
+
+    private final List<Value<?>> header;
+    private final String[] names;
+    private final Object[] semantics;
+    private final long[] unsigned;
+    // The fields which are not kept as primitives, null for the unsigned ones
+    private final Value<?>[] values;
+    private final List<Value<?>> options;
+
+    private PackedRecord(final List<Value<?>> header,
+                         final String[] names,
+                         final Object[] semantics,
+                         final long[] unsigned,
+                         final Value<?>[] values,
+                         final List<Value<?>> options) {
+        this.header = Objects.requireNonNull(header);
+        this.names = names;
+        this.semantics = semantics;
+        this.unsigned = unsigned;
+        this.values = values;
+        this.options = Objects.requireNonNull(options);
+    }
+
+    /**
+     * Returns the builder of the current thread, which must not be used again before the
+     * returned builder has been built.
+     */
+    public static Builder builder() {
+        final Builder builder = BUILDER.get();
+        builder.clear();
+        return builder;
+    }
+
+    /**
+     * Returns a record with the same fields, preceded by the given header values and followed by the given options.
+     */
+    public PackedRecord withContext(final List<Value<?>> header, final List<Value<?>> options) {
+        return new PackedRecord(header, this.names, this.semantics, this.unsigned, this.values, options);
+    }
+
+    @Override
+    public Value<?> get(final int index) {
+        if (index < this.header.size()) {
+            return this.header.get(index);
+        }
+
+        final int field = index - this.header.size();
+        if (field < this.names.length) {
+            final Value<?> value = this.values[field];
+            return value != null ? value : new UnsignedValue(this.names[field], this.semanticsOf(field), UnsignedLong.fromLongBits(this.unsigned[field]));
+        }
+
+        return this.options.get(field - this.names.length);
+    }
+
+    @Override
+    public int size() {
+        return this.header.size() + this.names.length + this.options.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Optional<Semantics> semanticsOf(final int field) {
+        return (Optional<Semantics>) this.semantics[field];
+    }
+
+    private void accept(final Value.Visitor visitor) {
+        for (final Value<?> value : this.header) {
+            value.visit(visitor);
+        }
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.values[i] != null) {
+                this.values[i].visit(visitor);
+            } else {
+                visitor.acceptUnsigned(this.names[i], this.semanticsOf(i), this.unsigned[i]);
+            }
+        }
+        for (final Value<?> value : this.options) {
+            value.visit(visitor);
+        }
+    }
+
+    /**
+     * Visits all values of the given record, without creating the values of packed records.
+     */
+    public static void visit(final Iterable<Value<?>> record, final Value.Visitor visitor) {
+        if (record instanceof PackedRecord) {
+            ((PackedRecord) record).accept(visitor);
+        } else {
+            for (final Value<?> value : record) {
+                value.visit(visitor);
+            }
+        }
+    }
+}
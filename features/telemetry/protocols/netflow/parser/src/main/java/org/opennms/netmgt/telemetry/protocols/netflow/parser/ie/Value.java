@@ -45,6 +45,8 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringVal
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UndeclaredValue;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
 
+import com.google.common.primitives.UnsignedLong;
+
 public abstract class Value<T> {
 
     public interface Visitor {
@@ -74,6 +76,12 @@ public abstract class Value<T> {
 
         void accept(final UndeclaredValue value);
 
+        /**
+         * Called for the unsigned fields of a {@link PackedRecord}, which are not wrapped in values.
+         */
+        default void acceptUnsigned(final String name, final Optional<Semantics> semantics, final long value) {
+            this.accept(new UnsignedValue(name, semantics, UnsignedLong.fromLongBits(value)));
+        }
     }
 
     private final String name;
@@ -34,6 +34,7 @@ import java.util.Objects;
 import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
@@ -66,124 +67,70 @@ public class UnsignedValue extends Value<UnsignedLong> {
                 .toString();
     }
 
-    public static InformationElement parserWith8Bit(final String name, final Optional<Semantics> semantics) {
-        return new InformationElement() {
-            @Override
-            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
-                return new UnsignedValue(name, semantics, uint(buffer, 1));
-            }
-
-            @Override
-            public String getName() {
-                return name;
-            }
-
-            @Override
-            public int getMinimumFieldLength() {
-                return 0;
-            }
+    private static final class Parser implements InformationElement {
+        private final String name;
+        private final Optional<Semantics> semantics;
+        private final int maximumFieldLength;
+
+        private Parser(final String name, final Optional<Semantics> semantics, final int maximumFieldLength) {
+            this.name = name;
+            this.semantics = semantics;
+            this.maximumFieldLength = maximumFieldLength;
+        }
+
+        private int octets(final ByteBuf buffer) {
+            return this.maximumFieldLength == 1 ? 1 : buffer.readableBytes();
+        }
+
+        @Override
+        public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
+            return new UnsignedValue(this.name, this.semantics, uint(buffer, this.octets(buffer)));
+        }
+
+        @Override
+        public void parseInto(final PackedRecord.Builder record, final Session.Resolver resolver, final ByteBuf buffer) {
+            final int octets = this.octets(buffer);
+            long value = 0;
+            for (int i = 0; i < octets; i++) {
+                value = (value << 8L) | (buffer.readUnsignedByte() & 0xFFL);
+            }
+            record.addUnsigned(this.name, this.semantics, value);
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public int getMinimumFieldLength() {
+            return 0;
+        }
+
+        @Override
+        public int getMaximumFieldLength() {
+            return this.maximumFieldLength;
+        }
+    }
 
-            @Override
-            public int getMaximumFieldLength() {
-                return 1;
-            }
-        };
+    public static InformationElement parserWith8Bit(final String name, final Optional<Semantics> semantics) {
+        return new Parser(name, semantics, 1);
     }
 
     public static InformationElement parserWith16Bit(final String name, final Optional<Semantics> semantics) {
-        return new InformationElement() {
-            @Override
-            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
-                return new UnsignedValue(name, semantics, uint(buffer, buffer.readableBytes()));
-            }
-
-            @Override
-            public String getName() {
-                return name;
-            }
-
-            @Override
-            public int getMinimumFieldLength() {
-                return 0;
-            }
-
-            @Override
-            public int getMaximumFieldLength() {
-                return 2;
-            }
-        };
+        return new Parser(name, semantics, 2);
     }
 
     public static InformationElement parserWith24Bit(final String name, final Optional<Semantics> semantics) {
-        return new InformationElement() {
-            @Override
-            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
-                return new UnsignedValue(name, semantics, uint(buffer, buffer.readableBytes()));
-            }
-
-            @Override
-            public String getName() {
-                return name;
-            }
-
-            @Override
-            public int getMinimumFieldLength() {
-                return 0;
-            }
-
-            @Override
-            public int getMaximumFieldLength() {
-                return 3;
-            }
-        };
+        return new Parser(name, semantics, 3);
     }
 
     public static InformationElement parserWith32Bit(final String name, final Optional<Semantics> semantics) {
-        return new InformationElement() {
-            @Override
-            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
-                return new UnsignedValue(name, semantics, uint(buffer, buffer.readableBytes()));
-            }
-
-            @Override
-            public String getName() {
-                return name;
-            }
-
-            @Override
-            public int getMinimumFieldLength() {
-                return 0;
-            }
-
-            @Override
-            public int getMaximumFieldLength() {
-                return 4;
-            }
-        };
+        return new Parser(name, semantics, 4);
     }
 
     public static InformationElement parserWith64Bit(final String name, final Optional<Semantics> semantics) {
-        return new InformationElement() {
-            @Override
-            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
-                return new UnsignedValue(name, semantics, uint(buffer, buffer.readableBytes()));
-            }
-
-            @Override
-            public String getName() {
-                return name;
-            }
-
-            @Override
-            public int getMinimumFieldLength() {
-                return 0;
-            }
-
-            @Override
-            public int getMaximumFieldLength() {
-                return 8;
-            }
-        };
+        return new Parser(name, semantics, 8);
     }
 
     @Override
@@ -39,6 +39,7 @@ import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
@@ -104,13 +105,21 @@ public final class DataRecord implements Record {
             scopes.add(parseField(scope, resolver, buffer));
         }
 
-        final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
-        for (final Field field : this.template.fields) {
-            fields.add(parseField(field, resolver, buffer));
-        }
-
         this.scopes = Collections.unmodifiableList(scopes);
-        this.fields = Collections.unmodifiableList(fields);
+
+        if (PackedRecord.PACKED_RECORDS) {
+            final PackedRecord.Builder fields = PackedRecord.builder();
+            for (final Field field : this.template.fields) {
+                field.parseInto(fields, resolver, slice(buffer, fieldLength(field, buffer)));
+            }
+            this.fields = fields.build();
+        } else {
+            final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
+            for (final Field field : this.template.fields) {
+                fields.add(parseField(field, resolver, buffer));
+            }
+            this.fields = Collections.unmodifiableList(fields);
+        }
 
         // Expand the data record by appending values from
         // TODO fooker: extend fields with packet metadata
@@ -133,6 +142,10 @@ public final class DataRecord implements Record {
     public static Value<?> parseField(final Field field,
                                       final Session.Resolver resolver,
                                       final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+        return field.parse(resolver, slice(buffer, fieldLength(field, buffer)));
+    }
+
+    private static int fieldLength(final Field field, final ByteBuf buffer) {
         int length = field.length();
         if (length == VARIABLE_SIZED) {
             length = uint8(buffer);
@@ -140,7 +153,6 @@ public final class DataRecord implements Record {
                 length = uint16(buffer);
             }
         }
-
-        return field.parse(resolver, slice(buffer, length));
+        return length;
     }
 }
@@ -38,6 +38,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateExce
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElementDatabase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UndeclaredValue;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
@@ -103,6 +104,11 @@ public final class FieldSpecifier implements Field, Scope {
         return this.informationElement.parse(resolver, buffer);
     }
 
+    @Override
+    public void parseInto(final PackedRecord.Builder record, final Session.Resolver resolver, final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+        this.informationElement.parseInto(record, resolver, buffer);
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
@@ -37,6 +37,7 @@ import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Field;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
@@ -81,13 +82,21 @@ public final class DataRecord implements Record {
             scopes.add(scope.parse(resolver, slice(buffer, scope.length())));
         }
 
-        final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
-        for (final Field field : template.fields) {
-            fields.add(field.parse(resolver, slice(buffer, field.length())));
-        }
-
         this.scopes = Collections.unmodifiableList(scopes);
-        this.fields = Collections.unmodifiableList(fields);
+
+        if (PackedRecord.PACKED_RECORDS) {
+            final PackedRecord.Builder fields = PackedRecord.builder();
+            for (final Field field : template.fields) {
+                field.parseInto(fields, resolver, slice(buffer, field.length()));
+            }
+            this.fields = fields.build();
+        } else {
+            final List<Value<?>> fields = new ArrayList<>(this.template.fields.size());
+            for (final Field field : template.fields) {
+                fields.add(field.parse(resolver, slice(buffer, field.length())));
+            }
+            this.fields = Collections.unmodifiableList(fields);
+        }
 
         // Expand the data record by appending values from
         this.options = resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this));
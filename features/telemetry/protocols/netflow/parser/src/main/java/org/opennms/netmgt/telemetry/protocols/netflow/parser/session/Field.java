@@ -30,6 +30,7 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
 import io.netty.buffer.ByteBuf;
@@ -39,4 +40,10 @@ public interface Field {
 
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException;
+
+    default void parseInto(final PackedRecord.Builder record,
+                           final Session.Resolver resolver,
+                           final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+        record.add(this.parse(resolver, buffer));
+    }
 }
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The templates and options of a single observation domain of an exporter.
+ *
+ * Templates and options can be added and looked up concurrently. The options are indexed by the
+ * set of scope fields of their templates, and by the values of these fields. Looking up the options
+ * of a data record takes one hash lookup per distinct set of scope fields, regardless of the number
+ * of templates and options, and allocates nothing if there are no options.
+ */
+final class ObservationDomain {
+
+    private static final class TemplateWrapper {
+        private final long insertionTime;
+        private final Template template;
+
+        private TemplateWrapper(final Template template) {
+            this.insertionTime = System.currentTimeMillis();
+            this.template = template;
+        }
+    }
+
+    /**
+     * The options of all options templates with the same set of scope fields.
+     */
+    private static final class ScopedOptions {
+        private final Set<String> scopes;
+
+        // The options of each template by the values of the scope fields, ordered by template ID
+        private final Map<Integer, Map<Set<Value<?>>, List<Value<?>>>> templates = new TreeMap<>();
+
+        // The options of all of the templates by the values of the scope fields, merged by field name
+        private final Map<Set<Value<?>>, List<Value<?>>> options = new ConcurrentHashMap<>();
+
+        private ScopedOptions(final Set<String> scopes) {
+            this.scopes = scopes;
+        }
+
+        private void put(final int templateId, final Set<Value<?>> scopeValues, final List<Value<?>> values) {
+            this.templates.computeIfAbsent(templateId, (k) -> new HashMap<>()).put(scopeValues, values);
+            this.merge(scopeValues);
+        }
+
+        private boolean remove(final int templateId) {
+            final Map<Set<Value<?>>, List<Value<?>>> removed = this.templates.remove(templateId);
+            if (removed != null) {
+                for (final Set<Value<?>> scopeValues : removed.keySet()) {
+                    this.merge(scopeValues);
+                }
+            }
+            return this.templates.isEmpty();
+        }
+
+        private void merge(final Set<Value<?>> scopeValues) {
+            final LinkedHashMap<String, Value<?>> merged = new LinkedHashMap<>();
+            for (final Map<Set<Value<?>>, List<Value<?>>> options : this.templates.values()) {
+                for (final Value<?> value : options.getOrDefault(scopeValues, Collections.emptyList())) {
+                    merged.put(value.getName(), value);
+                }
+            }
+
+            if (merged.isEmpty()) {
+                this.options.remove(scopeValues);
+            } else {
+                this.options.put(scopeValues, ImmutableList.copyOf(merged.values()));
+            }
+        }
+    }
+
+    private final Map<Integer, TemplateWrapper> templates = new ConcurrentHashMap<>();
+
+    // Options by the names of the scope fields, only modified while holding the lock of the domain
+    private final Map<Set<String>, ScopedOptions> options = new HashMap<>();
+
+    // Insertion time of the oldest template, used to skip the domain while housekeeping
+    private final AtomicLong oldestInsertionTime = new AtomicLong(Long.MAX_VALUE);
+
+    // Immutable copy of the options, used for the lookups without locking
+    private volatile List<ScopedOptions> optionsIndex = Collections.emptyList();
+
+    void addTemplate(final Template template) {
+        final TemplateWrapper wrapper = new TemplateWrapper(template);
+        final TemplateWrapper previous = this.templates.put(template.id, wrapper);
+        this.oldestInsertionTime.accumulateAndGet(wrapper.insertionTime, Math::min);
+
+        // Refreshing an options template keeps its options
+        if (previous != null && previous.template.type == Template.Type.OPTIONS_TEMPLATE && template.type != Template.Type.OPTIONS_TEMPLATE) {
+            this.removeOptions(Collections.singleton(template.id));
+        }
+    }
+
+    void removeTemplate(final int templateId) {
+        final TemplateWrapper previous = this.templates.remove(templateId);
+        if (previous != null && previous.template.type == Template.Type.OPTIONS_TEMPLATE) {
+            this.removeOptions(Collections.singleton(templateId));
+        }
+    }
+
+    void removeAllTemplates(final Template.Type type) {
+        final List<Integer> removed = new ArrayList<>();
+        for (final Iterator<TemplateWrapper> it = this.templates.values().iterator(); it.hasNext(); ) {
+            final TemplateWrapper wrapper = it.next();
+            if (wrapper.template.type == type) {
+                it.remove();
+                removed.add(wrapper.template.id);
+            }
+        }
+
+        if (type == Template.Type.OPTIONS_TEMPLATE && !removed.isEmpty()) {
+            this.removeOptions(removed);
+        }
+    }
+
+    /**
+     * Removes the templates which were added before the given time.
+     */
+    void expireTemplates(final Instant timeout) {
+        final long cutoff = timeout.toEpochMilli();
+        if (this.oldestInsertionTime.get() >= cutoff) {
+            return;
+        }
+
+        final List<Integer> removedOptionsTemplates = new ArrayList<>();
+        long oldest = Long.MAX_VALUE;
+        for (final Map.Entry<Integer, TemplateWrapper> e : this.templates.entrySet()) {
+            final TemplateWrapper wrapper = e.getValue();
+            if (wrapper.insertionTime < cutoff) {
+                if (this.templates.remove(e.getKey(), wrapper) && wrapper.template.type == Template.Type.OPTIONS_TEMPLATE) {
+                    removedOptionsTemplates.add(e.getKey());
+                }
+            } else {
+                oldest = Math.min(oldest, wrapper.insertionTime);
+            }
+        }
+        this.oldestInsertionTime.set(oldest);
+
+        if (!removedOptionsTemplates.isEmpty()) {
+            this.removeOptions(removedOptionsTemplates);
+        }
+    }
+
+    boolean isEmpty() {
+        return this.templates.isEmpty();
+    }
+
+    Template lookupTemplate(final int templateId) {
+        final TemplateWrapper wrapper = this.templates.get(templateId);
+        return wrapper != null ? wrapper.template : null;
+    }
+
+    synchronized void addOptions(final int templateId,
+                                 final Collection<Value<?>> scopes,
+                                 final List<Value<?>> values) {
+        final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (final Value<?> scope : scopes) {
+            names.add(scope.getName());
+        }
+        final Set<String> scopeNames = names.build();
+
+        ScopedOptions scoped = this.options.get(scopeNames);
+        if (scoped == null) {
+            scoped = new ScopedOptions(scopeNames);
+            this.options.put(scopeNames, scoped);
+            this.optionsIndex = ImmutableList.copyOf(this.options.values());
+        }
+        scoped.put(templateId, new HashSet<>(scopes), values);
+    }
+
+    List<Value<?>> lookupOptions(final List<Value<?>> values) {
+        final List<ScopedOptions> index = this.optionsIndex;
+        if (index.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Set<String> scoped = new HashSet<>(values.size() * 2);
+        for (final Value<?> value : values) {
+            scoped.add(value.getName());
+        }
+
+        LinkedHashMap<String, Value<?>> options = null;
+        for (final ScopedOptions indexed : index) {
+            if (!scoped.containsAll(indexed.scopes)) {
+                continue;
+            }
+
+            // Found options where scoped fields is subset of actual data fields
+            final Set<Value<?>> scopeValues = new HashSet<>(indexed.scopes.size() * 2);
+            for (final Value<?> value : values) {
+                if (indexed.scopes.contains(value.getName())) {
+                    scopeValues.add(value);
+                }
+            }
+
+            final List<Value<?>> found = indexed.options.get(scopeValues);
+            if (found != null) {
+                if (options == null) {
+                    options = new LinkedHashMap<>();
+                }
+                for (final Value<?> value : found) {
+                    options.put(value.getName(), value);
+                }
+            }
+        }
+
+        return options != null ? new ArrayList<>(options.values()) : Collections.emptyList();
+    }
+
+    private synchronized void removeOptions(final Collection<Integer> templateIds) {
+        boolean removed = false;
+        for (final Iterator<ScopedOptions> it = this.options.values().iterator(); it.hasNext(); ) {
+            final ScopedOptions scoped = it.next();
+            boolean empty = false;
+            for (final Integer templateId : templateIds) {
+                empty = scoped.remove(templateId);
+            }
+            if (empty) {
+                it.remove();
+                removed = true;
+            }
+        }
+
+        if (removed) {
+            this.optionsIndex = ImmutableList.copyOf(this.options.values());
+        }
+    }
+}
@@ -28,8 +28,9 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
@@ -77,8 +78,8 @@ public final class Template implements Iterable<Field> {
         private final int id;
         private final Type type;
 
-        private List<Scope> scopes = new LinkedList();
-        private List<Field> fields = new LinkedList();
+        private List<Scope> scopes = new ArrayList<>();
+        private List<Field> fields = new ArrayList<>();
 
         private Builder(final int id,
                         final Type type) {
@@ -102,7 +103,10 @@ public final class Template implements Iterable<Field> {
             Preconditions.checkNotNull(this.scopes);
             Preconditions.checkNotNull(this.fields);
 
-            return new Template(this.id, this.type, this.scopes, this.fields);
+            // Templates are shared by all records decoded with them, so keep them compact and unmodifiable
+            return new Template(this.id, this.type,
+                    Collections.unmodifiableList(new ArrayList<>(this.scopes)),
+                    Collections.unmodifiableList(new ArrayList<>(this.fields)));
         }
     }
 
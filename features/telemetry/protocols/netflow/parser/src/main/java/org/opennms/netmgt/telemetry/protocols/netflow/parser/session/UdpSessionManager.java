@@ -25,28 +25,18 @@
  *     http://www.opennms.org/
  *     http://www.opennms.com/
  *******************************************************************************/
-
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
 import java.net.InetAddress;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 
 public class UdpSessionManager {
@@ -54,23 +44,19 @@ public class UdpSessionManager {
         InetAddress getRemoteAddress();
     }
 
-    private final class UdpSession implements Session {
-        private final class Resolver implements Session.Resolver {
-            private final long observationDomainId;
-
-            private Resolver(final long observationDomainId) {
-                this.observationDomainId = observationDomainId;
-            }
+    private final static class UdpSession implements Session {
+        private final static class Resolver implements Session.Resolver {
+            private final ObservationDomain domain;
 
-            private Key key(final int templateId) {
-                return new Key(UdpSession.this.sessionKey, this.observationDomainId, templateId);
+            private Resolver(final ObservationDomain domain) {
+                this.domain = domain;
             }
 
             @Override
             public Template lookupTemplate(final int templateId) throws MissingTemplateException {
-                final TemplateWrapper templateWrapper = UdpSessionManager.this.templates.get(key(templateId));
-                if (templateWrapper != null) {
-                    return templateWrapper.template;
+                final Template template = this.domain.lookupTemplate(templateId);
+                if (template != null) {
+                    return template;
                 } else {
                     throw new MissingTemplateException(templateId);
                 }
@@ -78,55 +64,44 @@ public class UdpSessionManager {
 
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
-                final LinkedHashMap<String, Value<?>> options = new LinkedHashMap<>();
-
-                final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
-
-                for (final Map.Entry<Key, Map<Set<Value<?>>, List<Value<?>>>> e : Iterables.filter(UdpSessionManager.this.options.entrySet(),
-                                                                                                   e -> Objects.equals(e.getKey().sessionKey, UdpSession.this.sessionKey) &&
-                                                                                                        Objects.equals(e.getKey().observationDomainId, this.observationDomainId))) {
-                    final Template template = UdpSessionManager.this.templates.get(e.getKey()).template;
-
-                    final Set<String> scopes = template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
-
-                    if (scoped.containsAll(scopes)) {
-                        // Found option template where scoped fields is subset of actual data fields
-
-                        final Set<Value<?>> scopeValues = values.stream()
-                                .filter(s -> scopes.contains(s.getName()))
-                                .collect(Collectors.toSet());
-
-                        for (final Value<?> value : e.getValue().getOrDefault(scopeValues, Collections.emptyList())) {
-                            options.put(value.getName(), value);
-                        }
-                    }
-                }
-
-                return new ArrayList<>(options.values());
+                return this.domain.lookupOptions(values);
             }
         }
 
         private final SessionKey sessionKey;
 
-        public UdpSession(final SessionKey sessionKey) {
+        // The observation domains of this exporter by their ID
+        private final Map<Long, ObservationDomain> domains = Maps.newConcurrentMap();
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private UdpSession(final SessionKey sessionKey) {
             this.sessionKey = sessionKey;
         }
 
+        private ObservationDomain domain(final long observationDomainId) {
+            return this.domains.computeIfAbsent(observationDomainId, (id) -> new ObservationDomain());
+        }
+
         @Override
         public void addTemplate(final long observationDomainId, final Template template) {
-            final Key key = new Key(this.sessionKey, observationDomainId, template.id);
-            UdpSessionManager.this.templates.put(key, new TemplateWrapper(template));
+            this.domain(observationDomainId).addTemplate(template);
         }
 
         @Override
         public void removeTemplate(final long observationDomainId, final int templateId) {
-            final Key key = new Key(this.sessionKey, observationDomainId, templateId);
-            UdpSessionManager.this.templates.remove(key);
+            final ObservationDomain domain = this.domains.get(observationDomainId);
+            if (domain != null) {
+                domain.removeTemplate(templateId);
+            }
         }
 
         @Override
         public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-            UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
+            final ObservationDomain domain = this.domains.get(observationDomainId);
+            if (domain != null) {
+                domain.removeAllTemplates(type);
+            }
         }
 
         @Override
@@ -134,63 +109,37 @@ public class UdpSessionManager {
                                final int templateId,
                                final Collection<Value<?>> scopes,
                                final List<Value<?>> values) {
-            final Key key = new Key(this.sessionKey, observationDomainId, templateId);
-            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new HashMap<>()).put(new HashSet<>(scopes), values);
+            this.domain(observationDomainId).addOptions(templateId, scopes, values);
         }
 
         @Override
         public Session.Resolver getResolver(final long observationDomainId) {
-            return new Resolver(observationDomainId);
+            return new Resolver(this.domain(observationDomainId));
         }
 
         @Override
         public InetAddress getRemoteAddress() {
             return this.sessionKey.getRemoteAddress();
         }
-    }
-
-    private final static class Key {
-        private final SessionKey sessionKey;
-        public final long observationDomainId;
-        public final int templateId;
-
-        Key(final SessionKey sessionKey,
-            final long observationDomainId,
-            final int templateId) {
-            this.sessionKey = Objects.requireNonNull(sessionKey);
-            this.observationDomainId = observationDomainId;
-            this.templateId = templateId;
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) return true;
-            if (!(o instanceof Key)) return false;
-
-            final Key that = (Key) o;
-            return this.observationDomainId == that.observationDomainId &&
-                    this.templateId == that.templateId &&
-                    Objects.equals(this.sessionKey, that.sessionKey);
-        }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.sessionKey, this.observationDomainId, this.templateId);
-        }
-    }
-
-    private final static class TemplateWrapper {
-        public final Instant insertionTime;
-        public final Template template;
-
-        private TemplateWrapper(final Template template) {
-            this.insertionTime = Instant.now();
-            this.template = template;
+        /**
+         * Expires the templates of all observation domains.
+         *
+         * @return true if the session has not been used since the given time and has no templates left
+         */
+        private boolean expireTemplates(final Instant timeout) {
+            boolean empty = true;
+            for (final ObservationDomain domain : this.domains.values()) {
+                domain.expireTemplates(timeout);
+                empty &= domain.isEmpty();
+            }
+            return empty && this.lastUsed < timeout.toEpochMilli();
         }
     }
 
-    private final Map<Key, TemplateWrapper> templates = Maps.newHashMap();
-    private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
+    // The templates and options are sharded by exporter and observation domain, so that sessions of
+    // different exporters can be used concurrently by the listener threads without contention
+    private final Map<SessionKey, UdpSession> sessions = Maps.newConcurrentMap();
 
     private final Duration timeout;
 
@@ -200,14 +149,24 @@ public class UdpSessionManager {
 
     public void doHousekeeping() {
         final Instant timeout = Instant.now().minus(this.timeout);
-        UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout));
+        for (final SessionKey sessionKey : this.sessions.keySet()) {
+            // Evict the session atomically, so that it can not be handed out at the same time
+            this.sessions.computeIfPresent(sessionKey, (key, session) -> session.expireTemplates(timeout) ? null : session);
+        }
     }
 
     public Session getSession(final SessionKey sessionKey) {
-        return new UdpSession(sessionKey);
+        // Mark the session as used while holding the same lock as the housekeeping
+        return this.sessions.compute(sessionKey, (key, session) -> {
+            if (session == null) {
+                session = new UdpSession(key);
+            }
+            session.lastUsed = System.currentTimeMillis();
+            return session;
+        });
     }
 
     public void drop(final SessionKey sessionKey) {
-        this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().sessionKey, sessionKey));
+        this.sessions.remove(sessionKey);
     }
 }
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.PackedRecord;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.BooleanValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.FloatValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv4AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv6AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.ListValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.MacAddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.NullValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.OctetArrayValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.SignedValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UndeclaredValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+import io.netty.buffer.Unpooled;
+
+public class PackedRecordTest {
+
+    @Test
+    public void testPackedUnsignedValues() throws Exception {
+        final PackedRecord.Builder builder = PackedRecord.builder();
+        UnsignedValue.parserWith8Bit("protocolIdentifier", Optional.of(Semantics.IDENTIFIER)).parseInto(builder, null, Unpooled.wrappedBuffer(new byte[]{6}));
+        UnsignedValue.parserWith64Bit("octetDeltaCount", Optional.of(Semantics.DELTA_COUNTER)).parseInto(builder, null, Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE}));
+        UnsignedValue.parserWith32Bit("ingressInterface", Optional.empty()).parseInto(builder, null, Unpooled.wrappedBuffer(new byte[]{0, 1}));
+        StringValue.parser("interfaceName", Optional.empty()).parseInto(builder, null, Unpooled.wrappedBuffer("eth0".getBytes()));
+        final PackedRecord record = builder.build();
+
+        final List<Value<?>> expected = Arrays.asList(
+                UnsignedValue.parserWith8Bit("protocolIdentifier", Optional.of(Semantics.IDENTIFIER)).parse(null, Unpooled.wrappedBuffer(new byte[]{6})),
+                UnsignedValue.parserWith64Bit("octetDeltaCount", Optional.of(Semantics.DELTA_COUNTER)).parse(null, Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE})),
+                UnsignedValue.parserWith32Bit("ingressInterface", Optional.empty()).parse(null, Unpooled.wrappedBuffer(new byte[]{0, 1})),
+                StringValue.parser("interfaceName", Optional.empty()).parse(null, Unpooled.wrappedBuffer("eth0".getBytes())));
+        Assert.assertEquals(expected, record);
+        Assert.assertEquals(Optional.of(Semantics.DELTA_COUNTER), record.get(1).getSemantics());
+
+        // The builder is reused for the next record
+        Assert.assertEquals(0, PackedRecord.builder().build().size());
+
+        final List<Value<?>> header = Arrays.asList(new UnsignedValue("@recordCount", 1));
+        final List<Value<?>> options = Arrays.asList(new StringValue("option", Optional.empty(), "value"));
+        final List<Value<?>> withContext = new ArrayList<>(header);
+        withContext.addAll(expected);
+        withContext.addAll(options);
+        Assert.assertEquals(withContext, record.withContext(header, options));
+    }
+
+    @Test
+    public void testVisitPackedValues() throws Exception {
+        final PackedRecord.Builder builder = PackedRecord.builder();
+        builder.addUnsigned("sourceTransportPort", Optional.empty(), 80);
+        builder.add(new StringValue("interfaceName", Optional.empty(), "eth0"));
+        final PackedRecord record = builder.build().withContext(Arrays.asList(new UnsignedValue("@recordCount", 1)), Arrays.asList());
+
+        final List<String> visited = new ArrayList<>();
+        PackedRecord.visit(record, new NamingVisitor(visited) {
+            @Override
+            public void acceptUnsigned(final String name, final Optional<Semantics> semantics, final long value) {
+                visited.add("unsigned:" + name + "=" + value);
+            }
+        });
+        Assert.assertEquals(Arrays.asList("@recordCount", "unsigned:sourceTransportPort=80", "interfaceName"), visited);
+
+        // Visitors which are not aware of packed records receive the values
+        visited.clear();
+        PackedRecord.visit(record, new NamingVisitor(visited));
+        Assert.assertEquals(Arrays.asList("@recordCount", "sourceTransportPort", "interfaceName"), visited);
+    }
+
+    private static class NamingVisitor implements Value.Visitor {
+        private final List<String> visited;
+
+        private NamingVisitor(final List<String> visited) {
+            this.visited = visited;
+        }
+
+        @Override
+        public void accept(NullValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(BooleanValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(DateTimeValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(FloatValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(IPv4AddressValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(IPv6AddressValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(MacAddressValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(OctetArrayValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(SignedValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(StringValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(UnsignedValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(ListValue value) {
+            this.visited.add(value.getName());
+        }
+
+        @Override
+        public void accept(UndeclaredValue value) {
+            this.visited.add(value.getName());
+        }
+    }
+}
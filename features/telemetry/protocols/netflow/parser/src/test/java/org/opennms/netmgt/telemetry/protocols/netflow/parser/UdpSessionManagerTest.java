@@ -31,6 +31,9 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 
@@ -182,4 +185,139 @@ public class UdpSessionManagerTest {
         testIpFixSessionKeys(remoteAddress1, localAddress1, remoteAddress4, localAddress1, false);
         testIpFixSessionKeys(remoteAddress1, localAddress1, remoteAddress4, localAddress2, false);
     }
+
+    @Test
+    public void testRemoveAllTemplatesOfSession() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30));
+        final Session session1 = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1));
+        final Session session2 = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress3, localAddress1));
+
+        session1.addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+        session2.addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+
+        session1.removeAllTemplate(observationId1, Template.Type.TEMPLATE);
+
+        try {
+            session1.getResolver(observationId1).lookupTemplate(templateId1);
+            Assert.fail("Template should have been removed");
+        } catch (final MissingTemplateException e) {
+            // expected
+        }
+        Assert.assertNotNull(session2.getResolver(observationId1).lookupTemplate(templateId1));
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30));
+        final UdpSessionManager.SessionKey sessionKey1 = new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1);
+        final UdpSessionManager.SessionKey sessionKey2 = new IpfixUdpParser.SessionKey(remoteAddress3, localAddress1);
+
+        udpSessionManager.getSession(sessionKey1).addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+        udpSessionManager.getSession(sessionKey2).addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+
+        udpSessionManager.drop(sessionKey1);
+
+        try {
+            udpSessionManager.getSession(sessionKey1).getResolver(observationId1).lookupTemplate(templateId1);
+            Assert.fail("Template should have been dropped");
+        } catch (final MissingTemplateException e) {
+            // expected
+        }
+        Assert.assertNotNull(udpSessionManager.getSession(sessionKey2).getResolver(observationId1).lookupTemplate(templateId1));
+    }
+
+    @Test
+    public void testOptionsLookup() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30));
+        final Session session = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1));
+
+        // Two templates with the same scope fields and one with a different one
+        session.addTemplate(observationId1, Template.builder(100, Template.Type.OPTIONS_TEMPLATE).withScopes(Arrays.asList(scope("scope1", null))).build());
+        session.addTemplate(observationId1, Template.builder(101, Template.Type.OPTIONS_TEMPLATE).withScopes(Arrays.asList(scope("scope1", null))).build());
+        session.addTemplate(observationId1, Template.builder(102, Template.Type.OPTIONS_TEMPLATE).withScopes(Arrays.asList(scope("scope1", null), scope("scope2", null))).build());
+
+        session.addOptions(observationId1, 100, Arrays.asList(value("scope1", "a")), Arrays.asList(value("option1", "100a")));
+        session.addOptions(observationId1, 100, Arrays.asList(value("scope1", "b")), Arrays.asList(value("option1", "100b")));
+        session.addOptions(observationId1, 101, Arrays.asList(value("scope1", "a")), Arrays.asList(value("option2", "101a")));
+        session.addOptions(observationId1, 102, Arrays.asList(value("scope1", "a"), value("scope2", "x")), Arrays.asList(value("option3", "102ax")));
+
+        final Session.Resolver resolver = session.getResolver(observationId1);
+        Assert.assertEquals(Arrays.asList(value("option1", "100a"), value("option2", "101a")),
+                resolver.lookupOptions(Arrays.asList(value("scope1", "a"), value("field", "f"))));
+        Assert.assertEquals(Arrays.asList(value("option1", "100b")),
+                resolver.lookupOptions(Arrays.asList(value("scope1", "b"), value("scope2", "x"))));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(value("option1", "100a"), value("option2", "101a"), value("option3", "102ax"))),
+                new HashSet<>(resolver.lookupOptions(Arrays.asList(value("scope1", "a"), value("scope2", "x")))));
+        Assert.assertEquals(Collections.emptyList(), resolver.lookupOptions(Arrays.asList(value("scope2", "x"))));
+        Assert.assertEquals(Collections.emptyList(), resolver.lookupOptions(Arrays.asList(value("scope1", "c"))));
+
+        // Updated options replace the previous ones
+        session.addOptions(observationId1, 101, Arrays.asList(value("scope1", "a")), Arrays.asList(value("option2", "101a'")));
+        Assert.assertEquals(Arrays.asList(value("option1", "100a"), value("option2", "101a'")),
+                resolver.lookupOptions(Arrays.asList(value("scope1", "a"))));
+
+        // Refreshing a template keeps its options, removing it drops them
+        session.addTemplate(observationId1, Template.builder(100, Template.Type.OPTIONS_TEMPLATE).withScopes(Arrays.asList(scope("scope1", null))).build());
+        Assert.assertEquals(Arrays.asList(value("option1", "100a"), value("option2", "101a'")),
+                resolver.lookupOptions(Arrays.asList(value("scope1", "a"))));
+        session.removeTemplate(observationId1, 100);
+        Assert.assertEquals(Arrays.asList(value("option2", "101a'")),
+                resolver.lookupOptions(Arrays.asList(value("scope1", "a"))));
+        Assert.assertEquals(Collections.emptyList(), resolver.lookupOptions(Arrays.asList(value("scope1", "b"))));
+
+        session.removeAllTemplate(observationId1, Template.Type.OPTIONS_TEMPLATE);
+        Assert.assertEquals(Collections.emptyList(), resolver.lookupOptions(Arrays.asList(value("scope1", "a"), value("scope2", "x"))));
+    }
+
+    @Test
+    public void testHousekeeping() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMillis(50));
+        final UdpSessionManager.SessionKey sessionKey1 = new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1);
+        final UdpSessionManager.SessionKey sessionKey2 = new IpfixUdpParser.SessionKey(remoteAddress3, localAddress1);
+
+        final Session session1 = udpSessionManager.getSession(sessionKey1);
+        session1.addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+        session1.addTemplate(observationId1, Template.builder(200, Template.Type.OPTIONS_TEMPLATE).withScopes(Arrays.asList(scope("scope1", null))).build());
+        session1.addOptions(observationId1, 200, Arrays.asList(value("scope1", "a")), Arrays.asList(value("option1", "200a")));
+        final Session session2 = udpSessionManager.getSession(sessionKey2);
+
+        // Nothing expires before the timeout
+        udpSessionManager.doHousekeeping();
+        Assert.assertNotNull(session1.getResolver(observationId1).lookupTemplate(templateId1));
+        Assert.assertSame(session2, udpSessionManager.getSession(sessionKey2));
+
+        Thread.sleep(100);
+
+        // Refresh one of the templates
+        session1.addTemplate(observationId1, Template.builder(templateId1, Template.Type.TEMPLATE).build());
+        udpSessionManager.doHousekeeping();
+
+        // The session with the refreshed template is kept, the options of the expired template are gone
+        Assert.assertSame(session1, udpSessionManager.getSession(sessionKey1));
+        Assert.assertNotNull(session1.getResolver(observationId1).lookupTemplate(templateId1));
+        try {
+            session1.getResolver(observationId1).lookupTemplate(200);
+            Assert.fail("Template should have expired");
+        } catch (final MissingTemplateException e) {
+            // expected
+        }
+        Assert.assertEquals(Collections.emptyList(), session1.getResolver(observationId1).lookupOptions(Arrays.asList(value("scope1", "a"))));
+
+        // The idle session without templates is evicted
+        Assert.assertNotSame(session2, udpSessionManager.getSession(sessionKey2));
+    }
+
+    @Test
+    public void testHousekeepingKeepsUsedSessions() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMillis(50));
+        final UdpSessionManager.SessionKey sessionKey = new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1);
+
+        final Session session = udpSessionManager.getSession(sessionKey);
+        Thread.sleep(100);
+
+        // Using the session again keeps it alive, even without templates
+        Assert.assertSame(session, udpSessionManager.getSession(sessionKey));
+        udpSessionManager.doHousekeeping();
+        Assert.assertSame(session, udpSessionManager.getSession(sessionKey));
+    }
 }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.alarmd.api;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.netmgt.model.OnmsAlarm;
 
@@ -61,6 +62,29 @@ public interface AlarmLifecycleListener {
      */
     void handleAlarmSnapshot(List<OnmsAlarm> alarms);
 
+    /**
+     * Called periodically, in place of {@link #handleAlarmSnapshot}, with the alarms that were
+     * created, updated or deleted since the last snapshot or delta that was handled by this listener.
+     *
+     * The delta may include alarms that have not changed, or that were already reported
+     * with a previous delta. The same considerations as for {@link #handleAlarmSnapshot} apply
+     * with regards to the *current* state of the alarms.
+     *
+     * Listeners can return <code>false</code> to request a resync, in which case
+     * {@link #handleAlarmSnapshot} will be called with the complete set of alarms instead,
+     * for this call only. The following calls will carry deltas again.
+     *
+     * By default, the delta is ignored: listeners that do not support deltas receive a complete
+     * snapshot when they are registered, and rely on the other callbacks to track the changes.
+     *
+     * @param changedAlarms alarms that were created or updated since the last snapshot
+     * @param deletedAlarms reduction keys of the alarms that were deleted since the last snapshot, by alarm id
+     * @return <code>true</code> if the delta was handled, <code>false</code> if a complete snapshot is required
+     */
+    default boolean handleAlarmDelta(List<OnmsAlarm> changedAlarms, Map<Integer, String> deletedAlarms) {
+        return true;
+    }
+
     /**
      * Called before the transaction is opened and the alarms are read for subsequent
      * calls to {@link #handleAlarmSnapshot}.
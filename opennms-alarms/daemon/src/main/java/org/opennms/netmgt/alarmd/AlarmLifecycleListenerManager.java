@@ -29,12 +29,15 @@
 package org.opennms.netmgt.alarmd;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
@@ -53,8 +56,6 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import com.google.common.collect.Sets;
-
 public class AlarmLifecycleListenerManager implements AlarmEntityListener, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(AlarmLifecycleListenerManager.class);
@@ -62,7 +63,18 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     public static final String ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP = "org.opennms.alarms.snapshot.sync.ms";
     public static final long ALARM_SNAPSHOT_INTERVAL_MS = SystemProperties.getLong(ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP, TimeUnit.MINUTES.toMillis(2));
 
-    private final Set<AlarmLifecycleListener> listeners = Sets.newConcurrentHashSet();
+    /**
+     * Number of snapshot runs between two complete snapshots sent to all of the listeners.
+     * Disabled by default: the listeners only receive a complete snapshot when they are
+     * registered and when they request a resync.
+     */
+    public static final String ALARM_FULL_SNAPSHOT_EVERY_SYS_PROP = "org.opennms.alarms.snapshot.full.every";
+    public static final long ALARM_FULL_SNAPSHOT_EVERY = SystemProperties.getLong(ALARM_FULL_SNAPSHOT_EVERY_SYS_PROP, 0);
+
+    private static final long NO_VERSION = -1;
+
+    private final Map<AlarmLifecycleListener, ListenerState> listeners = new ConcurrentHashMap<>();
+    private long snapshotCount = 0;
     private Timer timer;
 
     @Autowired
@@ -99,30 +111,80 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
             return;
         }
 
-        final AtomicLong numAlarms = new AtomicLong(-1);
+        // Complete snapshots can be sent to all of the listeners periodically, if enabled
+        final boolean fullSnapshot = ALARM_FULL_SNAPSHOT_EVERY > 0 && snapshotCount++ % ALARM_FULL_SNAPSHOT_EVERY == 0;
+
+        final AtomicLong numAlarms = new AtomicLong(0);
         final long systemMillisBeforeSnapshot = System.currentTimeMillis();
         final AtomicLong systemMillisAfterLoad = new AtomicLong(-1);
         try {
             forEachListener(AlarmLifecycleListener::preHandleAlarmSnapshot);
             sessionUtils.withTransaction(() -> {
-               // Load all of the alarms
-               final List<OnmsAlarm> allAlarms = alarmDao.findAll();
-               numAlarms.set(allAlarms.size());
-               // Save the timestamp after the load, so we can differentiate between how long it took
-               // to load the alarms and how long it took to invoke the callbacks
-               systemMillisAfterLoad.set(System.currentTimeMillis());
-               forEachListener(l -> {
-                   LOG.debug("Calling handleAlarmSnapshot on listener: {}", l);
-                   l.handleAlarmSnapshot(allAlarms);
-                   LOG.debug("Done calling listener.");
-               });
-               return null;
+                // Retrieve the watermark before loading any alarms, so that changes committed
+                // while the alarms are being loaded are included in the next delta
+                final long watermark = alarmDao.getAlarmChangeWatermark();
+                final Map<Long, List<OnmsAlarm>> changedAlarmsByVersion = new HashMap<>();
+                final Map<Long, Map<Integer, String>> deletedAlarmsByVersion = new HashMap<>();
+                List<OnmsAlarm> allAlarms = null;
+
+                for (Map.Entry<AlarmLifecycleListener, ListenerState> entry : listeners.entrySet()) {
+                    final AlarmLifecycleListener l = entry.getKey();
+                    final ListenerState state = entry.getValue();
+                    // Clear the request before loading the alarms, so that later requests are not lost
+                    final boolean resync = state.resyncRequested.getAndSet(false);
+                    try {
+                        if (!fullSnapshot && !resync && state.version != NO_VERSION) {
+                            // Listeners that have seen the same version share the same delta
+                            final long version = state.version;
+                            final List<OnmsAlarm> changedAlarms = changedAlarmsByVersion.computeIfAbsent(version, alarmDao::findChangedAlarms);
+                            final Map<Integer, String> deletedAlarms = deletedAlarmsByVersion.computeIfAbsent(version, alarmDao::findDeletedAlarms);
+                            numAlarms.addAndGet(changedAlarms.size());
+                            systemMillisAfterLoad.compareAndSet(-1, System.currentTimeMillis());
+                            LOG.debug("Calling handleAlarmDelta with {} changed and {} deleted alarms on listener: {}",
+                                    changedAlarms.size(), deletedAlarms.size(), l);
+                            if (l.handleAlarmDelta(changedAlarms, deletedAlarms)) {
+                                LOG.debug("Done calling listener.");
+                                state.version = watermark;
+                                continue;
+                            }
+                            LOG.debug("Listener requested a resync, sending a complete snapshot instead.");
+                        }
+
+                        if (allAlarms == null) {
+                            // Load all of the alarms
+                            allAlarms = alarmDao.findAll();
+                            numAlarms.addAndGet(allAlarms.size());
+                        }
+                        // Save the timestamp after the load, so we can differentiate between how long it took
+                        // to load the alarms and how long it took to invoke the callbacks
+                        systemMillisAfterLoad.compareAndSet(-1, System.currentTimeMillis());
+                        LOG.debug("Calling handleAlarmSnapshot on listener: {}", l);
+                        l.handleAlarmSnapshot(allAlarms);
+                        LOG.debug("Done calling listener.");
+                        state.version = watermark;
+                    } catch (Exception e) {
+                        LOG.error("Error occurred while invoking listener: {}. Skipping.", l, e);
+                        // Send a complete snapshot on the next run
+                        state.resyncRequested.set(true);
+                    }
+                }
+
+                // The deleted alarms are only needed until every listener has seen them
+                final long minVersion = listeners.values().stream()
+                        .filter(state -> state.version != NO_VERSION)
+                        .mapToLong(state -> state.version)
+                        .min()
+                        .orElse(watermark);
+                final int numPurged = alarmDao.purgeDeletedAlarms(minVersion);
+                LOG.debug("Purged {} deleted alarm records before version {}.", numPurged, minVersion);
+                return null;
             });
         } finally {
             if (LOG.isDebugEnabled()) {
                 final long now = System.currentTimeMillis();
-                LOG.debug("Alarm snapshot for {} alarms completed. Spent {}ms loading the alarms. " +
+                LOG.debug("Alarm {} for {} alarms completed. Spent {}ms loading the alarms. " +
                                 "Snapshot processing took a total of of {}ms.",
+                        fullSnapshot ? "snapshot" : "delta",
                         numAlarms.get(),
                         systemMillisAfterLoad.get() - systemMillisBeforeSnapshot,
                         now - systemMillisBeforeSnapshot);
@@ -201,7 +263,7 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     }
 
     private void forEachListener(Consumer<AlarmLifecycleListener> callback) {
-        for (AlarmLifecycleListener listener : listeners) {
+        for (AlarmLifecycleListener listener : listeners.keySet()) {
             try {
                 callback.accept(listener);
             } catch (Exception e) {
@@ -212,7 +274,20 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
 
     public void onListenerRegistered(final AlarmLifecycleListener listener, final Map<String,String> properties) {
         LOG.debug("onListenerRegistered: {} with properties: {}", listener, properties);
-        listeners.add(listener);
+        listeners.put(listener, new ListenerState());
+    }
+
+    /**
+     * Sends a complete snapshot to the given listener on the next run, instead of a delta.
+     * The following runs send deltas again.
+     *
+     * @param listener a registered listener
+     */
+    public void requestResync(final AlarmLifecycleListener listener) {
+        final ListenerState state = listeners.get(listener);
+        if (state != null) {
+            state.resyncRequested.set(true);
+        }
     }
 
     public void onListenerUnregistered(final AlarmLifecycleListener listener, final Map<String,String> properties) {
@@ -238,4 +313,13 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
         stop();
     }
 
+    /**
+     * Tracks the version of the alarms that was last handled by a listener.
+     * The version is only accessed from the thread performing the snapshots.
+     */
+    private static class ListenerState {
+        private long version = NO_VERSION;
+        private final AtomicBoolean resyncRequested = new AtomicBoolean(false);
+    }
+
 }
@@ -28,6 +28,10 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.xml.event.Event;
 
@@ -47,4 +51,20 @@ public interface AlarmPersister {
      */
     OnmsAlarm persist(Event event);
 
+    /**
+     * <p>persist</p>
+     *
+     * Persists the given events in order. Implementations may persist several
+     * of these in a single transaction.
+     *
+     * @param events the {@link org.opennms.netmgt.xml.event.Event} objects
+     * @return the new/updated {@link OnmsAlarm}s
+     */
+    default List<OnmsAlarm> persist(List<Event> events) {
+        return events.stream()
+                .map(this::persist)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
 }
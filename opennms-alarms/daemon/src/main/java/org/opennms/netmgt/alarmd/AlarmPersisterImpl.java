@@ -29,15 +29,20 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.opennms.core.sysprops.SystemProperties;
@@ -57,6 +62,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -76,6 +83,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static final Integer NUM_STRIPE_LOCKS = SystemProperties.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
+    protected static boolean GROUP_COMMIT = Boolean.getBoolean("org.opennms.alarmd.groupCommit");
+    protected static final Integer GROUP_COMMIT_MAX_SIZE = SystemProperties.getInteger("org.opennms.alarmd.groupCommit.maxSize", 100);
 
     @Autowired
     private AlarmDao m_alarmDao;
@@ -100,6 +109,10 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private boolean m_groupCommit = GROUP_COMMIT;
+
+    private int m_groupCommitMaxSize = GROUP_COMMIT_MAX_SIZE;
+
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -119,7 +132,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         try {
             locks.forEach(Lock::lock);
             // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
+            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event, m_alarmDao::findByReductionKey, Runnable::run));
         } finally {
             locks.forEach(Lock::unlock);
         }
@@ -127,7 +140,131 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
-    private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
+    /**
+     * Persists the events in order.
+     *
+     * If group commit is enabled, consecutive events which do not share any reduction or clear keys
+     * are persisted in a single transaction, looking up their alarms with a single query. The
+     * {@link AlarmEntityNotifier} callbacks for these are only invoked once the transaction was committed.
+     * Events sharing keys are persisted in subsequent transactions, preserving their order.
+     */
+    @Override
+    public List<OnmsAlarm> persist(List<Event> events) {
+        final List<OnmsAlarm> alarms = new ArrayList<>(events.size());
+        if (!m_groupCommit) {
+            for (Event event : events) {
+                persistAndLogFailure(event, alarms);
+            }
+            return alarms;
+        }
+
+        final List<Event> group = new ArrayList<>();
+        final Set<String> groupKeys = new HashSet<>();
+        for (Event event : events) {
+            try {
+                if (!checkEventSanityAndDoWeProcess(event)) {
+                    continue;
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.warn("persist: {}", e.getMessage());
+                continue;
+            }
+
+            final Collection<String> keys = getLockKeys(event);
+            if (group.size() >= m_groupCommitMaxSize || !Collections.disjoint(groupKeys, keys)) {
+                persistGroup(group, groupKeys, alarms);
+                group.clear();
+                groupKeys.clear();
+            }
+            group.add(event);
+            groupKeys.addAll(keys);
+        }
+        persistGroup(group, groupKeys, alarms);
+
+        return alarms;
+    }
+
+    private void persistGroup(List<Event> group, Set<String> keys, List<OnmsAlarm> alarms) {
+        if (group.isEmpty()) {
+            return;
+        } else if (group.size() == 1) {
+            persistAndLogFailure(group.get(0), alarms);
+            return;
+        }
+
+        // The stripes are returned in a consistent order, so that the locks of overlapping groups can not deadlock
+        final Iterable<Lock> locks = lockStripes.bulkGet(keys);
+        try {
+            locks.forEach(Lock::lock);
+            try {
+                alarms.addAll(m_transactionOperations.execute((action) -> addOrReduceEventsAsAlarms(group, keys)));
+            } catch (RuntimeException e) {
+                // Don't let a single event spoil the whole group
+                LOG.warn("persist: failed to persist {} events in a single transaction. Persisting them one at a time.", group.size(), e);
+                for (Event event : group) {
+                    persistAndLogFailure(event, alarms);
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    private void persistAndLogFailure(Event event, List<OnmsAlarm> alarms) {
+        try {
+            final OnmsAlarm alarm = persist(event);
+            if (alarm != null) {
+                alarms.add(alarm);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("persist: failed to persist alarm for event with uei: {} and dbid: {}", event.getUei(), event.getDbid(), e);
+        }
+    }
+
+    private List<OnmsAlarm> addOrReduceEventsAsAlarms(List<Event> events, Set<String> keys) {
+        // The keys of the events are distinct, so all of the alarms can be looked up at once
+        final Map<String, OnmsAlarm> alarmsByReductionKey = new HashMap<>();
+        for (OnmsAlarm alarm : m_alarmDao.findByReductionKeys(keys)) {
+            alarmsByReductionKey.put(alarm.getReductionKey(), alarm);
+        }
+
+        final List<Runnable> notifications = new ArrayList<>();
+        final List<OnmsAlarm> alarms = new ArrayList<>(events.size());
+        for (Event event : events) {
+            alarms.add(addOrReduceEventAsAlarm(event, alarmsByReductionKey::get, notifications::add));
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runNotifications(notifications);
+                }
+            });
+        } else {
+            runNotifications(notifications);
+        }
+        return alarms;
+    }
+
+    private static void runNotifications(List<Runnable> notifications) {
+        for (Runnable notification : notifications) {
+            try {
+                notification.run();
+            } catch (RuntimeException e) {
+                LOG.error("An error occurred while notifying the alarm entity listeners.", e);
+            }
+        }
+    }
+
+    /**
+     * Creates or reduces the alarm for the event.
+     *
+     * @param alarmLookup used to find the existing alarm by reduction key
+     * @param notifications receives the {@link AlarmEntityNotifier} callbacks, which are either run immediately
+     *                      or once the transaction was committed
+     */
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, Function<String, OnmsAlarm> alarmLookup, Consumer<Runnable> notifications) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
         if (persistedEvent == null) {
@@ -146,11 +283,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             didSwapReductionKeyWithClearKey = true;
         }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = alarmLookup.apply(key);
 
         if (alarm == null && didSwapReductionKeyWithClearKey) {
             // if the clearKey returns null, still need to check the reductionKey
-            alarm = m_alarmDao.findByReductionKey(reductionKey);
+            alarm = alarmLookup.apply(reductionKey);
         }
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
@@ -165,7 +302,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_alarmDao.save(alarm);
                 m_alarmDao.flush();
 
-                m_alarmEntityNotifier.didArchiveAlarm(alarm, reductionKey);
+                final OnmsAlarm archivedAlarm = alarm;
+                notifications.accept(() -> m_alarmEntityNotifier.didArchiveAlarm(archivedAlarm, reductionKey));
             }
 
             alarm = createNewAlarm(persistedEvent, event);
@@ -181,7 +319,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(persistedEvent);
 
-            m_alarmEntityNotifier.didCreateAlarm(alarm);
+            final OnmsAlarm createdAlarm = alarm;
+            notifications.accept(() -> m_alarmEntityNotifier.didCreateAlarm(createdAlarm));
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getId());
             reduceEvent(persistedEvent, alarm, event);
@@ -201,7 +340,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
             }
 
-            m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+            final OnmsAlarm reducedAlarm = alarm;
+            notifications.accept(() -> m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(reducedAlarm));
         }
         return alarm;
     }
@@ -527,4 +667,20 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public boolean isGroupCommit() {
+        return m_groupCommit;
+    }
+
+    public void setGroupCommit(boolean groupCommit) {
+        m_groupCommit = groupCommit;
+    }
+
+    public int getGroupCommitMaxSize() {
+        return m_groupCommitMaxSize;
+    }
+
+    public void setGroupCommitMaxSize(int groupCommitMaxSize) {
+        m_groupCommitMaxSize = groupCommitMaxSize;
+    }
 }
@@ -28,10 +28,15 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.alarmd.drools.DroolsAlarmContext;
 import org.opennms.netmgt.daemon.AbstractServiceDaemon;
 import org.opennms.netmgt.daemon.DaemonTools;
+import org.opennms.netmgt.events.api.BatchEventListener;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.events.api.annotations.EventHandler;
 import org.opennms.netmgt.events.api.annotations.EventListener;
@@ -47,7 +52,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
 @EventListener(name=Alarmd.NAME, logPrefix="alarmd")
-public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventListener {
+public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventListener, BatchEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(Alarmd.class);
 
     /** Constant <code>NAME="alarmd"</code> */
@@ -79,13 +84,44 @@ public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventLis
      */
     @EventHandler(uei = EventHandler.ALL_UEIS)
     public void onEvent(Event e) {
-    	if (e.getUei().equals("uei.opennms.org/internal/reloadDaemonConfig")) {
+    	if (isReloadEvent(e)) {
            handleReloadEvent(e);
            return;
     	}
     	m_persister.persist(e);
     }
 
+    /**
+     * Listens for all events, handing them over to the persister in batches.
+     *
+     * This method is thread-safe.
+     *
+     * @param events the events to process
+     */
+    @Override
+    public void onEvents(List<Event> events) {
+        final List<Event> batch = new ArrayList<>(events.size());
+        for (Event e : events) {
+            if (isReloadEvent(e)) {
+                // Keep the events in order
+                if (!batch.isEmpty()) {
+                    m_persister.persist(batch);
+                    batch.clear();
+                }
+                handleReloadEvent(e);
+                continue;
+            }
+            batch.add(e);
+        }
+        if (!batch.isEmpty()) {
+            m_persister.persist(batch);
+        }
+    }
+
+    private static boolean isReloadEvent(Event e) {
+        return EventConstants.RELOAD_DAEMON_CONFIG_UEI.equals(e.getUei());
+    }
+
     private synchronized void handleReloadEvent(Event e) {
         m_northbounderManager.handleReloadEvent(e);
         DaemonTools.handleReloadEvent(e, Alarmd.NAME, (event) -> onAlarmReload());
@@ -357,6 +357,70 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         });
     }
 
+    @Override
+    public boolean handleAlarmDelta(List<OnmsAlarm> changedAlarms, Map<Integer, String> deletedAlarms) {
+        if (!isStarted()) {
+            LOG.debug("Ignoring alarm delta. Drools session is stopped.");
+            return true;
+        }
+
+        LOG.debug("Handling delta for {} changed and {} deleted alarms.", changedAlarms.size(), deletedAlarms.size());
+        final List<OnmsAlarm> alarms = changedAlarms.stream()
+                .filter(a -> a.getId() != null)
+                .collect(Collectors.toList());
+
+        // Eagerly initialize the alarms
+        for (OnmsAlarm alarm : alarms) {
+            eagerlyInitializeAlarm(alarm);
+        }
+
+        // Retrieve the acks from the database for the set of the alarms we've been given
+        final Map<Integer, OnmsAcknowledgment> acksByRefId = fetchAcks(alarms);
+
+        submitOrRun(kieSession -> {
+            final List<OnmsAlarm> alarmsToUpdate = alarms.stream()
+                    .filter(alarmInDb -> {
+                        final Integer alarmId = alarmInDb.getId();
+                        // Don't bother updating the alarm in memory if the fact we have is more recent than the delta
+                        if (stateTracker.wasAlarmWithIdUpdated(alarmId)) {
+                            return false;
+                        }
+                        final AlarmAndFact alarmAndFact = alarmsById.get(alarmId);
+                        if (alarmAndFact == null) {
+                            // Only add the alarm if we did not explicitly delete it after the delta was taken
+                            return !stateTracker.wasAlarmWithIdDeleted(alarmId);
+                        }
+                        // Only update the alarms if they are different
+                        return shouldUpdateAlarmForSnapshot(alarmAndFact.getAlarm(), alarmInDb);
+                    })
+                    .collect(Collectors.toList());
+            final Set<Integer> alarmIdsToRemove = deletedAlarms.keySet().stream()
+                    // Only remove the alarm from memory if the fact we have dates before the delta
+                    .filter(alarmId -> alarmsById.containsKey(alarmId) && !stateTracker.wasAlarmWithIdUpdated(alarmId))
+                    .collect(Collectors.toSet());
+
+            if (LOG.isDebugEnabled()) {
+                if (!alarmsToUpdate.isEmpty() || !alarmIdsToRemove.isEmpty()) {
+                    LOG.debug("Adding or updating {} alarms and removing {} alarms for delta.",
+                            alarmsToUpdate.size(), alarmIdsToRemove.size());
+                } else {
+                    LOG.debug("No actions to perform for alarm delta.");
+                }
+            }
+
+            for (Integer alarmIdToRemove : alarmIdsToRemove) {
+                handleDeletedAlarmForAtomic(kieSession, alarmIdToRemove, alarmsById.get(alarmIdToRemove).getAlarm().getReductionKey());
+            }
+            for (OnmsAlarm alarm : alarmsToUpdate) {
+                handleNewOrUpdatedAlarmForAtomic(kieSession, alarm, acksByRefId.get(alarm.getId()));
+            }
+
+            stateTracker.resetStateAndStopTrackingAlarms();
+            LOG.debug("Done handling delta.");
+        });
+        return true;
+    }
+
     @Override
     public void postHandleAlarmSnapshot() {
         // pass
@@ -29,12 +29,19 @@
 package org.opennms.netmgt.alarmd;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -138,4 +145,143 @@ public class AlarmLifecycleListenerManagerSnapshotTest {
         assertThat(newUpdateOrDeleteAfterSnapshot.get(), equalTo(0));
         assertThat(newUpdateOrDeleteDuringSnapshot.get(), equalTo(2));
     }
+
+    /**
+     * Verifies that listeners which support deltas only receive the alarms that
+     * changed since the last snapshot, and that the other listeners only receive
+     * a complete snapshot when they are registered.
+     */
+    @Test
+    public void canHandleDeltas() {
+        final List<String> deltaCallbacks = new ArrayList<>();
+        final List<String> snapshotCallbacks = new ArrayList<>();
+        final AlarmLifecycleListener deltaListener = new TestListener("delta", deltaCallbacks, true);
+        final AlarmLifecycleListener snapshotListener = new TestListener("snapshot", snapshotCallbacks, false);
+
+        final AlarmDao alarmDao = mockAlarmDao(5L, 9L);
+
+        final AlarmLifecycleListenerManager alm = new AlarmLifecycleListenerManager();
+        alm.setAlarmDao(alarmDao);
+        alm.setSessionUtils(new MockSessionUtils());
+        alm.onListenerRegistered(deltaListener, Maps.newHashMap());
+        alm.onListenerRegistered(snapshotListener, Maps.newHashMap());
+
+        // The first run sends a complete snapshot to every listener
+        alm.doSnapshot();
+        assertThat(deltaCallbacks, contains("snapshot:2"));
+        assertThat(snapshotCallbacks, contains("snapshot:2"));
+        verify(alarmDao, never()).findChangedAlarms(5L);
+        verify(alarmDao).purgeDeletedAlarms(5L);
+
+        // The second run only sends the changes, and does not load all of the alarms again
+        alm.doSnapshot();
+        assertThat(deltaCallbacks, contains("snapshot:2", "delta:1:1"));
+        assertThat(snapshotCallbacks, contains("snapshot:2"));
+        verify(alarmDao, times(1)).findAll();
+        verify(alarmDao).purgeDeletedAlarms(9L);
+    }
+
+    /**
+     * Verifies that a listener which requests a resync receives a single complete
+     * snapshot, and then receives deltas again.
+     */
+    @Test
+    public void canResync() {
+        final List<String> callbacks = new ArrayList<>();
+        final TestListener listener = new TestListener("delta", callbacks, true);
+
+        final AlarmDao alarmDao = mockAlarmDao(5L, 9L, 12L, 15L, 18L);
+
+        final AlarmLifecycleListenerManager alm = new AlarmLifecycleListenerManager();
+        alm.setAlarmDao(alarmDao);
+        alm.setSessionUtils(new MockSessionUtils());
+        alm.onListenerRegistered(listener, Maps.newHashMap());
+
+        alm.doSnapshot();
+        assertThat(callbacks, contains("snapshot:2"));
+
+        // Returning false from the delta callback sends a complete snapshot for that run only
+        listener.resyncOnNextDelta = true;
+        alm.doSnapshot();
+        assertThat(callbacks, contains("snapshot:2", "delta:1:1", "snapshot:2"));
+        alm.doSnapshot();
+        assertThat(callbacks, contains("snapshot:2", "delta:1:1", "snapshot:2", "delta:0:0"));
+
+        // Requesting a resync sends a complete snapshot in place of the next delta
+        alm.requestResync(listener);
+        alm.doSnapshot();
+        assertThat(callbacks, contains("snapshot:2", "delta:1:1", "snapshot:2", "delta:0:0", "snapshot:2"));
+        alm.doSnapshot();
+        assertThat(callbacks, contains("snapshot:2", "delta:1:1", "snapshot:2", "delta:0:0", "snapshot:2", "delta:0:0"));
+        verify(alarmDao, times(3)).findAll();
+    }
+
+    private static AlarmDao mockAlarmDao(Long watermark, Long... watermarks) {
+        final OnmsAlarm alarm1 = new OnmsAlarm();
+        alarm1.setId(1);
+        final OnmsAlarm alarm2 = new OnmsAlarm();
+        alarm2.setId(2);
+
+        final AlarmDao alarmDao = mock(AlarmDao.class);
+        when(alarmDao.getAlarmChangeWatermark()).thenReturn(watermark, watermarks);
+        when(alarmDao.findAll()).thenReturn(Arrays.asList(alarm1, alarm2));
+        when(alarmDao.findChangedAlarms(5L)).thenReturn(Collections.singletonList(alarm2));
+        when(alarmDao.findDeletedAlarms(5L)).thenReturn(Collections.singletonMap(3, "rk3"));
+        return alarmDao;
+    }
+
+    private static class TestListener implements AlarmLifecycleListener {
+        private final String name;
+        private final List<String> callbacks;
+        private final boolean deltasSupported;
+        private boolean resyncOnNextDelta = false;
+
+        private TestListener(String name, List<String> callbacks, boolean deltasSupported) {
+            this.name = name;
+            this.callbacks = callbacks;
+            this.deltasSupported = deltasSupported;
+        }
+
+        @Override
+        public void handleAlarmSnapshot(List<OnmsAlarm> alarms) {
+            callbacks.add("snapshot:" + alarms.size());
+        }
+
+        @Override
+        public boolean handleAlarmDelta(List<OnmsAlarm> changedAlarms, Map<Integer, String> deletedAlarms) {
+            if (!deltasSupported) {
+                return AlarmLifecycleListener.super.handleAlarmDelta(changedAlarms, deletedAlarms);
+            }
+            callbacks.add("delta:" + changedAlarms.size() + ":" + deletedAlarms.size());
+            if (resyncOnNextDelta) {
+                resyncOnNextDelta = false;
+                return false;
+            }
+            return true;
+        }
+        @Override
+        public void preHandleAlarmSnapshot() {
+            // pass
+        }
+
+        @Override
+        public void postHandleAlarmSnapshot() {
+            // pass
+        }
+
+        @Override
+        public void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
+            // pass
+        }
+
+        @Override
+        public void handleDeletedAlarm(int alarmId, String reductionKey) {
+            // pass
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
 }
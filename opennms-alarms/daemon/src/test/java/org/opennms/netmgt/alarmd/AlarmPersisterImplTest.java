@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class AlarmPersisterImplTest {
+
+    private final List<String> transactions = new ArrayList<>();
+
+    private AlarmDao alarmDao;
+
+    private AlarmEntityNotifier alarmEntityNotifier;
+
+    private AlarmPersisterImpl alarmPersister;
+
+    @Before
+    public void setUp() {
+        alarmDao = mock(AlarmDao.class);
+        when(alarmDao.findByReductionKeys(any())).thenReturn(Collections.emptyList());
+
+        final EventDao eventDao = mock(EventDao.class);
+        when(eventDao.get(any())).thenAnswer(invocation -> {
+            final OnmsEvent event = new OnmsEvent();
+            event.setId((Integer) invocation.getArguments()[0]);
+            event.setEventUei("uei.opennms.org/test");
+            event.setEventSeverity(OnmsSeverity.MAJOR.getId());
+            return event;
+        });
+
+        alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+
+        alarmPersister = new AlarmPersisterImpl();
+        alarmPersister.setAlarmDao(alarmDao);
+        alarmPersister.setEventDao(eventDao);
+        alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+        alarmPersister.setTransactionOperations(new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                final T result = action.doInTransaction(null);
+                transactions.add(result instanceof Collection ? "group" : "single");
+                return result;
+            }
+        });
+        alarmPersister.setGroupCommit(true);
+    }
+
+    /**
+     * Verifies that events with distinct reduction keys are persisted in a single
+     * transaction, looking up all of their alarms at once.
+     */
+    @Test
+    public void canPersistEventsWithDistinctKeysInSingleTransaction() {
+        final List<OnmsAlarm> alarms = alarmPersister.persist(Arrays.asList(event(1, "a"), event(2, "b"), event(3, "c")));
+
+        assertThat(alarms, hasSize(3));
+        assertThat(reductionKeys(alarms), contains("a", "b", "c"));
+        assertThat(transactions, contains("group"));
+        verify(alarmDao, times(1)).findByReductionKeys(any());
+        verify(alarmDao, never()).findByReductionKey(anyString());
+        verify(alarmEntityNotifier, times(3)).didCreateAlarm(any());
+    }
+
+    /**
+     * Verifies that events sharing a reduction key are persisted in separate transactions
+     * in the order in which they were given.
+     */
+    @Test
+    public void canSplitGroupsOnSharedKeys() {
+        final List<OnmsAlarm> alarms = alarmPersister.persist(Arrays.asList(event(1, "a"), event(2, "b"), event(3, "a"), event(4, "c")));
+
+        assertThat(reductionKeys(alarms), contains("a", "b", "a", "c"));
+        assertThat(transactions, contains("group", "group"));
+    }
+
+    /**
+     * Verifies that the events of a failed group are persisted one at a time.
+     */
+    @Test
+    public void canFallBackToSingleTransactions() {
+        when(alarmDao.findByReductionKeys(any())).thenThrow(new IllegalStateException("failed"));
+
+        final List<OnmsAlarm> alarms = alarmPersister.persist(Arrays.asList(event(1, "a"), event(2, "b")));
+
+        assertThat(reductionKeys(alarms), contains("a", "b"));
+        assertThat(transactions, contains("single", "single"));
+        verify(alarmEntityNotifier, times(2)).didCreateAlarm(any());
+    }
+
+    private static Event event(int dbid, String reductionKey) {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setAlarmType(OnmsAlarm.PROBLEM_TYPE);
+
+        final Event event = new Event();
+        event.setDbid(dbid);
+        event.setUei("uei.opennms.org/test");
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private static List<String> reductionKeys(List<OnmsAlarm> alarms) {
+        return alarms.stream().map(OnmsAlarm::getReductionKey).collect(Collectors.toList());
+    }
+}
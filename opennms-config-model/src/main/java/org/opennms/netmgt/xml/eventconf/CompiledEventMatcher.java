@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Finds the first event definition matching an event, with the same result as searching
+ * the root {@link Events} and its loaded event files one after the other, but without
+ * building the list of candidates for every lookup.
+ *
+ * Every event file is a level: the event definitions of a level are tried in priority
+ * order, after the event definitions of the previous levels. The candidates without a
+ * partition key and the candidates of every partition key are merged over all of the
+ * levels when the matcher is built, and are ranked, so that a lookup only needs to
+ * interleave the two arrays for the key of the event.
+ *
+ * Event definitions which only match on the UEI, enterprise id, generic and specific
+ * fields can be rejected by the generic and specific values without running their
+ * matchers. If all of the event definitions tried for an event only depend on these
+ * fields, the result is cached, so that events of the same shape skip matching.
+ */
+class CompiledEventMatcher {
+
+    static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final Candidate[] NO_CANDIDATES = new Candidate[0];
+
+    private final Partition m_partition;
+
+    private final Map<String, UeiEntry> m_eventsByUei = new HashMap<>();
+
+    private final Candidate[] m_unpartitioned;
+
+    private final Map<String, Candidate[]> m_partitioned = new HashMap<>();
+
+    private final Cache<CacheKey, Optional<Event>> m_cache;
+
+    private CompiledEventMatcher(final Partition partition, final List<Level> levels, final int cacheSize) {
+        m_partition = Objects.requireNonNull(partition);
+
+        final List<Candidate> unpartitioned = new ArrayList<>();
+        final Map<String, List<Candidate>> partitioned = new HashMap<>();
+        int rank = 0;
+        for (int i = 0; i < levels.size(); i++) {
+            final Level level = levels.get(i);
+
+            // An UEI is resolved by the first level which knows about it
+            for (final Map.Entry<String, Event> entry : level.eventsByUei.entrySet()) {
+                m_eventsByUei.putIfAbsent(entry.getKey(), new UeiEntry(i, entry.getValue()));
+            }
+
+            // Rank all event definitions of the level in the order in which they are tried
+            final TreeSet<Event> ordered = new TreeSet<>(level.nullPartitioned);
+            level.partitioned.values().forEach(ordered::addAll);
+            final Map<Event, Candidate> candidates = new IdentityHashMap<>();
+            for (final Event event : ordered) {
+                candidates.put(event, new Candidate(event, i, rank++));
+            }
+
+            for (final Event event : level.nullPartitioned) {
+                unpartitioned.add(candidates.get(ordered.ceiling(event)));
+            }
+            for (final Map.Entry<String, List<Event>> entry : level.partitioned.entrySet()) {
+                final List<Candidate> forKey = partitioned.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+                for (final Event event : entry.getValue()) {
+                    forKey.add(candidates.get(ordered.ceiling(event)));
+                }
+            }
+        }
+
+        m_unpartitioned = sorted(unpartitioned);
+        partitioned.forEach((key, candidates) -> m_partitioned.put(key, sorted(candidates)));
+
+        m_cache = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).build() : null;
+    }
+
+    static Builder builder(final Partition partition) {
+        return new Builder(partition);
+    }
+
+    Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final String uei = matchingEvent.getUei();
+        final UeiEntry ueiEntry = uei != null ? m_eventsByUei.get(uei) : null;
+        if (ueiEntry != null && ueiEntry.level == 0) {
+            return ueiEntry.event;
+        }
+
+        final String key = m_partition.group(matchingEvent);
+        final String id = Candidate.ID.get(matchingEvent);
+        final String generic = Candidate.GENERIC.get(matchingEvent);
+        final String specific = Candidate.SPECIFIC.get(matchingEvent);
+
+        CacheKey cacheKey = null;
+        if (m_cache != null) {
+            cacheKey = new CacheKey(uei, key, id, generic, specific);
+            final Optional<Event> cached = m_cache.getIfPresent(cacheKey);
+            if (cached != null) {
+                return cached.orElse(null);
+            }
+        }
+
+        // Candidates of the levels after the one which resolves the UEI are never tried
+        final int maxLevel = ueiEntry != null ? ueiEntry.level : Integer.MAX_VALUE;
+        final Candidate[] unpartitioned = m_unpartitioned;
+        Candidate[] partitioned = key != null ? m_partitioned.get(key) : null;
+        if (partitioned == null) {
+            partitioned = NO_CANDIDATES;
+        }
+
+        Event result = null;
+        boolean cacheable = true;
+        int i = 0, j = 0;
+        while (i < unpartitioned.length || j < partitioned.length) {
+            final Candidate candidate;
+            if (j >= partitioned.length || (i < unpartitioned.length && unpartitioned[i].rank <= partitioned[j].rank)) {
+                candidate = unpartitioned[i++];
+                if (j < partitioned.length && partitioned[j].rank == candidate.rank) {
+                    // Same definition in both arrays
+                    j++;
+                }
+            } else {
+                candidate = partitioned[j++];
+            }
+
+            if (candidate.level >= maxLevel) {
+                break;
+            }
+            if (!candidate.accepts(generic, specific)) {
+                continue;
+            }
+            cacheable &= candidate.keyFieldsOnly;
+            if (candidate.event.matches(matchingEvent).matched()) {
+                result = candidate.event;
+                break;
+            }
+        }
+
+        if (result == null && ueiEntry != null) {
+            result = ueiEntry.event;
+        }
+        if (cacheable && cacheKey != null) {
+            m_cache.put(cacheKey, Optional.ofNullable(result));
+        }
+        return result;
+    }
+
+    private static Candidate[] sorted(final Collection<Candidate> candidates) {
+        return candidates.stream()
+                .sorted((a, b) -> Integer.compare(a.rank, b.rank))
+                .distinct()
+                .toArray(Candidate[]::new);
+    }
+
+    static class Builder {
+        private final Partition m_partition;
+        private final List<Level> m_levels = new ArrayList<>();
+        private int m_cacheSize = DEFAULT_CACHE_SIZE;
+
+        private Builder(final Partition partition) {
+            m_partition = partition;
+        }
+
+        /**
+         * Adds the event definitions of the next event file, as partitioned by the {@link Events}.
+         */
+        Builder addLevel(final Map<String, Event> eventsByUei, final List<Event> nullPartitioned, final Map<String, List<Event>> partitioned) {
+            m_levels.add(new Level(eventsByUei, nullPartitioned, partitioned));
+            return this;
+        }
+
+        Builder withCacheSize(final int cacheSize) {
+            m_cacheSize = cacheSize;
+            return this;
+        }
+
+        CompiledEventMatcher build() {
+            return new CompiledEventMatcher(m_partition, m_levels, m_cacheSize);
+        }
+    }
+
+    private static class Level {
+        private final Map<String, Event> eventsByUei;
+        private final List<Event> nullPartitioned;
+        private final Map<String, List<Event>> partitioned;
+
+        private Level(final Map<String, Event> eventsByUei, final List<Event> nullPartitioned, final Map<String, List<Event>> partitioned) {
+            this.eventsByUei = eventsByUei;
+            this.nullPartitioned = nullPartitioned;
+            this.partitioned = partitioned;
+        }
+    }
+
+    private static class UeiEntry {
+        private final int level;
+        private final Event event;
+
+        private UeiEntry(final int level, final Event event) {
+            this.level = level;
+            this.event = event;
+        }
+    }
+
+    private static class Candidate {
+        private static final Field ID = EventMatchers.field(Maskelement.TAG_SNMP_EID);
+        private static final Field GENERIC = EventMatchers.field(Maskelement.TAG_SNMP_GENERIC);
+        private static final Field SPECIFIC = EventMatchers.field(Maskelement.TAG_SNMP_SPECIFIC);
+
+        private final Event event;
+        private final int level;
+        private final int rank;
+
+        // The values required by the mask, or null if the mask does not require exact values
+        private final String[] generics;
+        private final String[] specifics;
+
+        // Whether the definition only matches on the fields used for caching
+        private final boolean keyFieldsOnly;
+
+        private Candidate(final Event event, final int level, final int rank) {
+            this.event = event;
+            this.level = level;
+            this.rank = rank;
+
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelements().isEmpty()) {
+                // Only matches on the UEI
+                generics = null;
+                specifics = null;
+                keyFieldsOnly = true;
+            } else {
+                generics = exactValues(mask.getMaskElement(Maskelement.TAG_SNMP_GENERIC));
+                specifics = exactValues(mask.getMaskElement(Maskelement.TAG_SNMP_SPECIFIC));
+                keyFieldsOnly = mask.getVarbinds().isEmpty() && mask.getMaskelements().stream()
+                        .map(Maskelement::getMename)
+                        .allMatch(name -> Maskelement.TAG_UEI.equals(name)
+                                || Maskelement.TAG_SNMP_EID.equals(name)
+                                || Maskelement.TAG_SNMP_GENERIC.equals(name)
+                                || Maskelement.TAG_SNMP_SPECIFIC.equals(name));
+            }
+        }
+
+        private boolean accepts(final String generic, final String specific) {
+            return contains(generics, generic) && contains(specifics, specific);
+        }
+
+        private static boolean contains(final String[] values, final String value) {
+            if (values == null) {
+                return true;
+            }
+            if (value == null) {
+                return false;
+            }
+            for (final String v : values) {
+                if (v.equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String[] exactValues(final Maskelement element) {
+            if (element == null) {
+                return null;
+            }
+            final List<String> values = new ArrayList<>();
+            for (final String value : element.getMevalues()) {
+                if (value == null) {
+                    continue;
+                }
+                if (value.startsWith("~") || value.endsWith("%")) {
+                    // Leave patterns to the matcher
+                    return null;
+                }
+                values.add(value);
+            }
+            return values.isEmpty() ? null : values.toArray(new String[0]);
+        }
+    }
+
+    private static class CacheKey {
+        private final String uei;
+        private final String partitionKey;
+        private final String id;
+        private final String generic;
+        private final String specific;
+        private final int hashCode;
+
+        private CacheKey(final String uei, final String partitionKey, final String id, final String generic, final String specific) {
+            this.uei = uei;
+            this.partitionKey = partitionKey;
+            this.id = id;
+            this.generic = generic;
+            this.specific = specific;
+            this.hashCode = Objects.hash(uei, partitionKey, id, generic, specific);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            final CacheKey that = (CacheKey) o;
+            return Objects.equals(uei, that.uei) &&
+                    Objects.equals(partitionKey, that.partitionKey) &&
+                    Objects.equals(id, that.id) &&
+                    Objects.equals(generic, that.generic) &&
+                    Objects.equals(specific, that.specific);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -120,6 +120,9 @@ public class Events implements Serializable {
     @XmlTransient
     private EventOrdering m_ordering;
 
+    @XmlTransient
+    private transient volatile CompiledEventMatcher m_matcher;
+
     public Global getGlobal() {
         return m_global;
     }
@@ -275,6 +278,11 @@ public class Events implements Serializable {
 
 
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final CompiledEventMatcher matcher = m_matcher;
+        if (matcher != null) {
+            return matcher.findFirstMatchingEvent(matchingEvent);
+        }
+
         // Atempt to match the event definition by UEI
         final String ueiToMatch = matchingEvent.getUei();
         if (ueiToMatch != null) {
@@ -346,7 +354,19 @@ public class Events implements Serializable {
         return result;
     }
 
+    /**
+     * Initializes the event definitions of this and all of the loaded event files
+     * and compiles the matcher used by {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+     */
     public void initialize(final Partition partition, final EventOrdering eventOrdering) {
+        initializeEvents(partition, eventOrdering);
+
+        final CompiledEventMatcher.Builder builder = CompiledEventMatcher.builder(partition);
+        addLevels(builder);
+        m_matcher = builder.build();
+    }
+
+    private void initializeEvents(final Partition partition, final EventOrdering eventOrdering) {
         m_ordering = eventOrdering;
 
         for (final Event event : m_events) {
@@ -356,7 +376,7 @@ public class Events implements Serializable {
         partitionEvents(partition);
 
         for (final Events events : m_loadedEventFiles.values()) {
-            events.initialize(partition, m_ordering.subsequence());
+            events.initializeEvents(partition, m_ordering.subsequence());
         }
 
         // roll up all prioritized events and sort all events by priority
@@ -371,6 +391,14 @@ public class Events implements Serializable {
         indexEventsByUei();
     }
 
+    // Add the event definitions in the same order as they are searched by the uncompiled lookup
+    private void addLevels(final CompiledEventMatcher.Builder builder) {
+        builder.addLevel(new HashMap<>(m_eventsByUei), new ArrayList<>(m_nullPartitionedEvents), new LinkedHashMap<>(m_partitionedEvents));
+        for (final Events events : m_loadedEventFiles.values()) {
+            events.addLevels(builder);
+        }
+    }
+
     // Recurse through the configuration and return Event Definitions with priority > 0
     private List<Event> getPrioritizedEvents() {
         List<Event> prioritizedEvents = new ArrayList<Event>();
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+
+public class CompiledEventMatcherTest {
+
+    private static final String ENTERPRISE_ID = ".1.3.6.1.4.1.5813";
+
+    private Events root;
+
+    @Before
+    public void setUp() {
+        root = new Events();
+        root.addEvent(definition("root-uei", "uei.opennms.org/test/root", null));
+
+        final Events file1 = new Events();
+        file1.addEvent(definition("file1-specific-1", "uei.opennms.org/test/one", mask(ENTERPRISE_ID, "6", "1")));
+        file1.addEvent(definition("file1-specific-2", "uei.opennms.org/test/two", mask(ENTERPRISE_ID, "6", "2")));
+        final Mask varbindMask = mask(ENTERPRISE_ID, "6", "3");
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(1);
+        varbind.addVbvalue("up");
+        varbindMask.addVarbind(varbind);
+        file1.addEvent(definition("file1-varbind", "uei.opennms.org/test/three", varbindMask));
+        file1.addEvent(definition("file1-any-specific", "uei.opennms.org/test/any", mask(ENTERPRISE_ID, "6", "%")));
+        file1.addEvent(definition("file1-duplicate", "uei.opennms.org/test/duplicate", null));
+        root.addLoadedEventFile("file1.xml", file1);
+
+        final Events file2 = new Events();
+        final Event prioritized = definition("file2-prioritized", "uei.opennms.org/test/prioritized", mask(ENTERPRISE_ID, "6", "2"));
+        prioritized.setPriority(10);
+        file2.addEvent(prioritized);
+        file2.addEvent(definition("file2-duplicate", "uei.opennms.org/test/duplicate", null));
+        root.addLoadedEventFile("file2.xml", file2);
+
+        root.initialize(new EnterpriseIdPartition(), new EventOrdering());
+    }
+
+    @Test
+    public void canMatchInPriorityOrder() {
+        assertEquals("file1-specific-1", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 1)).getEventLabel());
+        // The prioritized definition of the later file comes first
+        assertEquals("file2-prioritized", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 2)).getEventLabel());
+        assertEquals("file1-any-specific", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 99)).getEventLabel());
+        assertNull(root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 5, 0)));
+        assertNull(root.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1)));
+
+        // Repeated lookups return the same definitions
+        assertEquals("file1-specific-1", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 1)).getEventLabel());
+        assertEquals("file2-prioritized", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 2)).getEventLabel());
+        assertNull(root.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1)));
+    }
+
+    @Test
+    public void canMatchByUei() {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei("uei.opennms.org/test/root");
+        assertEquals("root-uei", root.findFirstMatchingEvent(event).getEventLabel());
+
+        // UEIs with several definitions are resolved by the first file that defines them
+        event.setUei("uei.opennms.org/test/duplicate");
+        assertEquals("file1-duplicate", root.findFirstMatchingEvent(event).getEventLabel());
+
+        event.setUei("uei.opennms.org/test/unknown");
+        assertNull(root.findFirstMatchingEvent(event));
+    }
+
+    @Test
+    public void doesNotCacheResultsDependingOnVarbinds() {
+        assertEquals("file1-varbind", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 3, "up")).getEventLabel());
+        assertEquals("file1-any-specific", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 3, "down")).getEventLabel());
+        assertEquals("file1-varbind", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 3, "up")).getEventLabel());
+    }
+
+    @Test
+    public void canReinitialize() {
+        final Event event = definition("root-specific-1", "uei.opennms.org/test/root-one", mask(ENTERPRISE_ID, "6", "1"));
+        event.setPriority(1);
+        root.addEvent(event);
+        root.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertEquals("root-specific-1", root.findFirstMatchingEvent(trap(ENTERPRISE_ID, 6, 1)).getEventLabel());
+    }
+
+    private static Event definition(final String label, final String uei, final Mask mask) {
+        final Event event = new Event();
+        event.setEventLabel(label);
+        event.setUei(uei);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Mask mask(final String id, final String generic, final String specific) {
+        final Mask mask = new Mask();
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_EID, id));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_GENERIC, generic));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_SPECIFIC, specific));
+        return mask;
+    }
+
+    private static Maskelement maskElement(final String name, final String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String id, final int generic, final int specific, final String... varbinds) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSnmp(snmp);
+        for (int i = 0; i < varbinds.length; i++) {
+            event.addParm(new Parm(ENTERPRISE_ID + "." + (i + 1), varbinds[i]));
+        }
+        return event;
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.dao.api;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +41,48 @@ public interface AlarmDao extends LegacyOnmsDao<OnmsAlarm, Integer> {
 
     OnmsAlarm findByReductionKey(String reductionKey);
 
+    /**
+     * <p>Retrieves the alarms with any of the given reduction keys in a single query.</p>
+     *
+     * @param reductionKeys the reduction keys to look for
+     * @return the alarms found, at most one per reduction key
+     */
+    List<OnmsAlarm> findByReductionKeys(Collection<String> reductionKeys);
+
+    /**
+     * <p>Retrieves the current alarm change watermark.</p>
+     *
+     * All of the transactions with an id lower than the watermark have completed, so the changes
+     * made since the watermark include all of the changes which may not have been visible yet.
+     *
+     * @return the id of the oldest transaction which may still be in progress
+     */
+    long getAlarmChangeWatermark();
+
+    /**
+     * <p>Retrieves the alarms which were created or updated since the given watermark.</p>
+     *
+     * @param watermark as previously returned by {@link #getAlarmChangeWatermark()}
+     * @return the alarms changed by transactions with an id greater than or equal to the watermark
+     */
+    List<OnmsAlarm> findChangedAlarms(long watermark);
+
+    /**
+     * <p>Retrieves the alarms which were deleted since the given watermark.</p>
+     *
+     * @param watermark as previously returned by {@link #getAlarmChangeWatermark()}
+     * @return the reduction keys of the deleted alarms by alarm id
+     */
+    Map<Integer, String> findDeletedAlarms(long watermark);
+
+    /**
+     * <p>Removes the records of the alarms which were deleted before the given watermark.</p>
+     *
+     * @param watermark as previously returned by {@link #getAlarmChangeWatermark()}
+     * @return the number of records removed
+     */
+    int purgeDeletedAlarms(long watermark);
+
     /**
      * <p>Get the list of current - not yet acknowledged - alarms per node with severity greater than normal,
      * reflecting the max severity, the minimum last event time and alarm count;
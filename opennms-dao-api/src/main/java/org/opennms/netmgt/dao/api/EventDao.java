@@ -51,4 +51,15 @@ public interface EventDao extends LegacyOnmsDao<OnmsEvent, Integer> {
 
     List<OnmsEvent> getEventsForEventParameters(final Map<String, String> eventParameters);
 
+    /**
+     * Inserts the given events along with their parameters using JDBC batches.
+     *
+     * The ids of the events are allocated from the event sequence with a single query
+     * and set on the given events. Unlike {@link #save(Object)}, the events are
+     * not associated with the current session.
+     *
+     * @param events the new events to insert
+     */
+    void insertAll(List<OnmsEvent> events);
+
 }
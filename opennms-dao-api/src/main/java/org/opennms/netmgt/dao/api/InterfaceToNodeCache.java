@@ -31,6 +31,9 @@ package org.opennms.netmgt.dao.api;
 import java.net.InetAddress;
 import java.util.Optional;
 
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.PrimaryType;
+
 public interface InterfaceToNodeCache {
 
 	void dataSourceSync();
@@ -52,4 +55,29 @@ public interface InterfaceToNodeCache {
 
 	void removeInterfacesForNode(int nodeId);
 
+	/**
+	 * Replaces all of the addresses of the given node with its current,
+	 * non-deleted interfaces and their location, in a single update.
+	 */
+	void setInterfacesForNode(OnmsNode node);
+
+	/**
+	 * Returns the key by which the nodes sharing an address are ordered: by the
+	 * {@link PrimaryType} of their interface, and then by node ID.
+	 * {@link #getNodeId} returns the nodes in ascending order of this key, so
+	 * {@link #getFirstNodeId} returns the node with the lowest key.
+	 */
+	static long sortKey(int nodeId, PrimaryType type) {
+		// Must match the order of PrimaryType#compareTo()
+		final long typeIndex = PrimaryType.PRIMARY.equals(type) ? 2 : PrimaryType.SECONDARY.equals(type) ? 1 : 0;
+		return (typeIndex << 32) | (nodeId & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the node ID of the given {@link #sortKey(int, PrimaryType)}.
+	 */
+	static int nodeIdOf(long sortKey) {
+		return (int) sortKey;
+	}
+
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.dao.mock;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -86,6 +88,34 @@ public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements
         return null;
     }
 
+    @Override
+    public List<OnmsAlarm> findByReductionKeys(final Collection<String> reductionKeys) {
+        return findAll().stream()
+                .filter(alarm -> reductionKeys.contains(alarm.getReductionKey()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long getAlarmChangeWatermark() {
+        // Changes are not tracked, every alarm is reported as changed
+        return 0;
+    }
+
+    @Override
+    public List<OnmsAlarm> findChangedAlarms(final long watermark) {
+        return findAll();
+    }
+
+    @Override
+    public Map<Integer, String> findDeletedAlarms(final long watermark) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int purgeDeletedAlarms(final long watermark) {
+        return 0;
+    }
+
     @Override
     public List<AlarmSummary> getNodeAlarmSummaries() {
         throw new UnsupportedOperationException("Not yet implemented!");
@@ -105,4 +105,9 @@ public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements
 
         return stream.distinct().collect(Collectors.toList());
     }
+
+    @Override
+    public void insertAll(final List<OnmsEvent> events) {
+        events.forEach(this::save);
+    }
 }
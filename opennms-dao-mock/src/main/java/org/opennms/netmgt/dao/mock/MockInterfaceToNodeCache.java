@@ -35,6 +35,8 @@ import java.util.Map;
 import java.util.Objects;
 
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
 
 import com.google.common.collect.Maps;
 
@@ -76,6 +78,13 @@ public class MockInterfaceToNodeCache extends AbstractInterfaceToNodeCache {
     public void removeInterfacesForNode(int nodeId) {
     }
 
+    @Override
+    public void setInterfacesForNode(OnmsNode node) {
+        for (OnmsIpInterface iface : node.getIpInterfaces()) {
+            setNodeId(node.getLocation().getLocationName(), iface.getIpAddress(), node.getId());
+        }
+    }
+
     private static class Key {
         private String location;
         private InetAddress ipAddr;
@@ -30,8 +30,11 @@ package org.opennms.netmgt.dao.hibernate;
 
 import java.math.BigInteger;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,6 +60,8 @@ import org.springframework.orm.hibernate3.HibernateCallback;
  */
 public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer> implements AlarmDao {
 
+    private static final int IN_CLAUSE_BATCH_SIZE = 1000;
+
     public AlarmDaoHibernate() {
         super(OnmsAlarm.class);
     }
@@ -68,6 +73,76 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<OnmsAlarm> findByReductionKeys(final Collection<String> reductionKeys) {
+        return findInBatches("from OnmsAlarm as alarms where alarms.reductionKey in (:values)", new ArrayList<>(reductionKeys));
+    }
+
+    /**
+     * Runs the given query with the values split into batches of at most {@link #IN_CLAUSE_BATCH_SIZE}, so
+     * that large collections don't exceed the limits on the number of bind parameters.
+     *
+     * @param hql a query with a <code>:values</code> parameter list
+     */
+    @SuppressWarnings("unchecked")
+    private List<OnmsAlarm> findInBatches(final String hql, final List<?> values) {
+        final List<OnmsAlarm> alarms = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i += IN_CLAUSE_BATCH_SIZE) {
+            final List<?> batch = values.subList(i, Math.min(i + IN_CLAUSE_BATCH_SIZE, values.size()));
+            alarms.addAll(getHibernateTemplate().execute(session -> (List<OnmsAlarm>) session.createQuery(hql)
+                    .setParameterList("values", batch)
+                    .list()));
+        }
+        return alarms;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAlarmChangeWatermark() {
+        return getHibernateTemplate().execute(session -> ((Number) session.createSQLQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())")
+                .uniqueResult()).longValue());
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<OnmsAlarm> findChangedAlarms(final long watermark) {
+        // The change transaction id is maintained by a trigger and not mapped, so look up the ids first
+        final List<Number> alarmIds = getHibernateTemplate().execute(session -> ((List<Number>) session.createSQLQuery("SELECT alarmid FROM alarms WHERE changetxid >= :watermark")
+                .setLong("watermark", watermark)
+                .list()));
+
+        final List<Integer> ids = new ArrayList<>(alarmIds.size());
+        for (final Number alarmId : alarmIds) {
+            ids.add(alarmId.intValue());
+        }
+        return findInBatches("from OnmsAlarm as alarms where alarms.id in (:values)", ids);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<Integer, String> findDeletedAlarms(final long watermark) {
+        final List<Object[]> rows = getHibernateTemplate().execute(session -> (List<Object[]>) session.createSQLQuery("SELECT alarmid, reductionkey FROM alarm_deletions WHERE changetxid >= :watermark ORDER BY changetxid")
+                .setLong("watermark", watermark)
+                .list());
+
+        final Map<Integer, String> deletedAlarms = new LinkedHashMap<>();
+        for (final Object[] row : rows) {
+            deletedAlarms.put(((Number) row[0]).intValue(), (String) row[1]);
+        }
+        return deletedAlarms;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int purgeDeletedAlarms(final long watermark) {
+        return getHibernateTemplate().execute(session -> session.createSQLQuery("DELETE FROM alarm_deletions WHERE changetxid < :watermark")
+                .setLong("watermark", watermark)
+                .executeUpdate());
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
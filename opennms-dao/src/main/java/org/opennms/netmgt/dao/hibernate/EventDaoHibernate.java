@@ -28,21 +28,39 @@
 
 package org.opennms.netmgt.dao.hibernate;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.hibernate3.HibernateCallback;
 
 public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer> implements EventDao {
 
+    private static final String ALLOCATE_EVENT_IDS_SQL = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events (eventId, eventUei, nodeId, eventTime, eventHost, eventSource, ipAddr, " +
+            "systemId, eventSnmpHost, serviceId, eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, " +
+            "ifIndex, eventPathOutage, eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, " +
+            "eventOperActionMenuText, eventNotification, eventTTicket, eventTTicketState, eventForward, eventMouseOverText, " +
+            "eventLog, eventDisplay, eventAckUser, eventAckTime, alarmId) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_EVENT_PARAMETER_SQL = "INSERT INTO event_parameters (eventID, name, value, type, position) VALUES (?, ?, ?, ?, ?)";
+
 	public EventDaoHibernate() {
 		super(OnmsEvent.class);
 	}
@@ -93,4 +111,95 @@ public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer>
             }
         });
     }
+
+    @Override
+    public void insertAll(final List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        getHibernateTemplate().execute(session -> {
+            session.doWork(connection -> {
+                // Allocate a block of ids with a single round trip
+                try (PreparedStatement stmt = connection.prepareStatement(ALLOCATE_EVENT_IDS_SQL)) {
+                    stmt.setInt(1, events.size());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        final Iterator<OnmsEvent> it = events.iterator();
+                        while (rs.next() && it.hasNext()) {
+                            it.next().setId(rs.getInt(1));
+                        }
+                    }
+                }
+
+                try (PreparedStatement stmt = connection.prepareStatement(INSERT_EVENT_SQL)) {
+                    for (final OnmsEvent event : events) {
+                        int i = 1;
+                        stmt.setInt(i++, event.getId());
+                        stmt.setString(i++, event.getEventUei());
+                        stmt.setObject(i++, event.getNode() == null ? null : event.getNode().getId(), Types.INTEGER);
+                        stmt.setTimestamp(i++, toTimestamp(event.getEventTime()));
+                        stmt.setString(i++, event.getEventHost());
+                        stmt.setString(i++, event.getEventSource());
+                        stmt.setString(i++, event.getIpAddr() == null ? null : InetAddressUtils.str(event.getIpAddr()));
+                        stmt.setString(i++, event.getDistPoller() == null ? null : event.getDistPoller().getId());
+                        stmt.setString(i++, event.getEventSnmpHost());
+                        stmt.setObject(i++, event.getServiceType() == null ? null : event.getServiceType().getId(), Types.INTEGER);
+                        stmt.setString(i++, event.getEventSnmp());
+                        stmt.setTimestamp(i++, toTimestamp(event.getEventCreateTime()));
+                        stmt.setString(i++, event.getEventDescr());
+                        stmt.setString(i++, event.getEventLogGroup());
+                        stmt.setString(i++, event.getEventLogMsg());
+                        stmt.setObject(i++, event.getEventSeverity(), Types.INTEGER);
+                        stmt.setObject(i++, event.getIfIndex(), Types.INTEGER);
+                        stmt.setString(i++, event.getEventPathOutage());
+                        stmt.setString(i++, event.getEventCorrelation());
+                        stmt.setObject(i++, event.getEventSuppressedCount(), Types.INTEGER);
+                        stmt.setString(i++, event.getEventOperInstruct());
+                        stmt.setString(i++, event.getEventAutoAction());
+                        stmt.setString(i++, event.getEventOperAction());
+                        stmt.setString(i++, event.getEventOperActionMenuText());
+                        stmt.setString(i++, event.getEventNotification());
+                        stmt.setString(i++, event.getEventTTicket());
+                        stmt.setObject(i++, event.getEventTTicketState(), Types.INTEGER);
+                        stmt.setString(i++, event.getEventForward());
+                        stmt.setString(i++, event.getEventMouseOverText());
+                        stmt.setString(i++, event.getEventLog());
+                        stmt.setString(i++, event.getEventDisplay());
+                        stmt.setString(i++, event.getEventAckUser());
+                        stmt.setTimestamp(i++, toTimestamp(event.getEventAckTime()));
+                        stmt.setObject(i++, event.getAlarm() == null ? null : event.getAlarm().getId(), Types.INTEGER);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+
+                try (PreparedStatement stmt = connection.prepareStatement(INSERT_EVENT_PARAMETER_SQL)) {
+                    boolean hasParameters = false;
+                    for (final OnmsEvent event : events) {
+                        if (event.getEventParameters() == null) {
+                            continue;
+                        }
+                        // Use the index as position, to preserve the order of the parameters
+                        int position = 0;
+                        for (final OnmsEventParameter parameter : event.getEventParameters()) {
+                            stmt.setInt(1, event.getId());
+                            stmt.setString(2, parameter.getName());
+                            stmt.setString(3, parameter.getValue());
+                            stmt.setString(4, parameter.getType());
+                            stmt.setInt(5, position++);
+                            stmt.addBatch();
+                            hasParameters = true;
+                        }
+                    }
+                    if (hasParameters) {
+                        stmt.executeBatch();
+                    }
+                }
+            });
+            return null;
+        });
+    }
+
+    private static Timestamp toTimestamp(final Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
 }
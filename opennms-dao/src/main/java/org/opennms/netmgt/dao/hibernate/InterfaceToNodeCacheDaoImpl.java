@@ -31,16 +31,20 @@ package org.opennms.netmgt.dao.hibernate;
 import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 import javax.annotation.PostConstruct;
 
@@ -53,7 +57,6 @@ import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
-import org.opennms.netmgt.model.PrimaryType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -61,16 +64,21 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.SortedSetMultimap;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 
 /**
  * This class represents a singular instance that is used to map IP
  * addresses to known nodes.
  *
+ * Lookups don't require any locking: the addresses are kept in an immutable
+ * {@link InterfaceToNodeIndex}, which is published through a volatile field
+ * together with the modifications made since it was built. The modifications
+ * are driven by the provisioning events, see {@link org.opennms.netmgt.dao.support.InterfaceToNodeCacheEventProcessor},
+ * while the periodic synchronization with the database builds a new index
+ * in the background.
+ *
  * @author Seth
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
@@ -125,83 +133,74 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
         }
     }
 
-    private static class Value implements Comparable<Value> {
-        private final int nodeId;
-        private final PrimaryType type;
+    @Autowired
+    private NodeDao m_nodeDao;
 
+    @Autowired
+    private IpInterfaceDao m_ipInterfaceDao;
 
-        private Value(final int nodeId,
-                      final PrimaryType type) {
-            this.nodeId = nodeId;
-            this.type = type;
-        }
+    @Autowired
+    private TransactionOperations transactionOperations;
 
-        public int getNodeId() {
-            return this.nodeId;
-        }
+    /**
+     * The changes applied since the index was built are kept in a small map, and
+     * merged into a new index once the map grows beyond this number of addresses,
+     * or beyond 1/16th of the index size.
+     */
+    private static final int MIN_COMPACTION_THRESHOLD = 1024;
 
-        public PrimaryType getType() {
-            return this.type;
-        }
+    /** Value of {@link OnmsIpInterface#getIsManaged()} for interfaces which have been deleted */
+    private static final String DELETED_INTERFACE = "D";
 
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (obj == this) {
-                return true;
-            }
-            if (obj.getClass() != getClass()) {
-                return false;
-            }
-            final Value that = (Value) obj;
-            return Objects.equals(this.nodeId, that.nodeId)
-                    && Objects.equals(this.type, that.type);
-        }
+    /** Only one out of this number of lookups is timed */
+    private static final int LOOKUP_TIMER_SAMPLING = 64;
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.nodeId, this.type.getCharCode());
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Value[nodeId='%s', type='%s']", this.nodeId, this.type);
-        }
+    /**
+     * The current state of the cache. Lookups read it without any locking,
+     * all of the modifications are done while holding {@link #m_writeLock}.
+     */
+    private volatile Snapshot m_snapshot = new Snapshot(InterfaceToNodeIndex.EMPTY);
 
-        @Override
-        public int compareTo(final Value that) {
-            return ComparisonChain.start()
-                    .compare(this.type, that.type)
-                    .compare(this.nodeId, that.nodeId)
-                    .result();
-        }
-    }
+    private final Object m_writeLock = new Object();
 
-    @Autowired
-    private NodeDao m_nodeDao;
+    private final Object m_syncLock = new Object();
 
-    @Autowired
-    private IpInterfaceDao m_ipInterfaceDao;
+    /** Number of entries, only modified while holding {@link #m_writeLock} */
+    private volatile int m_size;
 
-    @Autowired
-    private TransactionOperations transactionOperations;
+    /** Incremented whenever the cache is cleared, to discard the results of a concurrent synchronization */
+    private long m_generation;
 
-    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
-    private final SortedSetMultimap<Key, Value> m_managedAddresses = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+    /** Modifications applied while a synchronization is loading the interfaces, which must be applied to its result */
+    private List<Predicate<Snapshot>> m_pendingUpdates;
 
     private final Timer refreshTimer = new Timer(getClass().getSimpleName());
 
     // in ms
     private final long refreshRate;
 
+    private final MetricRegistry m_metrics;
+    private final Counter m_hits;
+    private final Counter m_misses;
+    private final com.codahale.metrics.Timer m_lookupTimer;
+    private final com.codahale.metrics.Timer m_syncTimer;
+
     public InterfaceToNodeCacheDaoImpl() {
         this(-1); // By default refreshing the cache is disabled
     }
 
     public InterfaceToNodeCacheDaoImpl(long refreshRate) {
+        this(refreshRate, new MetricRegistry());
+    }
+
+    public InterfaceToNodeCacheDaoImpl(long refreshRate, MetricRegistry metrics) {
         this.refreshRate = refreshRate;
+        m_metrics = Objects.requireNonNull(metrics);
+        m_hits = metrics.counter("hits");
+        m_misses = metrics.counter("misses");
+        m_lookupTimer = metrics.timer("lookups");
+        m_syncTimer = metrics.timer("syncs");
+        metrics.register("size", (Gauge<Integer>) this::size);
     }
 
     @PostConstruct
@@ -231,6 +230,10 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
         m_nodeDao = nodeDao;
     }
 
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
     public IpInterfaceDao getIpInterfaceDao() {
         return m_ipInterfaceDao;
     }
@@ -264,35 +267,54 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     }
 
     private void dataSourceSyncWithinTransaction() {
-        m_lock.writeLock().lock();
-        try {
-            /*
-             * Make a new list with which we'll replace the existing one, that way
-             * if something goes wrong with the DB we won't lose whatever was already
-             * in there
-             */
-            final SortedSetMultimap<Key, Value> newAlreadyDiscovered = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
-
-            // Fetch all non-deleted nodes
-            final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
-            builder.ne("type", String.valueOf(NodeType.DELETED.value()));
-
-            for (OnmsNode node : m_nodeDao.findMatching(builder.toCriteria())) {
-                for (final OnmsIpInterface iface : node.getIpInterfaces()) {
-                    // Skip deleted interfaces
-                    // TODO: Refactor the 'D' value with an enumeration
-                    if ("D".equals(iface.getIsManaged())) {
-                        continue;
+        synchronized (m_syncLock) {
+            final long generation;
+            synchronized (m_writeLock) {
+                generation = m_generation;
+                m_pendingUpdates = new ArrayList<>();
+            }
+            try (com.codahale.metrics.Timer.Context ctx = m_syncTimer.time()) {
+                /*
+                 * Build a new index with which we'll replace the existing one, that way
+                 * lookups are not blocked while loading the interfaces, and if something
+                 * goes wrong with the DB we won't lose whatever was already in there
+                 */
+                final InterfaceToNodeIndex.Builder builder = InterfaceToNodeIndex.builder();
+
+                // Fetch all non-deleted nodes
+                final CriteriaBuilder criteria = new CriteriaBuilder(OnmsNode.class);
+                criteria.ne("type", String.valueOf(NodeType.DELETED.value()));
+
+                for (OnmsNode node : m_nodeDao.findMatching(criteria.toCriteria())) {
+                    final String location = LocationUtils.getEffectiveLocationName(node.getLocation().getLocationName());
+                    for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                        // Skip deleted interfaces
+                        if (DELETED_INTERFACE.equals(iface.getIsManaged())) {
+                            continue;
+                        }
+                        LOG.debug("Adding entry: {}:{} -> {}", location, iface.getIpAddress(), node.getId());
+                        builder.add(location, iface.getIpAddress().getAddress(), InterfaceToNodeIndex.entry(node.getId(), iface.getIsSnmpPrimary()));
+                    }
+                }
+                final Snapshot snapshot = new Snapshot(builder.build());
+
+                synchronized (m_writeLock) {
+                    if (generation != m_generation) {
+                        LOG.info("dataSourceSync: the cache was cleared while loading the managed IP addresses, discarding them");
+                        return;
                     }
-                    LOG.debug("Adding entry: {}:{} -> {}", node.getLocation().getLocationName(), iface.getIpAddress(), node.getId());
-                    newAlreadyDiscovered.put(new Key(node.getLocation().getLocationName(), iface.getIpAddress()), new Value(node.getId(), iface.getIsSnmpPrimary()));
+                    // Apply the modifications that were made while loading
+                    for (final Predicate<Snapshot> update : m_pendingUpdates) {
+                        update.test(snapshot);
+                    }
+                    publish(snapshot.needsCompaction() ? snapshot.compact() : snapshot);
+                }
+                LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_size);
+            } finally {
+                synchronized (m_writeLock) {
+                    m_pendingUpdates = null;
                 }
             }
-            m_managedAddresses.clear();
-            m_managedAddresses.putAll(newAlreadyDiscovered);
-            LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_managedAddresses.size());
-        } finally {
-            m_lock.writeLock().unlock();
         }
     }
 
@@ -306,18 +328,47 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
      * @return The node ID of the IP Address if known.
      */
     @Override
-    public synchronized Iterable<Integer> getNodeId(final String location, final InetAddress address) {
+    public Iterable<Integer> getNodeId(final String location, final InetAddress address) {
         if (address == null) {
             return Collections.emptySet();
         }
 
-        m_lock.readLock().lock();
-        try {
-            return Iterables.transform(m_managedAddresses.get(new Key(location, address)),
-                    Value::getNodeId);
-        } finally {
-            m_lock.readLock().unlock();
+        final long[] entries = lookup(location, address);
+        if (entries.length == 1) {
+            return Collections.singletonList(InterfaceToNodeIndex.nodeId(entries[0]));
         }
+        final List<Integer> nodeIds = new ArrayList<>(entries.length);
+        for (final long entry : entries) {
+            nodeIds.add(InterfaceToNodeIndex.nodeId(entry));
+        }
+        return Collections.unmodifiableList(nodeIds);
+    }
+
+    @Override
+    public Optional<Integer> getFirstNodeId(final String location, final InetAddress address) {
+        if (address == null) {
+            return Optional.empty();
+        }
+
+        final long[] entries = lookup(location, address);
+        return entries.length == 0 ? Optional.empty() : Optional.of(InterfaceToNodeIndex.nodeId(entries[0]));
+    }
+
+    private long[] lookup(final String location, final InetAddress address) {
+        final boolean timed = ThreadLocalRandom.current().nextInt(LOOKUP_TIMER_SAMPLING) == 0;
+        final long start = timed ? System.nanoTime() : 0;
+
+        final long[] entries = m_snapshot.get(new Key(location, address));
+
+        if (entries.length > 0) {
+            m_hits.inc();
+        } else {
+            m_misses.inc();
+        }
+        if (timed) {
+            m_lookupTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return entries;
     }
 
     /**
@@ -341,12 +392,9 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("setNodeId: adding IP address to cache: {}:{} -> {}", location, str(addr), nodeid);
 
-        m_lock.writeLock().lock();
-        try {
-            return m_managedAddresses.put(new Key(location, addr), new Value(nodeid, iface.getIsSnmpPrimary()));
-        } finally {
-            m_lock.writeLock().unlock();
-        }
+        final Key key = new Key(location, addr);
+        final long entry = InterfaceToNodeIndex.entry(nodeid, iface.getIsSnmpPrimary());
+        return update(snapshot -> snapshot.update(key, entries -> InterfaceToNodeIndex.insert(entries, entry)));
     }
 
     /**
@@ -364,52 +412,180 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("removeNodeId: removing IP address from cache: {}:{}", location, str(address));
 
-        m_lock.writeLock().lock();
-        try {
-            final Key key = new Key(location, address);
-            return m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.PRIMARY)) ||
-                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.SECONDARY)) ||
-                    m_managedAddresses.remove(key, new Value(nodeId, PrimaryType.NOT_ELIGIBLE));
-        } finally {
-            m_lock.writeLock().unlock();
-        }
+        final Key key = new Key(location, address);
+        return update(snapshot -> snapshot.update(key, entries -> InterfaceToNodeIndex.removeOne(entries, nodeId)));
     }
 
     @Override
     public int size() {
-        m_lock.readLock().lock();
-        try {
-            return m_managedAddresses.size();
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return m_size;
     }
 
     @Override
     public void clear() {
-        m_lock.writeLock().lock();
-        try {
-            m_managedAddresses.clear();
-        } finally {
-            m_lock.writeLock().unlock();
+        synchronized (m_writeLock) {
+            m_generation++;
+            publish(new Snapshot(InterfaceToNodeIndex.EMPTY));
         }
     }
 
     @Override
     public void removeInterfacesForNode(int nodeId) {
-        m_lock.writeLock().lock();
-        try {
-            List<Map.Entry<Key, Value>> keyValues = m_managedAddresses.entries().stream()
-                    .filter(keyValueEntry -> keyValueEntry.getValue().getNodeId() == nodeId)
-                    .collect(Collectors.toList());
-            keyValues.forEach(keyValue -> {
-                boolean succeeded = m_managedAddresses.remove(keyValue.getKey(), keyValue.getValue());
-                if (succeeded) {
-                    LOG.debug("removeInterfacesForNode: removed IP address from cache: {}", str(keyValue.getKey().getIpAddress()));
+        update(snapshot -> {
+            final List<Key> keys = snapshot.findKeys(nodeId);
+            for (final Key key : keys) {
+                snapshot.update(key, entries -> InterfaceToNodeIndex.removeAll(entries, nodeId));
+                LOG.debug("removeInterfacesForNode: removed IP address from cache: {}", str(key.getIpAddress()));
+            }
+            return !keys.isEmpty();
+        });
+    }
+
+    @Override
+    public void setInterfacesForNode(final OnmsNode node) {
+        final int nodeId = node.getId();
+        final String location = node.getLocation().getLocationName();
+
+        final List<Key> keys = new ArrayList<>();
+        final List<Long> entries = new ArrayList<>();
+        for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+            if (DELETED_INTERFACE.equals(iface.getIsManaged()) || iface.getIpAddress() == null) {
+                continue;
+            }
+            keys.add(new Key(location, iface.getIpAddress()));
+            entries.add(InterfaceToNodeIndex.entry(nodeId, iface.getIsSnmpPrimary()));
+        }
+
+        LOG.debug("setInterfacesForNode: replacing the IP addresses of node {} with {}", nodeId, keys);
+
+        update(snapshot -> {
+            boolean changed = false;
+            for (final Key key : snapshot.findKeys(nodeId)) {
+                changed |= snapshot.update(key, e -> InterfaceToNodeIndex.removeAll(e, nodeId));
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                final long entry = entries.get(i);
+                changed |= snapshot.update(keys.get(i), e -> InterfaceToNodeIndex.insert(e, entry));
+            }
+            return changed;
+        });
+    }
+
+    /**
+     * Applies the given modification to the current snapshot, and records it if a
+     * synchronization is in progress.
+     *
+     * @return the result of the modification
+     */
+    private boolean update(final Predicate<Snapshot> update) {
+        synchronized (m_writeLock) {
+            final Snapshot snapshot = m_snapshot;
+            final boolean changed = update.test(snapshot);
+            if (m_pendingUpdates != null) {
+                m_pendingUpdates.add(update);
+            }
+            if (snapshot.needsCompaction()) {
+                publish(snapshot.compact());
+            } else {
+                m_size = snapshot.m_size;
+            }
+            return changed;
+        }
+    }
+
+    private void publish(final Snapshot snapshot) {
+        m_snapshot = snapshot;
+        m_size = snapshot.m_size;
+    }
+
+    /**
+     * An immutable {@link InterfaceToNodeIndex} together with the modifications that were
+     * applied since it was built. The modifications are stored as the complete entries of
+     * the modified addresses, so that a lookup either finds the address in the modifications,
+     * or falls back to the index.
+     */
+    private static class Snapshot {
+        private final InterfaceToNodeIndex m_index;
+        private final ConcurrentMap<Key, long[]> m_changes = new ConcurrentHashMap<>();
+
+        /** Only accessed while holding the write lock */
+        private int m_size;
+
+        private Snapshot(final InterfaceToNodeIndex index) {
+            m_index = index;
+            m_size = index.size();
+        }
+
+        private long[] get(final Key key) {
+            if (!m_changes.isEmpty()) {
+                final long[] entries = m_changes.get(key);
+                if (entries != null) {
+                    return entries;
+                }
+            }
+            return m_index.get(key.getLocation(), key.getIpAddress().getAddress());
+        }
+
+        private boolean update(final Key key, final UnaryOperator<long[]> update) {
+            final long[] entries = get(key);
+            final long[] updated = update.apply(entries);
+            if (updated == entries) {
+                return false;
+            }
+            m_changes.put(key, updated);
+            m_size += updated.length - entries.length;
+            return true;
+        }
+
+        private List<Key> findKeys(final int nodeId) {
+            final List<Key> keys = new ArrayList<>();
+            m_index.forEach((location, address, entries) -> {
+                if (contains(entries, nodeId)) {
+                    final Key key = new Key(location, toInetAddress(address));
+                    if (!m_changes.containsKey(key)) {
+                        keys.add(key);
+                    }
+                }
+            });
+            m_changes.forEach((key, entries) -> {
+                if (contains(entries, nodeId)) {
+                    keys.add(key);
+                }
+            });
+            return keys;
+        }
+
+        private boolean needsCompaction() {
+            final int changes = m_changes.size();
+            return changes > MIN_COMPACTION_THRESHOLD && changes > m_index.size() / 16;
+        }
+
+        private Snapshot compact() {
+            final InterfaceToNodeIndex.Builder builder = InterfaceToNodeIndex.builder();
+            m_index.forEach((location, address, entries) -> {
+                if (!m_changes.containsKey(new Key(location, toInetAddress(address)))) {
+                    builder.put(location, address, entries);
                 }
             });
-        } finally {
-            m_lock.writeLock().unlock();
+            m_changes.forEach((key, entries) -> builder.put(key.getLocation(), key.getIpAddress().getAddress(), entries));
+            return new Snapshot(builder.build());
+        }
+
+        private static boolean contains(final long[] entries, final int nodeId) {
+            for (final long entry : entries) {
+                if (InterfaceToNodeIndex.nodeId(entry) == nodeId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static InetAddress toInetAddress(final byte[] address) {
+            try {
+                return InetAddress.getByAddress(address);
+            } catch (final UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 }
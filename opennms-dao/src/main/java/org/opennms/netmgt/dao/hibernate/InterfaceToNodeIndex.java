@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opennms.core.utils.AddressTable;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.model.PrimaryType;
+
+/**
+ * An immutable index of the nodes known for each IP address, by location.
+ *
+ * The addresses are stored in {@link AddressTable}s keyed by their primitive
+ * representation, so that neither the keys nor the lookups require any objects
+ * besides the address bytes.
+ *
+ * The nodes of an address are stored as a sorted array of entries, each of which
+ * is the {@link InterfaceToNodeCache#sortKey(int, PrimaryType)} of the interface.
+ */
+final class InterfaceToNodeIndex {
+
+    static final long[] NO_ENTRIES = new long[0];
+
+    static final InterfaceToNodeIndex EMPTY = new Builder().build();
+
+    private final Map<String, AddressTable<long[]>> m_locations;
+
+    private final int m_size;
+
+    private InterfaceToNodeIndex(Map<String, AddressTable<long[]>> locations, int size) {
+        m_locations = locations;
+        m_size = size;
+    }
+
+    /**
+     * Returns the entries of the given address, or an empty array.
+     *
+     * @param location the effective location name
+     */
+    long[] get(String location, byte[] address) {
+        final AddressTable<long[]> table = m_locations.get(location);
+        if (table == null) {
+            return NO_ENTRIES;
+        }
+        final long[] entries = table.get(address);
+        return entries != null ? entries : NO_ENTRIES;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     */
+    int size() {
+        return m_size;
+    }
+
+    void forEach(Visitor visitor) {
+        for (final Map.Entry<String, AddressTable<long[]>> location : m_locations.entrySet()) {
+            location.getValue().forEach((address, entries) -> visitor.visit(location.getKey(), address, entries));
+        }
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+        void visit(String location, byte[] address, long[] entries);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final Map<String, AddressTable<long[]>> m_locations = new HashMap<>();
+
+        private int m_numEntries;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the entry to the entries of the given address.
+         */
+        Builder add(String location, byte[] address, long entry) {
+            final AddressTable<long[]> table = m_locations.computeIfAbsent(location, l -> new AddressTable<>());
+            final long[] entries = table.get(address);
+            return put(table, address, entries, insert(entries != null ? entries : NO_ENTRIES, entry));
+        }
+
+        /**
+         * Replaces the entries of the given address.
+         */
+        Builder put(String location, byte[] address, long[] entries) {
+            final AddressTable<long[]> table = m_locations.computeIfAbsent(location, l -> new AddressTable<>());
+            return put(table, address, table.get(address), entries);
+        }
+
+        private Builder put(AddressTable<long[]> table, byte[] address, long[] existing, long[] entries) {
+            if (entries.length == 0) {
+                if (existing == null) {
+                    return this;
+                }
+                // Only used while building, so we don't need to support removals
+                throw new IllegalStateException("Entries can not be removed from the table");
+            }
+            table.put(address, entries);
+            m_numEntries += entries.length - (existing != null ? existing.length : 0);
+            return this;
+        }
+
+        InterfaceToNodeIndex build() {
+            final Map<String, AddressTable<long[]>> locations = new HashMap<>();
+            for (final Map.Entry<String, AddressTable<long[]>> location : m_locations.entrySet()) {
+                if (location.getValue().size() > 0) {
+                    locations.put(location.getKey(), location.getValue());
+                }
+            }
+            final InterfaceToNodeIndex index = new InterfaceToNodeIndex(locations, m_numEntries);
+            m_locations.clear();
+            m_numEntries = 0;
+            return index;
+        }
+    }
+
+    /**
+     * Returns the entry for the given node and interface type.
+     */
+    static long entry(int nodeId, PrimaryType type) {
+        return InterfaceToNodeCache.sortKey(nodeId, type);
+    }
+
+    static int nodeId(long entry) {
+        return InterfaceToNodeCache.nodeIdOf(entry);
+    }
+
+    /**
+     * Returns the entries with the given entry added, or the same array if the entry is already present.
+     */
+    static long[] insert(long[] entries, long entry) {
+        final int i = Arrays.binarySearch(entries, entry);
+        if (i >= 0) {
+            return entries;
+        }
+        final int pos = -(i + 1);
+        final long[] result = new long[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, pos);
+        result[pos] = entry;
+        System.arraycopy(entries, pos, result, pos + 1, entries.length - pos);
+        return result;
+    }
+
+    /**
+     * Returns the entries without the entry of the given node with the highest type,
+     * or the same array if the node is not present.
+     */
+    static long[] removeOne(long[] entries, int nodeId) {
+        for (int i = entries.length - 1; i >= 0; i--) {
+            if (nodeId(entries[i]) == nodeId) {
+                return removeAt(entries, i);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the entries without any entry of the given node, or the same array if the node is not present.
+     */
+    static long[] removeAll(long[] entries, int nodeId) {
+        long[] result = entries;
+        for (int i = result.length - 1; i >= 0; i--) {
+            if (nodeId(result[i]) == nodeId) {
+                result = removeAt(result, i);
+            }
+        }
+        return result;
+    }
+
+    private static long[] removeAt(long[] entries, int i) {
+        if (entries.length == 1) {
+            return NO_ENTRIES;
+        }
+        final long[] result = new long[entries.length - 1];
+        System.arraycopy(entries, 0, result, 0, i);
+        System.arraycopy(entries, i + 1, result, i, entries.length - i - 1);
+        return result;
+    }
+}
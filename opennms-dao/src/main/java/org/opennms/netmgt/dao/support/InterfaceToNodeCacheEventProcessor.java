@@ -146,4 +146,25 @@ public class InterfaceToNodeCacheEventProcessor implements InitializingBean {
         // remove all interfaces for this node.
         m_cache.removeInterfacesForNode(nodeId.intValue());
     }
+
+    @EventHandler(ueis = {
+            EventConstants.NODE_LOCATION_CHANGED_EVENT_UEI,
+            EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI
+    })
+    @Transactional
+    public void handleNodeChanged(Event event) {
+        Long nodeId = event.getNodeid();
+        LOG.debug("Received event: {} with nodeId = {}", event.getUei(), nodeId);
+        if (nodeId == null) {
+            LOG.error("{} : Event with no node ID: {}", event.getUei(), event.toString());
+            return;
+        }
+        OnmsNode node = m_nodeDao.get(nodeId.intValue());
+        if (node == null) {
+            LOG.warn("{} : Cannot find node in DB: {}", event.getUei(), nodeId);
+            return;
+        }
+        // re-add all interfaces of this node, with their current location and type
+        m_cache.setInterfacesForNode(node);
+    }
 }
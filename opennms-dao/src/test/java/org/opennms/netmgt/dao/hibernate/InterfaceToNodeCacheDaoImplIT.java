@@ -267,6 +267,37 @@ public class InterfaceToNodeCacheDaoImplIT implements InitializingBean {
         Assert.assertEquals(0, m_cache.size());
     }
 
+    @Test
+    @Transactional
+    public void testSetInterfacesForNode() throws Exception {
+        final OnmsMonitoringLocation defaultLocation = m_monitoringLocationDao.getDefaultLocation();
+        final String nodeLocation = defaultLocation.getLocationName();
+
+        final OnmsNode node = new OnmsNode(defaultLocation, "node1");
+        final InetAddress ipAddr1 = InetAddress.getByName("192.168.0.2");
+        addInterface(node, ipAddr1, nodeLocation);
+        final InetAddress ipAddr2 = InetAddress.getByName("192.168.0.7");
+        addInterface(node, ipAddr2, nodeLocation);
+        final InetAddress deletedAddr = InetAddress.getByName("192.168.0.8");
+        addInterface(node, deletedAddr, nodeLocation);
+        node.getIpInterfaceByIpAddress(deletedAddr).setIsManaged("D");
+        final InetAddress staleAddr = InetAddress.getByName("192.168.0.9");
+        addInterface(node, staleAddr, nodeLocation);
+        final int nodeId = m_databasePopulator.getNodeDao().save(node);
+
+        // The cache still knows an address the node no longer has
+        m_cache.setNodeId(nodeLocation, staleAddr, nodeId);
+        node.getIpInterfaces().remove(node.getIpInterfaceByIpAddress(staleAddr));
+
+        m_cache.setInterfacesForNode(node);
+
+        Assert.assertEquals(nodeId, (int) m_cache.getFirstNodeId(nodeLocation, ipAddr1).get());
+        Assert.assertEquals(nodeId, (int) m_cache.getFirstNodeId(nodeLocation, ipAddr2).get());
+        Assert.assertFalse(m_cache.getFirstNodeId(nodeLocation, deletedAddr).isPresent());
+        Assert.assertFalse(m_cache.getFirstNodeId(nodeLocation, staleAddr).isPresent());
+        Assert.assertEquals(2, m_cache.size());
+    }
+
     private void addInterface(OnmsNode node, InetAddress inetAddress, String location) {
         final OnmsIpInterface iface = new OnmsIpInterface();
         iface.setIpAddress(inetAddress);
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.PrimaryType;
+
+public class InterfaceToNodeIndexTest {
+
+    private static final long P1 = InterfaceToNodeIndex.entry(1, PrimaryType.PRIMARY);
+    private static final long S2 = InterfaceToNodeIndex.entry(2, PrimaryType.SECONDARY);
+    private static final long N3 = InterfaceToNodeIndex.entry(3, PrimaryType.NOT_ELIGIBLE);
+    private static final long P3 = InterfaceToNodeIndex.entry(3, PrimaryType.PRIMARY);
+
+    @Test
+    public void testEntriesAreOrderedLikePrimaryTypes() {
+        // PrimaryType sorts N before S before P
+        long[] entries = InterfaceToNodeIndex.NO_ENTRIES;
+        entries = InterfaceToNodeIndex.insert(entries, P1);
+        entries = InterfaceToNodeIndex.insert(entries, N3);
+        entries = InterfaceToNodeIndex.insert(entries, S2);
+        assertArrayEquals(new long[] { N3, S2, P1 }, entries);
+        assertEquals(3, InterfaceToNodeIndex.nodeId(entries[0]));
+
+        // Inserting an existing entry returns the same array
+        assertSame(entries, InterfaceToNodeIndex.insert(entries, S2));
+    }
+
+    @Test
+    public void testRemoval() {
+        final long[] entries = new long[] { N3, S2, P3 };
+        // The entry with the highest type is removed first
+        assertArrayEquals(new long[] { N3, S2 }, InterfaceToNodeIndex.removeOne(entries, 3));
+        assertArrayEquals(new long[] { S2 }, InterfaceToNodeIndex.removeAll(entries, 3));
+        assertSame(entries, InterfaceToNodeIndex.removeOne(entries, 4));
+        assertSame(InterfaceToNodeIndex.NO_ENTRIES, InterfaceToNodeIndex.removeAll(new long[] { S2 }, 2));
+    }
+
+    @Test
+    public void testLookups() {
+        final InterfaceToNodeIndex index = InterfaceToNodeIndex.builder()
+                .add("Default", addr("10.0.0.1").getAddress(), P1)
+                .add("Default", addr("10.0.0.1").getAddress(), S2)
+                .add("Default", addr("0.0.0.0").getAddress(), N3)
+                .add("Minion", addr("10.0.0.1").getAddress(), P3)
+                .add("Default", addr("fe80::1").getAddress(), S2)
+                .build();
+
+        assertEquals(5, index.size());
+        assertArrayEquals(new long[] { S2, P1 }, index.get("Default", addr("10.0.0.1").getAddress()));
+        assertArrayEquals(new long[] { N3 }, index.get("Default", addr("0.0.0.0").getAddress()));
+        assertArrayEquals(new long[] { P3 }, index.get("Minion", addr("10.0.0.1").getAddress()));
+        assertArrayEquals(new long[] { S2 }, index.get("Default", addr("fe80::1").getAddress()));
+        assertSame(InterfaceToNodeIndex.NO_ENTRIES, index.get("Default", addr("10.0.0.2").getAddress()));
+        assertSame(InterfaceToNodeIndex.NO_ENTRIES, index.get("Other", addr("10.0.0.1").getAddress()));
+    }
+
+    @Test
+    public void testManyAddresses() {
+        final InterfaceToNodeIndex.Builder builder = InterfaceToNodeIndex.builder();
+        for (int i = 0; i < 100000; i++) {
+            builder.add("Default", ipv4(i), InterfaceToNodeIndex.entry(i, PrimaryType.PRIMARY));
+            builder.add("Default", ipv6(i), InterfaceToNodeIndex.entry(i, PrimaryType.SECONDARY));
+        }
+        final InterfaceToNodeIndex index = builder.build();
+        assertEquals(200000, index.size());
+        for (int i = 0; i < 100000; i++) {
+            assertArrayEquals(new long[] { InterfaceToNodeIndex.entry(i, PrimaryType.PRIMARY) }, index.get("Default", ipv4(i)));
+            assertArrayEquals(new long[] { InterfaceToNodeIndex.entry(i, PrimaryType.SECONDARY) }, index.get("Default", ipv6(i)));
+        }
+
+        // Visiting the index must return the original addresses
+        final Map<Integer, Integer> visits = new HashMap<>();
+        index.forEach((location, address, entries) -> {
+            final int nodeId = InterfaceToNodeIndex.nodeId(entries[0]);
+            assertArrayEquals(address.length == 4 ? ipv4(nodeId) : ipv6(nodeId), address);
+            visits.merge(nodeId, 1, Integer::sum);
+        });
+        assertEquals(100000, visits.size());
+        visits.values().forEach(count -> assertEquals(2, (int) count));
+    }
+
+    private static byte[] ipv4(int i) {
+        return new byte[] { 10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+    }
+
+    private static byte[] ipv6(int i) {
+        final byte[] address = new byte[16];
+        address[0] = (byte) 0x20;
+        address[1] = (byte) 0x01;
+        address[13] = (byte) (i >>> 16);
+        address[14] = (byte) (i >>> 8);
+        address[15] = (byte) i;
+        return address;
+    }
+}
@@ -29,14 +29,21 @@
 package org.opennms.netmgt.model.events;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.netmgt.events.api.AnnotationBasedEventListenerAdapter;
+import org.opennms.netmgt.events.api.BatchEventListener;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.events.api.annotations.EventExceptionHandler;
@@ -56,6 +63,7 @@ public class AnnotationBasedEventListenerAdapterTest {
     
     private static final String ANNOTATED_NAME = "AnotatedListenerName";
     private static final String OVERRIDEN_NAME = "OverriddenName";
+    private static final String BATCH_NAME = "BatchListenerName";
     
     private AnnotatedListener m_annotatedListener;
     private AnnotationBasedEventListenerAdapter m_adapter;
@@ -112,6 +120,54 @@ public class AnnotationBasedEventListenerAdapterTest {
     
     private static class DerivedListener extends AnnotatedListener {
         
+    }
+
+    @EventListener(name=BATCH_NAME)
+    public static class AnnotatedBatchListener implements BatchEventListener {
+
+        public int preProcessedEvents = 0;
+        public int receivedBatchCount = 0;
+        public int receivedEventCount = 0;
+        public int postProcessedEvents = 0;
+        public int illegalArgsHandled = 0;
+
+        @Override
+        public String getName() {
+            return BATCH_NAME;
+        }
+
+        @Override
+        @EventHandler(uei=EventHandler.ALL_UEIS)
+        public void onEvent(Event e) {
+            onEvents(Collections.singletonList(e));
+        }
+
+        @Override
+        public void onEvents(List<Event> events) {
+            receivedBatchCount++;
+            for (Event e : events) {
+                if (EventConstants.NODE_LOST_SERVICE_EVENT_UEI.equals(e.getUei())) {
+                    throw new IllegalArgumentException("test generated exception");
+                }
+                receivedEventCount++;
+            }
+        }
+
+        @EventPreProcessor()
+        public void preProcess(Event e) {
+            preProcessedEvents++;
+        }
+
+        @EventPostProcessor
+        public void postProcess(Event e) {
+            postProcessedEvents++;
+        }
+
+        @EventExceptionHandler
+        public void handleException(Event e, IllegalArgumentException ex) {
+            illegalArgsHandled++;
+        }
+
     }
     /* (non-Javadoc)
      * @see junit.framework.TestCase#setUp()
@@ -241,6 +297,58 @@ public class AnnotationBasedEventListenerAdapterTest {
         
     }
 
+    @Test
+    public void testBatchListener() throws Exception {
+        AnnotatedBatchListener batchListener = new AnnotatedBatchListener();
+        AnnotationBasedEventListenerAdapter adapter = new AnnotationBasedEventListenerAdapter();
+
+        // expect the batching listener to be subscribed in place of the adapter
+        Capture<org.opennms.netmgt.events.api.EventListener> registered = EasyMock.newCapture();
+        m_eventIpcMgr.addEventListener(EasyMock.capture(registered));
+
+        m_mockUtils.replayAll();
+
+        // finish expectations for the old adapter
+        m_adapter.afterPropertiesSet();
+
+        adapter.setAnnotatedListener(batchListener);
+        adapter.setEventSubscriptionService(m_eventIpcMgr);
+        adapter.afterPropertiesSet();
+
+        assertTrue(registered.getValue() instanceof BatchEventListener);
+        assertEquals(BATCH_NAME, registered.getValue().getName());
+        BatchEventListener listener = (BatchEventListener)registered.getValue();
+
+        listener.onEvents(Arrays.asList(createEvent(EventConstants.NODE_DOWN_EVENT_UEI), createEvent(EventConstants.ADD_NODE_EVENT_UEI)));
+
+        assertEquals(2, batchListener.preProcessedEvents);
+        assertEquals(1, batchListener.receivedBatchCount);
+        assertEquals(2, batchListener.receivedEventCount);
+        assertEquals(2, batchListener.postProcessedEvents);
+
+        // a failed batch is handled for each of its events
+        listener.onEvents(Arrays.asList(createEvent(EventConstants.NODE_DOWN_EVENT_UEI), createEvent(EventConstants.NODE_LOST_SERVICE_EVENT_UEI)));
+
+        assertEquals(4, batchListener.preProcessedEvents);
+        assertEquals(2, batchListener.receivedBatchCount);
+        assertEquals(2, batchListener.postProcessedEvents);
+        assertEquals(2, batchListener.illegalArgsHandled);
+
+        m_mockUtils.verifyAll();
+    }
+
+    @Test
+    public void testOnlyBatchListenersReceiveBatches() throws Exception {
+        m_mockUtils.replayAll();
+
+        m_adapter.afterPropertiesSet();
+
+        // the adapter itself is subscribed, events are dispatched one by one
+        assertFalse(m_adapter instanceof BatchEventListener);
+
+        m_mockUtils.verifyAll();
+    }
+
     private Event createEvent(String uei) {
         return new EventBuilder(uei, "Test").getEvent();
     }
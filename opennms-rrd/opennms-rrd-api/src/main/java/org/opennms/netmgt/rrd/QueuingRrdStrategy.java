@@ -31,15 +31,18 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -56,6 +59,11 @@ import org.slf4j.LoggerFactory;
  * a per file basis and maintains a set of threads that process enqueued work
  * file by file.
  *
+ * The queue is split into shards by file name. Every shard is pinned to a
+ * single write thread, so that the threads never compete for the same files, and
+ * enqueuing only contends with other updates for the same file. All of the updates
+ * enqueued for a file are coalesced and written with a single open of the file.
+ *
  * If the I/O system can keep up with the collection threads while performing
  * only a single update per file then eventually all the data is processed and
  * the threads sleep until there is more work to do.
@@ -82,6 +90,9 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.writethreads: (default 2) The number of rrd write
  * threads that process the queue
  *
+ * org.opennms.rrd.queuing.shards: (default 0) The number of queue shards. At
+ * least one shard per write thread is used.
+ *
  * org.opennms.rrd.queuing.queueCreates: (default false) indicates whether rrd
  * file creates should be queued or processed synchronously
  *
@@ -109,7 +120,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String> {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
@@ -139,6 +150,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private int m_writeThreads = 0;
 
+    private int m_shards = 0;
+
     private boolean m_queueCreates;
 
     private boolean m_prioritizeSignificantUpdates;
@@ -175,6 +188,24 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreads = writeThreads;
     }
 
+    /**
+     * <p>getShards</p>
+     *
+     * @return a int.
+     */
+    public int getShards() {
+        return m_shards;
+    }
+
+    /**
+     * <p>setShards</p>
+     *
+     * @param shards the number of queue shards, at least one per write thread is used
+     */
+    public void setShards(int shards) {
+        m_shards = shards;
+    }
+
     /**
      * <p>queueCreates</p>
      *
@@ -357,41 +388,38 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
-
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
-
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
-
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
-
-    Set<String> reservedFiles = new HashSet<String>();
+    /**
+     * The queue is split into shards by file name, so that enqueuing threads
+     * and write threads working on different files don't contend with each other.
+     * Every shard is processed by exactly one write thread.
+     */
+    private volatile QueueShard[] m_queueShards;
 
-    private long m_totalOperationsPending = 0;
+    private WriteThread[] m_writers;
 
-    private long m_enqueuedOperations = 0;
+    private final AtomicLong m_totalOperationsPending = new AtomicLong();
 
-    private long m_dequeuedOperations = 0;
+    private final AtomicLong m_enqueuedOperations = new AtomicLong();
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
 
-    private long m_significantOpsDequeued = 0;
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong();
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
 
-    private long m_updatesCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong();
 
-    private long m_errors = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
 
-    int threadsRunning = 0;
+    private final AtomicLong m_errors = new AtomicLong();
 
-    private long m_startTime = 0;
+    private volatile long m_startTime = 0;
 
-    private long m_promotionCount = 0;
+    private final AtomicLong m_promotionCount = new AtomicLong();
 
     long lastLap = System.currentTimeMillis();
 
@@ -477,7 +505,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData());
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -516,8 +544,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -563,8 +590,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -673,257 +699,407 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
-    //
 
     /**
-     * Add an operation to the queue.
+     * The operations pending for a single file.
+     */
+    static class PendingFile {
+        final String fileName;
+        final LinkedList<Operation> operations = new LinkedList<Operation>();
+        final long enqueueTime = System.currentTimeMillis();
+        boolean significant = false;
+
+        PendingFile(final String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
+    /**
+     * A part of the queue, holding the pending operations for the files that hash to it.
      *
-     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     * Any thread may add operations, but only the write thread the shard is pinned to
+     * takes them. Operations are added to a file's pending list while holding the lock
+     * of the map entry, and the write thread takes the whole list by removing the entry,
+     * which coalesces all of the updates that queued up for the file in the meantime.
      */
-    private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+    class QueueShard {
+        final int index;
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        final ConcurrentHashMap<String, PendingFile> pendingFiles = new ConcurrentHashMap<String, PendingFile>();
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        final ConcurrentLinkedDeque<PendingFile> filesWithSignificantWork = new ConcurrentLinkedDeque<PendingFile>();
 
-            storeAssignment(op);
+        final ConcurrentLinkedDeque<PendingFile> filesWithInsignificantWork = new ConcurrentLinkedDeque<PendingFile>();
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
-            notifyAll();
-            ensureThreadsStarted();
-        }
-    }
+        final AtomicInteger insignificantFileCount = new AtomicInteger();
 
+        final AtomicLong operationsPending = new AtomicLong();
 
-    private boolean queueIsFull() {
-        if (m_queueHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_queueHighWaterMark;
-    }
+        final AtomicLong operationsDequeued = new AtomicLong();
 
-    private boolean sigQueueIsFull() {
-        if (m_sigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_sigHighWaterMark;
-    }
+        final AtomicLong itemsDequeued = new AtomicLong();
 
-    private boolean inSigQueueIsFull() {
-        if (m_inSigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_inSigHighWaterMark;
-    }
+        long promotionCount = 0;
 
-    /**
-     * Ensure that we have threads started to process the queue.
-     */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+        WriteThread writer;
+
+        QueueShard(final int index) {
+            this.index = index;
         }
-    }
 
-    /**
-     * Get the operations for the next file that should be worked on.
-     *
-     * @return a linkedList of operations to be processed all for the same file.
-     */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
+        /**
+         * Add the operation to the pending list of its file.
+         *
+         * @return true if the file didn't have any pending operations yet
+         */
+        boolean add(final Operation op) {
+            operationsPending.incrementAndGet();
+            final boolean[] newFile = new boolean[1];
+            pendingFiles.compute(op.getFileName(), (fileName, pendingFile) -> {
+                if (pendingFile == null) {
+                    pendingFile = new PendingFile(fileName);
+                    newFile[0] = true;
+
+                    // add the file to the correct list based on what type of work we
+                    // are adding.  (if we aren't prioritizing then every file is counted as
+                    // signficant
+                    if (!m_prioritizeSignificantUpdates || op.isSignificant()) {
+                        filesWithSignificantWork.addLast(pendingFile);
+                    } else {
+                        insignificantFileCount.incrementAndGet();
+                        filesWithInsignificantWork.addLast(pendingFile);
+                    }
+                } else if (m_prioritizeSignificantUpdates && op.isSignificant() && !pendingFile.significant) {
+                    // only do this when we are prioritizing as this bumps files from inSig
+                    // up to sig
+                    // promote the file to the significant list if this is the first
+                    // significant
+                    filesWithSignificantWork.addLast(pendingFile);
+                }
+                pendingFile.significant |= op.isSignificant();
+                op.addToPendingList(pendingFile.operations);
+                return pendingFile;
+            });
+            return newFile[0];
+        }
 
-            // turn in our previous assignment
-            completeAssignment();
+        /**
+         * Take the pending operations of the next file that should be worked on.
+         * Must only be called by the write thread of this shard.
+         *
+         * @return the pending file, or null if there is no work
+         */
+        PendingFile takeNext() {
+            promoteAgedFiles();
+
+            PendingFile pendingFile;
+            while ((pendingFile = filesWithSignificantWork.pollFirst()) != null) {
+                if (pendingFiles.remove(pendingFile.fileName, pendingFile)) {
+                    return taken(pendingFile);
+                }
+            }
+            while ((pendingFile = filesWithInsignificantWork.pollFirst()) != null) {
+                insignificantFileCount.decrementAndGet();
+                if (pendingFiles.remove(pendingFile.fileName, pendingFile)) {
+                    return taken(pendingFile);
+                }
+            }
+            return null;
+        }
 
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
+        private PendingFile taken(final PendingFile pendingFile) {
+            long count = 0;
+            long significantCount = 0;
+            for (final Operation op : pendingFile.operations) {
+                count += op.getCount();
+                if (op.isSignificant()) {
+                    significantCount += op.getCount();
                 }
             }
+            operationsPending.addAndGet(-count);
+            operationsDequeued.addAndGet(count);
+            itemsDequeued.incrementAndGet();
 
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
+            // keep stats
+            m_totalOperationsPending.addAndGet(-count);
+            m_dequeuedOperations.addAndGet(count);
+            m_significantOpsDequeued.addAndGet(significantCount);
+            m_dequeuedItems.incrementAndGet();
+            return pendingFile;
+        }
 
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
+        /**
+         * Ensure that files with insignificant changes are getting promoted if
+         * necessary
+         */
+        private void promoteAgedFiles() {
+            // no need to do this is we aren't prioritizing
+            if (!m_prioritizeSignificantUpdates) return;
+
+            // the num seconds to update files is 0 then use unfair prioritization
+            final int insignificantFiles = insignificantFileCount.get();
+            if (m_maxInsigUpdateSeconds == 0 || insignificantFiles <= 0)
+                return;
 
-            // keep stats
-            if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
-                    if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
-                    }
+            // calculate the elapsed time we first queued updates
+            long now = System.currentTimeMillis();
+            long elapsedMillis = Math.max(now - getStartTime(), 1);
+
+            // calculate the milliseconds between promotions necessary to age
+            // insignificant files into the significant queue
+            double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / insignificantFiles);
+
+            // calculate the number of millis since start until the next file needs
+            // to be promoted
+            long nextPromotionMillis = (long) (millisPerPromotion * promotionCount);
+
+            // if more time has elapsed than the next promotion time then promote a
+            // file
+            if (elapsedMillis > nextPromotionMillis) {
+                final PendingFile pendingFile = filesWithInsignificantWork.pollFirst();
+                if (pendingFile != null) {
+                    insignificantFileCount.decrementAndGet();
+                    filesWithSignificantWork.addFirst(pendingFile);
+                    promotionCount++;
+                    m_promotionCount.incrementAndGet();
                 }
-                setDequeuedItems(getDequeuedItems() + 1);
             }
         }
 
-        return ops;
+        boolean hasWork() {
+            return !pendingFiles.isEmpty();
+        }
+
+        /**
+         * @return the number of operations waiting in this shard
+         */
+        long getQueueDepth() {
+            return operationsPending.get();
+        }
+
+        /**
+         * @return the average number of operations written per file update
+         */
+        double getCoalescingRatio() {
+            return operationsDequeued.get() / Math.max(itemsDequeued.get(), 1.0);
+        }
 
+        /**
+         * @return the time in milliseconds the longest waiting file has been pending, 0 if there are none
+         */
+        long getOldestPendingAge() {
+            final long now = System.currentTimeMillis();
+            long oldest = now;
+            for (final PendingFile pendingFile : new PendingFile[] { filesWithSignificantWork.peekFirst(), filesWithInsignificantWork.peekFirst() }) {
+                if (pendingFile != null && pendingFiles.get(pendingFile.fileName) == pendingFile) {
+                    oldest = Math.min(oldest, pendingFile.enqueueTime);
+                }
+            }
+            return now - oldest;
+        }
     }
 
     /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
+     * A write thread, processing the files of the shards that are pinned to it. The
+     * thread is started when work arrives and exits after being idle for
+     * writeThreadExitDelay milliseconds.
      */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
+    class WriteThread implements Runnable {
+        final int index;
 
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
+        final List<QueueShard> shards = new ArrayList<QueueShard>();
 
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
-        }
+        final AtomicBoolean running = new AtomicBoolean(false);
 
-        promoteAgedFiles();
+        volatile boolean idle = false;
 
-        op.addToPendingList(pendingOperations);
-    }
+        volatile Thread thread;
 
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
+        private int nextShard = 0;
 
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
+        WriteThread(final int index) {
+            this.index = index;
+        }
 
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
+        /**
+         * Ensure that the thread is started to process the queue.
+         */
+        void ensureStarted() {
+            if (!running.get() && running.compareAndSet(false, true)) {
+                thread = new Thread(this, QueuingRrdStrategy.this.getClass().getSimpleName() + "-" + (index + 1));
+                thread.start();
+            } else if (idle) {
+                final Thread t = thread;
+                if (t != null) {
+                    LockSupport.unpark(t);
+                }
+            }
+        }
 
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
-
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
-
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
-
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+        @Override
+        public void run() {
+            long waitStart = -1L;
+            while (true) {
+                final PendingFile pendingFile = takeNext();
+                if (pendingFile != null) {
+                    waitStart = -1L;
+                    processPendingOperations(pendingFile);
+                    continue;
+                }
+
+                final long now = System.currentTimeMillis();
+                if (waitStart < 0) {
+                    waitStart = now;
+                }
+                if (now - waitStart >= m_writeThreadExitDelay) {
+                    running.set(false);
+                    // work added while we were stopping doesn't start a new thread,
+                    // so keep going if there is any
+                    if (hasWork() && running.compareAndSet(false, true)) {
+                        waitStart = -1L;
+                        continue;
+                    }
+                    return;
+                }
+
+                idle = true;
+                // check again after announcing that we're idle, so that we don't miss a wake up
+                if (!hasWork()) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(m_writeThreadSleepTime, 1)));
+                }
+                idle = false;
+            }
         }
 
-    }
+        private PendingFile takeNext() {
+            for (int i = 0; i < shards.size(); i++) {
+                final QueueShard shard = shards.get(nextShard);
+                nextShard = (nextShard + 1) % shards.size();
+                final PendingFile pendingFile = shard.takeNext();
+                if (pendingFile != null) {
+                    return pendingFile;
+                }
+            }
+            return null;
+        }
 
-    /** {@inheritDoc} */
-    @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
-        m_delegate.promoteEnqueuedFiles(rrdFiles);
+        private boolean hasWork() {
+            for (final QueueShard shard : shards) {
+                if (shard.hasWork()) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     /**
-     * Return true if and only if all the operations in the list are
-     * insignificant
+     * Create the shards and pin them to the write threads.
      */
-    private boolean hasOnlyInsignificant(List<Operation> pendingOps) {
-        for(Operation op : pendingOps) {
-            if (op.isSignificant()) {
-                return false;
+    private QueueShard[] getQueueShards() {
+        QueueShard[] shards = m_queueShards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_queueShards;
+                if (shards == null) {
+                    final int numWriters = Math.max(m_writeThreads, 1);
+                    // every write thread needs at least one shard
+                    final int numShards = Math.max(m_shards, numWriters);
+                    m_writers = new WriteThread[numWriters];
+                    for (int i = 0; i < numWriters; i++) {
+                        m_writers[i] = new WriteThread(i);
+                    }
+                    shards = new QueueShard[numShards];
+                    for (int i = 0; i < numShards; i++) {
+                        shards[i] = new QueueShard(i);
+                        shards[i].writer = m_writers[i % numWriters];
+                        shards[i].writer.shards.add(shards[i]);
+                    }
+                    m_queueShards = shards;
+                }
             }
         }
-        return true;
+        return shards;
+    }
+
+    private QueueShard getQueueShard(final String fileName) {
+        final QueueShard[] shards = getQueueShards();
+        // spread the hash, file names of the same directory tend to share long prefixes
+        int h = fileName.hashCode();
+        h ^= (h >>> 16);
+        return shards[Math.floorMod(h, shards.length)];
     }
 
     /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
+     * Add an operation to the queue.
+     *
+     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
+    private void addOperation(final Operation op) {
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
-    }
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-    /**
-     * Return the name of the next file with available work
-     */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
+        // initialize start time for stats
+        if (m_startTime == 0) {
+            m_startTime = System.currentTimeMillis();
         }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
-            }
+
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant())
+            m_significantOpsEnqueued.incrementAndGet();
+
+        final QueueShard shard = getQueueShard(op.getFileName());
+        if (shard.add(op)) {
+            shard.writer.ensureStarted();
         }
-        return null;
     }
 
-    /**
-     * Record that fact that the current thread has finished process operations
-     * for its current assignment
-     */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+
+    private boolean queueIsFull() {
+        if (m_queueHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_queueHighWaterMark;
+    }
+
+    private boolean sigQueueIsFull() {
+        if (m_sigHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_sigHighWaterMark;
+    }
+
+    private boolean inSigQueueIsFull() {
+        if (m_inSigHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_inSigHighWaterMark;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        for (final String rrdFile : rrdFiles) {
+            final QueueShard shard = getQueueShard(rrdFile);
+            final PendingFile pendingFile = shard.pendingFiles.get(rrdFile);
+            if (pendingFile != null) {
+                shard.filesWithSignificantWork.addFirst(pendingFile);
+            }
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
     /**
@@ -1053,71 +1229,34 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     // These methods are run by the write threads the process the queues.
     //
 
-    /**
-     * <p>run</p>
-     */
-    @Override
-    public void run() {
-        try {
-
-            long waitStart = -1L;
-            long delayed = 0;
-            while (delayed < m_writeThreadExitDelay) {
-                if (getTotalOperationsPending() > 0) {
-                    delayed = 0;
-                    waitStart = -1L;
-                    processPendingOperations();
-                } else {
-                    if (waitStart < 0) {
-                        waitStart = System.currentTimeMillis();
-                    }
-                    try {
-                        Thread.sleep(m_writeThreadSleepTime);
-                    } catch (InterruptedException e) {
-                    }
-                    long now = System.currentTimeMillis();
-                    delayed = now - waitStart;
-                }
-
-            }
-        } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
-        }
-    }
-
     /**
      * Actually process the operations be calling the underlying delegate
      * strategy
      */
-    private void processPendingOperations() {
+    private void processPendingOperations(final PendingFile pendingFile) {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
                 Object rrd = null;
-                String fileName = null;
+                String fileName = pendingFile.fileName;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
+                    final LinkedList<Operation> ops = pendingFile.operations;
                     // update stats correctly we update them even if an exception occurs
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
-                    // now we actually process the events
+                    // now we actually process the events, all of the updates for
+                    // the file are written with the file opened once
                     for (final Operation op : ops) {
                         fileName = op.getFileName();
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
@@ -1135,7 +1274,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1181,8 +1320,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithWork=" + getFilesWithWork() +
+                ", shards=" + getShardCount() +
+                ", oldestPendingAge=" + getOldestPendingAge()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1203,6 +1343,15 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ", overallPrcntSignificant=" + (getSignificantOpsEnqueued() * 100.0 / Math.max(getEnqueuedOperations(), 1.0)) + "%" +
                 ", totalElapsedTime=" + ((totalElapsedMillis + 500) / 1000);
 
+        final StringBuilder shardStats = new StringBuilder(stats);
+        for (int i = 0; i < getShardCount(); i++) {
+            shardStats.append("\nQS:\t").append("shard=").append(i)
+                .append(", queueDepth=").append(getShardQueueDepth(i))
+                .append(", coalescingRatio=").append(getShardCoalescingRatio(i))
+                .append(", oldestPendingAge=").append(getShardOldestPendingAge(i));
+        }
+        stats = shardStats.toString();
+
         lastStatsTime = now;
         lastEnqueued = getEnqueuedOperations();
         lastDequeued = getDequeuedOperations();
@@ -1291,13 +1440,78 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_delegate.createGraphReturnDetails(command, workDir);
     }
 
+    /**
+     * <p>getShardCount</p>
+     *
+     * @return the number of queue shards
+     */
+    public int getShardCount() {
+        return getQueueShards().length;
+    }
+
+    /**
+     * <p>getShardQueueDepth</p>
+     *
+     * @param shard the index of the shard
+     * @return the number of operations pending in the shard
+     */
+    public long getShardQueueDepth(int shard) {
+        return getQueueShards()[shard].getQueueDepth();
+    }
+
+    /**
+     * <p>getShardCoalescingRatio</p>
+     *
+     * @param shard the index of the shard
+     * @return the average number of operations written per file update in the shard
+     */
+    public double getShardCoalescingRatio(int shard) {
+        return getQueueShards()[shard].getCoalescingRatio();
+    }
+
+    /**
+     * <p>getShardOldestPendingAge</p>
+     *
+     * @param shard the index of the shard
+     * @return the time in milliseconds the longest waiting file of the shard has been pending
+     */
+    public long getShardOldestPendingAge(int shard) {
+        return getQueueShards()[shard].getOldestPendingAge();
+    }
+
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return the time in milliseconds the longest waiting file has been pending
+     */
+    public long getOldestPendingAge() {
+        long oldest = 0;
+        for (final QueueShard shard : getQueueShards()) {
+            oldest = Math.max(oldest, shard.getOldestPendingAge());
+        }
+        return oldest;
+    }
+
+    /**
+     * <p>getFilesWithWork</p>
+     *
+     * @return the number of files with pending operations
+     */
+    public long getFilesWithWork() {
+        long files = 0;
+        for (final QueueShard shard : getQueueShards()) {
+            files += shard.pendingFiles.size();
+        }
+        return files;
+    }
+
     /**
      * <p>getTotalOperationsPending</p>
      *
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        return m_totalOperationsPending.get();
     }
 
     /**
@@ -1306,7 +1520,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param totalOperationsPending a long.
      */
     public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        m_totalOperationsPending.set(totalOperationsPending);
     }
 
     /**
@@ -1315,7 +1529,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1324,7 +1538,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1333,7 +1547,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1342,7 +1556,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1351,7 +1565,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1360,7 +1574,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1369,7 +1583,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1378,7 +1592,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1387,7 +1601,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.get();
     }
 
     /**
@@ -1396,7 +1610,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
     }
 
     /**
@@ -1405,7 +1619,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1414,7 +1628,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1423,7 +1637,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.get();
     }
 
     /**
@@ -1432,7 +1646,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.set(enqueuedOperations);
     }
 
     /**
@@ -1441,7 +1655,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1450,7 +1664,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1459,7 +1673,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1468,7 +1682,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1477,7 +1691,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1486,7 +1700,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
     }
 
     /**
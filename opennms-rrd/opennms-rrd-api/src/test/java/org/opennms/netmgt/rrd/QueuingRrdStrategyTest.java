@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueuingRrdStrategyTest {
+
+    /**
+     * Records the rows written with every open of a file, like a multi-row rrdtool update.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final Map<String, List<List<String>>> m_writes = new ConcurrentHashMap<>();
+        private final Map<String, Set<Thread>> m_writers = new ConcurrentHashMap<>();
+        private volatile CountDownLatch m_release = new CountDownLatch(0);
+        private final CountDownLatch m_busy = new CountDownLatch(1);
+
+        private static class OpenFile {
+            private final String fileName;
+            private final List<String> rows = new ArrayList<>();
+
+            private OpenFile(String fileName) {
+                this.fileName = fileName;
+            }
+        }
+
+        @Override
+        public Object openFile(String fileName) {
+            m_busy.countDown();
+            try {
+                m_release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            m_writers.computeIfAbsent(fileName, f -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread());
+            return new OpenFile(fileName);
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            ((OpenFile)rrd).rows.add(data);
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            final OpenFile openFile = (OpenFile)rrd;
+            m_writes.computeIfAbsent(openFile.fileName, f -> Collections.synchronizedList(new ArrayList<>())).add(openFile.rows);
+        }
+    }
+
+    private RecordingRrdStrategy m_delegate;
+
+    private QueuingRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new QueuingRrdStrategy(m_delegate);
+        m_strategy.setModulus(10000);
+        m_strategy.setWriteThreadSleepTime(10);
+        m_strategy.setWriteThreadExitDelay(1000);
+    }
+
+    @Test(timeout=60000)
+    public void testAllUpdatesAreWrittenInOrder() throws Exception {
+        m_strategy.setWriteThreads(4);
+        m_strategy.setShards(8);
+        assertEquals(8, m_strategy.getShardCount());
+
+        final int numProducers = 4;
+        final int filesPerProducer = 25;
+        final int updatesPerFile = 100;
+        final ExecutorService producers = Executors.newFixedThreadPool(numProducers);
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            producers.execute(() -> {
+                for (int u = 1; u <= updatesPerFile; u++) {
+                    for (int f = 0; f < filesPerProducer; f++) {
+                        try {
+                            m_strategy.updateFile(getFileName(producer * filesPerProducer + f), "test", u + ":" + u);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(30, TimeUnit.SECONDS));
+
+        final long numUpdates = numProducers * filesPerProducer * updatesPerFile;
+        while (m_strategy.getUpdatesCompleted() < numUpdates) {
+            Thread.sleep(10);
+        }
+        assertEquals(numUpdates, m_strategy.getEnqueuedOperations());
+        assertEquals(numUpdates, m_strategy.getDequeuedOperations());
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+        assertEquals(0, m_strategy.getErrors());
+
+        for (int f = 0; f < numProducers * filesPerProducer; f++) {
+            final List<String> rows = new ArrayList<>();
+            for (List<String> write : m_delegate.m_writes.get(getFileName(f))) {
+                rows.addAll(write);
+            }
+            assertEquals(updatesPerFile, rows.size());
+            for (int u = 1; u <= updatesPerFile; u++) {
+                assertEquals(u + ":" + u, rows.get(u - 1));
+            }
+            // Files are always written by the thread their shard is pinned to
+            assertEquals(1, m_delegate.m_writers.get(getFileName(f)).size());
+        }
+        for (int i = 0; i < m_strategy.getShardCount(); i++) {
+            assertEquals(0, m_strategy.getShardQueueDepth(i));
+            assertEquals(0, m_strategy.getShardOldestPendingAge(i));
+        }
+    }
+
+    @Test(timeout=60000)
+    public void testUpdatesAreCoalesced() throws Exception {
+        m_strategy.setWriteThreads(1);
+
+        // Keep the write thread busy, while the updates for another file queue up
+        m_delegate.m_release = new CountDownLatch(1);
+        m_strategy.updateFile(getFileName(0), "test", "1:1");
+        assertTrue(m_delegate.m_busy.await(10, TimeUnit.SECONDS));
+        for (int u = 1; u <= 10; u++) {
+            m_strategy.updateFile(getFileName(1), "test", u + ":" + u);
+        }
+        assertEquals(10, m_strategy.getShardQueueDepth(0));
+        Thread.sleep(50);
+        assertTrue(m_strategy.getShardOldestPendingAge(0) >= 50);
+
+        m_delegate.m_release.countDown();
+        while (m_strategy.getUpdatesCompleted() < 11) {
+            Thread.sleep(10);
+        }
+
+        // All of the updates were written with a single open of the file
+        assertEquals(1, m_delegate.m_writes.get(getFileName(1)).size());
+        assertEquals(10, m_delegate.m_writes.get(getFileName(1)).get(0).size());
+        assertEquals(5.5, m_strategy.getShardCoalescingRatio(0), 0.01);
+        assertEquals(2, m_strategy.getDequeuedItems());
+    }
+
+    private static String getFileName(int index) {
+        return "/opt/opennms/share/rrd/snmp/" + (index / 10) + "/ifInOctets" + index + ".jrb";
+    }
+}
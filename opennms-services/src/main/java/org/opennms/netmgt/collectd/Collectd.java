@@ -80,6 +80,7 @@ import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.threshd.api.ThresholdingService;
 import org.opennms.netmgt.xml.event.Event;
@@ -131,6 +132,17 @@ public class Collectd extends AbstractServiceDaemon implements
      * Log4j category
      */
     static final String LOG4J_CATEGORY = "collectd";
+
+    /**
+     * Set this property to true to schedule collections on a {@link TimingWheelScheduler}
+     * instead of the {@link LegacyScheduler}.
+     */
+    public static final String TIMING_WHEEL_SCHEDULER_SYS_PROP = "org.opennms.netmgt.collectd.useTimingWheelScheduler";
+
+    /**
+     * Jitter factor used to spread collections when the {@link TimingWheelScheduler} is enabled.
+     */
+    public static final String SCHEDULER_JITTER_SYS_PROP = "org.opennms.netmgt.collectd.schedulerJitter";
     
     /**
      * Instantiated service collectors specified in config file
@@ -337,7 +349,14 @@ public class Collectd extends AbstractServiceDaemon implements
             // Create a scheduler
             try {
                 LOG.debug("init: Creating collectd scheduler");
-                setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                final int threads = m_collectdConfigFactory.getCollectdConfig().getThreads();
+                if (Boolean.getBoolean(TIMING_WHEEL_SCHEDULER_SYS_PROP)) {
+                    final TimingWheelScheduler scheduler = new TimingWheelScheduler("Collectd", threads);
+                    scheduler.setDefaultJitter(Double.parseDouble(System.getProperty(SCHEDULER_JITTER_SYS_PROP, "0.0")));
+                    setScheduler(scheduler);
+                } else {
+                    setScheduler(new LegacyScheduler("Collectd", threads));
+                }
             } catch (final RuntimeException e) {
                 LOG.error("init: Failed to create collectd scheduler", e);
                 throw e;
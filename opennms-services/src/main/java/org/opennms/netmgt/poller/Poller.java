@@ -63,6 +63,7 @@ import org.opennms.netmgt.poller.pollables.PollableVisitorAdaptor;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.threshd.api.ThresholdingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,9 +87,20 @@ public class Poller extends AbstractServiceDaemon {
 
     private static final String LOG4J_CATEGORY = "poller";
 
+    /**
+     * Set this property to true to schedule polls on a {@link TimingWheelScheduler}
+     * instead of the {@link LegacyScheduler}.
+     */
+    public static final String TIMING_WHEEL_SCHEDULER_SYS_PROP = "org.opennms.netmgt.poller.useTimingWheelScheduler";
+
+    /**
+     * Jitter factor used to spread polls when the {@link TimingWheelScheduler} is enabled.
+     */
+    public static final String SCHEDULER_JITTER_SYS_PROP = "org.opennms.netmgt.poller.schedulerJitter";
+
     private boolean m_initialized = false;
 
-    private LegacyScheduler m_scheduler = null;
+    private Scheduler m_scheduler = null;
 
     private PollerEventProcessor m_eventProcessor;
 
@@ -270,9 +282,9 @@ public class Poller extends AbstractServiceDaemon {
     /**
      * <p>setScheduler</p>
      *
-     * @param scheduler a {@link org.opennms.netmgt.scheduler.LegacyScheduler} object.
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -335,7 +347,13 @@ public class Poller extends AbstractServiceDaemon {
         try {
             LOG.debug("init: Creating poller scheduler");
 
-            setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            if (Boolean.getBoolean(TIMING_WHEEL_SCHEDULER_SYS_PROP)) {
+                final TimingWheelScheduler scheduler = new TimingWheelScheduler("Poller", getPollerConfig().getThreads());
+                scheduler.setDefaultJitter(Double.parseDouble(System.getProperty(SCHEDULER_JITTER_SYS_PROP, "0.0")));
+                setScheduler(scheduler);
+            } else {
+                setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            }
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create poller scheduler", e);
             throw e;
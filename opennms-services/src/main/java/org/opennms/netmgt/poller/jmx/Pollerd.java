@@ -32,6 +32,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -158,12 +159,58 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
             return 0L;
         }
     }
+
+    @Override
+    public long getSchedulerScheduledCount() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getScheduled() : 0L;
+    }
+
+    @Override
+    public long getSchedulerBacklog() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getBacklog() : 0L;
+    }
+
+    @Override
+    public long getSchedulerTicksBehind() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getTicksBehind() : 0L;
+    }
+
+    @Override
+    public long getSchedulerLateTasks() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getNumLateTasks() : 0L;
+    }
+
+    @Override
+    public long getSchedulerMaxLatenessMillis() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getMaxLatenessMillis() : 0L;
+    }
+
+    @Override
+    public double getSchedulerAverageLatenessMillis() {
+        final TimingWheelScheduler scheduler = getTimingWheelScheduler();
+        return scheduler != null ? scheduler.getAverageLatenessMillis() : 0.0;
+    }
     
     private ThreadPoolExecutor getExecutor() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) getDaemon().getScheduler()).getRunner();
+        }
         return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof LegacyScheduler || getDaemon().getScheduler() instanceof TimingWheelScheduler);
+    }
+
+    private TimingWheelScheduler getTimingWheelScheduler() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return (TimingWheelScheduler) getDaemon().getScheduler();
+        }
+        return null;
     }
 }
@@ -93,4 +93,34 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of tasks waiting in the timing wheel scheduler
+     */
+    public long getSchedulerScheduledCount();
+
+    /**
+     * @return The number of due tasks waiting for a thread in the timing wheel scheduler
+     */
+    public long getSchedulerBacklog();
+
+    /**
+     * @return The number of ticks the timing wheel scheduler is lagging behind the clock
+     */
+    public long getSchedulerTicksBehind();
+
+    /**
+     * @return The number of poll tasks that started at least one tick after their deadline
+     */
+    public long getSchedulerLateTasks();
+
+    /**
+     * @return The largest delay between the deadline and the start of a poll task
+     */
+    public long getSchedulerMaxLatenessMillis();
+
+    /**
+     * @return The average delay between the deadline and the start of a poll task
+     */
+    public double getSchedulerAverageLatenessMillis();
 }
@@ -247,5 +247,33 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getOldestPendingAge() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getOldestPendingAge();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getShardCount</p>
+     *
+     * @return an int.
+     */
+    @Override
+    public int getShardCount() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getShardCount();
+        } else {
+            return 0;
+        }
+    }
+
 
 }
@@ -115,5 +115,17 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * <p>getOldestPendingAge</p>
+	 *
+	 * @return the age of the oldest pending update in milliseconds.
+	 */
+	public long getOldestPendingAge();
+	/**
+	 * <p>getShardCount</p>
+	 *
+	 * @return an int.
+	 */
+	public int getShardCount();
 
 }
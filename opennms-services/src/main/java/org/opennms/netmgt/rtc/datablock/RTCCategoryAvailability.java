@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.util.Arrays;
+
+import org.opennms.netmgt.rtc.RTCUtils;
+
+/**
+ * Keeps the running availability of a category over the rolling window, so
+ * that the value of the category can be computed without walking the outages
+ * of all of its services.
+ *
+ * The down time of the services that belong to the category is summed up in
+ * fixed time buckets: each bucket holds the integral of the number of services
+ * that were down during the bucket. The buckets that leave the rolling window
+ * are dropped as the time advances, and the down time of the outages that are
+ * still open accrues in the newest bucket. The oldest bucket only partially
+ * overlaps with the rolling window and is pro-rated, which bounds the error of
+ * the value to the down time of a single bucket.
+ *
+ * The time advances with the time of the outage events and of the queries.
+ *
+ * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
+ */
+public class RTCCategoryAvailability {
+
+    /**
+     * Default number of buckets in the rolling window, i.e. 5 minutes buckets
+     * for a 24 hours window
+     */
+    public static final int DEFAULT_BUCKETS = 288;
+
+    private final long m_rollingWindow;
+
+    private final long m_bucketWidth;
+
+    /**
+     * Number of buckets needed to cover the rolling window, the ring holds one
+     * more for the bucket that partially overlaps with the window
+     */
+    private final int m_numBuckets;
+
+    private final long[] m_buckets;
+
+    /**
+     * The sum of all of the buckets in the ring
+     */
+    private long m_total = 0;
+
+    /**
+     * The index of the newest bucket, i.e. the bucket containing m_time
+     */
+    private long m_current;
+
+    /**
+     * The time up to which the buckets are filled
+     */
+    private long m_time = Long.MIN_VALUE;
+
+    /**
+     * The number of open outages
+     */
+    private int m_down = 0;
+
+    /**
+     * The number of services in the category
+     */
+    private int m_services = 0;
+
+    /**
+     * <p>Constructor for RTCCategoryAvailability.</p>
+     *
+     * @param rollingWindow the rolling window in milliseconds
+     */
+    public RTCCategoryAvailability(long rollingWindow) {
+        this(rollingWindow, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * <p>Constructor for RTCCategoryAvailability.</p>
+     *
+     * @param rollingWindow the rolling window in milliseconds
+     * @param buckets the number of buckets in the rolling window
+     */
+    public RTCCategoryAvailability(long rollingWindow, int buckets) {
+        if (rollingWindow <= 0) {
+            throw new IllegalArgumentException("Rolling window must be positive: " + rollingWindow);
+        }
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be positive: " + buckets);
+        }
+        m_rollingWindow = rollingWindow;
+        m_bucketWidth = Math.max(1L, rollingWindow / buckets);
+        m_numBuckets = (int) ((rollingWindow + m_bucketWidth - 1) / m_bucketWidth);
+        m_buckets = new long[m_numBuckets + 1];
+    }
+
+    /**
+     * <p>getRollingWindow</p>
+     *
+     * @return the rolling window in milliseconds
+     */
+    public long getRollingWindow() {
+        return m_rollingWindow;
+    }
+
+    /**
+     * Add a service to the category, along with the outages it already has.
+     *
+     * @param node the service
+     */
+    public synchronized void addService(RTCNode node) {
+        m_services++;
+        for (RTCNodeSvcTime svcTime : node.getSvcTimes()) {
+            addOutage(svcTime.getLostTime(), svcTime.getRegainedTime(), 1);
+        }
+    }
+
+    /**
+     * Remove a service from the category, along with its outages.
+     *
+     * @param node the service
+     */
+    public synchronized void removeService(RTCNode node) {
+        m_services--;
+        for (RTCNodeSvcTime svcTime : node.getSvcTimes()) {
+            addOutage(svcTime.getLostTime(), svcTime.getRegainedTime(), -1);
+        }
+    }
+
+    /**
+     * Add an outage of a service of the category.
+     *
+     * @param lostTime the time at which the service was lost
+     * @param regainedTime the time at which the service was regained, -1 if it is still down
+     */
+    public synchronized void addOutage(long lostTime, long regainedTime) {
+        addOutage(lostTime, regainedTime, 1);
+    }
+
+    /**
+     * A service of the category has been lost.
+     *
+     * @param lostTime the time at which the service was lost
+     */
+    public synchronized void serviceLost(long lostTime) {
+        addOutage(lostTime, -1, 1);
+    }
+
+    /**
+     * A service of the category has been regained, closing its open outage.
+     *
+     * @param regainedTime the time at which the service was regained
+     */
+    public synchronized void serviceRegained(long regainedTime) {
+        advance(regainedTime);
+        // the open outage has been accruing down time up to now
+        addRange(regainedTime, m_time, -1);
+        m_down--;
+    }
+
+    /**
+     * Get the value (uptime) for the category in the rolling window ending at
+     * the current time.
+     *
+     * @param curTime the current time
+     * @return the value (uptime) for the category
+     */
+    public synchronized double getValue(long curTime) {
+        return RTCUtils.getOutagePercentage(getDownTime(curTime), m_rollingWindow, m_services);
+    }
+
+    /**
+     * Get the total down time of the services of the category in the rolling
+     * window ending at the current time.
+     *
+     * @param curTime the current time
+     * @return the down time in milliseconds
+     */
+    public synchronized long getDownTime(long curTime) {
+        advance(curTime);
+
+        final long startTime = m_time - m_rollingWindow;
+        final long startBucket = Math.floorDiv(startTime, m_bucketWidth);
+
+        long downTime = m_total;
+        // drop the buckets that are entirely before the start of the window
+        for (long index = m_current - m_numBuckets; index < startBucket; index++) {
+            downTime -= m_buckets[slot(index)];
+        }
+        // and pro-rate the one that contains it
+        final long before = startTime - startBucket * m_bucketWidth;
+        if (before > 0) {
+            downTime -= (long) ((double) m_buckets[slot(startBucket)] * before / m_bucketWidth);
+        }
+        return Math.max(0, downTime);
+    }
+
+    /**
+     * <p>getServiceCount</p>
+     *
+     * @return the number of services in the category
+     */
+    public synchronized int getServiceCount() {
+        return m_services;
+    }
+
+    /**
+     * <p>getServiceDownCount</p>
+     *
+     * @return the number of services of the category which are currently down
+     */
+    public synchronized int getServiceDownCount() {
+        return m_down;
+    }
+
+    private void addOutage(long lostTime, long regainedTime, int delta) {
+        if (regainedTime <= 0) {
+            advance(lostTime);
+            addRange(lostTime, m_time, delta);
+            m_down += delta;
+        } else {
+            advance(regainedTime);
+            addRange(lostTime, regainedTime, delta);
+        }
+    }
+
+    /**
+     * Move the time forward, dropping the buckets that are no longer needed
+     * and accruing the down time of the open outages.
+     */
+    private void advance(long time) {
+        if (m_time == Long.MIN_VALUE) {
+            m_time = time;
+            m_current = Math.floorDiv(time, m_bucketWidth);
+            return;
+        }
+        if (time <= m_time) {
+            return;
+        }
+
+        final long current = Math.floorDiv(time, m_bucketWidth);
+        if (current - m_current > m_numBuckets) {
+            Arrays.fill(m_buckets, 0);
+            m_total = 0;
+        } else {
+            for (long index = m_current + 1; index <= current; index++) {
+                final int slot = slot(index);
+                m_total -= m_buckets[slot];
+                m_buckets[slot] = 0;
+            }
+        }
+        m_current = current;
+
+        final long from = m_time;
+        m_time = time;
+        addRange(from, time, m_down);
+    }
+
+    /**
+     * Add count times the down time between from and to to the buckets.
+     * Anything outside of the ring is ignored.
+     */
+    private void addRange(long from, long to, long count) {
+        if (count == 0) {
+            return;
+        }
+        final long ringStart = (m_current - m_numBuckets) * m_bucketWidth;
+        final long start = Math.max(from, ringStart);
+        final long end = Math.min(to, m_time);
+        if (start >= end) {
+            return;
+        }
+
+        for (long index = Math.floorDiv(start, m_bucketWidth); index * m_bucketWidth < end; index++) {
+            final long bucketStart = index * m_bucketWidth;
+            final long amount = (Math.min(end, bucketStart + m_bucketWidth) - Math.max(start, bucketStart)) * count;
+            m_buckets[slot(index)] += amount;
+            m_total += amount;
+        }
+    }
+
+    private int slot(long index) {
+        return (int) Math.floorMod(index, (long) m_buckets.length);
+    }
+}
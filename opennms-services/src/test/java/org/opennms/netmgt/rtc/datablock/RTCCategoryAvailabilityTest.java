@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RTCCategoryAvailabilityTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private static final long WINDOW = 24L * HOUR;
+
+    private static final long BUCKET = WINDOW / RTCCategoryAvailability.DEFAULT_BUCKETS;
+
+    private final long m_now = 1000L * WINDOW;
+
+    @Test
+    public void testNoOutages() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        assertEquals(100.0, availability.getValue(m_now), 0.0);
+
+        availability.addService(node(1));
+        availability.addService(node(2));
+        assertEquals(100.0, availability.getValue(m_now), 0.0);
+        assertEquals(2, availability.getServiceCount());
+        assertEquals(0, availability.getServiceDownCount());
+    }
+
+    @Test
+    public void testClosedOutage() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        availability.addService(node(1));
+        availability.addService(node(2));
+        availability.addOutage(m_now - 2 * HOUR, m_now - HOUR);
+
+        assertEquals(HOUR, availability.getDownTime(m_now));
+        assertEquals(100.0 * (1.0 - 1.0 / 48.0), availability.getValue(m_now), 0.0001);
+    }
+
+    @Test
+    public void testOpenOutage() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        final RTCNode node = node(1);
+        availability.addService(node);
+
+        node.nodeLostService(m_now - HOUR);
+        availability.serviceLost(m_now - HOUR);
+        assertEquals(1, availability.getServiceDownCount());
+        assertEquals(HOUR, availability.getDownTime(m_now));
+        assertEquals(2 * HOUR, availability.getDownTime(m_now + HOUR));
+
+        node.nodeRegainedService(m_now + 90 * 60 * 1000L);
+        availability.serviceRegained(m_now + 90 * 60 * 1000L);
+        assertEquals(0, availability.getServiceDownCount());
+        assertEquals(150 * 60 * 1000L, availability.getDownTime(m_now + 2 * HOUR));
+
+        // the outage leaves the window
+        assertEquals(0, availability.getDownTime(m_now + 26 * HOUR));
+
+        availability.removeService(node);
+        assertEquals(0, availability.getServiceCount());
+        assertEquals(100.0, availability.getValue(m_now + 26 * HOUR), 0.0);
+    }
+
+    @Test
+    public void testServiceDownForTheWholeWindow() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        availability.addService(node(1));
+        availability.serviceLost(m_now - 3 * WINDOW);
+
+        assertEquals(WINDOW, availability.getDownTime(m_now));
+        assertEquals(0.0, availability.getValue(m_now), 0.0);
+        assertEquals(WINDOW, availability.getDownTime(m_now + 5 * WINDOW));
+    }
+
+    @Test
+    public void testRemoveServiceWithOutages() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        final RTCNode node = node(1);
+        node.addSvcTime(m_now - 3 * HOUR, m_now - 2 * HOUR);
+        node.nodeLostService(m_now - HOUR);
+        availability.addService(node);
+        availability.addService(node(2));
+
+        assertEquals(2 * HOUR, availability.getDownTime(m_now));
+        assertEquals(1, availability.getServiceDownCount());
+
+        availability.removeService(node);
+        assertEquals(0, availability.getDownTime(m_now + HOUR));
+        assertEquals(0, availability.getServiceDownCount());
+        assertEquals(1, availability.getServiceCount());
+    }
+
+    @Test
+    public void testOutagesReceivedOutOfOrder() {
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        availability.addService(node(1));
+        availability.getDownTime(m_now);
+
+        // an outage which was resolved before the last query
+        availability.serviceLost(m_now - 2 * HOUR);
+        availability.serviceRegained(m_now - HOUR);
+        assertEquals(HOUR, availability.getDownTime(m_now));
+    }
+
+    @Test
+    public void testMatchesOutageLists() {
+        final Random random = new Random(42);
+        final RTCCategoryAvailability availability = new RTCCategoryAvailability(WINDOW);
+        final List<RTCNodeSvcTimesList> services = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            services.add(new RTCNodeSvcTimesList(WINDOW));
+            availability.addService(node(i));
+        }
+
+        long time = m_now;
+        for (int i = 0; i < 2000; i++) {
+            time += random.nextInt((int) HOUR / 4);
+            final RTCNodeSvcTimesList service = services.get(random.nextInt(services.size()));
+            final RTCNodeSvcTime last = service.isEmpty() ? null : service.getLast();
+            if (last == null || last.getRegainedTime() != -1) {
+                service.add(new RTCNodeSvcTime(time));
+                availability.serviceLost(time);
+            } else {
+                last.setRegainedTime(time);
+                availability.serviceRegained(time);
+            }
+
+            if (i % 10 == 0) {
+                long expected = 0;
+                for (RTCNodeSvcTimesList s : services) {
+                    expected += s.getDownTime(time, WINDOW);
+                }
+                // only the bucket at the start of the window is approximated
+                assertEquals(expected, availability.getDownTime(time), services.size() * BUCKET);
+            }
+        }
+    }
+
+    private static RTCNode node(int nodeid) {
+        return new RTCNode(nodeid, InetAddress.getLoopbackAddress(), "ICMP", WINDOW);
+    }
+}
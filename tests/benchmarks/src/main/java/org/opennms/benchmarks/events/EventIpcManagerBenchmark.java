@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.events.api.EventHandler;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.eventd.EventIpcManagerDefaultImpl;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures {@link EventIpcManagerDefaultImpl#broadcastNow(Event, boolean)} with a
+ * listener layout similar to a running system: a few listeners registered for all
+ * events, many listeners registered for specific UEIs and some registered for UEI
+ * prefixes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventIpcManagerBenchmark {
+
+    private static final String UEI_PREFIX = "uei.opennms.org/benchmark/";
+
+    @Param({"false", "true"})
+    public boolean synchronous;
+
+    @Param({"5"})
+    public int numMatchAllListeners;
+
+    @Param({"30"})
+    public int numUeiListeners;
+
+    @Param({"100"})
+    public int numUeis;
+
+    private EventIpcManagerDefaultImpl eventIpcManager;
+
+    private final LongAdder received = new LongAdder();
+
+    private Event[] events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventIpcManager = new EventIpcManagerDefaultImpl(new MetricRegistry());
+        eventIpcManager.setHandlerPoolSize(5);
+        eventIpcManager.setHandlerQueueLength(100000);
+        eventIpcManager.setEventHandler(new EventHandler() {
+            @Override
+            public Runnable createRunnable(final Log eventLog) {
+                return () -> {};
+            }
+
+            @Override
+            public Runnable createRunnable(final Log eventLog, final boolean synchronous) {
+                return () -> {};
+            }
+        });
+        eventIpcManager.afterPropertiesSet();
+
+        final Random random = new Random(42);
+        for (int i = 0; i < numMatchAllListeners; i++) {
+            eventIpcManager.addEventListener(new CountingEventListener("all-" + i));
+        }
+        for (int i = 0; i < numUeiListeners; i++) {
+            final List<String> ueis = new ArrayList<>();
+            if (i % 10 == 0) {
+                // Directory style match on the prefix
+                ueis.add(UEI_PREFIX + "group" + (i % 3) + "/");
+            } else {
+                for (int j = 0; j < 5; j++) {
+                    ueis.add(uei(random.nextInt(numUeis)));
+                }
+            }
+            eventIpcManager.addEventListener(new CountingEventListener("uei-" + i), ueis);
+        }
+
+        events = new Event[1024];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new EventBuilder(uei(random.nextInt(numUeis)), "benchmark")
+                    .setNodeid(random.nextInt(10000) + 1)
+                    .addParam("ifIndex", random.nextInt(48) + 1)
+                    .getEvent();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < numMatchAllListeners; i++) {
+            eventIpcManager.removeEventListener(new CountingEventListener("all-" + i));
+        }
+        for (int i = 0; i < numUeiListeners; i++) {
+            eventIpcManager.removeEventListener(new CountingEventListener("uei-" + i));
+        }
+    }
+
+    private static String uei(final int index) {
+        return UEI_PREFIX + "group" + (index % 3) + "/event" + index;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void broadcastNow(final ThreadIndex index) {
+        eventIpcManager.broadcastNow(events[index.next() & (events.length - 1)], synchronous);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index = 0;
+
+        public int next() {
+            return index++;
+        }
+    }
+
+    private class CountingEventListener implements EventListener {
+        private final String name;
+
+        private CountingEventListener(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(final Event e) {
+            received.increment();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof CountingEventListener && name.equals(((CountingEventListener) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+}
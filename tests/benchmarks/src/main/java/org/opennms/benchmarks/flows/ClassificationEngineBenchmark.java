@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.flows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.CompiledClassificationEngine;
+import org.opennms.netmgt.flows.classification.internal.DefaultClassificationEngine;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+/**
+ * Measures {@link ClassificationEngine#classify(ClassificationRequest)} against rule sets
+ * of different sizes, mixing port, port range, address and protocol rules.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassificationEngineBenchmark {
+
+    @Param({"100", "1000"})
+    public int numRules;
+
+    @Param({"default", "compiled"})
+    public String engineType;
+
+    private ClassificationEngine engine;
+
+    private ClassificationRequest[] requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+
+        final List<Rule> rules = new ArrayList<>(numRules);
+        for (int i = 0; i < numRules; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule" + i).withPosition(i);
+            switch (i % 5) {
+                case 0:
+                    builder.withDstPort(random.nextInt(10000));
+                    break;
+                case 1:
+                    final int start = random.nextInt(60000);
+                    builder.withDstPort(start + "-" + (start + random.nextInt(100)));
+                    break;
+                case 2:
+                    builder.withDstAddress("10." + random.nextInt(256) + ".*.*").withDstPort(random.nextInt(1024));
+                    break;
+                case 3:
+                    builder.withSrcPort(random.nextInt(1024)).withDstPort(random.nextInt(1024)).withProtocol("tcp");
+                    break;
+                default:
+                    builder.withSrcAddress("192.168." + random.nextInt(256) + ".*").withProtocol("udp");
+            }
+            rules.add(builder.build());
+        }
+        engine = "compiled".equals(engineType)
+                ? new CompiledClassificationEngine(() -> rules, FilterService.NOOP)
+                : new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+
+        requests = new ClassificationRequest[1024];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ClassificationRequest("Default",
+                    1024 + random.nextInt(60000),
+                    "192.168." + random.nextInt(256) + "." + random.nextInt(256),
+                    random.nextInt(4) == 0 ? random.nextInt(65536) : random.nextInt(1024),
+                    "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256),
+                    Protocols.getProtocol(random.nextBoolean() ? 6 : 17));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String classify(final ThreadIndex index) {
+        return engine.classify(requests[index.next() & (requests.length - 1)]);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index = 0;
+
+        public int next() {
+            return index++;
+        }
+    }
+}
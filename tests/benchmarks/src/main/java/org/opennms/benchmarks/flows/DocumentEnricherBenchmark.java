@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.flows;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.cache.CacheConfigBuilder;
+import org.opennms.core.soa.support.DefaultServiceRegistry;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.AssetRecordDao;
+import org.opennms.netmgt.dao.api.CategoryDao;
+import org.opennms.netmgt.dao.mock.AbstractMockDao;
+import org.opennms.netmgt.dao.mock.MockAssetRecordDao;
+import org.opennms.netmgt.dao.mock.MockCategoryDao;
+import org.opennms.netmgt.dao.mock.MockInterfaceToNodeCache;
+import org.opennms.netmgt.dao.mock.MockNodeDao;
+import org.opennms.netmgt.dao.mock.MockSessionUtils;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowSource;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.DefaultClassificationEngine;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.opennms.netmgt.flows.elastic.DocumentEnricher;
+import org.opennms.netmgt.flows.elastic.FlowDocument;
+import org.opennms.netmgt.flows.elastic.NodeInfoIndex;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures {@link DocumentEnricher#enrich} on batches of flows, covering the node
+ * lookups, the locality detection, the classification and the conversation key.
+ *
+ * The node lookups are answered by the mock DAOs, so this measures the enrichment
+ * itself and not the database. With the node index, the nodes are loaded once
+ * before the measurement, instead of through the node cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentEnricherBenchmark {
+
+    private static final String LOCATION = "Default";
+
+    @Param({"100"})
+    public int flowsPerBatch;
+
+    @Param({"4096"})
+    public int numAddresses;
+
+    @Param({"false", "true"})
+    public boolean nodeIndex;
+
+    private DocumentEnricher enricher;
+
+    private final FlowSource source = new FlowSource(LOCATION, "10.0.0.1", null);
+
+    private List<List<Flow>> batches;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+
+        // The mock node DAO saves the assets and categories of the nodes through the service registry
+        final MockNodeDao nodeDao = new MockNodeDao();
+        final MockAssetRecordDao assetRecordDao = new MockAssetRecordDao();
+        final MockCategoryDao categoryDao = new MockCategoryDao();
+        setServiceRegistry(nodeDao);
+        setServiceRegistry(assetRecordDao);
+        setServiceRegistry(categoryDao);
+        DefaultServiceRegistry.INSTANCE.register(assetRecordDao, AssetRecordDao.class);
+        DefaultServiceRegistry.INSTANCE.register(categoryDao, CategoryDao.class);
+
+        // Map a quarter of the addresses to nodes
+        final MockInterfaceToNodeCache interfaceToNodeCache = new MockInterfaceToNodeCache();
+        final String[] addresses = new String[numAddresses];
+        for (int i = 0; i < numAddresses; i++) {
+            addresses[i] = (i % 2 == 0 ? "10.1." : "198.51.") + (i / 256 % 256) + "." + (i % 256);
+            if (i % 4 == 0) {
+                final OnmsNode node = new OnmsNode();
+                node.setId(i + 1);
+                node.setForeignSource("benchmark");
+                node.setForeignId(Integer.toString(i + 1));
+                nodeDao.save(node);
+                new OnmsIpInterface(InetAddressUtils.addr(addresses[i]), node);
+                interfaceToNodeCache.setNodeId(LOCATION, InetAddressUtils.addr(addresses[i]), node.getId());
+            }
+        }
+        interfaceToNodeCache.setNodeId(LOCATION, InetAddressUtils.addr(source.getSourceAddress()), 1);
+        new OnmsIpInterface(InetAddressUtils.addr(source.getSourceAddress()), nodeDao.get(1));
+
+        final DefaultClassificationEngine classificationEngine = new DefaultClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("ssh").withDstPort("22").withProtocol("tcp").withPosition(1).build(),
+                new RuleBuilder().withName("http").withDstPort("80").withProtocol("tcp,udp").withPosition(2).build(),
+                new RuleBuilder().withName("https").withDstPort("443").withProtocol("tcp,udp").withPosition(3).build(),
+                new RuleBuilder().withName("dns").withDstPort("53").withProtocol("udp").withPosition(4).build(),
+                new RuleBuilder().withName("http").withSrcPort("80").withProtocol("tcp,udp").withPosition(5).build(),
+                new RuleBuilder().withName("https").withSrcPort("443").withProtocol("tcp,udp").withPosition(6).build()
+        ), FilterService.NOOP);
+
+        NodeInfoIndex nodeInfoIndex = null;
+        if (nodeIndex) {
+            nodeInfoIndex = new NodeInfoIndex(new MetricRegistry(), nodeDao, new MockSessionUtils());
+            nodeInfoIndex.sync();
+        }
+
+        enricher = new DocumentEnricher(new MetricRegistry(), nodeDao, interfaceToNodeCache, new MockSessionUtils(), classificationEngine,
+                new CacheConfigBuilder()
+                        .withName("flows.node")
+                        .withMaximumSize(1000)
+                        .withExpireAfterWrite(300)
+                        .build(),
+                nodeInfoIndex);
+
+        final int[] ports = {22, 53, 80, 443, 8080, 3306};
+        batches = new ArrayList<>();
+        for (int b = 0; b < 64; b++) {
+            final List<Flow> flows = new ArrayList<>(flowsPerBatch);
+            for (int f = 0; f < flowsPerBatch; f++) {
+                flows.add(new SyntheticFlow(addresses[random.nextInt(numAddresses)],
+                        1024 + random.nextInt(60000),
+                        addresses[random.nextInt(numAddresses)],
+                        ports[random.nextInt(ports.length)],
+                        random.nextBoolean() ? 6 : 17,
+                        random.nextInt(1500000),
+                        random.nextInt(1000) + 1));
+            }
+            batches.add(flows);
+        }
+    }
+
+    private static void setServiceRegistry(final AbstractMockDao<?, ?> dao) {
+        try {
+            final Field field = AbstractMockDao.class.getDeclaredField("m_serviceRegistry");
+            field.setAccessible(true);
+            field.set(dao, DefaultServiceRegistry.INSTANCE);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<FlowDocument> enrich(final ThreadIndex index) {
+        return enricher.enrich(batches.get(index.next() & (batches.size() - 1)), source);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index = 0;
+
+        public int next() {
+            return index++;
+        }
+    }
+
+    private static class SyntheticFlow implements Flow {
+        private final long timestamp = System.currentTimeMillis();
+        private final String srcAddr;
+        private final int srcPort;
+        private final String dstAddr;
+        private final int dstPort;
+        private final int protocol;
+        private final long bytes;
+        private final long packets;
+
+        private SyntheticFlow(final String srcAddr, final int srcPort, final String dstAddr, final int dstPort,
+                              final int protocol, final long bytes, final long packets) {
+            this.srcAddr = srcAddr;
+            this.srcPort = srcPort;
+            this.dstAddr = dstAddr;
+            this.dstPort = dstPort;
+            this.protocol = protocol;
+            this.bytes = bytes;
+            this.packets = packets;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public Direction getDirection() {
+            return Direction.INGRESS;
+        }
+
+        @Override
+        public String getDstAddr() {
+            return dstAddr;
+        }
+
+        @Override
+        public Optional<String> getDstAddrHostname() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Long getDstAs() {
+            return 0L;
+        }
+
+        @Override
+        public Integer getDstMaskLen() {
+            return 24;
+        }
+
+        @Override
+        public Integer getDstPort() {
+            return dstPort;
+        }
+
+        @Override
+        public Integer getEngineId() {
+            return 0;
+        }
+
+        @Override
+        public Integer getEngineType() {
+            return 0;
+        }
+
+        @Override
+        public Long getDeltaSwitched() {
+            return timestamp - 60000;
+        }
+
+        @Override
+        public Long getFirstSwitched() {
+            return timestamp - 60000;
+        }
+
+        @Override
+        public int getFlowRecords() {
+            return 1;
+        }
+
+        @Override
+        public long getFlowSeqNum() {
+            return 0;
+        }
+
+        @Override
+        public Integer getInputSnmp() {
+            return 1;
+        }
+
+        @Override
+        public Integer getIpProtocolVersion() {
+            return 4;
+        }
+
+        @Override
+        public Long getLastSwitched() {
+            return timestamp;
+        }
+
+        @Override
+        public String getNextHop() {
+            return "0.0.0.0";
+        }
+
+        @Override
+        public Optional<String> getNextHopHostname() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Integer getOutputSnmp() {
+            return 2;
+        }
+
+        @Override
+        public Long getPackets() {
+            return packets;
+        }
+
+        @Override
+        public Integer getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public SamplingAlgorithm getSamplingAlgorithm() {
+            return SamplingAlgorithm.Unassigned;
+        }
+
+        @Override
+        public Double getSamplingInterval() {
+            return 0.0;
+        }
+
+        @Override
+        public String getSrcAddr() {
+            return srcAddr;
+        }
+
+        @Override
+        public Optional<String> getSrcAddrHostname() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Long getSrcAs() {
+            return 0L;
+        }
+
+        @Override
+        public Integer getSrcMaskLen() {
+            return 24;
+        }
+
+        @Override
+        public Integer getSrcPort() {
+            return srcPort;
+        }
+
+        @Override
+        public Integer getTcpFlags() {
+            return 0;
+        }
+
+        @Override
+        public Integer getTos() {
+            return 0;
+        }
+
+        @Override
+        public NetflowVersion getNetflowVersion() {
+            return NetflowVersion.V9;
+        }
+
+        @Override
+        public Integer getVlan() {
+            return null;
+        }
+
+        @Override
+        public String getNodeIdentifier() {
+            return null;
+        }
+    }
+}
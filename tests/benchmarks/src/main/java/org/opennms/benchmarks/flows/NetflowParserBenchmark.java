@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.flows;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.distributed.core.api.Identity;
+import org.opennms.netmgt.dnsresolver.api.DnsResolver;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.IpfixUdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Netflow9UdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.UdpParserBase;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.buffer.Unpooled;
+
+/**
+ * Measures the Netflow v9 and IPFIX UDP parsers, including record enrichment and
+ * serialization, on synthetic packets.
+ *
+ * The templates are sent once during the setup, so the measured packets only
+ * contain data sets, as is the case for most of the packets received from an exporter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetflowParserBenchmark {
+
+    private static final int TEMPLATE_ID = 256;
+
+    private static final long DOMAIN_ID = 1;
+
+    // Netflow v9 field types and lengths - IPFIX shares the same numbers for these elements
+    private static final int[][] NETFLOW9_FIELDS = {
+            {8, 4}, {12, 4}, {7, 2}, {11, 2}, {4, 1}, {5, 1}, {6, 1}, {9, 1},
+            {1, 4}, {2, 4}, {22, 4}, {21, 4}, {10, 2}, {14, 2}
+    };
+
+    // IPFIX uses flowStartMilliseconds (152) and flowEndMilliseconds (153) instead of the sysUpTime offsets
+    private static final int[][] IPFIX_FIELDS = {
+            {8, 4}, {12, 4}, {7, 2}, {11, 2}, {4, 1}, {5, 1}, {6, 1}, {9, 1},
+            {1, 4}, {2, 4}, {152, 8}, {153, 8}, {10, 2}, {14, 2}
+    };
+
+    @Param({"NETFLOW9", "IPFIX"})
+    public String protocol;
+
+    @Param({"24"})
+    public int recordsPerPacket;
+
+    private final InetSocketAddress remoteAddress = new InetSocketAddress("10.0.0.1", 50000);
+
+    private final InetSocketAddress localAddress = new InetSocketAddress("10.0.0.2", 4738);
+
+    private ScheduledExecutorService executorService;
+
+    private UdpParserBase parser;
+
+    private byte[][] packets;
+
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final boolean ipfix = "IPFIX".equals(protocol);
+
+        final AsyncDispatcher<TelemetryMessage> dispatcher = new AsyncDispatcher<TelemetryMessage>() {
+            @Override
+            public CompletableFuture<TelemetryMessage> send(final TelemetryMessage message) {
+                return CompletableFuture.completedFuture(message);
+            }
+
+            @Override
+            public int getQueueSize() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        if (ipfix) {
+            parser = new IpfixUdpParser("benchmark", dispatcher, EVENT_FORWARDER, IDENTITY, DNS_RESOLVER, new MetricRegistry());
+        } else {
+            parser = new Netflow9UdpParser("benchmark", dispatcher, EVENT_FORWARDER, IDENTITY, DNS_RESOLVER, new MetricRegistry());
+        }
+        parser.setDnsLookupsEnabled(false);
+        parser.setThreads(Runtime.getRuntime().availableProcessors());
+
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        parser.start(executorService);
+
+        // Publish the templates
+        final byte[] templatePacket = ipfix ? ipfixPacket(ipfixTemplateSet(), 0) : netflow9Packet(netflow9TemplateSet(), 1, 0);
+        parser.parse(Unpooled.wrappedBuffer(templatePacket), remoteAddress, localAddress).get();
+
+        final Random random = new Random(42);
+        packets = new byte[64][];
+        for (int i = 0; i < packets.length; i++) {
+            final byte[] dataSet = dataSet(random, ipfix ? IPFIX_FIELDS : NETFLOW9_FIELDS, recordsPerPacket);
+            packets[i] = ipfix ? ipfixPacket(dataSet, i + 1) : netflow9Packet(dataSet, recordsPerPacket, i + 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        parser.stop();
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    public Object parse() throws Exception {
+        final byte[] packet = packets[index++ & (packets.length - 1)];
+        return parser.parse(Unpooled.wrappedBuffer(packet), remoteAddress, localAddress).get();
+    }
+
+    private static byte[] netflow9Packet(final byte[] flowSet, final int count, final long sequenceNumber) {
+        final ByteBuffer buffer = ByteBuffer.allocate(20 + flowSet.length);
+        buffer.putShort((short) 9);
+        buffer.putShort((short) count);
+        buffer.putInt((int) TimeUnit.HOURS.toMillis(1));
+        buffer.putInt((int) (System.currentTimeMillis() / 1000));
+        buffer.putInt((int) sequenceNumber);
+        buffer.putInt((int) DOMAIN_ID);
+        buffer.put(flowSet);
+        return buffer.array();
+    }
+
+    private static byte[] ipfixPacket(final byte[] set, final long sequenceNumber) {
+        final ByteBuffer buffer = ByteBuffer.allocate(16 + set.length);
+        buffer.putShort((short) 10);
+        buffer.putShort((short) (16 + set.length));
+        buffer.putInt((int) (System.currentTimeMillis() / 1000));
+        buffer.putInt((int) sequenceNumber);
+        buffer.putInt((int) DOMAIN_ID);
+        buffer.put(set);
+        return buffer.array();
+    }
+
+    private static byte[] netflow9TemplateSet() {
+        return templateSet(0, NETFLOW9_FIELDS);
+    }
+
+    private static byte[] ipfixTemplateSet() {
+        return templateSet(2, IPFIX_FIELDS);
+    }
+
+    private static byte[] templateSet(final int setId, final int[][] fields) {
+        final int length = 4 + 4 + fields.length * 4;
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putShort((short) setId);
+        buffer.putShort((short) length);
+        buffer.putShort((short) TEMPLATE_ID);
+        buffer.putShort((short) fields.length);
+        for (final int[] field : fields) {
+            buffer.putShort((short) field[0]);
+            buffer.putShort((short) field[1]);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] dataSet(final Random random, final int[][] fields, final int records) {
+        int recordLength = 0;
+        for (final int[] field : fields) {
+            recordLength += field[1];
+        }
+        // Pad the set to a multiple of four bytes
+        final int length = (4 + recordLength * records + 3) & ~3;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putShort((short) TEMPLATE_ID);
+        buffer.putShort((short) length);
+        final long now = System.currentTimeMillis();
+        for (int r = 0; r < records; r++) {
+            for (final int[] field : fields) {
+                switch (field[0]) {
+                    case 8: // sourceIPv4Address
+                        buffer.putInt(0x0A000000 | random.nextInt(0x10000));
+                        break;
+                    case 12: // destinationIPv4Address
+                        buffer.putInt(0xC0A80000 | random.nextInt(0x10000));
+                        break;
+                    case 7: // sourceTransportPort
+                        buffer.putShort((short) (1024 + random.nextInt(60000)));
+                        break;
+                    case 11: // destinationTransportPort
+                        buffer.putShort((short) (random.nextBoolean() ? 443 : random.nextInt(1024)));
+                        break;
+                    case 4: // protocolIdentifier
+                        buffer.put((byte) (random.nextInt(4) == 0 ? 17 : 6));
+                        break;
+                    case 9: // sourceIPv4PrefixLength
+                        buffer.put((byte) 16);
+                        break;
+                    case 1: // octetDeltaCount
+                        buffer.putInt(random.nextInt(1500000));
+                        break;
+                    case 2: // packetDeltaCount
+                        buffer.putInt(random.nextInt(1000) + 1);
+                        break;
+                    case 22: // first switched
+                        buffer.putInt((int) TimeUnit.MINUTES.toMillis(59));
+                        break;
+                    case 21: // last switched
+                        buffer.putInt((int) TimeUnit.HOURS.toMillis(1));
+                        break;
+                    case 152: // flowStartMilliseconds
+                        buffer.putLong(now - 60000);
+                        break;
+                    case 153: // flowEndMilliseconds
+                        buffer.putLong(now);
+                        break;
+                    case 10: // ingressInterface
+                    case 14: // egressInterface
+                        buffer.putShort((short) (random.nextInt(48) + 1));
+                        break;
+                    default:
+                        buffer.put(new byte[field[1]]);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static final EventForwarder EVENT_FORWARDER = new EventForwarder() {
+        @Override
+        public void sendNow(final Event event) {
+        }
+
+        @Override
+        public void sendNow(final Log eventLog) {
+        }
+
+        @Override
+        public void sendNowSync(final Event event) {
+        }
+
+        @Override
+        public void sendNowSync(final Log eventLog) {
+        }
+    };
+
+    private static final Identity IDENTITY = new Identity() {
+        @Override
+        public String getId() {
+            return "benchmark";
+        }
+
+        @Override
+        public String getLocation() {
+            return "Default";
+        }
+
+        @Override
+        public String getType() {
+            return "OpenNMS";
+        }
+    };
+
+    private static final DnsResolver DNS_RESOLVER = new DnsResolver() {
+        @Override
+        public CompletableFuture<Optional<InetAddress>> lookup(final String hostname) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> reverseLookup(final InetAddress inetAddress) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    };
+}
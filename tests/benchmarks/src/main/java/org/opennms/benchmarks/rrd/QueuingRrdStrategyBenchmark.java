@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.rrd;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.rrd.NullRrdStrategy;
+import org.opennms.netmgt.rrd.QueuingRrdStrategy;
+
+/**
+ * Measures the enqueueing of updates in the {@link QueuingRrdStrategy}, with the write
+ * threads draining into a {@link NullRrdStrategy}.
+ *
+ * Half of the updates are zero values, which the strategy merges into zero update operations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueuingRrdStrategyBenchmark {
+
+    @Param({"10000"})
+    public int numFiles;
+
+    @Param({"4"})
+    public int writeThreads;
+
+    @Param({"0", "16"})
+    public int shards;
+
+    private QueuingRrdStrategy strategy;
+
+    private String[] files;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        strategy = new QueuingRrdStrategy(new NullRrdStrategy());
+        strategy.setWriteThreads(writeThreads);
+        strategy.setShards(shards);
+        strategy.setQueueHighWaterMark(1000000);
+        strategy.setWriteThreadSleepTime(10);
+        strategy.setWriteThreadExitDelay(60000);
+
+        files = new String[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            files[i] = "/opt/opennms/share/rrd/snmp/" + (i / 100) + "/ifInOctets" + i + ".jrb";
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void updateFile(final ThreadIndex index) throws Exception {
+        final int i = index.next();
+        final String data = (System.currentTimeMillis() / 1000) + ":" + ((i & 1) == 0 ? "0" : Integer.toString(i));
+        strategy.updateFile(files[Math.floorMod(i, files.length)], "benchmark", data);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index = (int) Thread.currentThread().getId() * 7919;
+
+        public int next() {
+            return index++;
+        }
+    }
+}
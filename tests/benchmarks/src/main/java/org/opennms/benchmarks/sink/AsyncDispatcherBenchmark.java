@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.sink;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.MessageConsumer;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.mock.MockMessageDispatcherFactory;
+import org.opennms.netmgt.dao.mock.MockDistPollerDao;
+import org.opennms.netmgt.syslogd.SyslogConfigBean;
+import org.opennms.netmgt.syslogd.SyslogSinkModule;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+
+/**
+ * Measures the throughput of {@link AsyncDispatcher#send} with several producer
+ * threads, using the {@link SyslogSinkModule} with and without batching.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncDispatcherBenchmark {
+
+    @Param({"1", "1000"})
+    public int batchSize;
+
+    @Param({"4"})
+    public int numThreads;
+
+    @Param({"10000"})
+    public int queueSize;
+
+    private MockMessageDispatcherFactory<SyslogConnection, SyslogMessageLogDTO> dispatcherFactory;
+
+    private AsyncDispatcher<SyslogConnection> dispatcher;
+
+    private final SyslogConnection[] messages = new SyslogConnection[1024];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < messages.length; i++) {
+            final String source = "10.1.0." + (i % 16 + 1);
+            final String message = "<190>Mar 11 08:35:17 " + source + " sshd[" + i + "]: Accepted publickey for admin from 10.0.0." + (i % 254 + 1);
+            messages[i] = new SyslogConnection(new InetSocketAddress(source, 514), ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        final SyslogConfigBean config = new SyslogConfigBean();
+        config.setBatchSize(batchSize);
+        config.setBatchIntervalMs(500);
+        config.setNumThreads(numThreads);
+        config.setQueueSize(queueSize);
+        final SyslogSinkModule module = new SyslogSinkModule(config, new MockDistPollerDao());
+
+        dispatcherFactory = new MockMessageDispatcherFactory<>();
+        dispatcherFactory.setConsumer(new CountingConsumer(module));
+        dispatcher = dispatcherFactory.createAsyncDispatcher(module);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        dispatcher.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CompletableFuture<SyslogConnection> send() {
+        return dispatcher.send(messages[(int)(Thread.currentThread().getId() & (messages.length - 1))]);
+    }
+
+    /**
+     * Counts the dispatched messages instead of handing them over to a broker.
+     */
+    private static class CountingConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO> {
+        private final SyslogSinkModule module;
+        private final LongAdder consumed = new LongAdder();
+
+        private CountingConsumer(final SyslogSinkModule module) {
+            this.module = module;
+        }
+
+        @Override
+        public SinkModule<SyslogConnection, SyslogMessageLogDTO> getModule() {
+            return module;
+        }
+
+        @Override
+        public void handleMessage(final SyslogMessageLogDTO messageLog) {
+            consumed.increment();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks.syslog;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.syslogd.RadixTreeSyslogParser;
+import org.opennms.netmgt.syslogd.SyslogMessage;
+
+/**
+ * Measures the {@link RadixTreeSyslogParser} on a mix of Cisco, BSD and RFC 5424 style messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyslogParserBenchmark {
+
+    private static final String[] MESSAGES = {
+            "<187>2765: .Jan  7 12:36:39: %LINK-3-UPDOWN: Interface GigabitEthernet0, changed state to up",
+            "<189>338: *Jan 17 17:05:36.608: %SYS-5-CONFIG_I: Configured from console by console",
+            "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+            "<13>Mar 11 08:35:17 10.1.0.1 sshd[1234]: Accepted publickey for admin from 10.0.0.5 port 51234 ssh2",
+            "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] An application event log entry",
+            "<1> 2018-10-12T10:34:43 localhost logmessage",
+            "<31>Jul 29 10:47:43 host1 kernel: [12345.678901] eth0: link up, 1000Mbps, full-duplex",
+            "<190>Sep 14 11:14:45 fw01 %ASA-6-302013: Built outbound TCP connection 123 for outside:192.0.2.1/443 (192.0.2.1/443) to inside:10.1.1.1/51234 (10.1.1.1/51234)"
+    };
+
+    private SyslogdConfigFactory config;
+
+    private byte[][] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final String configuration = "<syslogd-configuration><configuration syslog-port=\"10514\"/></syslogd-configuration>";
+        config = new SyslogdConfigFactory(new ByteArrayInputStream(configuration.getBytes(StandardCharsets.US_ASCII)));
+
+        messages = new byte[MESSAGES.length][];
+        for (int i = 0; i < MESSAGES.length; i++) {
+            messages[i] = MESSAGES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SyslogMessage parse(final ThreadIndex index) {
+        final byte[] message = messages[index.next() & (messages.length - 1)];
+        return new RadixTreeSyslogParser(config, ByteBuffer.wrap(message)).parse();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index = 0;
+
+        public int next() {
+            return index++;
+        }
+    }
+}